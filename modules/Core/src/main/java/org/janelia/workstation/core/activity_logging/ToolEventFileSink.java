@@ -0,0 +1,106 @@
+package org.janelia.workstation.core.activity_logging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends flushed tool events and statistics to a gzipped file of JSON lines per day, so that they
+ * are kept when the server cannot be reached. Each flush is appended as a separate gzip member, which
+ * gzip readers decompress as one stream. Files older than a month are deleted.
+ */
+class ToolEventFileSink {
+
+    private static final Logger log = LoggerFactory.getLogger(ToolEventFileSink.class);
+
+    private static final String FILE_PREFIX = "tool-events-";
+    private static final String FILE_SUFFIX = ".jsonl.gz";
+    private static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(31);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Path dir;
+    private boolean cleanedUp;
+
+    ToolEventFileSink(Path dir) {
+        this.dir = dir;
+    }
+
+    Path getFile(long time) {
+        return dir.resolve(FILE_PREFIX + new SimpleDateFormat("yyyy-MM-dd").format(new Date(time)) + FILE_SUFFIX);
+    }
+
+    void write(long flushTime, List<ToolEventPipeline.ToolEvent> events, Collection<ToolEventStats> summaries,
+               long dropped) throws IOException {
+        Files.createDirectories(dir);
+        if (!cleanedUp) {
+            deleteOldFiles(flushTime);
+            cleanedUp = true;
+        }
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(getFile(flushTime),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024)) {
+            for (ToolEventPipeline.ToolEvent event : events) {
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("type", "event");
+                line.put("tool", event.getTool());
+                line.put("category", event.getCategory());
+                line.put("action", event.getAction());
+                line.put("timestamp", event.getTimestamp());
+                line.put("elapsedMs", event.getElapsedMs());
+                writeLine(out, line);
+            }
+            for (ToolEventStats stats : summaries) {
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("type", "summary");
+                line.put("timestamp", flushTime);
+                line.put("tool", stats.getTool());
+                line.put("category", stats.getCategory());
+                line.put("count", stats.getCount());
+                line.put("totalCount", stats.getTotalCount());
+                line.put("meanMs", stats.getMeanMs());
+                line.put("minMs", stats.getMinMs());
+                line.put("maxMs", stats.getMaxMs());
+                line.put("histogram", stats.getHistogram());
+                writeLine(out, line);
+            }
+            if (dropped > 0) {
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("type", "dropped");
+                line.put("timestamp", flushTime);
+                line.put("count", dropped);
+                writeLine(out, line);
+            }
+        }
+    }
+
+    private void writeLine(OutputStream out, Map<String, Object> line) throws IOException {
+        out.write(mapper.writeValueAsBytes(line));
+        out.write('\n');
+    }
+
+    private void deleteOldFiles(long now) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < now - RETENTION_MILLIS) {
+                    Files.delete(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete old tool event files in {}", dir, e);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package org.janelia.workstation.core.activity_logging;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.janelia.workstation.integration.activity_logging.CategoryString;
+import org.janelia.workstation.integration.activity_logging.ToolString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects tool events from any thread, with as little work as possible on the thread logging them.
+ * <p>
+ * Events are put on a lock-free ring, which a background thread drains every second. Draining counts
+ * each event in the statistics of its category, and selects the events which are worth sending on:
+ * those which took longer than their threshold, and every LOG_GRANULARITY-th event of each category
+ * (unless the event is only logged above its threshold). The action of an event may be given as a
+ * supplier, which is only called for the selected events. The selected events and the statistics
+ * are flushed in batches on a timer, to the remote sink and to compressed files on local disk.
+ */
+public class ToolEventPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(ToolEventPipeline.class);
+
+    public static final int LOG_GRANULARITY = 100;
+
+    private static final int DEFAULT_RING_SIZE = ConsoleProperties.getInt("console.metrics.ringSize", 64 * 1024);
+    private static final int DEFAULT_FLUSH_SECONDS = ConsoleProperties.getInt("console.metrics.flushSeconds", 30);
+    private static final boolean DEFAULT_LOCAL_SINK = ConsoleProperties.getBoolean("console.metrics.localSink", true);
+    private static final long DRAIN_MILLIS = 1000;
+
+    /**
+     * An event selected to be sent on.
+     */
+    public static class ToolEvent {
+
+        private final String tool;
+        private final String category;
+        private final String action;
+        private final long timestamp;
+        private final double elapsedMs;
+
+        ToolEvent(String tool, String category, String action, long timestamp, double elapsedMs) {
+            this.tool = tool;
+            this.category = category;
+            this.action = action;
+            this.timestamp = timestamp;
+            this.elapsedMs = elapsedMs;
+        }
+
+        public String getTool() {
+            return tool;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public double getElapsedMs() {
+            return elapsedMs;
+        }
+    }
+
+    /**
+     * Receives a batch of selected events on each flush.
+     */
+    public interface RemoteSink {
+        void send(List<ToolEvent> events) throws Exception;
+    }
+
+    private final ToolEventRing ring;
+    private final RemoteSink remoteSink;
+    private final ToolEventFileSink fileSink;
+    private final long flushMillis;
+    // only used while holding the lock on this pipeline
+    private final Map<String, Map<String, ToolEventStats>> statsByTool = new HashMap<>();
+    private List<ToolEvent> selectedEvents = new ArrayList<>();
+    private long droppedAtLastFlush;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> flushTask;
+
+    /**
+     * A pipeline configured by the console properties, writing its local files to the local cache directory.
+     */
+    public ToolEventPipeline(RemoteSink remoteSink) {
+        this(DEFAULT_RING_SIZE, remoteSink,
+                DEFAULT_LOCAL_SINK ? Paths.get(ConsoleProperties.getLocalCacheDir(), "metrics") : null,
+                TimeUnit.SECONDS.toMillis(DEFAULT_FLUSH_SECONDS));
+    }
+
+    /**
+     * @param localDir directory for the local files, or null to write none
+     */
+    public ToolEventPipeline(int ringSize, RemoteSink remoteSink, Path localDir, long flushMillis) {
+        this.ring = new ToolEventRing(ringSize);
+        this.remoteSink = remoteSink;
+        this.fileSink = localDir == null ? null : new ToolEventFileSink(localDir);
+        this.flushMillis = flushMillis;
+    }
+
+    /**
+     * Start draining and flushing in the background.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("ToolEventFlush-%d")
+                .setDaemon(true)
+                .build());
+        scheduler.scheduleWithFixedDelay(this::drainQuietly, DRAIN_MILLIS, DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+        flushTask = scheduler.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Flush what was recorded so far and stop the background thread.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            flushTask.cancel(false);
+            scheduler.shutdown();
+            scheduler = null;
+        }
+        flush();
+    }
+
+    /**
+     * Record an event. Never blocks; if the ring is full, the event is dropped.
+     *
+     * @param action an ActionString, or a Supplier of one, which is only called if the event is selected
+     * @param thresholdOnly select the event only if it took longer than the threshold
+     * @return false if the event was dropped
+     */
+    public boolean record(ToolString tool, CategoryString category, Object action, long timestamp,
+                          double elapsedMs, double thresholdMs, boolean thresholdOnly) {
+        return ring.offer(tool, category, action, timestamp, elapsedMs, thresholdMs, thresholdOnly);
+    }
+
+    /**
+     * Count the events recorded so far, and select those to send on.
+     *
+     * @return the number of events drained
+     */
+    public synchronized int drain() {
+        return ring.drain(this::aggregate);
+    }
+
+    private void aggregate(Object tool, Object category, Object action, long timestamp,
+                           double elapsedMs, double thresholdMs, boolean thresholdOnly) {
+        String toolName = String.valueOf(tool);
+        String categoryName = String.valueOf(category);
+        ToolEventStats stats = statsByTool
+                .computeIfAbsent(toolName, k -> new HashMap<>())
+                .computeIfAbsent(categoryName, k -> new ToolEventStats(toolName, categoryName));
+        long previousCount = stats.record(elapsedMs);
+        boolean selected = elapsedMs > thresholdMs || (!thresholdOnly && previousCount % LOG_GRANULARITY == 0);
+        // beyond this, the events are only counted until the next flush
+        if (selected && selectedEvents.size() < ring.getCapacity()) {
+            String actionText;
+            try {
+                actionText = String.valueOf(action instanceof Supplier ? ((Supplier<?>) action).get() : action);
+            } catch (RuntimeException e) {
+                log.warn("Failed to describe tool event for tool: {}, category: {}", toolName, categoryName, e);
+                return;
+            }
+            selectedEvents.add(new ToolEvent(toolName, categoryName, actionText, timestamp, elapsedMs));
+        }
+    }
+
+    /**
+     * Drain the ring and send the selected events and the statistics since the last flush to the sinks.
+     */
+    public synchronized void flush() {
+        drain();
+        List<ToolEvent> events = selectedEvents;
+        selectedEvents = new ArrayList<>();
+        List<ToolEventStats> summaries = new ArrayList<>();
+        for (Map<String, ToolEventStats> statsByCategory : statsByTool.values()) {
+            for (ToolEventStats stats : statsByCategory.values()) {
+                if (stats.getCount() > 0) {
+                    summaries.add(stats.snapshotAndReset());
+                }
+            }
+        }
+        long dropped = ring.getDroppedCount() - droppedAtLastFlush;
+        droppedAtLastFlush += dropped;
+        if (dropped > 0) {
+            log.warn("Dropped {} tool events, which were logged faster than they could be counted", dropped);
+        }
+
+        if (!events.isEmpty() && remoteSink != null) {
+            try {
+                remoteSink.send(events);
+            } catch (Exception e) {
+                log.warn("Failed to send {} tool events", events.size(), e);
+            }
+        }
+        if (fileSink != null && (!events.isEmpty() || !summaries.isEmpty())) {
+            try {
+                fileSink.write(System.currentTimeMillis(), events, summaries, dropped);
+            } catch (Exception e) {
+                log.warn("Failed to write {} tool events to local file", events.size(), e);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the statistics since the last flush, for every category seen so far
+     */
+    public synchronized Collection<ToolEventStats> getStats() {
+        drain();
+        List<ToolEventStats> copies = new ArrayList<>();
+        for (Map<String, ToolEventStats> statsByCategory : statsByTool.values()) {
+            for (ToolEventStats stats : statsByCategory.values()) {
+                copies.add(stats.copy());
+            }
+        }
+        return copies;
+    }
+
+    public long getDroppedCount() {
+        return ring.getDroppedCount();
+    }
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch (RuntimeException e) {
+            log.warn("Failed to drain tool events", e);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Failed to flush tool events", e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.janelia.workstation.core.activity_logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded queue of tool events, which any number of threads may add to without locking, and one
+ * thread at a time drains.
+ * <p>
+ * The fields of the events are kept in arrays allocated up front, so that adding an event allocates
+ * nothing. A producer claims a slot by advancing the head sequence, fills in the slot, and then
+ * publishes it by storing its sequence number for the slot. When the queue is full, events are dropped
+ * and counted, rather than making the producer wait.
+ */
+class ToolEventRing {
+
+    /**
+     * Receives the fields of each drained event.
+     */
+    interface EventConsumer {
+        void accept(Object tool, Object category, Object action, long timestamp,
+                    double elapsedMs, double thresholdMs, boolean thresholdOnly);
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final Object[] tools;
+    private final Object[] categories;
+    private final Object[] actions;
+    private final long[] timestamps;
+    private final double[] elapsedMs;
+    private final double[] thresholdMs;
+    private final boolean[] thresholdOnly;
+    // sequence of the event last published in each slot
+    private final AtomicLongArray published;
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    ToolEventRing(int capacity) {
+        this.capacity = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.tools = new Object[this.capacity];
+        this.categories = new Object[this.capacity];
+        this.actions = new Object[this.capacity];
+        this.timestamps = new long[this.capacity];
+        this.elapsedMs = new double[this.capacity];
+        this.thresholdMs = new double[this.capacity];
+        this.thresholdOnly = new boolean[this.capacity];
+        this.published = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * @return false if the queue was full, and the event was dropped
+     */
+    boolean offer(Object tool, Object category, Object action, long timestamp,
+                  double elapsed, double threshold, boolean onlyAboveThreshold) {
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= capacity) {
+                dropped.increment();
+                return false;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & mask;
+        tools[slot] = tool;
+        categories[slot] = category;
+        actions[slot] = action;
+        timestamps[slot] = timestamp;
+        elapsedMs[slot] = elapsed;
+        thresholdMs[slot] = threshold;
+        thresholdOnly[slot] = onlyAboveThreshold;
+        published.lazySet(slot, sequence);
+        return true;
+    }
+
+    /**
+     * Hand the published events to the consumer, in order. Stops at the first slot which was claimed
+     * but is not published yet; the next drain continues from there. Must not be called by more than
+     * one thread at a time.
+     *
+     * @return number of events drained
+     */
+    int drain(EventConsumer consumer) {
+        long sequence = tail;
+        int count = 0;
+        while (true) {
+            int slot = (int) sequence & mask;
+            if (published.get(slot) != sequence) {
+                break;
+            }
+            Object tool = tools[slot];
+            Object category = categories[slot];
+            Object action = actions[slot];
+            tools[slot] = null;
+            categories[slot] = null;
+            actions[slot] = null;
+            long timestamp = timestamps[slot];
+            double elapsed = elapsedMs[slot];
+            double threshold = thresholdMs[slot];
+            boolean onlyAboveThreshold = thresholdOnly[slot];
+            // free the slot before the consumer runs, which may take a while
+            tail = ++sequence;
+            count++;
+            consumer.accept(tool, category, action, timestamp, elapsed, threshold, onlyAboveThreshold);
+        }
+        return count;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+}
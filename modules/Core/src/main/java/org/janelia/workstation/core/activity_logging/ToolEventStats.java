@@ -0,0 +1,113 @@
+package org.janelia.workstation.core.activity_logging;
+
+import java.util.Arrays;
+
+/**
+ * Counts and timings of the events of one category of one tool, aggregated in process.
+ * <p>
+ * Elapsed times are counted in a histogram with power of two buckets: bucket 0 holds times under 1 ms,
+ * bucket i holds times from 2^(i-1) up to 2^i ms, and the last bucket holds everything longer.
+ */
+public class ToolEventStats {
+
+    public static final int HISTOGRAM_BUCKETS = 20;
+
+    private final String tool;
+    private final String category;
+    // all events since startup, which decides the sampling
+    private long totalCount;
+    // events since the last flush
+    private long count;
+    private double sumMs;
+    private double minMs = Double.MAX_VALUE;
+    private double maxMs;
+    private final long[] histogram = new long[HISTOGRAM_BUCKETS];
+
+    ToolEventStats(String tool, String category) {
+        this.tool = tool;
+        this.category = category;
+    }
+
+    private ToolEventStats(ToolEventStats other) {
+        this(other.tool, other.category);
+        this.totalCount = other.totalCount;
+        this.count = other.count;
+        this.sumMs = other.sumMs;
+        this.minMs = other.minMs;
+        this.maxMs = other.maxMs;
+        System.arraycopy(other.histogram, 0, histogram, 0, HISTOGRAM_BUCKETS);
+    }
+
+    /**
+     * @return the number of events counted before this one
+     */
+    long record(double elapsedMs) {
+        count++;
+        sumMs += elapsedMs;
+        minMs = Math.min(minMs, elapsedMs);
+        maxMs = Math.max(maxMs, elapsedMs);
+        histogram[getBucket(elapsedMs)]++;
+        return totalCount++;
+    }
+
+    static int getBucket(double elapsedMs) {
+        if (!(elapsedMs >= 1)) {
+            return 0; // includes NaN
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros((long) elapsedMs);
+        return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+    }
+
+    ToolEventStats copy() {
+        return new ToolEventStats(this);
+    }
+
+    /**
+     * @return a copy of the statistics since the last flush, after which they are reset
+     */
+    ToolEventStats snapshotAndReset() {
+        ToolEventStats snapshot = copy();
+        count = 0;
+        sumMs = 0;
+        minMs = Double.MAX_VALUE;
+        maxMs = 0;
+        Arrays.fill(histogram, 0);
+        return snapshot;
+    }
+
+    public String getTool() {
+        return tool;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSumMs() {
+        return sumMs;
+    }
+
+    public double getMinMs() {
+        return count == 0 ? 0 : minMs;
+    }
+
+    public double getMaxMs() {
+        return maxMs;
+    }
+
+    public double getMeanMs() {
+        return count == 0 ? 0 : sumMs / count;
+    }
+
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+}
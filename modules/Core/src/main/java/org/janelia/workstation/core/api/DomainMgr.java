@@ -112,8 +112,8 @@ public class DomainMgr {
             log.info("User changed to {}, clearing data caches", subject.getName());
             // Clear the user preferences, they'll be loaded on demand
             this.preferenceMap = null;
-            // Clear the current model cache
-            model.invalidateAll();
+            // Clear the current model cache, the local store is kept per user
+            model.invalidateAll(false);
         }
     }
 
@@ -2,6 +2,7 @@ package org.janelia.workstation.core.api;
 
 import com.google.common.cache.*;
 import com.google.common.collect.ComparisonChain;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.janelia.it.jacs.model.entity.json.JsonTask;
 import org.janelia.model.access.domain.search.DocumentSearchParams;
 import org.janelia.model.access.domain.search.DocumentSearchResults;
@@ -28,13 +29,24 @@ import org.janelia.workstation.core.events.model.*;
 import org.janelia.workstation.core.model.search.DomainObjectResultPage;
 import org.janelia.workstation.core.model.search.DomainObjectSearchResults;
 import org.janelia.workstation.core.util.ColorDepthUtils;
+import org.janelia.workstation.core.util.ConsoleProperties;
 import org.perf4j.LoggingStopWatch;
 import org.perf4j.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Implements a unified domain model for client-side operations. All changes to the model should go through this class, as well as any domain object accesses
@@ -63,6 +75,12 @@ public class DomainModel {
 
     private static final Logger log = LoggerFactory.getLogger(DomainModel.class);
     private static final boolean TIMER = log.isDebugEnabled();
+    private static final boolean STORE_ENABLED = ConsoleProperties.getBoolean("console.domain.storeEnabled", true);
+    private static final long STORE_BUDGET = 1024L * 1024 * ConsoleProperties.getLong("console.domain.storeMB", 256);
+    private static final String STORED_WORKSPACES = "workspaces";
+    private static final String STORED_ONTOLOGIES = "ontologies";
+    // objects served from the store within this time are revalidated together
+    private static final long REVALIDATION_DELAY_MILLIS = ConsoleProperties.getLong("console.domain.revalidationDelayMillis", 200);
 
     private final Object modelLock = new Object();
 
@@ -73,10 +91,29 @@ public class DomainModel {
     private final WorkspaceFacade workspaceFacade;
 
     private final Cache<Reference, DomainObject> objectCache;
+    private final DomainObjectLoader objectLoader;
     private Map<Reference, Workspace> workspaceCache;
     private Map<Reference, Ontology> ontologyCache;
     private Map<Reference, ContainerizedService> containerCache;
 
+    // local copies of objects from earlier sessions, served before the server is asked
+    private final Object storeLock = new Object();
+    private DomainObjectStore objectStore;
+    private String objectStoreSubjectKey;
+    private final ExecutorService storeWriter = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("DomainObjectStore-%d")
+            .setDaemon(true)
+            .build());
+    private final ScheduledExecutorService revalidationExecutor = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder()
+            .setNameFormat("DomainObjectRevalidation-%d")
+            .setDaemon(true)
+            .build());
+    private final Set<Reference> pendingRevalidation = new LinkedHashSet<>();
+    private boolean revalidationScheduled;
+    // stored copies which are being removed, or the whole store while it is being cleared, are not served
+    private final Set<Reference> discardedStoredRefs = ConcurrentHashMap.newKeySet();
+    private volatile boolean storeDiscarded;
+
     private final LoadingCache<DocumentSearchParams, DocumentSearchResults> cachedSearchResults = CacheBuilder.newBuilder()
             .maximumSize(20)
             .build(
@@ -105,6 +142,8 @@ public class DomainModel {
                 if (containerCache != null) containerCache.remove(id);
             }
         }).build();
+
+        this.objectLoader = new DomainObjectLoader(domainFacade::getDomainObjects, this::putIfChanged);
     }
 
     /**
@@ -220,6 +259,8 @@ public class DomainModel {
             }
         }
 
+        storeObjects(canonicalObjects);
+
         if (!invalidatedObjects.isEmpty()) {
             notifyDomainObjectsInvalidated(invalidatedObjects, invalidateTree);
         }
@@ -239,15 +280,28 @@ public class DomainModel {
     }
 
     /**
-     * Clear the entire cache without raising any events. This is basically only useful for changing logins.
+     * Clear the entire cache without raising any events. The local copies of objects are discarded as well,
+     * so that everything is fetched from the server again.
      */
     public void invalidateAll() {
+        invalidateAll(true);
+    }
+
+    /**
+     * Clear the entire cache without raising any events.
+     *
+     * @param discardStoredObjects false to keep serving local copies, e.g. when the store is for another user
+     */
+    void invalidateAll(boolean discardStoredObjects) {
         // Invalidating everything causes a lot of updates. We should only do it 
         // if the token is valid. 
         if (AccessManager.getAccessManager().getToken() == null) {
             throw new IllegalStateException("Cannot refresh when token is invalid");
         }
         log.info("Invalidating all objects");
+        if (discardStoredObjects) {
+            discardStoredObjects();
+        }
         synchronized (modelLock) {
             this.workspaceCache = null;
             this.ontologyCache = null;
@@ -293,6 +347,7 @@ public class DomainModel {
         if (workspaceCache != null) workspaceCache.remove(ref);
         if (ontologyCache != null) ontologyCache.remove(ref);
         if (containerCache != null) containerCache.remove(ref);
+        removeStoredObjects(Collections.singletonList(ref));
 
         // Reload the domain object and stick it into the cache
         DomainObject canonicalDomainObject;
@@ -351,7 +406,14 @@ public class DomainModel {
             log.warn("getDomainObject called on EDT for {} which cannot be found in the cache.", ref);
             return null;
         }
-        return putOrUpdate((T) loadDomainObject(ref));
+        domainObject = getStoredObjects(Collections.singletonList(ref)).get(ref);
+        if (domainObject != null) {
+            log.debug("getEntityById: returning stored domain object {}", DomainUtils.identify(domainObject));
+            return (T) domainObject;
+        }
+        DomainObjectLoader.LoadMetrics metrics = new DomainObjectLoader.LoadMetrics();
+        metrics.recordCacheLookup(1, 0);
+        return (T) objectLoader.load(Collections.singletonList(ref), metrics).get(ref);
     }
 
     public List<DomainObject> getDomainObjects(List<Reference> references) throws Exception {
@@ -411,29 +473,36 @@ public class DomainModel {
         }
 
         if (!unsatisfiedRefs.isEmpty()) {
-            List<DomainObject> objects = domainFacade.getDomainObjects(unsatisfiedRefs);
-            List<T> classObjects = new ArrayList<>();
-            for (DomainObject domainObject : objects) {
-                classObjects.add((T) domainObject);
+            Map<Reference, DomainObject> storedObjects = getStoredObjects(unsatisfiedRefs);
+            for (Map.Entry<Reference, DomainObject> entry : storedObjects.entrySet()) {
+                map.put(entry.getKey(), (T) entry.getValue());
+            }
+            unsatisfiedRefs.removeAll(storedObjects.keySet());
+        }
+
+        DomainObjectLoader.LoadMetrics metrics = new DomainObjectLoader.LoadMetrics();
+        metrics.recordCacheLookup(references.size(), map.size());
+        if (!unsatisfiedRefs.isEmpty()) {
+            // fetched objects are already canonical
+            for (Map.Entry<Reference, DomainObject> entry : objectLoader.load(unsatisfiedRefs, metrics).entrySet()) {
+                map.put(entry.getKey(), (T) entry.getValue());
             }
-            map.putAll(DomainUtils.getMapByReference(classObjects));
         }
 
         unsatisfiedRefs.clear();
 
-        List<T> domainObjects = new ArrayList<>();
+        List<T> canonicalObjects = new ArrayList<>();
         for (Reference ref : references) {
             T domainObject = map.get(ref);
             if (domainObject != null) {
-                domainObjects.add(domainObject);
+                canonicalObjects.add(domainObject);
             } else {
                 unsatisfiedRefs.add(ref);
             }
         }
 
-        List<T> canonicalObjects = putOrUpdate(domainObjects, false);
         if (TIMER) if (TIMER) w.stop("getDomainObjects(references)");
-        log.debug("getDomainObjects: returning {} objects ({} unsatisfied)", canonicalObjects.size(), unsatisfiedRefs.size());
+        log.debug("getDomainObjects: returning {} objects ({} unsatisfied): {}", canonicalObjects.size(), unsatisfiedRefs.size(), metrics);
         return canonicalObjects;
     }
 
@@ -563,16 +632,27 @@ public class DomainModel {
         Collection<Workspace> values;
         synchronized (modelLock) {
             if (workspaceCache == null) {
-                log.info("Caching workspaces from database...");
                 this.workspaceCache = new LinkedHashMap<>();
-                StopWatch w = TIMER ? new LoggingStopWatch() : null;
-                Collection<Workspace> workspaces = workspaceFacade.getWorkspaces();
-                List<Workspace> canonicalObjects = putOrUpdate(workspaces, false);
-                for (Workspace workspace : canonicalObjects) {
-                    log.info("Caching workspace: {} ({})", workspace.getName(), workspace.getOwnerKey());
-                    workspaceCache.put(Reference.createFor(workspace), workspace);
+                List<Workspace> storedWorkspaces = getStoredRoots(STORED_WORKSPACES, Workspace.class);
+                if (storedWorkspaces != null) {
+                    log.info("Caching {} workspaces from local store", storedWorkspaces.size());
+                    for (Workspace workspace : storedWorkspaces) {
+                        workspaceCache.put(Reference.createFor(workspace), workspace);
+                    }
+                    revalidateStoredRoots(STORED_WORKSPACES, workspaceCache.keySet(), workspaceFacade::getWorkspaces, () -> workspaceCache);
+                }
+                else {
+                    log.info("Caching workspaces from database...");
+                    StopWatch w = TIMER ? new LoggingStopWatch() : null;
+                    Collection<Workspace> workspaces = workspaceFacade.getWorkspaces();
+                    List<Workspace> canonicalObjects = putOrUpdate(workspaces, false);
+                    for (Workspace workspace : canonicalObjects) {
+                        log.info("Caching workspace: {} ({})", workspace.getName(), workspace.getOwnerKey());
+                        workspaceCache.put(Reference.createFor(workspace), workspace);
+                    }
+                    storeRoots(STORED_WORKSPACES, canonicalObjects);
+                    if (TIMER) w.stop("getWorkspaces");
                 }
-                if (TIMER) w.stop("getWorkspaces");
             }
             values = workspaceCache.values();
         }
@@ -753,15 +833,26 @@ public class DomainModel {
         Collection<Ontology> values;
         synchronized (modelLock) {
             if (ontologyCache == null) {
-                log.debug("Getting ontologies from database");
                 this.ontologyCache = new LinkedHashMap<>();
-                StopWatch w = TIMER ? new LoggingStopWatch() : null;
-                Collection<Ontology> ontologies = ontologyFacade.getOntologies();
-                List<Ontology> canonicalObjects = putOrUpdate(ontologies, false);
-                for (Ontology ontology : canonicalObjects) {
-                    ontologyCache.put(Reference.createFor(ontology), ontology);
+                List<Ontology> storedOntologies = getStoredRoots(STORED_ONTOLOGIES, Ontology.class);
+                if (storedOntologies != null) {
+                    log.debug("Getting {} ontologies from local store", storedOntologies.size());
+                    for (Ontology ontology : storedOntologies) {
+                        ontologyCache.put(Reference.createFor(ontology), ontology);
+                    }
+                    revalidateStoredRoots(STORED_ONTOLOGIES, ontologyCache.keySet(), ontologyFacade::getOntologies, () -> ontologyCache);
+                }
+                else {
+                    log.debug("Getting ontologies from database");
+                    StopWatch w = TIMER ? new LoggingStopWatch() : null;
+                    Collection<Ontology> ontologies = ontologyFacade.getOntologies();
+                    List<Ontology> canonicalObjects = putOrUpdate(ontologies, false);
+                    for (Ontology ontology : canonicalObjects) {
+                        ontologyCache.put(Reference.createFor(ontology), ontology);
+                    }
+                    storeRoots(STORED_ONTOLOGIES, canonicalObjects);
+                    if (TIMER) w.stop("getOntologies");
                 }
-                if (TIMER) w.stop("getOntologies");
             }
             values = ontologyCache.values();
         }
@@ -1133,6 +1224,276 @@ public class DomainModel {
     }
 
 
+    // LOCAL STORE
+
+    /**
+     * @return the store of the current subject's objects, or null if there is none
+     */
+    private DomainObjectStore getObjectStore() {
+        if (!STORE_ENABLED) return null;
+        String subjectKey = AccessManager.getSubjectKey();
+        if (subjectKey == null) return null;
+        synchronized (storeLock) {
+            if (!subjectKey.equals(objectStoreSubjectKey)) {
+                if (objectStore != null) {
+                    DomainObjectStore previousStore = objectStore;
+                    storeWriter.execute(() -> {
+                        try {
+                            previousStore.close();
+                        } catch (IOException e) {
+                            log.warn("Could not close domain object store", e);
+                        }
+                    });
+                }
+                this.objectStoreSubjectKey = subjectKey;
+                Path file = Paths.get(ConsoleProperties.getLocalCacheDir(), "domain-objects",
+                        subjectKey.replaceAll("[^\\w.-]", "_") + ".store");
+                try {
+                    this.objectStore = new DomainObjectStore(file, STORE_BUDGET);
+                    log.info("Opened domain object store {} with {} objects", file, objectStore.size());
+                } catch (IOException e) {
+                    log.warn("Could not open domain object store {}", file, e);
+                    this.objectStore = null;
+                }
+            }
+            return objectStore;
+        }
+    }
+
+    private void storeObjects(Collection<? extends DomainObject> domainObjects) {
+        DomainObjectStore store = getObjectStore();
+        if (store == null || domainObjects.isEmpty()) return;
+        List<DomainObject> objects = new ArrayList<>(domainObjects);
+        storeWriter.execute(() -> {
+            try {
+                store.putAll(objects);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not store {} domain objects", objects.size(), e);
+            }
+        });
+    }
+
+    private void removeStoredObjects(Collection<Reference> refs) {
+        DomainObjectStore store = getObjectStore();
+        if (store == null || refs.isEmpty()) return;
+        List<Reference> removedRefs = new ArrayList<>(refs);
+        discardedStoredRefs.addAll(removedRefs);
+        storeWriter.execute(() -> {
+            try {
+                store.removeAll(removedRefs);
+            } catch (IOException e) {
+                log.warn("Could not remove {} stored domain objects", removedRefs.size(), e);
+            } finally {
+                discardedStoredRefs.removeAll(removedRefs);
+            }
+        });
+    }
+
+    /**
+     * Stop serving local copies, and clear the store. Objects which are written after this are kept.
+     */
+    private void discardStoredObjects() {
+        DomainObjectStore store = getObjectStore();
+        if (store == null) return;
+        this.storeDiscarded = true;
+        storeWriter.execute(() -> {
+            try {
+                store.clear();
+                this.storeDiscarded = false;
+            } catch (IOException e) {
+                // keep bypassing the store for the rest of the session
+                log.warn("Could not clear domain object store", e);
+            }
+        });
+    }
+
+    private void storeRoots(String listName, Collection<? extends DomainObject> roots) {
+        DomainObjectStore store = getObjectStore();
+        if (store == null) return;
+        List<Reference> refs = DomainUtils.getReferences(roots);
+        storeWriter.execute(() -> {
+            try {
+                store.putReferenceList(listName, refs);
+            } catch (IOException e) {
+                log.warn("Could not store {}", listName, e);
+            }
+        });
+    }
+
+    /**
+     * Cache the stored copies of the given objects, unless they are cached already. The stored copies are
+     * revalidated in the background.
+     *
+     * @return canonical instances of the objects which were found in the store, by reference
+     */
+    private Map<Reference, DomainObject> getStoredObjects(Collection<Reference> refs) {
+        DomainObjectStore store = getObjectStore();
+        if (store == null || storeDiscarded) return Collections.emptyMap();
+        List<Reference> servedRefs = new ArrayList<>(refs);
+        servedRefs.removeAll(discardedStoredRefs);
+        List<DomainObject> storedObjects = store.getAll(servedRefs);
+        if (storedObjects.isEmpty()) return Collections.emptyMap();
+        Map<Reference, DomainObject> canonicalObjects = new LinkedHashMap<>();
+        for (DomainObject domainObject : adoptStoredObjects(storedObjects)) {
+            canonicalObjects.put(Reference.createFor(domainObject), domainObject);
+        }
+        scheduleRevalidation(canonicalObjects.keySet());
+        return canonicalObjects;
+    }
+
+    /**
+     * Queue objects which were served from the store to be revalidated. Objects queued within a short time
+     * are fetched together, so that serving single objects does not make a remote call for each of them.
+     */
+    private void scheduleRevalidation(Collection<Reference> storedRefs) {
+        synchronized (pendingRevalidation) {
+            pendingRevalidation.addAll(storedRefs);
+            if (revalidationScheduled) return;
+            this.revalidationScheduled = true;
+        }
+        revalidationExecutor.schedule(this::revalidateStoredObjects, REVALIDATION_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void revalidateStoredObjects() {
+        List<Reference> storedRefs;
+        synchronized (pendingRevalidation) {
+            storedRefs = new ArrayList<>(pendingRevalidation);
+            pendingRevalidation.clear();
+            this.revalidationScheduled = false;
+        }
+        log.debug("Revalidating {} objects served from local store", storedRefs.size());
+        try {
+            DomainObjectLoader.LoadMetrics metrics = new DomainObjectLoader.LoadMetrics();
+            metrics.recordCacheLookup(storedRefs.size(), 0);
+            // changed objects are published by the loader
+            Map<Reference, DomainObject> currentObjects = objectLoader.load(storedRefs, metrics);
+            removeMissing(storedRefs, currentObjects.keySet());
+            log.debug("Revalidated stored objects: {}", metrics);
+        } catch (Exception e) {
+            log.warn("Could not revalidate {} stored objects", storedRefs.size(), e);
+        }
+    }
+
+    /**
+     * Cache the stored copies of the objects in the named list.
+     *
+     * @return canonical instances of the listed objects, or null unless all of them were stored
+     */
+    private <T extends DomainObject> List<T> getStoredRoots(String listName, Class<T> rootClass) {
+        DomainObjectStore store = getObjectStore();
+        if (store == null || storeDiscarded) return null;
+        List<Reference> refs = store.getReferenceList(listName);
+        if (refs == null) return null;
+        List<DomainObject> storedObjects = store.getAll(refs);
+        if (storedObjects.size() != refs.size()) return null;
+        List<T> roots = new ArrayList<>();
+        for (DomainObject domainObject : adoptStoredObjects(storedObjects)) {
+            if (!rootClass.isInstance(domainObject)) return null;
+            roots.add(rootClass.cast(domainObject));
+        }
+        return roots;
+    }
+
+    private List<DomainObject> adoptStoredObjects(Collection<DomainObject> storedObjects) {
+        List<DomainObject> canonicalObjects = new ArrayList<>();
+        synchronized (modelLock) {
+            for (DomainObject storedObject : storedObjects) {
+                Reference id = Reference.createFor(storedObject);
+                DomainObject canonicalObject = objectCache.getIfPresent(id);
+                if (canonicalObject == null) {
+                    canonicalObject = storedObject;
+                    updateCaches(id, canonicalObject);
+                }
+                canonicalObjects.add(canonicalObject);
+            }
+        }
+        return canonicalObjects;
+    }
+
+    /**
+     * Fetch the current list of roots in the background, and bring the cached list up to date with it.
+     */
+    private <T extends DomainObject> void revalidateStoredRoots(String listName, Collection<Reference> storedRefs,
+                                                                Callable<? extends Collection<T>> fetch,
+                                                                Supplier<Map<Reference, T>> rootCache) {
+        List<Reference> refs = new ArrayList<>(storedRefs);
+        revalidationExecutor.execute(() -> {
+            try {
+                StopWatch w = TIMER ? new LoggingStopWatch() : null;
+                List<T> roots = putIfChanged(fetch.call());
+                removeMissing(refs, DomainUtils.getReferences(roots));
+                synchronized (modelLock) {
+                    Map<Reference, T> cachedRoots = rootCache.get();
+                    if (cachedRoots != null) {
+                        cachedRoots.clear();
+                        for (T root : roots) {
+                            cachedRoots.put(Reference.createFor(root), root);
+                        }
+                    }
+                }
+                storeRoots(listName, roots);
+                for (T root : roots) {
+                    if (!refs.contains(Reference.createFor(root))) {
+                        notifyDomainObjectCreated(root);
+                    }
+                }
+                if (TIMER) w.stop("revalidate " + listName);
+            } catch (Exception e) {
+                log.warn("Could not revalidate stored {}", listName, e);
+            }
+        });
+    }
+
+    /**
+     * Publish the current versions of objects, if their updated date differs from the cached copy, which
+     * raises invalidation events for them. Cached copies which are up to date are kept.
+     *
+     * @return canonical instances of the current objects
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends DomainObject> List<T> putIfChanged(Collection<T> currentObjects) {
+        List<T> changedObjects = new ArrayList<>();
+        for (T currentObject : currentObjects) {
+            if (currentObject == null) continue;
+            DomainObject cachedObject = objectCache.getIfPresent(Reference.createFor(currentObject));
+            if (cachedObject == null || !Objects.equals(cachedObject.getUpdatedDate(), currentObject.getUpdatedDate())) {
+                changedObjects.add(currentObject);
+            }
+        }
+        putOrUpdate(changedObjects, false);
+
+        List<T> canonicalObjects = new ArrayList<>();
+        for (T currentObject : currentObjects) {
+            if (currentObject == null || !isCacheable(currentObject)) continue;
+            T cachedObject = (T) objectCache.getIfPresent(Reference.createFor(currentObject));
+            canonicalObjects.add(cachedObject == null ? currentObject : cachedObject);
+        }
+        return canonicalObjects;
+    }
+
+    /**
+     * Remove the objects which were served from the store but no longer exist on the server.
+     */
+    private void removeMissing(Collection<Reference> storedRefs, Collection<Reference> currentRefs) {
+        Set<Reference> current = new HashSet<>(currentRefs);
+        List<DomainObject> removedObjects = new ArrayList<>();
+        synchronized (modelLock) {
+            for (Reference ref : storedRefs) {
+                if (!current.contains(ref)) {
+                    DomainObject cachedObject = objectCache.getIfPresent(ref);
+                    if (cachedObject != null) {
+                        removedObjects.add(cachedObject);
+                        objectCache.invalidate(ref);
+                    }
+                }
+            }
+        }
+        for (DomainObject removedObject : removedObjects) {
+            notifyDomainObjectRemoved(removedObject);
+        }
+        log.debug("Revalidated {} stored objects: {} removed", storedRefs.size(), removedObjects.size());
+    }
+
     // EVENT HANDLING 
     // Important: never call these methods from within a synchronized. That can lead to deadlocks because
     // the event bus is also synchronized, and events can trigger domain model access.
@@ -1175,6 +1536,7 @@ public class DomainModel {
         if (domainObject == null) {
             throw new IllegalStateException("Cannot notify removal of null object");
         }
+        removeStoredObjects(Collections.singletonList(Reference.createFor(domainObject)));
         Events.getInstance().postOnEventBus(new DomainObjectRemoveEvent(domainObject));
     }
 
@@ -1205,6 +1567,8 @@ public class DomainModel {
                 DomainObject childObj = objectCache.getIfPresent(childRef);
                 if (childObj != null) {
                     objectCache.invalidate(childRef);
+                    // or it would be served again from the store
+                    removeStoredObjects(Collections.singletonList(childRef));
                     addTree(objects, childObj);
                 }
             }
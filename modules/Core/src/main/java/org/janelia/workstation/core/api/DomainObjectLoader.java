@@ -0,0 +1,241 @@
+package org.janelia.workstation.core.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.janelia.model.domain.DomainObject;
+import org.janelia.model.domain.Reference;
+import org.janelia.workstation.core.api.http.ResponseByteCounter;
+import org.janelia.workstation.core.util.ConsoleProperties;
+
+/**
+ * Fetches domain objects which are not in the DomainModel cache.
+ * <p>
+ * A reference that is already being fetched for one caller is not fetched again for another; the
+ * second caller waits for the first fetch instead. Large sets of references are split into chunks
+ * which are fetched in parallel, and each chunk is published to the model as soon as it arrives,
+ * so that the objects are canonical by the time any caller sees them.
+ */
+class DomainObjectLoader {
+
+    private static final int DEFAULT_CHUNK_SIZE = ConsoleProperties.getInt("console.domain.fetchChunkSize", 1000);
+    private static final int DEFAULT_THREADS = ConsoleProperties.getInt("console.domain.fetchThreads", 4);
+
+    /**
+     * The remote call, e.g. DomainFacade.getDomainObjects(List).
+     */
+    interface RemoteFetch {
+        List<DomainObject> fetch(List<Reference> references) throws Exception;
+    }
+
+    /**
+     * Counters for a single load, filled in by the threads fetching its chunks.
+     */
+    static class LoadMetrics {
+
+        private final long startTime = System.nanoTime();
+        private int requested;
+        private int cacheHits;
+        private int joined;
+        private int fetched;
+        private final AtomicLong chunks = new AtomicLong();
+        private final AtomicLong found = new AtomicLong();
+        private final AtomicLong remoteNanos = new AtomicLong();
+        private final AtomicLong maxRemoteNanos = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile long elapsedNanos;
+
+        void recordCacheLookup(int requested, int cacheHits) {
+            this.requested = requested;
+            this.cacheHits = cacheHits;
+        }
+
+        private void recordChunk(int found, long nanos, long bytes) {
+            this.chunks.incrementAndGet();
+            this.found.addAndGet(found);
+            this.remoteNanos.addAndGet(nanos);
+            this.maxRemoteNanos.accumulateAndGet(nanos, Math::max);
+            this.bytes.addAndGet(bytes);
+        }
+
+        /**
+         * @return fraction of the requested references found in the cache
+         */
+        double getCacheHitRatio() {
+            return requested == 0 ? 1 : (double) cacheHits / requested;
+        }
+
+        int getJoinedCount() {
+            return joined;
+        }
+
+        int getFetchedCount() {
+            return fetched;
+        }
+
+        long getChunkCount() {
+            return chunks.get();
+        }
+
+        long getFoundCount() {
+            return found.get();
+        }
+
+        /**
+         * @return time spent in remote calls, summed over the chunks of this load
+         */
+        long getRemoteMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(remoteNanos.get());
+        }
+
+        long getMaxRemoteMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxRemoteNanos.get());
+        }
+
+        long getBytesTransferred() {
+            return bytes.get();
+        }
+
+        long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requested, cache hit ratio %.2f, %d joined in-flight fetches, " +
+                            "%d fetched in %d chunks (%d found, %d bytes), remote %d ms (slowest chunk %d ms), elapsed %d ms",
+                    requested, getCacheHitRatio(), joined, fetched, getChunkCount(), getFoundCount(),
+                    getBytesTransferred(), getRemoteMillis(), getMaxRemoteMillis(), getElapsedMillis());
+        }
+    }
+
+    private final RemoteFetch remoteFetch;
+    private final Function<List<DomainObject>, List<DomainObject>> publisher;
+    private final int chunkSize;
+    private final ExecutorService executor;
+    private final Map<Reference, CompletableFuture<DomainObject>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param publisher puts fetched objects into the model, returning the canonical instances
+     */
+    DomainObjectLoader(RemoteFetch remoteFetch, Function<List<DomainObject>, List<DomainObject>> publisher) {
+        this(remoteFetch, publisher, DEFAULT_CHUNK_SIZE, Executors.newFixedThreadPool(DEFAULT_THREADS,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("DomainObjectFetch-%d")
+                        .setDaemon(true)
+                        .build()));
+    }
+
+    DomainObjectLoader(RemoteFetch remoteFetch, Function<List<DomainObject>, List<DomainObject>> publisher,
+                       int chunkSize, ExecutorService executor) {
+        this.remoteFetch = remoteFetch;
+        this.publisher = publisher;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.executor = executor;
+    }
+
+    /**
+     * Fetch the referenced objects, and wait for them.
+     *
+     * @return canonical instances of the objects that were found, by reference
+     * @throws Exception the first error of any remote fetch this load depended on
+     */
+    Map<Reference, DomainObject> load(Collection<Reference> references, LoadMetrics metrics) throws Exception {
+        Map<Reference, CompletableFuture<DomainObject>> pending = new LinkedHashMap<>();
+        List<Reference> owned = new ArrayList<>();
+        List<CompletableFuture<DomainObject>> ownedFutures = new ArrayList<>();
+        for (Reference ref : new LinkedHashSet<>(references)) {
+            CompletableFuture<DomainObject> future = new CompletableFuture<>();
+            CompletableFuture<DomainObject> other = inFlight.putIfAbsent(ref, future);
+            if (other == null) {
+                owned.add(ref);
+                ownedFutures.add(future);
+                pending.put(ref, future);
+            } else {
+                metrics.joined++;
+                pending.put(ref, other);
+            }
+        }
+        metrics.fetched = owned.size();
+
+        List<List<Reference>> chunks = Lists.partition(owned, chunkSize);
+        List<List<CompletableFuture<DomainObject>>> chunkFutures = Lists.partition(ownedFutures, chunkSize);
+        for (int i = 0; i < chunks.size(); i++) {
+            List<Reference> chunk = new ArrayList<>(chunks.get(i));
+            List<CompletableFuture<DomainObject>> futures = new ArrayList<>(chunkFutures.get(i));
+            if (i == chunks.size() - 1) {
+                // this thread would only wait otherwise
+                fetchChunk(chunk, futures, metrics);
+            } else {
+                try {
+                    executor.execute(() -> fetchChunk(chunk, futures, metrics));
+                } catch (RejectedExecutionException e) {
+                    fetchChunk(chunk, futures, metrics);
+                }
+            }
+        }
+
+        Map<Reference, DomainObject> objects = new HashMap<>();
+        try {
+            for (Map.Entry<Reference, CompletableFuture<DomainObject>> entry : pending.entrySet()) {
+                DomainObject domainObject = entry.getValue().get();
+                if (domainObject != null) {
+                    objects.put(entry.getKey(), domainObject);
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } finally {
+            metrics.elapsedNanos = System.nanoTime() - metrics.startTime;
+        }
+        return objects;
+    }
+
+    private void fetchChunk(List<Reference> chunk, List<CompletableFuture<DomainObject>> futures, LoadMetrics metrics) {
+        try {
+            long bytesBefore = ResponseByteCounter.getBytesReadOnThisThread();
+            long start = System.nanoTime();
+            List<DomainObject> fetched = remoteFetch.fetch(chunk);
+            long nanos = System.nanoTime() - start;
+            long bytes = ResponseByteCounter.getBytesReadOnThisThread() - bytesBefore;
+
+            List<DomainObject> canonicalObjects = fetched == null ? new ArrayList<>() : publisher.apply(fetched);
+            Map<Reference, DomainObject> byReference = new HashMap<>();
+            for (DomainObject domainObject : canonicalObjects) {
+                byReference.put(Reference.createFor(domainObject), domainObject);
+            }
+            metrics.recordChunk(byReference.size(), nanos, bytes);
+            for (int i = 0; i < chunk.size(); i++) {
+                // null for objects that no longer exist, or cannot be cached
+                futures.get(i).complete(byReference.get(chunk.get(i)));
+            }
+        } catch (Throwable e) {
+            for (CompletableFuture<DomainObject> future : futures) {
+                future.completeExceptionally(e);
+            }
+        } finally {
+            for (int i = 0; i < chunk.size(); i++) {
+                inFlight.remove(chunk.get(i), futures.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package org.janelia.workstation.core.api;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.janelia.model.domain.DomainObject;
+import org.janelia.model.domain.DomainUtils;
+import org.janelia.model.domain.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk store of serialized domain objects, keyed by reference and stamped with their updated date,
+ * so that a new session can show objects before the server has been asked for them.
+ * <p>
+ * The store is a single append-only file of records, each checked with a CRC. Writing an object again
+ * appends a new record, and removing it appends a tombstone; the index of live records is kept in memory
+ * and rebuilt from the file when it is opened. A truncated or corrupt tail, e.g. after a crash, is cut
+ * off. Once dead records take up more space than live ones, or the file grows past its budget, the live
+ * records are copied to a new file, dropping the least recently written objects if needed to get well
+ * under the budget.
+ * <p>
+ * Named lists of references, such as the user's workspaces, are stored as well and are never dropped.
+ * The file is locked while open, so that only one process uses it at a time.
+ */
+class DomainObjectStore {
+
+    private static final Logger log = LoggerFactory.getLogger(DomainObjectStore.class);
+
+    private static final int FILE_MAGIC = 0x444f5331; // "DOS1"
+    private static final int FILE_HEADER_SIZE = 4;
+    private static final byte KIND_OBJECT = 1;
+    private static final byte KIND_TOMBSTONE = 2;
+    private static final byte KIND_REFERENCE_LIST = 3;
+    // records are framed by their length and a trailing CRC
+    private static final int FRAME_SIZE = 8;
+    private static final long MIN_COMPACTION_GARBAGE = 1024 * 1024;
+    // compaction for size keeps this fraction of the budget, so that it does not run again right away
+    private static final double COMPACTED_FILL = 0.75;
+
+    private static final class IndexEntry {
+        final long position; // of the record frame
+        final int frameLength;
+        final long updatedTime;
+        final long sequence;
+
+        IndexEntry(long position, int frameLength, long updatedTime, long sequence) {
+            this.position = position;
+            this.frameLength = frameLength;
+            this.updatedTime = updatedTime;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Record {
+        int frameLength;
+        byte kind;
+        String key;
+        long id;
+        long updatedTime;
+        byte[] payload;
+    }
+
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final Path file;
+    private final long budget;
+    private final Map<Reference, IndexEntry> objects = new HashMap<>();
+    private final Map<String, IndexEntry> referenceLists = new HashMap<>();
+    private FileChannel channel;
+    private FileLock lock;
+    private long fileSize;
+    private long liveBytes;
+    private long sequence;
+
+    /**
+     * Open the store in the given file, creating it if necessary.
+     *
+     * @param budget size of the file above which the least recently written objects are dropped
+     */
+    DomainObjectStore(Path file, long budget) throws IOException {
+        this.file = file;
+        this.budget = budget;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        open();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        lock = channel.tryLock();
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Domain object store is in use by another process: " + file);
+        }
+        objects.clear();
+        referenceLists.clear();
+        liveBytes = 0;
+        if (channel.size() < FILE_HEADER_SIZE || readInt(0) != FILE_MAGIC) {
+            if (channel.size() > 0) {
+                log.warn("Discarding domain object store in unknown format: {}", file);
+            }
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(FILE_MAGIC);
+            header.flip();
+            channel.write(header, 0);
+            fileSize = FILE_HEADER_SIZE;
+            return;
+        }
+        long position = FILE_HEADER_SIZE;
+        long size = channel.size();
+        // not closed, which would close the channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(FILE_HEADER_SIZE)), 64 * 1024));
+        while (position < size) {
+            Record record = readRecord(in, size - position);
+            if (record == null) {
+                log.warn("Cutting off corrupt domain object store {} at {} of {} bytes", file, position, size);
+                channel.truncate(position);
+                break;
+            }
+            index(record, position, record.frameLength);
+            position += record.frameLength;
+        }
+        fileSize = position;
+    }
+
+    private void index(Record record, long position, int frameLength) {
+        IndexEntry entry = new IndexEntry(position, frameLength, record.updatedTime, sequence++);
+        IndexEntry previous;
+        if (record.kind == KIND_REFERENCE_LIST) {
+            previous = referenceLists.put(record.key, entry);
+            liveBytes += frameLength;
+        } else {
+            Reference ref = Reference.createFor(record.key, record.id);
+            if (record.kind == KIND_OBJECT) {
+                previous = objects.put(ref, entry);
+                liveBytes += frameLength;
+            } else {
+                previous = objects.remove(ref);
+            }
+        }
+        if (previous != null) {
+            liveBytes -= previous.frameLength;
+        }
+    }
+
+    /**
+     * @return the updated date of the stored copy of the object, or null if there is none
+     */
+    synchronized Date getUpdatedDate(Reference ref) {
+        IndexEntry entry = objects.get(ref);
+        return entry == null ? null : new Date(entry.updatedTime);
+    }
+
+    synchronized boolean contains(Reference ref) {
+        return objects.containsKey(ref);
+    }
+
+    synchronized int size() {
+        return objects.size();
+    }
+
+    synchronized long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * @return the stored objects that could be read, in the order of the references
+     */
+    List<DomainObject> getAll(Collection<Reference> refs) {
+        List<Record> records = new ArrayList<>();
+        synchronized (this) {
+            for (Reference ref : refs) {
+                IndexEntry entry = objects.get(ref);
+                if (entry != null) {
+                    Record record = readIndexed(entry);
+                    if (record != null) {
+                        records.add(record);
+                    }
+                }
+            }
+        }
+        List<DomainObject> domainObjects = new ArrayList<>();
+        for (Record record : records) {
+            DomainObject domainObject = deserialize(record);
+            if (domainObject != null) {
+                domainObjects.add(domainObject);
+            }
+        }
+        return domainObjects;
+    }
+
+    DomainObject get(Reference ref) {
+        List<DomainObject> found = getAll(Collections.singletonList(ref));
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * Store the objects whose updated date differs from the stored copy. Objects without an updated date
+     * cannot be revalidated, and are not stored.
+     */
+    void putAll(Collection<? extends DomainObject> domainObjects) throws IOException {
+        List<Record> records = new ArrayList<>();
+        for (DomainObject domainObject : domainObjects) {
+            if (domainObject == null || domainObject.getId() == null || domainObject.getUpdatedDate() == null) {
+                continue;
+            }
+            Reference ref = Reference.createFor(domainObject);
+            long updatedTime = domainObject.getUpdatedDate().getTime();
+            synchronized (this) {
+                IndexEntry entry = objects.get(ref);
+                if (entry != null && entry.updatedTime == updatedTime) {
+                    continue;
+                }
+            }
+            Record record = new Record();
+            record.kind = KIND_OBJECT;
+            record.key = ref.getTargetClassName();
+            record.id = ref.getTargetId();
+            record.updatedTime = updatedTime;
+            record.payload = mapper.writeValueAsBytes(domainObject);
+            records.add(record);
+        }
+        append(records);
+    }
+
+    void removeAll(Collection<Reference> refs) throws IOException {
+        List<Record> records = new ArrayList<>();
+        synchronized (this) {
+            for (Reference ref : refs) {
+                if (objects.containsKey(ref)) {
+                    Record record = new Record();
+                    record.kind = KIND_TOMBSTONE;
+                    record.key = ref.getTargetClassName();
+                    record.id = ref.getTargetId();
+                    record.payload = new byte[0];
+                    records.add(record);
+                }
+            }
+        }
+        append(records);
+    }
+
+    /**
+     * @return the named list of references, or null if it was never stored
+     */
+    List<Reference> getReferenceList(String name) {
+        Record record;
+        synchronized (this) {
+            IndexEntry entry = referenceLists.get(name);
+            record = entry == null ? null : readIndexed(entry);
+        }
+        if (record == null) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.payload))) {
+            int count = in.readInt();
+            List<Reference> refs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                refs.add(Reference.createFor(in.readUTF(), in.readLong()));
+            }
+            return refs;
+        } catch (IOException e) {
+            log.warn("Could not read stored reference list {}", name, e);
+            return null;
+        }
+    }
+
+    void putReferenceList(String name, List<Reference> refs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(refs.size());
+            for (Reference ref : refs) {
+                out.writeUTF(ref.getTargetClassName());
+                out.writeLong(ref.getTargetId());
+            }
+        }
+        Record record = new Record();
+        record.kind = KIND_REFERENCE_LIST;
+        record.key = name;
+        record.payload = bytes.toByteArray();
+        append(Collections.singletonList(record));
+    }
+
+    /**
+     * Drop all of the stored objects and reference lists.
+     */
+    synchronized void clear() throws IOException {
+        channel.truncate(FILE_HEADER_SIZE);
+        fileSize = FILE_HEADER_SIZE;
+        liveBytes = 0;
+        objects.clear();
+        referenceLists.clear();
+    }
+
+    synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private synchronized void append(List<Record> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        long start = fileSize;
+        long[] positions = new long[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            positions[i] = start + frames.size();
+            writeFrame(frames, records.get(i));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(frames.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, start + buffer.position());
+        }
+        fileSize = start + buffer.limit();
+        for (int i = 0; i < records.size(); i++) {
+            index(records.get(i), positions[i], records.get(i).frameLength);
+        }
+        long garbage = fileSize - FILE_HEADER_SIZE - liveBytes;
+        if (fileSize > budget || (garbage > liveBytes && garbage > MIN_COMPACTION_GARBAGE)) {
+            compact();
+        }
+    }
+
+    /**
+     * Copy the live records to a new file, keeping the most recently written objects that fit in
+     * part of the budget, and replace the store with it.
+     */
+    synchronized void compact() throws IOException {
+        long started = System.currentTimeMillis();
+        long oldSize = fileSize;
+        List<IndexEntry> kept = new ArrayList<>(referenceLists.values());
+        long keptBytes = 0;
+        for (IndexEntry entry : kept) {
+            keptBytes += entry.frameLength;
+        }
+        List<IndexEntry> newestFirst = new ArrayList<>(objects.values());
+        newestFirst.sort(Comparator.comparingLong((IndexEntry e) -> e.sequence).reversed());
+        long target = (long) (budget * COMPACTED_FILL);
+        int dropped = 0;
+        for (IndexEntry entry : newestFirst) {
+            if (keptBytes + entry.frameLength > target) {
+                dropped++;
+                continue;
+            }
+            kept.add(entry);
+            keptBytes += entry.frameLength;
+        }
+        // keep the original order, so that reopening the file rebuilds the same recency
+        kept.sort(Comparator.comparingLong(e -> e.sequence));
+
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(FILE_MAGIC);
+            header.flip();
+            out.write(header);
+            for (IndexEntry entry : kept) {
+                ByteBuffer frame = ByteBuffer.allocate(entry.frameLength);
+                readFully(frame, entry.position);
+                frame.flip();
+                while (frame.hasRemaining()) {
+                    out.write(frame);
+                }
+            }
+            out.force(false);
+        }
+        channel.close();
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        sequence = 0;
+        open();
+        log.info("Compacted domain object store from {} to {} bytes, dropping {} objects, in {} ms",
+                oldSize, fileSize, dropped, System.currentTimeMillis() - started);
+    }
+
+    private static void writeFrame(ByteArrayOutputStream frames, Record record) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(record.payload.length + 64);
+        try (DataOutputStream out = new DataOutputStream(body)) {
+            out.writeByte(record.kind);
+            out.writeUTF(record.key);
+            out.writeLong(record.id);
+            out.writeLong(record.updatedTime);
+            out.writeInt(record.payload.length);
+            out.write(record.payload);
+        }
+        byte[] bodyBytes = body.toByteArray();
+        record.frameLength = FRAME_SIZE + bodyBytes.length;
+        CRC32 crc = new CRC32();
+        crc.update(bodyBytes, 0, bodyBytes.length);
+        DataOutputStream out = new DataOutputStream(frames);
+        out.writeInt(bodyBytes.length);
+        out.write(bodyBytes);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private Record readIndexed(IndexEntry entry) {
+        try {
+            ByteBuffer frame = ByteBuffer.allocate(entry.frameLength);
+            readFully(frame, entry.position);
+            return readRecord(new DataInputStream(new ByteArrayInputStream(frame.array())), entry.frameLength);
+        } catch (IOException e) {
+            log.warn("Could not read domain object store {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * @param available bytes left in the file
+     * @return the next record framed in the stream, or null if it is incomplete or corrupt
+     */
+    private static Record readRecord(DataInputStream frames, long available) throws IOException {
+        if (available < FRAME_SIZE) {
+            return null;
+        }
+        byte[] bodyBytes;
+        try {
+            int bodyLength = frames.readInt();
+            if (bodyLength <= 0 || FRAME_SIZE + (long) bodyLength > available) {
+                return null;
+            }
+            bodyBytes = new byte[bodyLength];
+            frames.readFully(bodyBytes);
+            CRC32 crc = new CRC32();
+            crc.update(bodyBytes, 0, bodyLength);
+            if (frames.readInt() != (int) crc.getValue()) {
+                return null;
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bodyBytes))) {
+            Record record = new Record();
+            record.frameLength = FRAME_SIZE + bodyBytes.length;
+            record.kind = in.readByte();
+            record.key = in.readUTF();
+            record.id = in.readLong();
+            record.updatedTime = in.readLong();
+            record.payload = new byte[in.readInt()];
+            in.readFully(record.payload);
+            return record;
+        }
+    }
+
+    private DomainObject deserialize(Record record) {
+        try {
+            // the stored class name is the simple name used in references
+            Class<?> domainClass = DomainUtils.getObjectClassByName(record.key);
+            if (domainClass == null) {
+                return null;
+            }
+            return (DomainObject) mapper.readValue(record.payload, domainClass);
+        } catch (IOException | RuntimeException e) {
+            // e.g. written by an older version of the model
+            log.debug("Could not read stored {}#{}", record.key, record.id, e);
+            return null;
+        }
+    }
+
+    private int readInt(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        readFully(buffer, position);
+        buffer.flip();
+        return buffer.getInt();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + file);
+            }
+        }
+    }
+}
@@ -1,14 +1,14 @@
 package org.janelia.workstation.core.api;
 
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.function.Supplier;
 
 import com.google.common.eventbus.Subscribe;
 import org.janelia.it.jacs.model.user_data.UserToolEvent;
 
+import org.janelia.workstation.core.activity_logging.ToolEventPipeline;
 import org.janelia.workstation.integration.activity_logging.ActionString;
 
 import org.janelia.workstation.integration.activity_logging.CategoryString;
@@ -31,9 +31,8 @@ public class SessionMgr {
 
     private static final Logger log = LoggerFactory.getLogger(SessionMgr.class);
 
-    private static final int LOG_GRANULARITY = 100;
-    private final Map<CategoryString, Long> categoryInstanceCount = new HashMap<>();
-    
+    private final ToolEventPipeline toolEvents = new ToolEventPipeline(this::sendToolEvents);
+
     private String username;
     
     // Singleton
@@ -50,6 +49,7 @@ public class SessionMgr {
     
     private SessionMgr() {
         log.info("Initializing Session Manager");
+        toolEvents.start();
     }
 
     @Subscribe
@@ -90,13 +90,11 @@ public class SessionMgr {
 //        catch (Exception e) {
 //            FrameworkAccess.handleExceptionQuietly(e);
 //        }
+        // send the events of the session while it is still current
+        toolEvents.flush();
         this.currentSessionId = null;
     }
     
-    private void addEventToSession(UserToolEvent event) {
-//        EJBFactory.getRemoteComputeBean().addEventToSessionAsync(event);
-    }
-
     private void addEventsToSession(UserToolEvent[] events) {
 //        EJBFactory.getRemoteComputeBean().addEventsToSessionAsync(events);
     }
@@ -105,6 +103,17 @@ public class SessionMgr {
         if (username!=null) return username;
         return UserToolEvent.DEFAULT_USER_LOGIN;
     }
+
+    private void sendToolEvents(List<ToolEventPipeline.ToolEvent> toolEventBatch) {
+        String userLogin = getLogEventUserLogin();
+        UserToolEvent[] events = new UserToolEvent[toolEventBatch.size()];
+        for (int i = 0; i < events.length; i++) {
+            ToolEventPipeline.ToolEvent toolEvent = toolEventBatch.get(i);
+            events[i] = new UserToolEvent(currentSessionId, userLogin, toolEvent.getTool(), toolEvent.getCategory(),
+                    toolEvent.getAction(), new Date(toolEvent.getTimestamp()));
+        }
+        addEventsToSession(events);
+    }
     
     /**
      * Send an event described by the information given as parameters, to the
@@ -120,44 +129,21 @@ public class SessionMgr {
      * @param thresholdMs beyond this time, force log issue.
      */
     public void logToolEvent(final ToolString toolName, final CategoryString category, final ActionString action, final long timestamp, final double elapsedMs, final double thresholdMs) {
-        String userLogin = getLogEventUserLogin();
-        try {
-            final UserToolEvent event = new UserToolEvent(currentSessionId, userLogin, toolName.toString(), category.toString(), action.toString(), new Date(timestamp));
-            Callable<Void> callable = new Callable<Void>() {
-                @Override
-                public Void call() {
-                    try {
-                        Long count = categoryInstanceCount.get(category);
-                        if (count == null) {
-                            count = new Long(0);
-                        }
-                        boolean shouldLog = false;
-                        if (elapsedMs > thresholdMs) {
-                            shouldLog = true;
-                        } else if (count % LOG_GRANULARITY == 0) {
-                            shouldLog = true;
-                        }
-                        categoryInstanceCount.put(category, ++count);
-    
-                        if (shouldLog) {
-                            addEventToSession(event);
-                        }
-                    } 
-                    catch (Exception ex) {
-                        log.warn(
-                                "Failed to log tool event for session: {}, user: {}, tool: {}, category: {}, action: {}, timestamp: {}.",
-                                currentSessionId, userLogin, toolName, category, action, timestamp, ex);
-                    }
-                    return null;
-                }
-            };
-            SingleThreadedTaskQueue.submit(callable);
-    
-        } 
-        catch (Exception ex) {
-            log.warn(
-                    "Failed to log tool event for session: {}, user: {}, tool: {}, category: {}, action: {}, timestamp: {}.",
-                    currentSessionId, userLogin, toolName, category, action, timestamp, ex);
+        recordToolEvent(toolName, category, action, timestamp, elapsedMs, thresholdMs, false);
+    }
+
+    /**
+     * Like logToolEvent, but the action is only described if the event is
+     * going to be logged, on a background thread. Use this for frequent
+     * events, whose actions are costly to format.
+     */
+    public void logToolEvent(ToolString toolName, CategoryString category, Supplier<ActionString> action, long timestamp, double elapsedMs, double thresholdMs) {
+        recordToolEvent(toolName, category, action, timestamp, elapsedMs, thresholdMs, false);
+    }
+
+    private void recordToolEvent(ToolString toolName, CategoryString category, Object action, long timestamp, double elapsedMs, double thresholdMs, boolean thresholdOnly) {
+        if (!toolEvents.record(toolName, category, action, timestamp, elapsedMs, thresholdMs, thresholdOnly)) {
+            log.trace("Dropped tool event for tool: {}, category: {}", toolName, category);
         }
     }
 
@@ -175,38 +161,15 @@ public class SessionMgr {
      * @todo see about reusing code between this and non-threshold.
      */
     public void logToolThresholdEvent(final ToolString toolName, final CategoryString category, final ActionString action, final long timestamp, final double elapsedMs, final double thresholdMs) {
-        String userLogin = getLogEventUserLogin();
-        try {
-            final UserToolEvent event = new UserToolEvent(currentSessionId, userLogin, toolName.toString(), category.toString(), action.toString(), new Date(timestamp));
-            Callable<Void> callable = new Callable<Void>() {
-                @Override
-                public Void call() {
-                    try {
-                        boolean shouldLog = false;
-                        if (elapsedMs > thresholdMs) {
-                            shouldLog = true;
-                        }
-    
-                        if (shouldLog) {
-                            addEventToSession(event);
-                        }
-                    } 
-                    catch (Exception ex) {
-                        log.warn(
-                                "Failed to log tool event for session: {}, user: {}, tool: {}, category: {}, action: {}, timestamp: {}.",
-                                currentSessionId, userLogin, toolName, category, action, timestamp, ex);
-                    }
-                    return null;
-                }
-            };
-            SingleThreadedTaskQueue.submit(callable);
+        recordToolEvent(toolName, category, action, timestamp, elapsedMs, thresholdMs, true);
+    }
 
-        } 
-        catch (Exception ex) {
-            log.warn(
-                    "Failed to log tool event for session: {}, user: {}, tool: {}, category: {}, action: {}, timestamp: {}.",
-                    currentSessionId, userLogin, toolName, category, action, timestamp, ex);
-        }
+    /**
+     * Like logToolThresholdEvent, but the action is only described if the
+     * event is going to be logged, on a background thread.
+     */
+    public void logToolThresholdEvent(ToolString toolName, CategoryString category, Supplier<ActionString> action, long timestamp, double elapsedMs, double thresholdMs) {
+        recordToolEvent(toolName, category, action, timestamp, elapsedMs, thresholdMs, true);
     }
 
     /**
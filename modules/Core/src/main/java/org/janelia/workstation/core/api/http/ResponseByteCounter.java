@@ -0,0 +1,66 @@
+package org.janelia.workstation.core.api.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+
+/**
+ * Counts the bytes of response bodies as they are read, per reading thread, so that callers of
+ * a synchronous REST client can tell how much a call transferred:
+ * <pre>
+ * long before = ResponseByteCounter.getBytesReadOnThisThread();
+ * ... call the service and read the response ...
+ * long transferred = ResponseByteCounter.getBytesReadOnThisThread() - before;
+ * </pre>
+ */
+public class ResponseByteCounter implements ClientResponseFilter {
+
+    private static final ThreadLocal<long[]> bytesRead = ThreadLocal.withInitial(() -> new long[1]);
+
+    public static long getBytesReadOnThisThread() {
+        return bytesRead.get()[0];
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) throws IOException {
+        if (responseContext.hasEntity()) {
+            responseContext.setEntityStream(new CountingInputStream(responseContext.getEntityStream()));
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytesRead.get()[0]++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                bytesRead.get()[0] += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            bytesRead.get()[0] += skipped;
+            return skipped;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.io.InputStream;
 import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
 
+import javax.ws.rs.Priorities;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.ClientRequestFilter;
@@ -110,6 +111,8 @@ public class RestJsonClientManager {
                 .register(jsonProvider)
                 .register(headerFilter)
                 .register(followRedirectFilter)
+                // after the redirect filter, so that it counts the body that is actually read
+                .register(new ResponseByteCounter(), Priorities.ENTITY_CODER)
                 .property(ClientProperties.FOLLOW_REDIRECTS, Boolean.FALSE) // because we use the followRedirectFilter we set this to false
                 .build();
     }
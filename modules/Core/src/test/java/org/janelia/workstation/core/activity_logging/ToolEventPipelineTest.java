@@ -0,0 +1,191 @@
+package org.janelia.workstation.core.activity_logging;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.janelia.workstation.integration.activity_logging.ActionString;
+import org.janelia.workstation.integration.activity_logging.CategoryString;
+import org.janelia.workstation.integration.activity_logging.ToolString;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ToolEventPipelineTest {
+
+    private static final ToolString TOOL = new ToolString("Test");
+    private static final CategoryString TILE_LOAD = new CategoryString("tileLoad");
+    private static final CategoryString LONG_TILE_LOAD = new CategoryString("longTileLoad");
+
+    private final List<ToolEventPipeline.ToolEvent> sent = new ArrayList<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private Path dir;
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        if (dir != null) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private ToolEventPipeline pipeline(int ringSize, Path localDir) {
+        return new ToolEventPipeline(ringSize, sent::addAll, localDir, Long.MAX_VALUE);
+    }
+
+    private static ToolEventStats stats(ToolEventPipeline pipeline, CategoryString category) {
+        for (ToolEventStats stats : pipeline.getStats()) {
+            if (stats.getCategory().equals(category.toString())) {
+                return stats;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testConcurrentProducersLoseNothing() throws Exception {
+        ToolEventPipeline pipeline = pipeline(1024, null);
+        int threads = 4;
+        int perThread = 20000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> producers = new ArrayList<>();
+        AtomicInteger dropped = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            producers.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    while (!pipeline.record(TOOL, TILE_LOAD, null, i, 1, Double.MAX_VALUE, false)) {
+                        // the ring is small, so the drain below has to keep up
+                        dropped.incrementAndGet();
+                        Thread.yield();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        while (producers.stream().anyMatch(producer -> !producer.isDone())) {
+            pipeline.drain();
+        }
+        for (Future<?> producer : producers) {
+            producer.get();
+        }
+        pipeline.drain();
+        assertEquals(threads * perThread, stats(pipeline, TILE_LOAD).getCount());
+        assertEquals(dropped.get(), pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void testFullRingDropsEvents() {
+        ToolEventPipeline pipeline = pipeline(4, null);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(pipeline.record(TOOL, TILE_LOAD, null, i, 1, Double.MAX_VALUE, false));
+        }
+        assertFalse(pipeline.record(TOOL, TILE_LOAD, null, 4, 1, Double.MAX_VALUE, false));
+        assertEquals(1, pipeline.getDroppedCount());
+        assertEquals(4, pipeline.drain());
+        assertTrue(pipeline.record(TOOL, TILE_LOAD, null, 5, 1, Double.MAX_VALUE, false));
+    }
+
+    @Test
+    public void testSamplingDescribesOnlySelectedEvents() {
+        ToolEventPipeline pipeline = pipeline(1024, null);
+        AtomicInteger described = new AtomicInteger();
+        for (int i = 0; i < 250; i++) {
+            int n = i;
+            Supplier<ActionString> action = () -> {
+                described.incrementAndGet();
+                return new ActionString("tile " + n);
+            };
+            pipeline.record(TOOL, TILE_LOAD, action, i, 2, Double.MAX_VALUE, false);
+            pipeline.record(TOOL, LONG_TILE_LOAD, action, i, n % 100 == 50 ? 6000 : 2, 5000, true);
+        }
+        pipeline.flush();
+
+        // every LOG_GRANULARITY-th tile load, and the two long ones
+        assertEquals(5, sent.size());
+        assertEquals(5, described.get());
+        assertEquals("tile 0", sent.get(0).getAction());
+        assertEquals("tile 50", sent.get(1).getAction());
+        assertEquals(LONG_TILE_LOAD.toString(), sent.get(1).getCategory());
+        assertEquals("tile 100", sent.get(2).getAction());
+    }
+
+    @Test
+    public void testHistogram() {
+        assertEquals(0, ToolEventStats.getBucket(0.5));
+        assertEquals(1, ToolEventStats.getBucket(1));
+        assertEquals(2, ToolEventStats.getBucket(3.9));
+        assertEquals(11, ToolEventStats.getBucket(1024));
+        assertEquals(ToolEventStats.HISTOGRAM_BUCKETS - 1, ToolEventStats.getBucket(1e9));
+
+        ToolEventPipeline pipeline = pipeline(1024, null);
+        for (double elapsed : new double[]{0.5, 3, 3, 100}) {
+            pipeline.record(TOOL, TILE_LOAD, null, 0, elapsed, Double.MAX_VALUE, false);
+        }
+        ToolEventStats stats = stats(pipeline, TILE_LOAD);
+        assertEquals(4, stats.getCount());
+        assertEquals(26.625, stats.getMeanMs(), 1e-9);
+        assertEquals(0.5, stats.getMinMs(), 1e-9);
+        assertEquals(100, stats.getMaxMs(), 1e-9);
+        long[] histogram = stats.getHistogram();
+        assertEquals(1, histogram[0]);
+        assertEquals(2, histogram[2]);
+        assertEquals(1, histogram[7]);
+
+        // the statistics are per flush interval
+        pipeline.flush();
+        pipeline.record(TOOL, TILE_LOAD, null, 0, 1, Double.MAX_VALUE, false);
+        stats = stats(pipeline, TILE_LOAD);
+        assertEquals(1, stats.getCount());
+        assertEquals(5, stats.getTotalCount());
+    }
+
+    @Test
+    public void testFlushAppendsToLocalFile() throws Exception {
+        dir = Files.createTempDirectory("ToolEventPipelineTest");
+        ToolEventPipeline pipeline = pipeline(1024, dir);
+        pipeline.record(TOOL, TILE_LOAD, new ActionString("first"), 1000, 1, 0, false);
+        pipeline.flush();
+        pipeline.record(TOOL, TILE_LOAD, new ActionString("second"), 2000, 1, 0, false);
+        pipeline.flush();
+        // nothing new to write
+        pipeline.flush();
+
+        List<String> lines = new ArrayList<>();
+        Collection<Path> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(dir)) {
+            paths.forEach(files::add);
+        }
+        assertEquals(1, files.size());
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(files.iterator().next())), StandardCharsets.UTF_8))) {
+            reader.lines().forEach(lines::add);
+        }
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0).contains("\"type\":\"event\"") && lines.get(0).contains("\"action\":\"first\""));
+        assertTrue(lines.get(1).contains("\"type\":\"summary\"") && lines.get(1).contains("\"count\":1"));
+        assertTrue(lines.get(2).contains("\"action\":\"second\""));
+        assertTrue(lines.get(3).contains("\"totalCount\":2"));
+    }
+}
@@ -0,0 +1,148 @@
+package org.janelia.workstation.core.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.model.domain.DomainObject;
+import org.janelia.model.domain.Reference;
+import org.janelia.model.domain.sample.Sample;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DomainObjectLoaderTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final List<List<Reference>> remoteCalls = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger published = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    // Stub facade which knows every sample with a positive id
+    private List<DomainObject> fetch(List<Reference> references) {
+        remoteCalls.add(references);
+        List<DomainObject> objects = new ArrayList<>();
+        for (Reference ref : references) {
+            if (ref.getTargetId() > 0) {
+                Sample sample = new Sample();
+                sample.setId(ref.getTargetId());
+                objects.add(sample);
+            }
+        }
+        return objects;
+    }
+
+    private List<DomainObject> publish(List<DomainObject> objects) {
+        published.addAndGet(objects.size());
+        return objects;
+    }
+
+    private static List<Reference> references(long from, long to) {
+        List<Reference> references = new ArrayList<>();
+        for (long id = from; id <= to; id++) {
+            references.add(Reference.createFor(Sample.class, id));
+        }
+        return references;
+    }
+
+    @Test
+    public void fetchesLargeRequestsInChunks() throws Exception {
+        DomainObjectLoader loader = new DomainObjectLoader(this::fetch, this::publish, 100, executor);
+        DomainObjectLoader.LoadMetrics metrics = new DomainObjectLoader.LoadMetrics();
+
+        Map<Reference, DomainObject> objects = loader.load(references(1, 1050), metrics);
+
+        assertEquals(1050, objects.size());
+        assertEquals(11, remoteCalls.size());
+        for (List<Reference> call : remoteCalls) {
+            assertTrue(call.size() <= 100);
+        }
+        assertEquals(1050, published.get());
+        assertEquals(11, metrics.getChunkCount());
+        assertEquals(1050, metrics.getFoundCount());
+    }
+
+    @Test
+    public void leavesOutMissingObjects() throws Exception {
+        DomainObjectLoader loader = new DomainObjectLoader(this::fetch, this::publish, 100, executor);
+
+        Map<Reference, DomainObject> objects = loader.load(references(-2, 2), new DomainObjectLoader.LoadMetrics());
+
+        assertEquals(2, objects.size());
+        assertFalse(objects.containsKey(Reference.createFor(Sample.class, -1L)));
+    }
+
+    @Test
+    public void mergesConcurrentRequestsForTheSameReference() throws Exception {
+        CountDownLatch firstFetchStarted = new CountDownLatch(1);
+        CountDownLatch secondFetchStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstFetch = new CountDownLatch(1);
+        AtomicInteger fetchCount = new AtomicInteger();
+        DomainObjectLoader loader = new DomainObjectLoader(references -> {
+            if (fetchCount.incrementAndGet() == 1) {
+                firstFetchStarted.countDown();
+                releaseFirstFetch.await();
+            } else {
+                secondFetchStarted.countDown();
+            }
+            return fetch(references);
+        }, this::publish, 100, executor);
+
+        Future<Map<Reference, DomainObject>> first = executor.submit(
+                () -> loader.load(references(1, 10), new DomainObjectLoader.LoadMetrics()));
+        assertTrue(firstFetchStarted.await(10, TimeUnit.SECONDS));
+        DomainObjectLoader.LoadMetrics secondMetrics = new DomainObjectLoader.LoadMetrics();
+        Future<Map<Reference, DomainObject>> second = executor.submit(
+                () -> loader.load(references(5, 15), secondMetrics));
+        // the second load joins the in-flight references before fetching the rest
+        assertTrue(secondFetchStarted.await(10, TimeUnit.SECONDS));
+        releaseFirstFetch.countDown();
+
+        Map<Reference, DomainObject> firstObjects = first.get(10, TimeUnit.SECONDS);
+        Map<Reference, DomainObject> secondObjects = second.get(10, TimeUnit.SECONDS);
+        assertEquals(11, secondObjects.size());
+        assertEquals(6, secondMetrics.getJoinedCount());
+        assertEquals(5, secondMetrics.getFetchedCount());
+        // the overlap was fetched once, and both callers got the same instances
+        assertEquals(2, remoteCalls.size());
+        Reference shared = Reference.createFor(Sample.class, 7L);
+        assertSame(firstObjects.get(shared), secondObjects.get(shared));
+    }
+
+    @Test
+    public void reportsRemoteErrorsToTheCaller() throws Exception {
+        AtomicBoolean serverDown = new AtomicBoolean(true);
+        DomainObjectLoader loader = new DomainObjectLoader(references -> {
+            if (serverDown.get()) {
+                throw new IllegalStateException("server down");
+            }
+            return fetch(references);
+        }, this::publish, 100, executor);
+        try {
+            loader.load(references(1, 250), new DomainObjectLoader.LoadMetrics());
+            fail("Expected the remote error");
+        } catch (IllegalStateException e) {
+            assertEquals("server down", e.getMessage());
+        }
+        // failed fetches are not left in flight, so the next request fetches again
+        serverDown.set(false);
+        assertEquals(250, loader.load(references(1, 250), new DomainObjectLoader.LoadMetrics()).size());
+    }
+}
@@ -0,0 +1,71 @@
+package org.janelia.workstation.core.api;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.janelia.model.domain.DomainObject;
+import org.janelia.model.domain.Reference;
+import org.janelia.model.domain.sample.Sample;
+
+/**
+ * Compares a warm start, which opens the domain object store and reads a list of stored objects, with
+ * the parsing alone of the same objects as they would come from the server on a cold start. The cold
+ * start also pays for the round trip, which is not timed here.
+ * <p>
+ * Usage: DomainObjectStoreBenchmark [number of objects] [repetitions]
+ */
+public class DomainObjectStoreBenchmark {
+
+    private static final int NAME_LENGTH = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int numObjects = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        Path dir = Files.createTempDirectory("DomainObjectStoreBenchmark");
+        Path file = dir.resolve("benchmark.store");
+        char[] padding = new char[NAME_LENGTH];
+        Arrays.fill(padding, 'x');
+        List<Sample> samples = new ArrayList<>();
+        List<Reference> refs = new ArrayList<>();
+        for (long id = 1; id <= numObjects; id++) {
+            Sample sample = new Sample();
+            sample.setId(id);
+            sample.setName(new String(padding) + id);
+            sample.setUpdatedDate(new Date(id));
+            samples.add(sample);
+            refs.add(Reference.createFor(sample));
+        }
+        long budget = 1024L * 1024 * 1024;
+        DomainObjectStore store = new DomainObjectStore(file, budget);
+        store.putAll(samples);
+        store.putReferenceList("workspaces", refs);
+        store.close();
+
+        ObjectMapper mapper = new ObjectMapper();
+        byte[] json = mapper.writeValueAsBytes(samples);
+        System.out.printf("%d objects, store %d KB, response %d KB%n",
+                numObjects, Files.size(file) / 1024, json.length / 1024);
+        for (int i = 0; i < repetitions; i++) {
+            long start = System.nanoTime();
+            store = new DomainObjectStore(file, budget);
+            long opened = System.nanoTime();
+            List<DomainObject> stored = store.getAll(store.getReferenceList("workspaces"));
+            long read = System.nanoTime();
+            store.close();
+
+            long parseStart = System.nanoTime();
+            Sample[] parsed = mapper.readValue(json, Sample[].class);
+            System.out.printf("warm: open %.1f ms, read %d objects %.1f ms; cold: parse %d objects %.1f ms%n",
+                    (opened - start) / 1e6, stored.size(), (read - opened) / 1e6,
+                    parsed.length, (System.nanoTime() - parseStart) / 1e6);
+        }
+        Files.delete(file);
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,169 @@
+package org.janelia.workstation.core.api;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.janelia.model.domain.DomainObject;
+import org.janelia.model.domain.Reference;
+import org.janelia.model.domain.sample.Sample;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DomainObjectStoreTest {
+
+    private final Path dir;
+    private final Path file;
+    private DomainObjectStore store;
+
+    public DomainObjectStoreTest() throws IOException {
+        dir = Files.createTempDirectory("DomainObjectStoreTest");
+        file = dir.resolve("test.store");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static Sample sample(long id, long updated) {
+        Sample sample = new Sample();
+        sample.setId(id);
+        sample.setName("Sample " + id);
+        sample.setUpdatedDate(new Date(updated));
+        return sample;
+    }
+
+    private static List<Sample> samples(long from, long to, long updated) {
+        List<Sample> samples = new ArrayList<>();
+        for (long id = from; id <= to; id++) {
+            samples.add(sample(id, updated));
+        }
+        return samples;
+    }
+
+    private static Reference ref(long id) {
+        return Reference.createFor(Sample.class, id);
+    }
+
+    private DomainObjectStore reopen(long budget) throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        store = new DomainObjectStore(file, budget);
+        return store;
+    }
+
+    @Test
+    public void testObjectsSurviveReopening() throws Exception {
+        reopen(1024 * 1024).putAll(samples(1, 10, 1000));
+        store.putAll(Collections.singletonList(sample(3, 2000)));
+        store.removeAll(Collections.singletonList(ref(4)));
+        store.putReferenceList("workspaces", Arrays.asList(ref(2), ref(1)));
+
+        reopen(1024 * 1024);
+        assertEquals(9, store.size());
+        Sample sample = (Sample) store.get(ref(3));
+        assertEquals("Sample 3", sample.getName());
+        assertEquals(new Date(2000), sample.getUpdatedDate());
+        assertEquals(new Date(2000), store.getUpdatedDate(ref(3)));
+        assertNull(store.get(ref(4)));
+        assertEquals(Arrays.asList(ref(2), ref(1)), store.getReferenceList("workspaces"));
+        assertNull(store.getReferenceList("ontologies"));
+    }
+
+    @Test
+    public void testUnchangedObjectsAreNotRewritten() throws Exception {
+        reopen(1024 * 1024).putAll(samples(1, 10, 1000));
+        long size = store.getFileSize();
+        store.putAll(samples(1, 10, 1000));
+        assertEquals(size, store.getFileSize());
+
+        // without an updated date, an object could never be revalidated
+        Sample undated = sample(11, 0);
+        undated.setUpdatedDate(null);
+        store.putAll(Collections.singletonList(undated));
+        assertFalse(store.contains(ref(11)));
+    }
+
+    @Test
+    public void testCorruptTailIsCutOff() throws Exception {
+        reopen(1024 * 1024).putAll(samples(1, 5, 1000));
+        long size = store.getFileSize();
+        store.putAll(Collections.singletonList(sample(6, 1000)));
+        store.close();
+        store = null;
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            // flip a byte in the last record
+            raf.seek(raf.length() - 10);
+            int b = raf.read();
+            raf.seek(raf.length() - 10);
+            raf.write(b ^ 0xff);
+        }
+
+        reopen(1024 * 1024);
+        assertEquals(5, store.size());
+        assertEquals(size, store.getFileSize());
+        assertFalse(store.contains(ref(6)));
+        store.putAll(Collections.singletonList(sample(6, 1000)));
+        assertEquals("Sample 6", ((Sample) reopen(1024 * 1024).get(ref(6))).getName());
+    }
+
+    @Test
+    public void testClearDropsObjectsAndReferenceLists() throws Exception {
+        reopen(1024 * 1024).putAll(samples(1, 10, 1000));
+        store.putReferenceList("workspaces", Arrays.asList(ref(1), ref(2)));
+        store.clear();
+        assertEquals(0, store.size());
+        assertNull(store.get(ref(1)));
+        assertNull(store.getReferenceList("workspaces"));
+
+        // objects written after clearing are kept
+        store.putAll(Collections.singletonList(sample(11, 1000)));
+        reopen(1024 * 1024);
+        assertEquals(1, store.size());
+        assertTrue(store.contains(ref(11)));
+        assertNull(store.getReferenceList("workspaces"));
+    }
+
+    @Test
+    public void testCompactionKeepsRecentObjectsWithinBudget() throws Exception {
+        long budget = 64 * 1024;
+        reopen(budget).putReferenceList("workspaces", Collections.singletonList(ref(1)));
+        for (long updated = 1; updated <= 20; updated++) {
+            store.putAll(samples(1, 100, updated));
+        }
+        for (int i = 0; i < 10; i++) {
+            store.putAll(samples(1000 + i * 100, 1099 + i * 100, 1));
+        }
+        assertTrue(store.getFileSize() <= budget);
+        // the latest objects are kept, and the reference list is never dropped
+        assertTrue(store.contains(ref(1999)));
+        assertFalse(store.contains(ref(1000)));
+        assertEquals(Collections.singletonList(ref(1)), store.getReferenceList("workspaces"));
+
+        int size = store.size();
+        reopen(budget);
+        assertEquals(size, store.size());
+        List<DomainObject> latest = store.getAll(Arrays.asList(ref(1999), ref(1998)));
+        assertEquals(2, latest.size());
+    }
+}
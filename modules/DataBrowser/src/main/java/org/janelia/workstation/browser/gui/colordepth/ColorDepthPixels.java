@@ -0,0 +1,180 @@
+package org.janelia.workstation.browser.gui.colordepth;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Packed pixels of color depth MIPs, as compared by the local color depth search.
+ * <p>
+ * A color depth MIP encodes the depth of each pixel as a color, running from blue through cyan, green
+ * and yellow to red. Each pixel which is brighter than a threshold is packed into an int, with its index
+ * in the image in the high bits, and its position on that color scale in the low POSITION_BITS bits.
+ * Pixels are kept in index order, so that a mask can be compared to an image by merging the two.
+ */
+final class ColorDepthPixels {
+
+    static final int POSITION_BITS = 12;
+    static final int POSITION_MASK = (1 << POSITION_BITS) - 1;
+    static final int MAX_PIXELS = 1 << (32 - POSITION_BITS);
+
+    // Positions on the color scale: blue is 0, cyan 1, green 2, yellow 3 and red 4. Colors with more
+    // red than green in blue, or more blue than green in red, fall outside of the scale, down to -1 and up to 5.
+    private static final double MIN_POSITION = -1;
+    private static final double POSITION_RANGE = 6;
+
+    private ColorDepthPixels() {
+    }
+
+    static int[] getRGB(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    static int getIntensity(int rgb) {
+        int red = (rgb >> 16) & 0xff;
+        int green = (rgb >> 8) & 0xff;
+        int blue = rgb & 0xff;
+        return Math.max(red, Math.max(green, blue));
+    }
+
+    /**
+     * Where the color lies on the color depth scale, which is decided by the ratio of its second brightest
+     * channel to its brightest channel.
+     *
+     * @return position from 0 to POSITION_MASK
+     */
+    static int getColorPosition(int rgb) {
+        int red = (rgb >> 16) & 0xff;
+        int green = (rgb >> 8) & 0xff;
+        int blue = rgb & 0xff;
+        double position;
+        if (blue >= green && blue >= red) {
+            if (blue == 0) {
+                return 0;
+            }
+            position = green >= red ? (double) green / blue : -(double) red / blue;
+        }
+        else if (green >= red) {
+            position = blue >= red ? 2 - (double) blue / green : 2 + (double) red / green;
+        }
+        else {
+            position = green >= blue ? 4 - (double) green / red : 4 + (double) blue / red;
+        }
+        return (int) Math.round((position - MIN_POSITION) / POSITION_RANGE * POSITION_MASK);
+    }
+
+    /**
+     * @param pixColorFluctuation the tolerance of the search, in percent of one step of the color scale
+     * @return the largest difference in packed positions which still counts as a match
+     */
+    static int getMaxPositionGap(double pixColorFluctuation) {
+        return (int) Math.round(pixColorFluctuation / 100 * POSITION_MASK / POSITION_RANGE);
+    }
+
+    static int getIndex(int pixel) {
+        return pixel >>> POSITION_BITS;
+    }
+
+    /**
+     * Pack the pixels which are brighter than the threshold.
+     */
+    static int[] pack(int[] rgb, int threshold) {
+        if (rgb.length > MAX_PIXELS) {
+            throw new IllegalArgumentException("Color depth images may not have more than " + MAX_PIXELS + " pixels");
+        }
+        int count = 0;
+        for (int value : rgb) {
+            if (getIntensity(value) > threshold) {
+                count++;
+            }
+        }
+        int[] packed = new int[count];
+        int p = 0;
+        for (int i = 0; i < rgb.length; i++) {
+            if (getIntensity(rgb[i]) > threshold) {
+                packed[p++] = (i << POSITION_BITS) | getColorPosition(rgb[i]);
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * @return the intensity of each of the packed pixels
+     */
+    static byte[] getIntensities(int[] rgb, int[] packed) {
+        byte[] intensities = new byte[packed.length];
+        for (int p = 0; p < packed.length; p++) {
+            intensities[p] = (byte) getIntensity(rgb[getIndex(packed[p])]);
+        }
+        return intensities;
+    }
+
+    /**
+     * Flip the packed pixels of an image of the given width from left to right.
+     */
+    static int[] mirror(int[] packed, int width) {
+        int[] mirrored = new int[packed.length];
+        int rowStart = 0;
+        while (rowStart < packed.length) {
+            int row = getIndex(packed[rowStart]) / width;
+            int rowEnd = rowStart;
+            while (rowEnd < packed.length && getIndex(packed[rowEnd]) / width == row) {
+                rowEnd++;
+            }
+            // reversing the row keeps the pixels in index order
+            for (int p = rowStart; p < rowEnd; p++) {
+                int index = getIndex(packed[p]);
+                int x = index - row * width;
+                int mirroredIndex = row * width + width - 1 - x;
+                mirrored[rowStart + rowEnd - 1 - p] = (mirroredIndex << POSITION_BITS) | (packed[p] & POSITION_MASK);
+            }
+            rowStart = rowEnd;
+        }
+        return mirrored;
+    }
+
+    /**
+     * Move the packed pixels of an image by the given offsets, dropping those which end up outside of it.
+     */
+    static int[] shift(int[] packed, int width, int height, int dx, int dy) {
+        int[] shifted = new int[packed.length];
+        int count = 0;
+        for (int pixel : packed) {
+            int index = getIndex(pixel);
+            int x = index % width + dx;
+            int y = index / width + dy;
+            if (x >= 0 && x < width && y >= 0 && y < height) {
+                shifted[count++] = ((y * width + x) << POSITION_BITS) | (pixel & POSITION_MASK);
+            }
+        }
+        return count == shifted.length ? shifted : Arrays.copyOf(shifted, count);
+    }
+
+    /**
+     * Count the mask pixels which fall on image pixels brighter than the data threshold, with a color
+     * no further than maxGap away on the color scale.
+     */
+    static int countMatches(int[] mask, int[] pixels, byte[] intensities, int dataThreshold, int maxGap) {
+        int count = 0;
+        int m = 0;
+        int p = 0;
+        while (m < mask.length && p < pixels.length) {
+            int maskIndex = mask[m] >>> POSITION_BITS;
+            int pixelIndex = pixels[p] >>> POSITION_BITS;
+            if (maskIndex < pixelIndex) {
+                m++;
+            }
+            else if (maskIndex > pixelIndex) {
+                p++;
+            }
+            else {
+                if ((intensities[p] & 0xff) > dataThreshold
+                        && Math.abs((mask[m] & POSITION_MASK) - (pixels[p] & POSITION_MASK)) <= maxGap) {
+                    count++;
+                }
+                m++;
+                p++;
+            }
+        }
+        return count;
+    }
+}
@@ -95,6 +95,9 @@ public class ColorDepthResultPanel extends JPanel implements SearchProvider, Pre
     private String sortCriteria;
     private ColorDepthSearchResults searchResults;
     private final Set<SplitHalfType> selectedSplitTypes = new HashSet<>();
+    /** latest matches of a local search, waiting for the previous ones to be shown */
+    private List<ColorDepthMatch> pendingLocalMatches;
+    private boolean loadingLocalMatches = false;
     
     private final ChildSelectionModel<ColorDepthMatch,Reference> selectionModel = new ChildSelectionModel<ColorDepthMatch,Reference>() {
 
@@ -442,6 +445,60 @@ public class ColorDepthResultPanel extends JPanel implements SearchProvider, Pre
         worker.execute(); 
     }
 
+    /**
+     * Show the matches found by a local search for the given mask. May be called repeatedly as the search
+     * progresses; while one set of matches is being prepared, only the latest set is kept to be shown next.
+     */
+    public void showLocalMatches(ColorDepthMask mask, List<ColorDepthMatch> matches) {
+        this.mask = mask;
+        this.pendingLocalMatches = matches;
+        if (!loadingLocalMatches) {
+            loadLocalMatches();
+        }
+    }
+
+    private void loadLocalMatches() {
+
+        List<ColorDepthMatch> maskMatches = pendingLocalMatches;
+        pendingLocalMatches = null;
+        loadingLocalMatches = true;
+
+        SimpleWorker worker = new SimpleWorker() {
+
+            ColorDepthSearchResults localResults;
+
+            @Override
+            protected void doStuff() throws Exception {
+                localResults = prepareResults(maskMatches);
+            }
+
+            @Override
+            protected void hadSuccess() {
+                loadingLocalMatches = false;
+                searchResults = localResults;
+                if (searchResults==null) {
+                    showNoMatches();
+                }
+                else {
+                    resultsPanel.showSearchResults(searchResults, false, null);
+                    showMatches();
+                }
+                if (pendingLocalMatches!=null) {
+                    loadLocalMatches();
+                }
+            }
+
+            @Override
+            protected void hadError(Throwable error) {
+                loadingLocalMatches = false;
+                showNothing();
+                FrameworkAccess.handleException(error);
+            }
+        };
+
+        worker.execute();
+    }
+
     /**
      * Runs in background thread.
      */
@@ -1,6 +1,7 @@
 package org.janelia.workstation.browser.gui.colordepth;
 
 import com.google.common.eventbus.Subscribe;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.janelia.model.domain.DomainObject;
 import org.janelia.model.domain.Reference;
@@ -22,6 +23,7 @@ import org.janelia.workstation.core.activity_logging.ActivityLogHelper;
 import org.janelia.workstation.core.api.ClientDomainUtils;
 import org.janelia.workstation.core.api.DomainMgr;
 import org.janelia.workstation.core.api.DomainModel;
+import org.janelia.workstation.core.api.FileMgr;
 import org.janelia.workstation.core.api.web.AsyncServiceClient;
 import org.janelia.workstation.core.events.Events;
 import org.janelia.workstation.core.events.model.DomainObjectChangeEvent;
@@ -35,6 +37,7 @@ import org.janelia.workstation.core.model.ImageModel;
 import org.janelia.workstation.core.nodes.DomainObjectNode;
 import org.janelia.workstation.core.util.HelpTextUtils;
 import org.janelia.workstation.core.util.StringUtilsExtra;
+import org.janelia.workstation.core.util.Utils;
 import org.janelia.workstation.core.workers.BackgroundWorker;
 import org.janelia.workstation.core.workers.SearchMonitoringWorker;
 import org.janelia.workstation.core.workers.SimpleWorker;
@@ -48,9 +51,12 @@ import java.awt.*;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
 import java.util.List;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 
 /**
  * Specialized component for executing color depth searches on the cluster and viewing their results.
@@ -73,6 +79,7 @@ public class ColorDepthSearchEditorPanel
     private final JSplitPane splitPane;
     private final JPanel helpPanel;
     private final JButton searchButton;
+    private final JButton localSearchButton;
     private final JPanel executingPanel;
     private final JLabel executionErrorLabel;
     private final SelectablePanelListPanel maskListPanel;
@@ -99,6 +106,11 @@ public class ColorDepthSearchEditorPanel
         
         searchButton = new JButton("Execute Search");
         searchButton.addActionListener(e -> executeSearch());
+
+        localSearchButton = new JButton("Search Locally");
+        localSearchButton.setToolTipText("Search the libraries which are cached on this computer, without saving the results. "
+                + "Segmentation and gradient scores are not used.");
+        localSearchButton.addActionListener(e -> executeLocalSearch());
         
         executingPanel = new JPanel(new BorderLayout());
         executingPanel.setVisible(false);
@@ -237,6 +249,87 @@ public class ColorDepthSearchEditorPanel
         worker.execute();
     }
 
+    private List<String> getLocallyCachedLibraries() {
+        return search.getCDSTargets().stream()
+                .filter(library -> LocalColorDepthLibrary.isCached(search.getAlignmentSpace(), library))
+                .collect(Collectors.toList());
+    }
+
+    private void executeLocalSearch() {
+
+        ColorDepthMask mask = masks==null || selectedMaskRef==null ? null : masks.stream()
+                .filter(m -> m.getId().equals(selectedMaskRef.getTargetId()))
+                .findFirst().orElse(null);
+        if (mask==null) {
+            JOptionPane.showMessageDialog(FrameworkAccess.getMainFrame(), "You need to select a mask to search with.");
+            return;
+        }
+
+        List<String> libraryIdentifiers = getLocallyCachedLibraries();
+        if (libraryIdentifiers.isEmpty()) {
+            JOptionPane.showMessageDialog(FrameworkAccess.getMainFrame(), "None of the selected color depth libraries are cached on this computer.");
+            return;
+        }
+
+        log.info("Executing local color depth search {} with mask {}", search, mask);
+
+        ColorDepthParameters parameters = searchOptionsPanel.getParametersFromUI();
+        if (Boolean.TRUE.equals(parameters.getUseSegmentation()) || Boolean.TRUE.equals(parameters.getUseGradientScores())) {
+            int result = JOptionPane.showConfirmDialog(FrameworkAccess.getMainFrame(),
+                    "The local search does not support segmentation or gradient scores, and will only use pixel match scoring.\n"
+                            + "Search locally anyway?",
+                    "Search Locally", JOptionPane.OK_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE);
+            if (result != JOptionPane.OK_OPTION) {
+                return;
+            }
+        }
+
+        setProcessing(true);
+        setError(false);
+
+        SimpleWorker worker = new SimpleWorker() {
+
+            @Override
+            protected void doStuff() throws Exception {
+                ActivityLogHelper.logUserAction("ColorDepthSearchEditorPanel.executeLocalSearch", search);
+                StopWatch w = new StopWatch();
+
+                BufferedImage maskImage;
+                try (InputStream imageStream = FileMgr.getFileMgr().openFileInputStream(mask.getFilepath(), false)) {
+                    maskImage = Utils.readImageFromInputStream(imageStream, FilenameUtils.getExtension(mask.getFilepath()));
+                }
+
+                List<LocalColorDepthLibrary> libraries = new ArrayList<>();
+                for (String libraryIdentifier : libraryIdentifiers) {
+                    libraries.add(LocalColorDepthLibrary.open(LocalColorDepthLibrary.getLibraryDir(search.getAlignmentSpace(), libraryIdentifier)));
+                }
+
+                int maskThreshold = mask.getMaskThreshold()==null ? 0 : mask.getMaskThreshold();
+                new LocalColorDepthSearch(parameters).search(maskImage, maskThreshold, libraries,
+                        (matches, numSearched, numImages) -> SwingUtilities.invokeLater(() -> {
+                            if (Reference.createFor(mask).equals(selectedMaskRef)) {
+                                colorDepthResultPanel.showLocalMatches(mask, matches);
+                            }
+                        }));
+                ActivityLogHelper.logElapsed("ColorDepthSearchEditorPanel.executeLocalSearch", search, w);
+            }
+
+            @Override
+            protected void hadSuccess() {
+                setProcessing(false);
+            }
+
+            @Override
+            protected void hadError(Throwable error) {
+                setProcessing(false);
+                setError(true);
+                FrameworkAccess.handleException(error);
+            }
+        };
+
+        worker.execute();
+    }
+
     private void reload() {
         
         if (search==null) {
@@ -416,6 +509,8 @@ public class ColorDepthSearchEditorPanel
         maskListPanel.clearPanels();
         searchOptionsPanel.refresh();
         searchOptionsPanel.addConfigComponent(searchButton);
+        searchOptionsPanel.addConfigComponent(localSearchButton);
+        localSearchButton.setVisible(!getLocallyCachedLibraries().isEmpty());
         searchOptionsPanel.addConfigComponent(executingPanel);
         searchOptionsPanel.addConfigComponent(executionErrorLabel);
         
@@ -604,6 +699,7 @@ public class ColorDepthSearchEditorPanel
         log.info("Updating progress UI to: {}", isProcessing);
         executingPanel.setVisible(isProcessing);
         searchButton.setEnabled(!isProcessing);
+        localSearchButton.setEnabled(!isProcessing);
         searchOptionsPanel.updateUI();
     }
     
@@ -287,6 +287,15 @@ public class ColorDepthSearchOptionsPanel extends ConfigPanel {
         return search;
     }
 
+    /**
+     * Read the parameters shown in the UI into a new object, leaving the current search unchanged.
+     */
+    public ColorDepthParameters getParametersFromUI() {
+        ColorDepthParameters parameters = new ColorDepthParameters();
+        populateParametersFromUI(parameters);
+        return parameters;
+    }
+
     private void populateParametersFromUI(ColorDepthParameters parameters) {
 
         Double pixFlucValue;
@@ -0,0 +1,326 @@
+package org.janelia.workstation.browser.gui.colordepth;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.io.FilenameUtils;
+import org.janelia.model.domain.Reference;
+import org.janelia.model.domain.gui.cdmip.ColorDepthImage;
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A color depth library which is cached on local disk, so that it can be searched without a round-trip to
+ * the server.
+ * <p>
+ * The MIPs of each library are kept in a directory per alignment space and library, named by the GUIDs
+ * of their ColorDepthImages (e.g. 2583957419239866466.png). The first time a library is opened, its MIPs
+ * are packed into ColorDepthPixels, which are written to a single file next to them, and read from there
+ * until the MIPs change. Opened libraries are kept in memory for as long as memory allows, so that
+ * repeated searches with different masks only pay for the scoring.
+ */
+public class LocalColorDepthLibrary {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalColorDepthLibrary.class);
+
+    private static final String PACKED_FILE = "library.packed";
+    private static final int PACKED_MAGIC = 0x43444c31; // "CDL1"
+    private static final int CHUNK_SIZE = 256;
+
+    private static final Cache<Path, LocalColorDepthLibrary> openLibraries = CacheBuilder.newBuilder()
+            .softValues()
+            .build();
+
+    private final String name;
+    private final int width;
+    private final int height;
+    private final long[] imageIds;
+    private final int[][] pixels;
+    private final byte[][] intensities;
+    // identifies the MIPs which were packed, see getSignature(List)
+    private long signature;
+
+    LocalColorDepthLibrary(String name, int width, int height, long[] imageIds, int[][] pixels, byte[][] intensities) {
+        this.name = name;
+        this.width = width;
+        this.height = height;
+        this.imageIds = imageIds;
+        this.pixels = pixels;
+        this.intensities = intensities;
+    }
+
+    /**
+     * @return the directory where the MIPs of the given library are cached
+     */
+    public static Path getLibraryDir(String alignmentSpace, String libraryIdentifier) {
+        String root = ConsoleProperties.getString("console.colorDepth.localLibraries",
+                ConsoleProperties.getLocalCacheDir() + File.separator + "colordepth");
+        return Paths.get(root, alignmentSpace, libraryIdentifier);
+    }
+
+    public static boolean isCached(String alignmentSpace, String libraryIdentifier) {
+        return Files.isDirectory(getLibraryDir(alignmentSpace, libraryIdentifier));
+    }
+
+    /**
+     * Open the library cached in the given directory, packing its MIPs if they changed since they were
+     * last packed. Runs in a background thread.
+     */
+    public static LocalColorDepthLibrary open(Path dir) throws IOException, InterruptedException {
+        List<Path> files = listImageFiles(dir);
+        long signature = getSignature(files);
+        LocalColorDepthLibrary library = openLibraries.getIfPresent(dir);
+        if (library != null && library.signature == signature) {
+            return library;
+        }
+
+        Path packedFile = dir.resolve(PACKED_FILE);
+        library = Files.exists(packedFile) ? read(packedFile, signature) : null;
+        if (library == null) {
+            log.info("Packing {} color depth images in {}", files.size(), dir);
+            library = pack(dir.getFileName().toString(), files, LocalColorDepthSearch.getSharedExecutor());
+            write(library, packedFile, signature);
+        }
+        openLibraries.put(dir, library);
+        return library;
+    }
+
+    private static List<Path> listImageFiles(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                if (!file.getFileName().toString().startsWith(PACKED_FILE) && Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static long getSignature(List<Path> files) throws IOException {
+        long signature = files.size();
+        for (Path file : files) {
+            signature = 31 * signature + file.getFileName().hashCode();
+            signature = 31 * signature + Files.getLastModifiedTime(file).toMillis();
+        }
+        return signature;
+    }
+
+    /**
+     * Pack the given MIPs in parallel. MIPs which cannot be read, or which differ in size from the first, are skipped.
+     */
+    static LocalColorDepthLibrary pack(String name, List<Path> files, ExecutorService executor)
+            throws IOException, InterruptedException {
+
+        List<Future<List<PackedImage>>> chunks = new ArrayList<>();
+        for (int start = 0; start < files.size(); start += CHUNK_SIZE) {
+            List<Path> chunk = files.subList(start, Math.min(start + CHUNK_SIZE, files.size()));
+            chunks.add(executor.submit(() -> {
+                List<PackedImage> packedImages = new ArrayList<>();
+                for (Path file : chunk) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    PackedImage packedImage = packImage(file);
+                    if (packedImage != null) {
+                        packedImages.add(packedImage);
+                    }
+                }
+                return packedImages;
+            }));
+        }
+
+        List<PackedImage> packedImages = new ArrayList<>();
+        try {
+            for (Future<List<PackedImage>> chunk : chunks) {
+                packedImages.addAll(chunk.get());
+            }
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Error packing color depth images", e.getCause());
+        }
+        finally {
+            chunks.forEach(chunk -> chunk.cancel(true));
+        }
+
+        int width = packedImages.isEmpty() ? 0 : packedImages.get(0).width;
+        int height = packedImages.isEmpty() ? 0 : packedImages.get(0).height;
+        packedImages.removeIf(packedImage -> {
+            if (packedImage.width != width || packedImage.height != height) {
+                log.warn("Skipping {}x{} color depth image {}, which does not match the {}x{} library",
+                        packedImage.width, packedImage.height, packedImage.id, width, height);
+                return true;
+            }
+            return false;
+        });
+
+        long[] imageIds = new long[packedImages.size()];
+        int[][] pixels = new int[packedImages.size()][];
+        byte[][] intensities = new byte[packedImages.size()][];
+        for (int i = 0; i < packedImages.size(); i++) {
+            imageIds[i] = packedImages.get(i).id;
+            pixels[i] = packedImages.get(i).pixels;
+            intensities[i] = packedImages.get(i).intensities;
+        }
+        return new LocalColorDepthLibrary(name, width, height, imageIds, pixels, intensities);
+    }
+
+    private static PackedImage packImage(Path file) {
+        long id;
+        try {
+            id = Long.parseLong(FilenameUtils.getBaseName(file.getFileName().toString()));
+        }
+        catch (NumberFormatException e) {
+            log.warn("Skipping {}, which is not named by a color depth image GUID", file);
+            return null;
+        }
+        BufferedImage image;
+        try {
+            image = ImageIO.read(file.toFile());
+        }
+        catch (IOException e) {
+            log.warn("Skipping unreadable color depth image {}", file, e);
+            return null;
+        }
+        if (image == null) {
+            log.warn("Skipping {}, which is not in a supported image format", file);
+            return null;
+        }
+        if (image.getWidth() * image.getHeight() > ColorDepthPixels.MAX_PIXELS) {
+            log.warn("Skipping {}, which is too large for a color depth image", file);
+            return null;
+        }
+        int[] rgb = ColorDepthPixels.getRGB(image);
+        int[] pixels = ColorDepthPixels.pack(rgb, 0);
+        return new PackedImage(id, image.getWidth(), image.getHeight(), pixels, ColorDepthPixels.getIntensities(rgb, pixels));
+    }
+
+    private static LocalColorDepthLibrary read(Path packedFile, long signature) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(packedFile), 1 << 16))) {
+            if (in.readInt() != PACKED_MAGIC || in.readLong() != signature) {
+                log.info("Color depth images changed since {} was written", packedFile);
+                return null;
+            }
+            String name = in.readUTF();
+            int width = in.readInt();
+            int height = in.readInt();
+            int count = in.readInt();
+            long[] imageIds = new long[count];
+            int[][] pixels = new int[count][];
+            byte[][] intensities = new byte[count][];
+            byte[] buffer = new byte[0];
+            for (int i = 0; i < count; i++) {
+                imageIds[i] = in.readLong();
+                int length = in.readInt();
+                if (buffer.length < length * 4) {
+                    buffer = new byte[length * 4];
+                }
+                in.readFully(buffer, 0, length * 4);
+                pixels[i] = new int[length];
+                ByteBuffer.wrap(buffer, 0, length * 4).asIntBuffer().get(pixels[i]);
+                intensities[i] = new byte[length];
+                in.readFully(intensities[i]);
+            }
+            LocalColorDepthLibrary library = new LocalColorDepthLibrary(name, width, height, imageIds, pixels, intensities);
+            library.signature = signature;
+            return library;
+        }
+        catch (IOException e) {
+            log.warn("Could not read packed color depth library {}, packing it again", packedFile, e);
+            return null;
+        }
+    }
+
+    private static void write(LocalColorDepthLibrary library, Path packedFile, long signature) throws IOException {
+        library.signature = signature;
+        Path tempFile = packedFile.resolveSibling(PACKED_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+            out.writeInt(PACKED_MAGIC);
+            out.writeLong(signature);
+            out.writeUTF(library.name);
+            out.writeInt(library.width);
+            out.writeInt(library.height);
+            out.writeInt(library.size());
+            byte[] buffer = new byte[0];
+            for (int i = 0; i < library.size(); i++) {
+                int[] imagePixels = library.pixels[i];
+                out.writeLong(library.imageIds[i]);
+                out.writeInt(imagePixels.length);
+                if (buffer.length < imagePixels.length * 4) {
+                    buffer = new byte[imagePixels.length * 4];
+                }
+                ByteBuffer.wrap(buffer).asIntBuffer().put(imagePixels);
+                out.write(buffer, 0, imagePixels.length * 4);
+                out.write(library.intensities[i]);
+            }
+        }
+        Files.move(tempFile, packedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int size() {
+        return imageIds.length;
+    }
+
+    public Reference getImageRef(int i) {
+        return Reference.createFor(ColorDepthImage.class, imageIds[i]);
+    }
+
+    int[] getPixels(int i) {
+        return pixels[i];
+    }
+
+    byte[] getIntensities(int i) {
+        return intensities[i];
+    }
+
+    private static class PackedImage {
+
+        private final long id;
+        private final int width;
+        private final int height;
+        private final int[] pixels;
+        private final byte[] intensities;
+
+        PackedImage(long id, int width, int height, int[] pixels, byte[] intensities) {
+            this.id = id;
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+            this.intensities = intensities;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package org.janelia.workstation.browser.gui.colordepth;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.janelia.model.domain.gui.cdmip.ColorDepthMatch;
+import org.janelia.model.domain.gui.cdmip.ColorDepthParameters;
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Searches color depth libraries cached on local disk for the images which best match a mask, so that
+ * masks can be tried out without waiting for a search on the cluster.
+ * <p>
+ * The search follows the parameters of the cluster search: a mask pixel matches if the image pixel under
+ * it is brighter than the data threshold, and its color is within the pixel color fluctuation of the color
+ * of the mask pixel. The mask may also be shifted in XY, and mirrored, in which case the score of an image
+ * is the best score of any of the variations of the mask. The libraries are scored in chunks, in parallel,
+ * and the best matches found so far are handed to a listener as the chunks finish.
+ */
+public class LocalColorDepthSearch {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalColorDepthSearch.class);
+
+    private static final int THREADS = ConsoleProperties.getInt("console.colorDepth.localSearchThreads",
+            Runtime.getRuntime().availableProcessors());
+    private static final int CHUNK_SIZE = 1024;
+    private static final long PROGRESS_INTERVAL_MILLIS = 250;
+
+    private static final int DEFAULT_DATA_THRESHOLD = 100;
+    private static final double DEFAULT_PIX_COLOR_FLUCTUATION = 2;
+    private static final int DEFAULT_MAX_RESULTS = 200;
+
+    private static ExecutorService sharedExecutor;
+
+    /**
+     * Receives the best matches found so far, in order of decreasing score.
+     */
+    public interface ProgressListener {
+        void matchesFound(List<ColorDepthMatch> matches, int numSearched, int numImages);
+    }
+
+    static synchronized ExecutorService getSharedExecutor() {
+        if (sharedExecutor == null) {
+            sharedExecutor = Executors.newFixedThreadPool(THREADS, new ThreadFactoryBuilder()
+                    .setNameFormat("LocalColorDepthSearch-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return sharedExecutor;
+    }
+
+    private final int dataThreshold;
+    private final int maxPositionGap;
+    private final int xyShift;
+    private final boolean mirrorMask;
+    private final int maxResults;
+    private final ExecutorService executor;
+
+    public LocalColorDepthSearch(ColorDepthParameters parameters) {
+        this(parameters.getDataThreshold() == null ? DEFAULT_DATA_THRESHOLD : parameters.getDataThreshold(),
+                parameters.getPixColorFluctuation() == null ? DEFAULT_PIX_COLOR_FLUCTUATION : parameters.getPixColorFluctuation(),
+                parameters.getXyShift() == null ? 0 : parameters.getXyShift(),
+                parameters.getMirrorMask() != null && parameters.getMirrorMask(),
+                parameters.getMaxResultsPerMask() == null ? DEFAULT_MAX_RESULTS : parameters.getMaxResultsPerMask(),
+                getSharedExecutor());
+    }
+
+    LocalColorDepthSearch(int dataThreshold, double pixColorFluctuation, int xyShift, boolean mirrorMask,
+                          int maxResults, ExecutorService executor) {
+        this.dataThreshold = dataThreshold;
+        this.maxPositionGap = ColorDepthPixels.getMaxPositionGap(pixColorFluctuation);
+        this.xyShift = xyShift;
+        this.mirrorMask = mirrorMask;
+        this.maxResults = maxResults;
+        this.executor = executor;
+    }
+
+    /**
+     * Search the given libraries for the best matches to the mask. Runs in a background thread, which may
+     * be interrupted to cancel the search.
+     *
+     * @param listener notified of the best matches found so far, on the calling thread, or null
+     * @return the best matches, in order of decreasing score
+     */
+    public List<ColorDepthMatch> search(BufferedImage maskImage, int maskThreshold,
+                                        List<LocalColorDepthLibrary> libraries, ProgressListener listener)
+            throws InterruptedException {
+
+        int width = maskImage.getWidth();
+        int height = maskImage.getHeight();
+        int[] mask = ColorDepthPixels.pack(ColorDepthPixels.getRGB(maskImage), maskThreshold);
+        List<int[]> maskVariants = getMaskVariants(mask, width, height);
+
+        CompletionService<ScoredChunk> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<ScoredChunk>> chunks = new ArrayList<>();
+        int numImages = 0;
+        for (LocalColorDepthLibrary library : libraries) {
+            if (library.getWidth() != width || library.getHeight() != height) {
+                log.warn("Skipping {}x{} library {}, which does not match the {}x{} mask",
+                        library.getWidth(), library.getHeight(), library.getName(), width, height);
+                continue;
+            }
+            for (int start = 0; start < library.size(); start += CHUNK_SIZE) {
+                int chunkStart = start;
+                int chunkEnd = Math.min(start + CHUNK_SIZE, library.size());
+                chunks.add(completionService.submit(() -> scoreChunk(maskVariants, library, chunkStart, chunkEnd)));
+            }
+            numImages += library.size();
+        }
+        log.info("Searching {} local color depth images with {} mask pixels in {} chunks",
+                numImages, mask.length, chunks.size());
+
+        PriorityQueue<Candidate> best = new PriorityQueue<>(Candidate.ascending);
+        int numSearched = 0;
+        long lastProgress = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < chunks.size(); i++) {
+                ScoredChunk chunk = completionService.take().get();
+                for (Candidate candidate : chunk.candidates) {
+                    offer(best, candidate);
+                }
+                numSearched += chunk.size;
+                if (listener != null && System.currentTimeMillis() - lastProgress >= PROGRESS_INTERVAL_MILLIS) {
+                    listener.matchesFound(getMatches(best, mask.length), numSearched, numImages);
+                    lastProgress = System.currentTimeMillis();
+                }
+            }
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("Error scoring local color depth images", e.getCause());
+        }
+        finally {
+            chunks.forEach(chunk -> chunk.cancel(true));
+        }
+
+        List<ColorDepthMatch> matches = getMatches(best, mask.length);
+        if (listener != null) {
+            listener.matchesFound(matches, numImages, numImages);
+        }
+        return matches;
+    }
+
+    private List<int[]> getMaskVariants(int[] mask, int width, int height) {
+        List<int[]> variants = new ArrayList<>();
+        List<int[]> orientations = new ArrayList<>();
+        orientations.add(mask);
+        if (mirrorMask) {
+            orientations.add(ColorDepthPixels.mirror(mask, width));
+        }
+        for (int[] orientation : orientations) {
+            variants.add(orientation);
+            if (xyShift > 0) {
+                for (int dy = -xyShift; dy <= xyShift; dy += xyShift) {
+                    for (int dx = -xyShift; dx <= xyShift; dx += xyShift) {
+                        if (dx != 0 || dy != 0) {
+                            variants.add(ColorDepthPixels.shift(orientation, width, height, dx, dy));
+                        }
+                    }
+                }
+            }
+        }
+        return variants;
+    }
+
+    private ScoredChunk scoreChunk(List<int[]> maskVariants, LocalColorDepthLibrary library, int start, int end) {
+        PriorityQueue<Candidate> best = new PriorityQueue<>(Candidate.ascending);
+        for (int i = start; i < end; i++) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            int[] pixels = library.getPixels(i);
+            byte[] intensities = library.getIntensities(i);
+            // no variant can match more pixels than it has, or than the image has
+            int minScore = best.size() < maxResults ? 1 : best.peek().score + 1;
+            int score = 0;
+            for (int[] variant : maskVariants) {
+                if (Math.min(variant.length, pixels.length) < Math.max(minScore, score + 1)) {
+                    continue;
+                }
+                score = Math.max(score, ColorDepthPixels.countMatches(variant, pixels, intensities, dataThreshold, maxPositionGap));
+            }
+            if (score >= minScore) {
+                offer(best, new Candidate(library, i, score));
+            }
+        }
+        return new ScoredChunk(end - start, new ArrayList<>(best));
+    }
+
+    private void offer(PriorityQueue<Candidate> best, Candidate candidate) {
+        if (best.size() < maxResults) {
+            best.add(candidate);
+        }
+        else if (maxResults > 0 && Candidate.ascending.compare(candidate, best.peek()) > 0) {
+            best.poll();
+            best.add(candidate);
+        }
+    }
+
+    private List<ColorDepthMatch> getMatches(PriorityQueue<Candidate> best, int maskSize) {
+        List<Candidate> candidates = new ArrayList<>(best);
+        candidates.sort(Candidate.ascending.reversed());
+        List<ColorDepthMatch> matches = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            ColorDepthMatch match = new ColorDepthMatch();
+            match.setImageRef(candidate.library.getImageRef(candidate.index));
+            match.setScore(candidate.score);
+            match.setScorePercent((double) candidate.score / maskSize);
+            matches.add(match);
+        }
+        return matches;
+    }
+
+    private static class ScoredChunk {
+
+        private final int size;
+        private final List<Candidate> candidates;
+
+        ScoredChunk(int size, List<Candidate> candidates) {
+            this.size = size;
+            this.candidates = candidates;
+        }
+    }
+
+    private static class Candidate {
+
+        // by score, and then by position in the libraries, so that ties come out in the same order every time
+        private static final Comparator<Candidate> ascending = Comparator
+                .comparingInt((Candidate c) -> c.score)
+                .thenComparing((Candidate c) -> c.library.getName(), Comparator.reverseOrder())
+                .thenComparingInt((Candidate c) -> -c.index);
+
+        private final LocalColorDepthLibrary library;
+        private final int index;
+        private final int score;
+
+        Candidate(LocalColorDepthLibrary library, int index, int score) {
+            this.library = library;
+            this.index = index;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.janelia.workstation.browser.gui.colordepth;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.model.domain.gui.cdmip.ColorDepthMatch;
+
+/**
+ * Times the local color depth search over a synthetic library of MIPs in the JRC2018 brain size, each
+ * with a few random neurons. A handful of the MIPs contain a copy of the mask neuron, which should come
+ * out on top.
+ * <p>
+ * Usage: LocalColorDepthSearchBenchmark [number of images] [neurons per image] [threads...]
+ */
+public class LocalColorDepthSearchBenchmark {
+
+    private static final int WIDTH = 1210;
+    private static final int HEIGHT = 566;
+    private static final int NEURON_LENGTH = 600;
+    private static final int PLANTED_MATCHES = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numImages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int neuronsPerImage = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int[] threadCounts = args.length > 2
+                ? Arrays.stream(args, 2, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{1, Runtime.getRuntime().availableProcessors()};
+
+        Random random = new Random(42);
+        int[] maskRgb = new int[WIDTH * HEIGHT];
+        int[] maskTouched = new int[WIDTH * HEIGHT];
+        int maskSize = drawNeuron(maskRgb, maskTouched, 0, random, 4 * NEURON_LENGTH);
+        BufferedImage mask = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        mask.setRGB(0, 0, WIDTH, HEIGHT, maskRgb, 0, WIDTH);
+
+        long start = System.nanoTime();
+        long[] imageIds = new long[numImages];
+        int[][] pixels = new int[numImages][];
+        byte[][] intensities = new byte[numImages][];
+        long numPixels = 0;
+        int[] rgb = new int[WIDTH * HEIGHT];
+        int[] touched = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < numImages; i++) {
+            // only the pixels which were drawn are packed, and then cleared for the next image
+            int numTouched = 0;
+            for (int n = 0; n < neuronsPerImage; n++) {
+                numTouched = drawNeuron(rgb, touched, numTouched, random, NEURON_LENGTH);
+            }
+            if (i % (numImages / PLANTED_MATCHES) == numImages / PLANTED_MATCHES / 2) {
+                for (int p = 0; p < maskSize; p++) {
+                    if (rgb[maskTouched[p]] == 0) {
+                        touched[numTouched++] = maskTouched[p];
+                    }
+                    rgb[maskTouched[p]] = maskRgb[maskTouched[p]];
+                }
+            }
+            Arrays.sort(touched, 0, numTouched);
+            imageIds[i] = i;
+            pixels[i] = new int[numTouched];
+            for (int p = 0; p < numTouched; p++) {
+                pixels[i][p] = (touched[p] << ColorDepthPixels.POSITION_BITS) | ColorDepthPixels.getColorPosition(rgb[touched[p]]);
+            }
+            intensities[i] = ColorDepthPixels.getIntensities(rgb, pixels[i]);
+            numPixels += numTouched;
+            for (int p = 0; p < numTouched; p++) {
+                rgb[touched[p]] = 0;
+            }
+        }
+        LocalColorDepthLibrary library = new LocalColorDepthLibrary("synthetic", WIDTH, HEIGHT, imageIds, pixels, intensities);
+        System.out.printf("Packed %d images, %.0f pixels per image (%.0f MB), in %.1f s%n",
+                numImages, (double) numPixels / numImages, numPixels * 5 / 1e6, (System.nanoTime() - start) / 1e9);
+
+        for (int threads : threadCounts) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            LocalColorDepthSearch search = new LocalColorDepthSearch(100, 2, 0, false, 200, executor);
+            List<LocalColorDepthLibrary> libraries = Collections.singletonList(library);
+            // warm up
+            search.search(mask, 50, libraries, null);
+            for (int run = 0; run < 3; run++) {
+                long[] firstProgress = new long[1];
+                long searchStart = System.nanoTime();
+                List<ColorDepthMatch> matches = search.search(mask, 50, libraries, (found, numSearched, total) -> {
+                    if (firstProgress[0] == 0) {
+                        firstProgress[0] = System.nanoTime() - searchStart;
+                    }
+                });
+                double seconds = (System.nanoTime() - searchStart) / 1e9;
+                System.out.printf("%d threads: %.2f s (%.0f images/s), first results after %.2f s, best %.2f, %d of top %d planted%n",
+                        threads, seconds, numImages / seconds, firstProgress[0] / 1e9,
+                        matches.get(0).getScorePercent(), countPlanted(matches, numImages), PLANTED_MATCHES);
+            }
+            executor.shutdown();
+        }
+    }
+
+    private static long countPlanted(List<ColorDepthMatch> matches, int numImages) {
+        return matches.stream()
+                .limit(PLANTED_MATCHES)
+                .filter(match -> match.getImageRef().getTargetId() % (numImages / PLANTED_MATCHES) == numImages / PLANTED_MATCHES / 2)
+                .count();
+    }
+
+    /**
+     * Draw a random walk, three pixels wide, whose color goes through the depths of the color depth scale.
+     *
+     * @return the number of pixels touched so far, whose indexes are recorded in touched
+     */
+    private static int drawNeuron(int[] rgb, int[] touched, int numTouched, Random random, int length) {
+        double x = WIDTH * (0.2 + 0.6 * random.nextDouble());
+        double y = HEIGHT * (0.2 + 0.6 * random.nextDouble());
+        double angle = random.nextDouble() * 2 * Math.PI;
+        double depth = random.nextDouble();
+        for (int step = 0; step < length; step++) {
+            angle += random.nextGaussian() * 0.2;
+            x = Math.max(1, Math.min(WIDTH - 2, x + Math.cos(angle)));
+            y = Math.max(1, Math.min(HEIGHT - 2, y + Math.sin(angle)));
+            depth = Math.max(0, Math.min(1, depth + random.nextGaussian() * 0.01));
+            int color = getDepthColor(depth, 120 + random.nextInt(136));
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int index = ((int) y + dy) * WIDTH + (int) x + dx;
+                    if (rgb[index] == 0) {
+                        touched[numTouched++] = index;
+                    }
+                    rgb[index] = color;
+                }
+            }
+        }
+        return numTouched;
+    }
+
+    /**
+     * Blue through cyan, green and yellow to red.
+     */
+    private static int getDepthColor(double depth, int intensity) {
+        double position = depth * 4;
+        int step = Math.min(3, (int) position);
+        int ramp = (int) Math.round((position - step) * intensity);
+        switch (step) {
+            case 0: return (ramp << 8) | intensity;
+            case 1: return (intensity << 8) | (intensity - ramp);
+            case 2: return (ramp << 16) | (intensity << 8);
+            default: return (intensity << 16) | ((intensity - ramp) << 8);
+        }
+    }
+}
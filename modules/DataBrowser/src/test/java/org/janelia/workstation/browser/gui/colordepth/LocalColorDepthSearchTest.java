@@ -0,0 +1,195 @@
+package org.janelia.workstation.browser.gui.colordepth;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.janelia.model.domain.Reference;
+import org.janelia.model.domain.gui.cdmip.ColorDepthImage;
+import org.janelia.model.domain.gui.cdmip.ColorDepthMatch;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LocalColorDepthSearchTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 32;
+    private static final int BLUE = 0x0000ff;
+    private static final int CYAN = 0x00ffff;
+    private static final int GREEN = 0x00ff00;
+    private static final int RED = 0xff0000;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private Path dir;
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        if (dir != null) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * An image with a filled rectangle of the given color.
+     */
+    private static BufferedImage image(int x, int y, int width, int height, int rgb) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int i = x; i < x + width; i++) {
+            for (int j = y; j < y + height; j++) {
+                image.setRGB(i, j, rgb);
+            }
+        }
+        return image;
+    }
+
+    private static LocalColorDepthLibrary library(String name, BufferedImage... images) {
+        long[] imageIds = new long[images.length];
+        int[][] pixels = new int[images.length][];
+        byte[][] intensities = new byte[images.length][];
+        for (int i = 0; i < images.length; i++) {
+            int[] rgb = ColorDepthPixels.getRGB(images[i]);
+            imageIds[i] = i + 1;
+            pixels[i] = ColorDepthPixels.pack(rgb, 0);
+            intensities[i] = ColorDepthPixels.getIntensities(rgb, pixels[i]);
+        }
+        return new LocalColorDepthLibrary(name, WIDTH, HEIGHT, imageIds, pixels, intensities);
+    }
+
+    private static long imageId(ColorDepthMatch match) {
+        return match.getImageRef().getTargetId();
+    }
+
+    @Test
+    public void testColorPositions() {
+        int blue = ColorDepthPixels.getColorPosition(BLUE);
+        int cyan = ColorDepthPixels.getColorPosition(CYAN);
+        int green = ColorDepthPixels.getColorPosition(GREEN);
+        int red = ColorDepthPixels.getColorPosition(RED);
+        assertTrue(blue < cyan && cyan < green && green < red);
+        assertTrue(red <= ColorDepthPixels.POSITION_MASK);
+        // the position depends on the hue, not the brightness
+        assertEquals(cyan, ColorDepthPixels.getColorPosition(0x008080));
+        // one step of the scale is 100 percent
+        assertEquals(cyan - blue, ColorDepthPixels.getMaxPositionGap(100), 1);
+        assertEquals(0xff, ColorDepthPixels.getIntensity(0x10ff20));
+    }
+
+    @Test
+    public void testMirrorAndShift() {
+        int width = 4;
+        int height = 2;
+        int[] rgb = new int[]{BLUE, GREEN, 0, 0, 0, 0, RED, 0};
+        int[] packed = ColorDepthPixels.pack(rgb, 0);
+        assertEquals(3, packed.length);
+
+        int[] mirrored = ColorDepthPixels.mirror(packed, width);
+        assertArrayEquals(new int[]{2, 3, 5}, indexes(mirrored));
+        assertEquals(packed[1] & ColorDepthPixels.POSITION_MASK, mirrored[0] & ColorDepthPixels.POSITION_MASK);
+        assertArrayEquals(packed, ColorDepthPixels.mirror(mirrored, width));
+
+        assertArrayEquals(new int[]{5, 6}, indexes(ColorDepthPixels.shift(packed, width, height, 1, 1)));
+        assertArrayEquals(new int[]{0, 5}, indexes(ColorDepthPixels.shift(packed, width, height, -1, 0)));
+    }
+
+    private static int[] indexes(int[] packed) {
+        return Arrays.stream(packed).map(ColorDepthPixels::getIndex).toArray();
+    }
+
+    @Test
+    public void testSearchRanksBestMatches() throws Exception {
+        BufferedImage mask = image(10, 10, 10, 10, GREEN);
+        LocalColorDepthLibrary library = library("test",
+                image(10, 10, 10, 5, GREEN),    // half of the mask
+                image(10, 10, 10, 10, RED),     // wrong depth
+                image(10, 10, 10, 10, GREEN),   // the whole mask
+                image(40, 10, 10, 10, GREEN),   // elsewhere
+                image(10, 10, 10, 8, 0x003000)); // too dim
+
+        List<List<ColorDepthMatch>> progress = new ArrayList<>();
+        LocalColorDepthSearch search = new LocalColorDepthSearch(100, 2, 0, false, 10, executor);
+        List<ColorDepthMatch> matches = search.search(mask, 50, Collections.singletonList(library),
+                (found, numSearched, numImages) -> progress.add(found));
+
+        assertEquals(2, matches.size());
+        assertEquals(Reference.createFor(ColorDepthImage.class, 3L), matches.get(0).getImageRef());
+        assertEquals(100, (int) matches.get(0).getScore());
+        assertEquals(1.0, matches.get(0).getScorePercent(), 1e-9);
+        assertEquals(1, imageId(matches.get(1)));
+        assertEquals(0.5, matches.get(1).getScorePercent(), 1e-9);
+        assertEquals(matches.size(), progress.get(progress.size() - 1).size());
+
+        // with a lower data threshold, the dim image matches too
+        matches = new LocalColorDepthSearch(10, 2, 0, false, 10, executor)
+                .search(mask, 50, Collections.singletonList(library), null);
+        assertEquals(3, matches.size());
+        assertEquals(5, imageId(matches.get(1)));
+
+        // and only the best are kept
+        matches = new LocalColorDepthSearch(10, 2, 0, false, 1, executor)
+                .search(mask, 50, Collections.singletonList(library), null);
+        assertEquals(1, matches.size());
+        assertEquals(3, imageId(matches.get(0)));
+    }
+
+    @Test
+    public void testShiftedAndMirroredMasks() throws Exception {
+        BufferedImage mask = image(10, 10, 4, 4, CYAN);
+        LocalColorDepthLibrary library = library("test",
+                image(12, 10, 4, 4, CYAN),            // shifted by 2 pixels
+                image(WIDTH - 14, 10, 4, 4, CYAN));   // mirrored
+
+        List<ColorDepthMatch> matches = new LocalColorDepthSearch(100, 2, 0, false, 10, executor)
+                .search(mask, 50, Collections.singletonList(library), null);
+        assertEquals(1, matches.size());
+        assertEquals(0.5, matches.get(0).getScorePercent(), 1e-9);
+
+        matches = new LocalColorDepthSearch(100, 2, 2, true, 10, executor)
+                .search(mask, 50, Collections.singletonList(library), null);
+        assertEquals(2, matches.size());
+        assertEquals(1.0, matches.get(0).getScorePercent(), 1e-9);
+        assertEquals(1.0, matches.get(1).getScorePercent(), 1e-9);
+    }
+
+    @Test
+    public void testLibraryIsPackedOnOpen() throws Exception {
+        dir = Files.createTempDirectory("LocalColorDepthSearchTest");
+        ImageIO.write(image(10, 10, 10, 10, GREEN), "png", dir.resolve("1001.png").toFile());
+        ImageIO.write(image(30, 10, 10, 10, RED), "png", dir.resolve("1002.png").toFile());
+        ImageIO.write(image(0, 0, 4, 4, RED), "png", dir.resolve("notes.png").toFile());
+
+        LocalColorDepthLibrary library = LocalColorDepthLibrary.open(dir);
+        assertEquals(2, library.size());
+        assertEquals(WIDTH, library.getWidth());
+        assertEquals(Reference.createFor(ColorDepthImage.class, 1001L), library.getImageRef(0));
+        assertEquals(100, library.getPixels(1).length);
+        assertTrue(Files.exists(dir.resolve("library.packed")));
+        assertSame(library, LocalColorDepthLibrary.open(dir));
+
+        // adding a MIP packs the library again
+        File added = dir.resolve("1003.png").toFile();
+        ImageIO.write(image(0, 0, 5, 5, BLUE), "png", added);
+        library = LocalColorDepthLibrary.open(dir);
+        assertEquals(3, library.size());
+        assertEquals(25, library.getPixels(2).length);
+    }
+}
@@ -0,0 +1,67 @@
+package org.janelia.gltools.texture;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+/**
+ * Measures how long Texture3d takes to copy the slices of a brick into its pixel buffer and
+ * compute all its mipmaps, for random 8 and 16 bit single channel bricks.
+ *
+ * Usage: MeasureTexture3dLoadTime [size [passes]]
+ */
+public class MeasureTexture3dLoadTime {
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        for (int bitDepth : new int[] {8, 16}) {
+            Raster[] slices = createSlices(size, bitDepth);
+            ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                    new int[] {bitDepth}, false, false, Transparency.OPAQUE,
+                    bitDepth == 8 ? DataBuffer.TYPE_BYTE : DataBuffer.TYPE_USHORT);
+            measure(slices, colorModel, 1); // warm up the JIT
+            double millis = measure(slices, colorModel, passes);
+            System.out.printf("%d^3 %2d bit brick: %8.1f ms per brick (%d processors)%n",
+                    size, bitDepth, millis, Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    private static double measure(Raster[] slices, ColorModel colorModel, int passes) throws Exception {
+        long start = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+            Texture3d texture = new Texture3d();
+            texture.width = slices[0].getWidth();
+            texture.height = slices[0].getHeight();
+            texture.depth = slices.length;
+            texture.loadStack(slices, colorModel);
+        }
+        return (System.nanoTime() - start) / 1e6 / passes;
+    }
+
+    private static Raster[] createSlices(int size, int bitDepth) {
+        Random random = new Random(1);
+        Raster[] slices = new Raster[size];
+        for (int z = 0; z < size; z++) {
+            WritableRaster slice = Raster.createInterleavedRaster(
+                    bitDepth == 8 ? DataBuffer.TYPE_BYTE : DataBuffer.TYPE_USHORT, size, size, 1, null);
+            if (bitDepth == 8) {
+                random.nextBytes(((DataBufferByte) slice.getDataBuffer()).getData());
+            } else {
+                short[] data = ((DataBufferUShort) slice.getDataBuffer()).getData();
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = (short) random.nextInt(1 << 16);
+                }
+            }
+            slices[z] = slice;
+        }
+        return slices;
+    }
+}
@@ -7,14 +7,10 @@ import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import javax.media.opengl.GL3;
 
@@ -43,13 +39,10 @@ public class Texture3d extends BasicTexture implements GL3Resource {
 
     private static final ActivityLogHelper activityLog = ActivityLogHelper.getInstance();
     
-    private static final ScheduledThreadPoolExecutor scheduledThreadPoolExecutor=new ScheduledThreadPoolExecutor(6);
-
     protected int height = 0;
     protected int depth = 0;
     private int pixelBufferObject = 0;
     private byte[] pixelBytes;
-    private short[] shortBytes;
 
     public Texture3d() {
         textureTarget = GL3.GL_TEXTURE_3D;
@@ -167,6 +160,8 @@ public class Texture3d extends BasicTexture implements GL3Resource {
             } else {
                 return false;
             }
+        } catch (InterruptedIOException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Unable to parse", e);
@@ -199,7 +194,7 @@ public class Texture3d extends BasicTexture implements GL3Resource {
         return Pair.of(raster, slice.getColorModel());
     }
 
-    private void loadStack(Raster[] raster, ColorModel colorModel) {
+    void loadStack(Raster[] raster, ColorModel colorModel) throws InterruptedIOException {
         PerformanceTimer timer = new PerformanceTimer();
 
         bytesPerIntensity = colorModel.getComponentSize(0)/8;
@@ -228,174 +223,67 @@ public class Texture3d extends BasicTexture implements GL3Resource {
         }
 
         allocatePixels();
+        if (bytesPerIntensity > 1) {
+            shortPixels = pixels.asShortBuffer();
+        }
+        Texture3d firstMipmap = createHalfSizeTexture();
 
         LOG.debug("Initializing texture buffer took {} ms", timer.reportMsAndRestart());
 
-        if (bytesPerIntensity<2) { // 8-bit
-            pixels.rewind();
-            if (depth<6) {
-                LoadStackZSlice8bit loadStackZSlice8bit=new LoadStackZSlice8bit(0,depth,pixels,raster,depth,height,width,numberOfComponents);
-                loadStackZSlice8bit.run();
+        // Unpack each slab of slices, and while it is still in cache, sample the first mipmap from it
+        VolumeProcessor.processSlabs(depth, (long) width * height, (zStart, zEnd) -> {
+            if (bytesPerIntensity < 2) {
+                unpack8bitSlices(raster, zStart, zEnd);
             } else {
-                List<Future> threadList=new ArrayList<>();
-                for (int z=0;z<depth;) {
-                    int remainingZ=depth-z;
-                    int zCount=3;
-                    if (remainingZ<zCount) {
-                        zCount=remainingZ;
-                    }
-                    LoadStackZSlice8bit loadStackZSlice8bit=new LoadStackZSlice8bit(z,zCount,pixels,raster,depth,height,width,numberOfComponents);
-                    threadList.add(scheduledThreadPoolExecutor.submit(loadStackZSlice8bit));
-                    z+=zCount;
-                }
-                int doneCount = 0;
-                long startTime = new Date().getTime();
-                while (doneCount < threadList.size()) {
-                    long currentTime = new Date().getTime();
-                    if (currentTime - startTime > 30000) {
-                        LOG.error("loadStack() exceeded max thread pool wait time");
-                        break;
-                    }
-                    try {
-                        Thread.sleep(10);
-                    }
-                    catch (Exception ex) {
-                    }
-                    doneCount = 0;
-                    for (Future f : threadList) {
-                        if (f.isDone()) doneCount++;
-                    }
-                }
+                unpack16bitSlices(raster, zStart, zEnd);
             }
-            pixels.flip();
-        } else { // 16-bit
-            shortPixels=pixels.asShortBuffer();
-            shortPixels.rewind();
-            if (depth<6) {
-                LoadStackZSlice16bit loadStackZSlice16bit=new LoadStackZSlice16bit(0,depth,shortPixels,raster,depth,height,width,numberOfComponents);
-                loadStackZSlice16bit.run();
-            } else {
-                List<Future> threadList=new ArrayList<>();
-                for (int z=0;z<depth;) {
-                    int remainingZ=depth-z;
-                    int zCount=3;
-                    if (remainingZ<zCount) {
-                        zCount=remainingZ;
-                    }
-                    LoadStackZSlice16bit loadStackZSlice16bit=new LoadStackZSlice16bit(z,zCount,shortPixels,raster,depth,height,width,numberOfComponents);
-                    threadList.add(scheduledThreadPoolExecutor.submit(loadStackZSlice16bit));
-                    //loadStackZSlice16bit.run();
-                    z+=zCount;
-                }
-                int doneCount = 0;
-                long startTime = new Date().getTime();
-                while (doneCount < threadList.size()) {
-                    long currentTime = new Date().getTime();
-                    if (currentTime - startTime > 30000) {
-                        LOG.error("loadStack() exceeded max thread pool wait time");
-                        break;
-                    }
-                    try {
-                        Thread.sleep(10);
-                    }
-                    catch (Exception ex) {
-                    }
-                    doneCount = 0;
-                    for (Future f : threadList) {
-                        if (f.isDone()) doneCount++;
-                    }
-                }
+            if (firstMipmap != null) {
+                firstMipmap.sampleSlicesFrom(this, zStart, zEnd);
             }
-            shortPixels.flip();
-        }
+        });
         pixels.rewind();
 
         LOG.debug("Getting Raster data and populating texture buffer took {} ms", timer.reportMsAndRestart());
 
-        computeMipmaps();
+        computeMipmaps(firstMipmap);
 
         LOG.debug("Computing mipmaps took {} ms", timer.reportMsAndRestart());
 
         needsUpload = true;
     }
 
-    private static class LoadStackZSlice8bit implements Runnable {
-        int zStart, zCount, depth, height, width, numberOfComponents;
-        ByteBuffer pixels;
-        Raster[] raster;
-
-        LoadStackZSlice8bit(int zStart, int zCount, ByteBuffer pixels, Raster[] raster, int depth, int height, int width, int numberOfComponents) {
-            this.zStart=zStart;
-            this.zCount=zCount;
-            this.pixels=pixels;
-            this.raster=raster;
-            this.depth=depth;
-            this.height=height;
-            this.width=width;
-            this.numberOfComponents=numberOfComponents;
-        }
-
-        public void run() {
-            int pixelOffset=zStart*height*width*numberOfComponents;
-            int[] pxl = new int[numberOfComponents];
-            int zMax=zStart+zCount;
-            for (int z = zStart; z < zMax; ++z) {
-                Raster r = raster[z];
-                for (int y = 0; y < height; ++y) {
-                    for (int x = 0; x < width; ++x) {
-                        r.getPixel(x, y, pxl);
-                        for (int c = 0; c < numberOfComponents; ++c) {
-                            pixels.put(pixelOffset++, (byte)(pxl[c] & 0xFF));
-                        }
-                    }
+    private void unpack8bitSlices(Raster[] raster, int zStart, int zEnd) {
+        int rowLength = width * numberOfComponents;
+        int[] row = new int[rowLength];
+        int pixelOffset = zStart * height * rowLength;
+        for (int z = zStart; z < zEnd; ++z) {
+            Raster r = raster[z];
+            for (int y = 0; y < height; ++y) {
+                r.getPixels(0, y, width, 1, row);
+                for (int i = 0; i < rowLength; ++i) {
+                    pixelBytes[pixelOffset++] = (byte) (row[i] & 0xFF);
                 }
             }
         }
     }
 
-    private static class LoadStackZSlice16bit implements Runnable {
-        int zStart, zCount, depth, height, width, numberOfComponents;
-        ShortBuffer shortPixels;
-        Raster[] raster;
-
-        LoadStackZSlice16bit(int zStart, int zCount, ShortBuffer shortPixels, Raster[] raster, int depth, int height, int width, int numberOfComponents) {
-            this.zStart=zStart;
-            this.zCount=zCount;
-            this.shortPixels=shortPixels;
-            this.raster=raster;
-            this.depth=depth;
-            this.height=height;
-            this.width=width;
-            this.numberOfComponents=numberOfComponents;
-        }
-
-        public void run() {
-            int shortOffset=zStart*height*width*numberOfComponents;
-            int zMax=zStart+zCount;
-            for (int z = zStart; z < zMax; ++z) {
-                Raster sliceRaster=raster[z];
-                DataBufferUShort dbu = (DataBufferUShort)sliceRaster.getDataBuffer();
-                short[] sliceData = dbu.getData();
-                addArrayToBuffer(shortPixels, sliceData, shortOffset);
-                shortOffset+=sliceData.length;
-            }
-        }
-
-        private void addArrayToBuffer(ShortBuffer shortBuffer, short[] arr, int bufferOffset) {
-            for (int i=0;i<arr.length;i++) {
-                shortBuffer.put(bufferOffset+i, arr[i]);
-            }
+    private void unpack16bitSlices(Raster[] raster, int zStart, int zEnd) {
+        ShortBuffer target = pixels.asShortBuffer();
+        target.position(zStart * height * width * numberOfComponents);
+        for (int z = zStart; z < zEnd; ++z) {
+            DataBufferUShort dbu = (DataBufferUShort) raster[z].getDataBuffer();
+            target.put(dbu.getData());
         }
     }
 
-    private void computeMipmaps() {
+    private void computeMipmaps(Texture3d firstMipmap) throws InterruptedIOException {
         mipmaps.clear();
         PerformanceTimer timer = new PerformanceTimer();
-        Texture3d mipmap = createMipmapUsingMaxFilter();
+        Texture3d mipmap = firstMipmap;
         while (mipmap != null) {
-            LOG.trace("Creating mipmap took {} ms", timer.reportMsAndRestart());
             mipmaps.add(mipmap);
             mipmap = mipmap.createMipmapUsingMaxFilter();
+            LOG.trace("Creating mipmap took {} ms", timer.reportMsAndRestart());
         }
     }
 
@@ -405,327 +293,89 @@ public class Texture3d extends BasicTexture implements GL3Resource {
         depth = rhs.depth;
     }
 
-    private static int secondLargestIntensity(int[] samples, int sampleCount) {
-        if (sampleCount == 1)
-            return samples[0];
-
-        int best, second;
-        if (samples[0] > samples[1]) {
-            best = samples[0];
-            second = samples[1];
-        }
-        else {
-            best = samples[1];
-            second = samples[0];
-        }
-
-        for (int i = 2; i < sampleCount; ++i) {
-            if (samples[i] <= second) continue;
-            if (samples[i] > best) {
-                second = best;
-                best = samples[i];
-            }
-            else {
-                second = samples[i];
-            }
-        }
-
-        return second;
-    }
-
-    private Texture3d createMipmapUsingMaxFilter() {
+    /**
+     * @return a texture at half the size of this one, with its pixels allocated but not yet
+     * sampled, or null if this texture is already as small as possible
+     */
+    private Texture3d createHalfSizeTexture() {
         // Check whether smaller mipmap is possible
         if ( (width <= 1) && (height <= 1) && (depth <= 1) )
             return null; // already smallest possible texture
 
-        // Create a new texture at half the original size
         Texture3d result = new Texture3d();
         result.copyParameters(this);
         result.width = Math.max(width/2, 1);
         result.height = Math.max(height/2, 1);
         result.depth = Math.max(depth/2, 1);
         result.mipMapLevel = mipMapLevel + 1;
-
         result.allocatePixels();
+        return result;
+    }
 
-        ByteBuffer bytesIn = pixels;
-        ByteBuffer bytesOut = result.pixels;
-        ShortBuffer shortsIn = pixels.asShortBuffer();
-        ShortBuffer shortsOut = result.pixels.asShortBuffer();
-
-        // New way - TODO - output oriented, with kernel
-        float [] halfInputDeltaUvw = new float[] { // normalized inter-pixel distance of input texture
-                0.5f/width, 0.5f/height, 0.5f/depth // Not useful for s
-        };
-        shortsOut.rewind();
-        bytesOut.rewind();
-
-        int HWN = height * width * numberOfComponents;
-        int WN = width * numberOfComponents;
-
-        short[] shortArr=null;
-        byte[] byteArr=null;
-
-        if (bytesPerIntensity>1) {
-            if (shortBytes==null) {
-                int length = pixelBytes.length / 2;
-                shortBytes = new short[length];
-                for (int i=0;i<length;i++) {
-                    int o=i*2;
-                    shortBytes[i]=(short)(((pixelBytes[o] & 0xff) | (pixelBytes[o+1] & 0xff) << 8) & 0xffff);
-                }
-            }
-            shortArr=shortBytes;
-        } else {
-            byteArr=pixelBytes;
-        }
-
-        // Outer loops over output texture voxels
-        int zh1=(int)(halfInputDeltaUvw[2]*depth);
-        int yh1=(int)(halfInputDeltaUvw[1]*height);
-        int xh1=(int)(halfInputDeltaUvw[0]*width);
+    private Texture3d createMipmapUsingMaxFilter() throws InterruptedIOException {
+        Texture3d result = createHalfSizeTexture();
+        if (result == null)
+            return null;
+        VolumeProcessor.processSlabs(result.depth, (long) result.width * result.height,
+                (zStart, zEnd) -> result.sampleSlices(this, zStart, zEnd));
+        return result;
+    }
 
-        if (result.depth<8) {
-            MipMapMaxFilterZSlice zRunnable = new MipMapMaxFilterZSlice(0, result.depth, zh1, yh1, xh1, HWN, WN, result, depth,
-                    width, height, numberOfComponents, shortArr, byteArr, bytesPerIntensity, shortsOut, bytesOut);
-            zRunnable.run();
-            return result;
-        } else {
-            List<Future> threadList = new ArrayList<>();
-            for (int z = 0; z < result.depth; ) {
-                int zCount = 4;
-                int zRemaining = result.depth - z;
-                if (zRemaining < zCount) {
-                    zCount = zRemaining;
-                }
-                MipMapMaxFilterZSlice zRunnable = new MipMapMaxFilterZSlice(z, zCount, zh1, yh1, xh1, HWN, WN, result, depth,
-                        width, height, numberOfComponents, shortArr, byteArr, bytesPerIntensity, shortsOut, bytesOut);
-                threadList.add(scheduledThreadPoolExecutor.submit(zRunnable));
-                z += zCount;
-            }
-            int doneCount = 0;
-            long startTime = new Date().getTime();
-            while (doneCount < threadList.size()) {
-                long currentTime = new Date().getTime();
-                if (currentTime - startTime > 30000) {
-                    LOG.error("createMipmapUsingMaxFilter() exceeded max thread pool wait time");
-                    break;
-                }
-                try {
-                    Thread.sleep(10);
-                } catch (Exception ex) {
-                }
-                doneCount = 0;
-                for (Future f : threadList) {
-                    if (f.isDone()) doneCount++;
-                }
-            }
-            return result;
+    /**
+     * Fill the slices of this half size texture whose samples lie in the given slices of the
+     * full size source texture.
+     */
+    private void sampleSlicesFrom(Texture3d source, int sourceZStart, int sourceZEnd) {
+        int zStart = 0;
+        while (zStart < depth && sourceIndex(zStart, depth, source.depth) < sourceZStart) {
+            zStart++;
+        }
+        int zEnd = zStart;
+        while (zEnd < depth && sourceIndex(zEnd, depth, source.depth) < sourceZEnd) {
+            zEnd++;
         }
+        sampleSlices(source, zStart, zEnd);
     }
 
-    private static class MipMapMaxFilterZSlice implements Runnable {
-
-        final int IGNORE_VALUE=Integer.MIN_VALUE;
-
-        int z, zCount, zh1, yh1, xh1, HWN, WN, depth, height, width, numberOfComponents, bytesPerIntensity;
-        Texture3d result;
-        short[] shortArr;
-        byte[] byteArr;
-        ShortBuffer shortsOut;
-        ByteBuffer bytesOut;
-
-        int [] zIn = new int [2];
-        int [] yIn = new int [2];
-        int [] xIn = new int [2];
-
-        int [] samples = new int [8];
-
-        MipMapMaxFilterZSlice(int z, int zCount, int zh1, int yh1, int xh1, int HWN, int WN, Texture3d result, int depth,
-                              int width, int height, int numberOfComponents, short[] shortArr, byte[] byteArr,
-                              int bytesPerIntensity, ShortBuffer shortsOut, ByteBuffer bytesOut) {
-            this.z=z;
-            this.zCount=zCount;
-            this.zh1=zh1;
-            this.yh1=yh1;
-            this.xh1=xh1;
-            this.HWN=HWN;
-            this.WN=WN;
-            this.result=result;
-            this.depth=depth;
-            this.width=width;
-            this.height=height;
-            this.numberOfComponents=numberOfComponents;
-            this.shortArr=shortArr;
-            this.byteArr=byteArr;
-            this.bytesPerIntensity=bytesPerIntensity;
-            this.shortsOut=shortsOut;
-            this.bytesOut=bytesOut;
+    /**
+     * Fill the given slices of this half size texture from the full size source texture.
+     *
+     * The max filter kernel is half an input voxel wide, so every output voxel takes the value
+     * of the single input voxel nearest its center.
+     */
+    private void sampleSlices(Texture3d source, int zStart, int zEnd) {
+        int voxelBytes = numberOfComponents * bytesPerIntensity;
+        int[] xIn = new int[width];
+        for (int x = 0; x < width; ++x) {
+            xIn[x] = sourceIndex(x, width, source.width) * voxelBytes;
         }
-
-        public void run() {
-
-            int zMax = z + zCount;
-
-            int RHWC=result.height*result.width*numberOfComponents;
-
-            while (z < zMax) {
-
-                int outputIndex = z * RHWC;
-
-                if (depth == 1) {
-                    zIn[0] = 0;
-                    xIn[1] = IGNORE_VALUE;
-                } else {
-                    float fractionalZOut = (z + 0.5f) / result.depth;
-                    int zf1 = (int) (fractionalZOut * depth);
-                    zIn[0] = (zf1 - zh1) * HWN;
-                    zIn[1] = (zf1 + zh1) * HWN;
-                    if (zIn[0] == zIn[1]) zIn[1] = IGNORE_VALUE;
+        byte[] in = source.pixelBytes;
+        byte[] out = pixelBytes;
+        int inRowBytes = source.width * voxelBytes;
+        int inSliceBytes = source.height * inRowBytes;
+        int outIndex = zStart * height * width * voxelBytes;
+        for (int z = zStart; z < zEnd; ++z) {
+            int zOffset = sourceIndex(z, depth, source.depth) * inSliceBytes;
+            for (int y = 0; y < height; ++y) {
+                int rowOffset = zOffset + sourceIndex(y, height, source.height) * inRowBytes;
+                for (int x = 0; x < width; ++x) {
+                    System.arraycopy(in, rowOffset + xIn[x], out, outIndex, voxelBytes);
+                    outIndex += voxelBytes;
                 }
-                for (int y = 0; y < result.height; ++y) {
-                    if (height == 1) {
-                        yIn[0] = 0;
-                        yIn[1] = IGNORE_VALUE;
-                    } else {
-                        float fractionalYOut = (y + 0.5f) / result.height;
-                        int yf1 = (int) (fractionalYOut * height);
-                        yIn[0] = (yf1 - yh1) * WN;
-                        yIn[1] = (yf1 + yh1) * WN;
-                        if (yIn[0] == yIn[1]) yIn[1] = IGNORE_VALUE;
-                    }
-                    for (int x = 0; x < result.width; ++x) {
-                        if (width == 1) {
-                            xIn[0] = 0;
-                            xIn[1] = IGNORE_VALUE;
-                        } else {
-                            float fractionalXOut = (x + 0.5f) / result.width;
-                            int xf1 = (int) (fractionalXOut * width);
-                            xIn[0] = (xf1 - xh1);
-                            xIn[1] = (xf1 + xh1);
-                            if (xIn[0] == xIn[1]) xIn[1] = IGNORE_VALUE;
-                        }
-                        int sampleCount = 0;
-
-                        if (numberOfComponents == 1) {
-
-                            if (shortArr != null) {
-
-                                // Inner loops over input texture voxels
-                                for (int iz : zIn) {
-                                    if (iz != IGNORE_VALUE) {
-                                        for (int iy : yIn) {
-                                            if (iy != IGNORE_VALUE) {
-                                                int ZYWN = iy + iz;
-                                                for (int ix : xIn) {
-                                                    if (ix != IGNORE_VALUE) {
-                                                        int offset = ZYWN + ix;
-                                                        samples[sampleCount++] = shortArr[offset];
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-
-                            } else {
-
-                                // Inner loops over input texture voxels
-                                for (int iz : zIn) {
-                                    if (iz != IGNORE_VALUE) {
-                                        for (int iy : yIn) {
-                                            if (iy != IGNORE_VALUE) {
-                                                int ZYWN = iy + iz;
-                                                for (int ix : xIn) {
-                                                    if (ix != IGNORE_VALUE) {
-                                                        int offset = ZYWN + ix;
-                                                        samples[sampleCount++] = byteArr[offset] & 0xff;
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-
-                            int maxIntensity = secondLargestIntensity(samples, sampleCount);
-
-                            if (bytesPerIntensity > 1) {
-                                shortsOut.put(outputIndex, (short) (maxIntensity & 0xffff));
-                            } else {
-                                bytesOut.put(outputIndex, (byte) (maxIntensity & 0xff));
-                            }
-
-                            outputIndex++;
-
-                        } else {
-
-                            for (int c = 0; c < numberOfComponents; ++c) {
-
-                                if (shortArr != null) {
-
-                                    // Inner loops over input texture voxels
-                                    for (int iz : zIn) {
-                                        if (iz != IGNORE_VALUE) {
-                                            for (int iy : yIn) {
-                                                if (iy != IGNORE_VALUE) {
-                                                    int ZYWN = iy + iz;
-                                                    for (int ix : xIn) {
-                                                        if (ix != IGNORE_VALUE) {
-                                                            int offset = ZYWN
-                                                                    + ix * numberOfComponents
-                                                                    + c;
-                                                            samples[sampleCount++] = shortArr[offset];
-                                                        }
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-
-                                } else {
-
-                                    // Inner loops over input texture voxels
-                                    for (int iz : zIn) {
-                                        if (iz != IGNORE_VALUE) {
-                                            for (int iy : yIn) {
-                                                if (iy != IGNORE_VALUE) {
-                                                    int ZYWN = iy + iz;
-                                                    for (int ix : xIn) {
-                                                        if (ix != IGNORE_VALUE) {
-                                                            int offset = ZYWN
-                                                                    + ix * numberOfComponents
-                                                                    + c;
-                                                            samples[sampleCount++] = byteArr[offset] & 0xff;
-                                                        }
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-
-                                }
-
-                                int maxIntensity = secondLargestIntensity(samples, sampleCount);
-
-                                if (bytesPerIntensity > 1) {
-                                    shortsOut.put(outputIndex, (short) (maxIntensity & 0xffff));
-                                } else {
-                                    bytesOut.put(outputIndex, (byte) (maxIntensity & 0xff));
-                                }
-
-                                outputIndex++;
-
-                            }
-
-                        }
-                    }
-                }
-                z++;
             }
         }
     }
 
+    /**
+     * @return the input index sampled for output index i, when a dimension of size inSize is halved to outSize
+     */
+    private static int sourceIndex(int i, int outSize, int inSize) {
+        if (inSize == 1)
+            return 0;
+        float fractionalOut = (i + 0.5f) / outSize;
+        return (int) (fractionalOut * inSize);
+    }
+
     private RenderedImage[] renderedImagesFromTiffStack(InputStream stackStream) throws IOException {
         PerformanceTimer timer = new PerformanceTimer();
 
@@ -0,0 +1,110 @@
+package org.janelia.gltools.texture;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs work over the Z slices of a volume on a shared work stealing pool.
+ *
+ * The slices are split in halves until each piece holds few enough voxels, so that small
+ * volumes run in one piece and large ones keep every core busy. The caller waits for all the
+ * pieces; the first exception thrown by any piece is rethrown to the caller, and interrupting
+ * the caller cancels the pieces that have not started yet.
+ */
+public class VolumeProcessor {
+
+    /**
+     * Work on the Z slices from zStart (inclusive) to zEnd (exclusive).
+     */
+    public interface SlabOperation {
+        void process(int zStart, int zEnd);
+    }
+
+    // below this many voxels, splitting costs more than it saves
+    private static final long MIN_SLAB_VOXELS = 1 << 18;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors(),
+            pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("volume-processor-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            },
+            null,
+            false);
+
+    private VolumeProcessor() {
+    }
+
+    /**
+     * Process all depth slices of a volume, each holding voxelsPerSlice voxels, and return
+     * once every slice has been processed.
+     *
+     * @throws InterruptedIOException if the calling thread was interrupted; the thread stays interrupted
+     */
+    public static void processSlabs(int depth, long voxelsPerSlice, SlabOperation operation) throws InterruptedIOException {
+        if (depth <= 0) {
+            return;
+        }
+        SlabTask root = new SlabTask(0, depth, Math.max(1, voxelsPerSlice), operation, new AtomicBoolean());
+        if (ForkJoinTask.inForkJoinPool()) {
+            // already on a worker; join directly, which lets this thread steal the pieces
+            root.invoke();
+            return;
+        }
+        POOL.execute(root);
+        try {
+            root.get();
+        } catch (InterruptedException e) {
+            root.cancelled.set(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted processing a volume of " + depth + " slices");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static class SlabTask extends RecursiveAction {
+        private final int zStart;
+        private final int zEnd;
+        private final long voxelsPerSlice;
+        private final SlabOperation operation;
+        private final AtomicBoolean cancelled;
+
+        SlabTask(int zStart, int zEnd, long voxelsPerSlice, SlabOperation operation, AtomicBoolean cancelled) {
+            this.zStart = zStart;
+            this.zEnd = zEnd;
+            this.voxelsPerSlice = voxelsPerSlice;
+            this.operation = operation;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.get()) {
+                return;
+            }
+            int sliceCount = zEnd - zStart;
+            if (sliceCount > 1 && sliceCount * voxelsPerSlice > MIN_SLAB_VOXELS) {
+                int zMiddle = zStart + sliceCount / 2;
+                invokeAll(
+                        new SlabTask(zStart, zMiddle, voxelsPerSlice, operation, cancelled),
+                        new SlabTask(zMiddle, zEnd, voxelsPerSlice, operation, cancelled));
+            } else {
+                operation.process(zStart, zEnd);
+            }
+        }
+    }
+}
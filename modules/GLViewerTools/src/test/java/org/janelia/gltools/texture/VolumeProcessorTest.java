@@ -0,0 +1,34 @@
+package org.janelia.gltools.texture;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class VolumeProcessorTest {
+
+    @Test
+    public void processesEverySliceOnce() throws Exception {
+        for (int depth : new int[] {1, 7, 512}) {
+            AtomicIntegerArray visits = new AtomicIntegerArray(depth);
+            VolumeProcessor.processSlabs(depth, 512 * 512, (zStart, zEnd) -> {
+                for (int z = zStart; z < zEnd; z++) {
+                    visits.incrementAndGet(z);
+                }
+            });
+            for (int z = 0; z < depth; z++) {
+                assertEquals("visits of slice " + z + " of " + depth, 1, visits.get(z));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rethrowsFailures() throws Exception {
+        VolumeProcessor.processSlabs(64, 512 * 512, (zStart, zEnd) -> {
+            if (zStart <= 40 && 40 < zEnd) {
+                throw new IllegalArgumentException("bad slice");
+            }
+        });
+    }
+}
@@ -2,6 +2,7 @@
 package org.janelia.horta;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -228,7 +229,7 @@ public class BrainTileInfo implements BrickInfo {
                         } else {
                             return texture;
                         }
-                    } catch (ClosedByInterruptException e) {
+                    } catch (ClosedByInterruptException | InterruptedIOException e) {
                         LOG.info("Cancelled loading tiff stack {}", tileStack);
                         return null;
                     } catch (IOException e) {
@@ -101,7 +101,8 @@ public class TetVolumeActor extends BasicGL3Actor implements DepthSlabClipper {
         blockDisplayUpdater.getDisplayChangeObservable().addObserver(new Observer() {
             @Override
             public void update(Observable o, Object arg) {
-                dynamicTiles.updateDesiredTiles(blockDisplayUpdater.getDesiredBlocks());
+                dynamicTiles.updateDesiredTiles(blockDisplayUpdater.getDesiredBlocks(),
+                        blockDisplayUpdater.getPrefetchBlocks(), blockDisplayUpdater::getLoadCost);
             }
         });
 
@@ -72,6 +72,14 @@ implements SortableBlockActor, SortableBlockActorSource
         listOfThis.add(this);
     }
     
+    /**
+     * Release the KTX mipmaps held for uploading the volume texture. Call only after
+     * dispose(), once this block will not be displayed again.
+     */
+    public void releaseVolumeData() {
+        ktxData.release();
+    }
+
     public final void addOuterTetrahedron(int a, int b, int c, int apex) {
         List<Integer> tet = new ArrayList<>();
         tet.add(a);
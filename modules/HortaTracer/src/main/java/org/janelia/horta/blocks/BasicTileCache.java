@@ -3,29 +3,41 @@ package org.janelia.horta.blocks;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ToDoubleFunction;
 import java.util.prefs.PreferenceChangeEvent;
 import java.util.prefs.PreferenceChangeListener;
 import java.util.prefs.Preferences;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.janelia.geometry3d.ComposableObservable;
 import org.janelia.geometry3d.ObservableInterface;
 import org.janelia.horta.options.TileLoadingPanel;
 import org.netbeans.api.progress.ProgressHandle;
 import org.netbeans.api.progress.ProgressHandleFactory;
 import org.openide.util.NbPreferences;
-import org.openide.util.RequestProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Generic version of HortaVolumeCache, for use with newer Ktx block loading
  *
+ * Tiles waiting to be loaded are kept in a priority queue ordered by the load cost the block
+ * chooser assigns to them, so the tiles that matter most for the current view load first.
+ * Every update of the desired tiles re-prioritizes the queued tiles in place, drops the ones
+ * no longer wanted, and cancels loads in progress for tiles that fell out of view. Prefetch
+ * tiles are loaded only when no desired tile is waiting, and kept aside until they are desired.
+ *
  * @author brunsc
  * @param <TILE_KEY> - tile key type
  * @param <TILE_DATA> - tile data type
@@ -34,19 +46,58 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
 
     public interface LoadRunner<TILE_KEY, TILE_DATA> {
         TILE_DATA loadTile(TILE_KEY key) throws InterruptedException, IOException;
+
+        /**
+         * Called from another thread to abort a loadTile call in progress, e.g. by closing its stream.
+         */
+        default void cancel() {
+        }
+    }
+
+    private class LoadJob {
+        final TILE_KEY key;
+        final boolean prefetch;
+        final double cost;
+        final long sequence;
+        // set while the job is loading; guarded by BasicTileCache.this
+        LoadRunner<TILE_KEY, TILE_DATA> runner;
+        Thread thread;
+        boolean cancelled = false;
+
+        LoadJob(TILE_KEY key, boolean prefetch, double cost, long sequence) {
+            this.key = key;
+            this.prefetch = prefetch;
+            this.cost = cost;
+            this.sequence = sequence;
+        }
     }
 
-    private final Map<TILE_KEY, RequestProcessor.Task> queuedTiles = new ConcurrentHashMap<>();
-    private final Map<TILE_KEY, RequestProcessor.Task> loadingTiles = new ConcurrentHashMap<>();
+    // desired tiles first, then cheapest first, then first come first served
+    private final IndexedPriorityQueue<TILE_KEY, LoadJob> queuedTiles = new IndexedPriorityQueue<>(
+            Comparator.<LoadJob>comparingInt(job -> job.prefetch ? 1 : 0)
+                    .thenComparingDouble(job -> job.cost)
+                    .thenComparingLong(job -> job.sequence));
+    private final Map<TILE_KEY, LoadJob> loadingTiles = new HashMap<>();
+    private Map<TILE_KEY, Double> desiredTiles = new LinkedHashMap<>();
+    private Set<TILE_KEY> prefetchTiles = new LinkedHashSet<>();
+    private long jobSequence = 0;
 
-    private final Set<TILE_KEY> nearVolumeMetadata = new HashSet<>();
+    private final Set<TILE_KEY> nearVolumeMetadata = ConcurrentHashMap.newKeySet();
 
     final Map<TILE_KEY, TILE_DATA> nearVolumeInRam = new ConcurrentHashMap<>();
     final Map<TILE_KEY, TILE_DATA> obsoleteTiles = new ConcurrentHashMap<>();
+    // loaded ahead of time, not displayed until desired
+    private final Map<TILE_KEY, TILE_DATA> prefetchedInRam = new ConcurrentHashMap<>();
 
     // To enable/disable loading
     BlockChooser blockStrategy;
-    private RequestProcessor loadProcessor;
+    private final ExecutorService loadExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("VolumeTileLoad-%d")
+            .setDaemon(true)
+            .build());
+    private int maxConcurrentLoads = 1;
+    private int activeLoadWorkers = 0;
+    private ProgressHandle progress;
     private final ObservableInterface displayChangeObservable = new ComposableObservable();
 
     private final Logger log = LoggerFactory.getLogger(this.getClass());
@@ -75,56 +126,102 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
     }
 
     public synchronized void addDesiredTile(TILE_KEY key) {
-        if (nearVolumeMetadata.contains(key)) {
+        if (desiredTiles.containsKey(key)) {
             return; // already queued
         }
+        desiredTiles.put(key, 0.0);
         nearVolumeMetadata.add(key);
         if (nearVolumeInRam.containsKey(key)) {
             return; // already loaded
         }
-        queueLoad(key, getLoadRunner());
+        queueLoad(key, false, 0.0);
+        startLoadWorkers();
     }
 
-    public synchronized void updateDesiredTiles(List<TILE_KEY> desiredTiles) {
-        List<TILE_KEY> newTiles = new ArrayList<>();
+    /**
+     * Load the given tiles, the first ones first.
+     */
+    public void updateDesiredTiles(List<TILE_KEY> desiredTiles) {
+        Map<TILE_KEY, Integer> order = new HashMap<>();
         for (TILE_KEY key : desiredTiles) {
-            if (!nearVolumeMetadata.contains(key)) {
-                nearVolumeMetadata.add(key);
-            }
+            order.putIfAbsent(key, order.size());
+        }
+        updateDesiredTiles(desiredTiles, new ArrayList<>(), order::get);
+    }
 
-            if (queuedTiles.containsKey(key)) {
-                continue; // already queued
+    /**
+     * Replace the set of tiles to load.
+     *
+     * @param desiredTiles tiles to display
+     * @param prefetchTiles tiles that are likely to be desired soon; loaded when no desired tile is waiting
+     * @param loadCost orders the tiles to load; lowest cost first
+     */
+    public void updateDesiredTiles(List<TILE_KEY> desiredTiles, List<TILE_KEY> prefetchTiles, ToDoubleFunction<TILE_KEY> loadCost) {
+        boolean displayChanged = false;
+        synchronized (this) {
+            Map<TILE_KEY, Double> newDesiredTiles = new LinkedHashMap<>();
+            for (TILE_KEY key : desiredTiles) {
+                newDesiredTiles.put(key, loadCost.applyAsDouble(key));
             }
-            if (loadingTiles.containsKey(key)) {
-                continue; // already loading
+            Set<TILE_KEY> newPrefetchTiles = new LinkedHashSet<>(prefetchTiles);
+            newPrefetchTiles.removeAll(newDesiredTiles.keySet());
+            this.desiredTiles = newDesiredTiles;
+            this.prefetchTiles = newPrefetchTiles;
+            nearVolumeMetadata.addAll(newDesiredTiles.keySet());
+
+            // tiles loaded ahead of time that are now needed, or no longer
+            TILE_KEY promotedTile = null;
+            Iterator<Map.Entry<TILE_KEY, TILE_DATA>> prefetchedIter = prefetchedInRam.entrySet().iterator();
+            while (prefetchedIter.hasNext()) {
+                Map.Entry<TILE_KEY, TILE_DATA> entry = prefetchedIter.next();
+                if (newDesiredTiles.containsKey(entry.getKey()) && !nearVolumeInRam.containsKey(entry.getKey())) {
+                    nearVolumeInRam.put(entry.getKey(), entry.getValue());
+                    promotedTile = entry.getKey();
+                    prefetchedIter.remove();
+                } else if (!newPrefetchTiles.contains(entry.getKey())) {
+                    obsoleteTiles.put(entry.getKey(), entry.getValue());
+                    prefetchedIter.remove();
+                }
             }
-            if (nearVolumeInRam.containsKey(key)) {
-                continue; // already loaded
+
+            for (TILE_KEY key : new ArrayList<>(queuedTiles.keySet())) {
+                if (!isWanted(key)) {
+                    queuedTiles.remove(key);
+                }
+            }
+            for (LoadJob job : loadingTiles.values()) {
+                if (!job.cancelled && !isWanted(job.key)) {
+                    cancelLoad(job);
+                }
             }
-            newTiles.add(key);
-        }
 
-        removeIfNotDesired (desiredTiles, queuedTiles);
-        removeIfNotDesired (desiredTiles, loadingTiles);
+            for (Map.Entry<TILE_KEY, Double> entry : newDesiredTiles.entrySet()) {
+                if (!nearVolumeInRam.containsKey(entry.getKey())) {
+                    queueLoad(entry.getKey(), false, entry.getValue());
+                }
+            }
+            for (TILE_KEY key : newPrefetchTiles) {
+                if (!nearVolumeInRam.containsKey(key) && !prefetchedInRam.containsKey(key)) {
+                    queueLoad(key, true, loadCost.applyAsDouble(key));
+                }
+            }
+            log.debug("Desired tiles updated (queued={}, loading={}, prefetched={})",
+                    queuedTiles.size(), loadingTiles.size(), prefetchedInRam.size());
+            startLoadWorkers();
 
-        for (TILE_KEY key : newTiles) {
-            queueLoad(key, getLoadRunner());
+            if (promotedTile != null) {
+                evictObsoleteTiles(promotedTile);
+                displayChanged = true;
+            }
+        }
+        if (displayChanged) {
+            displayChangeObservable.setChanged();
+            displayChangeObservable.notifyObservers();
         }
     }
 
-    private void removeIfNotDesired (List<TILE_KEY> desiredTiles, Map<TILE_KEY, RequestProcessor.Task> tileSet) {
-        Iterator<Map.Entry<TILE_KEY, RequestProcessor.Task>> mapIter = tileSet.entrySet().iterator();
-        while (mapIter.hasNext()) {
-            Map.Entry<TILE_KEY, RequestProcessor.Task> entry = mapIter.next();
-            TILE_KEY key = entry.getKey();
-            if (!desiredTiles.contains(key)) {
-                RequestProcessor.Task task = loadingTiles.get(key);
-                if (task != null) {
-                    task.cancel();
-                }
-                mapIter.remove();
-            }
-        }
+    private boolean isWanted(TILE_KEY key) {
+        return desiredTiles.containsKey(key) || prefetchTiles.contains(key);
     }
 
     public ObservableInterface getDisplayChangeObservable() {
@@ -139,100 +236,148 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
         return result;
     }
 
-    public void clearAllTiles() {
-        obsoleteTiles.clear();
+    public synchronized void clearAllTiles() {
+        // hand the tiles to popObsoleteTiles(), so that their resources are released
+        obsoleteTiles.putAll(nearVolumeInRam);
         nearVolumeInRam.clear();
+        obsoleteTiles.putAll(prefetchedInRam);
+        prefetchedInRam.clear();
     }
 
-    private synchronized boolean queueLoad(final TILE_KEY key, final LoadRunner<TILE_KEY, TILE_DATA> loadRunner) {
-        if (queuedTiles.containsKey(key)) {
-            return false; // already queued
+    /**
+     * Queue the tile, or update its priority if it is queued already.
+     */
+    private void queueLoad(TILE_KEY key, boolean prefetch, double cost) {
+        LoadJob loadingJob = loadingTiles.get(key);
+        if (loadingJob != null && !loadingJob.cancelled) {
+            return; // already loading
         }
-        if (loadingTiles.containsKey(key)) {
-            return false; // already loading
+        LoadJob queuedJob = queuedTiles.get(key);
+        long sequence = queuedJob != null ? queuedJob.sequence : jobSequence++;
+        queuedTiles.put(key, new LoadJob(key, prefetch, cost, sequence));
+    }
+
+    private void cancelLoad(LoadJob job) {
+        log.debug("Cancelling load of tile {}", job.key);
+        job.cancelled = true;
+        if (job.runner != null) {
+            job.runner.cancel();
         }
-        Runnable loadTask = new Runnable() {
-            @Override
-            public void run() {
-                // Move from "queued" to "loading" state
-                synchronized (queuedTiles) {
-                    RequestProcessor.Task task = queuedTiles.get(key);
-                    if (task == null) {
-                        log.warn("Tile has no task: " + key.toString());
-                        return;
-                    }
-                    log.info("Tile has loaded: {}",key.toString());
-                    loadingTiles.put(key, task);
-                    queuedTiles.remove(key);
+        if (job.thread != null) {
+            job.thread.interrupt();
+        }
+    }
+
+    private void startLoadWorkers() {
+        while (activeLoadWorkers < maxConcurrentLoads && activeLoadWorkers < queuedTiles.size()) {
+            activeLoadWorkers++;
+            loadExecutor.execute(this::runLoads);
+        }
+        updateProgress();
+    }
+
+    private void runLoads() {
+        while (true) {
+            LoadJob job;
+            synchronized (this) {
+                if (queuedTiles.isEmpty() || activeLoadWorkers > maxConcurrentLoads) {
+                    activeLoadWorkers--;
+                    updateProgress();
+                    return;
                 }
+                job = queuedTiles.poll();
+                job.runner = getLoadRunner();
+                job.thread = Thread.currentThread();
+                loadingTiles.put(job.key, job);
+            }
+            TILE_DATA tileData = null;
+            try {
+                log.debug("Tile cache load tile data for {}", job.key);
+                tileData = job.runner.loadTile(job.key);
+            } catch (IOException ex) {
+                if (!job.cancelled) {
+                    log.info("loadTask was IOException {}", job.key, ex);
+                }
+            } catch (InterruptedException ex) {
+                log.debug("loadTask was interrupted {}", job.key);
+            } catch (RuntimeException ex) {
+                log.warn("Error loading tile {}", job.key, ex);
+            }
+            if (finishLoad(job, tileData)) {
+                displayChangeObservable.setChanged();
+                displayChangeObservable.notifyObservers();
+            }
+        }
+    }
+
+    /**
+     * @return true if the displayed tiles changed
+     */
+    private synchronized boolean finishLoad(LoadJob job, TILE_DATA tileData) {
+        if (loadingTiles.get(job.key) == job) {
+            loadingTiles.remove(job.key);
+        }
+        // no more interrupts for this job once its thread is cleared; drop one that came too late
+        job.thread = null;
+        Thread.interrupted();
+        updateProgress();
+
+        if (tileData == null) {
+            log.debug("Tile loaded was null {}", job.key);
+            return false;
+        }
+        if (desiredTiles.containsKey(job.key) && !nearVolumeInRam.containsKey(job.key)) {
+            nearVolumeInRam.put(job.key, tileData);
+            // queued again while a cancelled load of it was still running
+            queuedTiles.remove(job.key);
+            // figure out if there are tiles we need to remove after successful load of a tile
+            evictObsoleteTiles(job.key);
+            return true;
+        }
+        if (prefetchTiles.contains(job.key) && !prefetchedInRam.containsKey(job.key)) {
+            prefetchedInRam.put(job.key, tileData);
+            return false;
+        }
+        log.debug("Tile loaded was no longer needed {}", job.key);
+        obsoleteTiles.put(job.key, tileData);
+        return false;
+    }
 
-                ProgressHandle progress = ProgressHandleFactory.createHandle("Loading Tile " + key.toString() + " ...", null, null);
-
-                try {
-                    // Check whether this tile is still relevant
-                    if (!nearVolumeMetadata.contains(key)) {
-                        return;
-                    }
-
-                    progress.start();
-                    progress.setDisplayName("Loading Tile " + key.toString() + " ...");
-                    progress.switchToIndeterminate();
-
-                    log.debug("Tile cache load tile data for {}", key);
-
-                    TILE_DATA tileTexture = loadRunner.loadTile(key);
-
-                    if (tileTexture == null) {
-                        log.info("Tile loaded was null {}", key.toString());
-                        return;
-                    }
-
-                    if (!nearVolumeMetadata.contains(key)) {
-                        log.info("Tile loaded was no longer needed {}", key.toString());
-                        return; // no longer needed
-                    }
-
-                    if (nearVolumeInRam.containsKey(key)) {
-                        log.info("Tile loaded was already loaded {}", key.toString());
-                        return; // already loaded by another thread?
-                    }
-
-                    nearVolumeInRam.put(key, tileTexture);
-                    displayChangeObservable.setChanged();
-                    displayChangeObservable.notifyObservers();
-                } catch (IOException ex) {
-                    log.info("loadTask was IOException {}", key.toString(), ex);
-                } catch (InterruptedException ex) {
-                    log.info("loadTask was interrupted {}", key.toString(), ex);
-                } finally {
-                    loadingTiles.remove(key);
-                    // figure out if there are tiles we need to remove after successful load of a tile
-                    Map<TILE_KEY, TILE_DATA> obsoleteTiles = blockStrategy.chooseObsoleteTiles(nearVolumeInRam, queuedTiles, (BlockTileKey)key);
-                    if (obsoleteTiles != null) {
-                        for (TILE_KEY key : obsoleteTiles.keySet()) {
-                            nearVolumeInRam.remove(key);
-                        }
-                    }
-                    progress.finish();
+    private void evictObsoleteTiles(TILE_KEY finishedTile) {
+        Map<TILE_KEY, TILE_DATA> evictedTiles = blockStrategy.chooseObsoleteTiles(nearVolumeInRam, desiredTiles, (BlockTileKey) finishedTile);
+        if (evictedTiles != null) {
+            for (TILE_KEY key : evictedTiles.keySet()) {
+                TILE_DATA evicted = nearVolumeInRam.remove(key);
+                if (evicted != null) {
+                    obsoleteTiles.put(key, evicted);
                 }
             }
-        };
+        }
+    }
 
-        // Submit load task asynchronously
-        synchronized (queuedTiles) {
-            log.info("Queueing brick {} (queued={}, loading={})", key.toString(), queuedTiles.size(), loadingTiles.size());
-            queuedTiles.put(key, loadProcessor.post(loadTask));
+    private void updateProgress() {
+        int remaining = queuedTiles.size() + loadingTiles.size();
+        if (remaining == 0 || activeLoadWorkers == 0) {
+            if (progress != null) {
+                progress.finish();
+                progress = null;
+            }
+            return;
+        }
+        if (progress == null) {
+            progress = ProgressHandleFactory.createHandle("Loading volume tiles ...", null, null);
+            progress.start();
+            progress.switchToIndeterminate();
         }
-        return true;
+        progress.progress(remaining + " tiles remaining");
     }
 
-    private void setConcurrentLoads(String preferenceValue) {
+    private synchronized void setConcurrentLoads(String preferenceValue) {
         int loadThreads = Integer.parseInt(preferenceValue);
         log.info("Configuring loadThreads={}", loadThreads);
-        if (loadProcessor != null) {
-            loadProcessor.shutdown();
-        }
-        loadProcessor = new RequestProcessor("VolumeTileLoad", loadThreads, true);
+        // extra workers stop after their current tile
+        maxConcurrentLoads = Math.max(1, loadThreads);
+        startLoadWorkers();
     }
 
     public boolean canDisplay() {
@@ -1,5 +1,6 @@
 package org.janelia.horta.blocks;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -16,4 +17,20 @@ public interface BlockChooser<K extends BlockTileKey, S extends BlockTileSource<
     Map<BlockTileKey, BlockTileData> chooseObsoleteTiles(Map<BlockTileKey, BlockTileData> currentTiles,
                                                          Map<BlockTileKey, BlockTileData> desiredTiles,
                                                          BlockTileKey finishedTile);
+
+    /**
+     * Blocks that are likely to be chosen soon, e.g. ahead of the camera motion, to load while
+     * no chosen block is waiting.
+     */
+    default List<K> choosePrefetchBlocks(S source, ConstVector3 focus, ConstVector3 previousFocus, Vantage vantage) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Load order of the block relative to the other chosen blocks; blocks with lower cost load first.
+     */
+    default double getLoadCost(S source, K block, ConstVector3 focus, Vantage vantage) {
+        ConstVector3 offset = block.getCentroid().minus(focus);
+        return offset.dot(offset);
+    }
 }
@@ -1,5 +1,6 @@
 package org.janelia.horta.blocks;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
@@ -30,6 +31,7 @@ public class BlockDisplayUpdater<BTK extends BlockTileKey, BTS extends BlockTile
     private float cachedZoom;
     private BlockChooser blockChooser;
     private List<BTK> cachedDesiredBlocks;
+    private List<BTK> cachedPrefetchBlocks = Collections.emptyList();
     private boolean doAutoUpdate = true;
 
     public BlockDisplayUpdater(BlockChooser<BTK, BTS> blockChooser) {
@@ -44,6 +46,20 @@ public class BlockDisplayUpdater<BTK extends BlockTileKey, BTS extends BlockTile
         return cachedDesiredBlocks;
     }
 
+    /**
+     * @return blocks likely to be desired after the next camera move
+     */
+    public List<BTK> getPrefetchBlocks() {
+        return cachedPrefetchBlocks;
+    }
+
+    /**
+     * @return load order of the block for the current camera; lower loads first
+     */
+    public double getLoadCost(BTK block) {
+        return getBlockChooser().getLoadCost(blockTileSource, block, cachedFocus, vantage);
+    }
+
     public void setVantage(Vantage vantage) {
         if (this.vantage == vantage) {
             return;
@@ -78,12 +94,11 @@ public class BlockDisplayUpdater<BTK extends BlockTileKey, BTS extends BlockTile
         ConstVector3 previousFocus = cachedFocus;
         cachedFocus = new Vector3(focus);
         cachedZoom = vantage.getSceneUnitsPerViewportHeight();
-        List<BTK> desiredBlocks = getBlockChooser().chooseBlocks(blockTileSource, focus, previousFocus,
+        cachedDesiredBlocks = getBlockChooser().chooseBlocks(blockTileSource, focus, previousFocus,
                 vantage);
-        if (desiredBlocks.equals(cachedDesiredBlocks)) {
-            return; // no change in desired set
-        }
-        cachedDesiredBlocks = desiredBlocks;
+        cachedPrefetchBlocks = getBlockChooser().choosePrefetchBlocks(blockTileSource, focus, previousFocus,
+                vantage);
+        // notify even if the desired set is unchanged, since the load order depends on the camera
         displayChangeObservable.setChanged();
         displayChangeObservable.notifyObservers();
     }
@@ -0,0 +1,167 @@
+package org.janelia.horta.blocks;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binary heap of values that also knows where each key's value sits in the heap, so that a
+ * value can be looked up, replaced with one of different priority, or removed, in O(log n)
+ * without searching the heap.
+ *
+ * The value that compares lowest comes out first. Not thread safe.
+ */
+class IndexedPriorityQueue<K, V> {
+
+    private final Comparator<? super V> comparator;
+    private final List<K> heapKeys = new ArrayList<>();
+    private final List<V> heapValues = new ArrayList<>();
+    private final Map<K, Integer> heapIndex = new HashMap<>();
+
+    IndexedPriorityQueue(Comparator<? super V> comparator) {
+        this.comparator = comparator;
+    }
+
+    int size() {
+        return heapKeys.size();
+    }
+
+    boolean isEmpty() {
+        return heapKeys.isEmpty();
+    }
+
+    boolean containsKey(K key) {
+        return heapIndex.containsKey(key);
+    }
+
+    V get(K key) {
+        Integer index = heapIndex.get(key);
+        return index == null ? null : heapValues.get(index);
+    }
+
+    /**
+     * @return a view of the queued keys, in no particular order
+     */
+    Set<K> keySet() {
+        return heapIndex.keySet();
+    }
+
+    /**
+     * Queue the value for key, or move key to the position of its new value if already queued.
+     *
+     * @return the value queued for key before, or null
+     */
+    V put(K key, V value) {
+        Integer index = heapIndex.get(key);
+        if (index == null) {
+            heapKeys.add(key);
+            heapValues.add(value);
+            heapIndex.put(key, heapKeys.size() - 1);
+            siftUp(heapKeys.size() - 1);
+            return null;
+        }
+        V previous = heapValues.set(index, value);
+        if (comparator.compare(value, previous) < 0) {
+            siftUp(index);
+        } else {
+            siftDown(index);
+        }
+        return previous;
+    }
+
+    /**
+     * @return the value of key, which is no longer queued, or null if key was not queued
+     */
+    V remove(K key) {
+        Integer index = heapIndex.get(key);
+        if (index == null) {
+            return null;
+        }
+        return removeAt(index);
+    }
+
+    /**
+     * @return the lowest value, which is no longer queued, or null if the queue is empty
+     */
+    V poll() {
+        return heapKeys.isEmpty() ? null : removeAt(0);
+    }
+
+    /**
+     * @return the lowest value, or null if the queue is empty
+     */
+    V peek() {
+        return heapValues.isEmpty() ? null : heapValues.get(0);
+    }
+
+    void clear() {
+        heapKeys.clear();
+        heapValues.clear();
+        heapIndex.clear();
+    }
+
+    private V removeAt(int index) {
+        int last = heapKeys.size() - 1;
+        V removed = heapValues.get(index);
+        heapIndex.remove(heapKeys.get(index));
+        if (index != last) {
+            move(last, index);
+        }
+        heapKeys.remove(last);
+        heapValues.remove(last);
+        if (index != last) {
+            // the value moved from the bottom may belong above or below its new place
+            siftUp(index);
+            siftDown(index);
+        }
+        return removed;
+    }
+
+    private void siftUp(int index) {
+        K key = heapKeys.get(index);
+        V value = heapValues.get(index);
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (comparator.compare(value, heapValues.get(parent)) >= 0) {
+                break;
+            }
+            move(parent, index);
+            index = parent;
+        }
+        place(key, value, index);
+    }
+
+    private void siftDown(int index) {
+        K key = heapKeys.get(index);
+        V value = heapValues.get(index);
+        int size = heapKeys.size();
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && comparator.compare(heapValues.get(child + 1), heapValues.get(child)) < 0) {
+                child++;
+            }
+            if (comparator.compare(heapValues.get(child), value) >= 0) {
+                break;
+            }
+            move(child, index);
+            index = child;
+        }
+        place(key, value, index);
+    }
+
+    private void move(int from, int to) {
+        place(heapKeys.get(from), heapValues.get(from), to);
+    }
+
+    private void place(K key, V value, int index) {
+        heapKeys.set(index, key);
+        heapValues.set(index, value);
+        heapIndex.put(key, index);
+    }
+}
@@ -0,0 +1,498 @@
+package org.janelia.horta.blocks;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import org.janelia.horta.ktx.KtxData;
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Second level, on disk, cache of KTX blocks fetched from remote storage, so that revisiting a
+ * region, or restarting Horta, reads blocks from the local disk instead of the network.
+ *
+ * Each entry is the KTX file as fetched, optionally LZ4 frame compressed, followed by a trailer
+ * holding its length and a CRC32 checksum. Uncompressed entries are memory mapped and handed to
+ * the GPU as views of the mapping. Entries are evicted, least recently used first, once the
+ * cache grows past its byte budget; last modified times record the use across restarts.
+ */
+public class KtxBlockDiskCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KtxBlockDiskCache.class);
+
+    private static final int TRAILER_MAGIC = 0x4B545843; // "KTXC"
+    private static final int TRAILER_SIZE = 4 + 4 + 8 + 4;
+    private static final int FLAG_LZ4 = 1;
+    private static final String ENTRY_SUFFIX = ".ktxc";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static KtxBlockDiskCache sharedInstance;
+
+    private final Path cacheDir;
+    private final long maxBytes;
+    private final boolean compress;
+    // entry sizes in least recently used order
+    private final LinkedHashMap<Path, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final CompletableFuture<Void> indexed;
+    // temporary files of entries being written, which indexing must not take for leftovers
+    private final Set<Path> openTemps = ConcurrentHashMap.newKeySet();
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("horta-ktx-disk-cache-%d")
+            .setDaemon(true)
+            .build());
+    private long totalBytes = 0;
+
+    /**
+     * @return the cache configured by the console properties, or null if it is disabled
+     */
+    public static synchronized KtxBlockDiskCache getShared() {
+        if (sharedInstance == null && ConsoleProperties.getBoolean("console.horta.ktxDiskCache", true)) {
+            String defaultDir = Paths.get(ConsoleProperties.getLocalCacheDir()).resolveSibling(".horta-ktx-cache").toString();
+            sharedInstance = new KtxBlockDiskCache(
+                    Paths.get(ConsoleProperties.getString("console.horta.ktxDiskCache.directory", defaultDir)),
+                    ConsoleProperties.getLong("console.horta.ktxDiskCacheMB", 10240L) * 1024 * 1024,
+                    ConsoleProperties.getBoolean("console.horta.ktxDiskCacheLZ4", false));
+        }
+        return sharedInstance;
+    }
+
+    public KtxBlockDiskCache(Path cacheDir, long maxBytes, boolean compress) {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+        this.compress = compress;
+        this.indexed = CompletableFuture.runAsync(this::indexEntries, ioExecutor);
+    }
+
+    /**
+     * Load a cached block.
+     *
+     * @return false if the block is not cached, or its entry is damaged
+     */
+    boolean load(KtxOctreeBlockTileKey key, KtxData ktxData) throws IOException, InterruptedException {
+        return load(getEntryPath(key), ktxData);
+    }
+
+    boolean load(Path entry, KtxData ktxData) throws IOException, InterruptedException {
+        if (!contains(entry)) {
+            return false;
+        }
+        ByteBuffer payload;
+        boolean lz4;
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < TRAILER_SIZE || size > Integer.MAX_VALUE) {
+                discard(entry, "bad size " + size);
+                return false;
+            }
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapping.load();
+            ByteBuffer trailer = mapping.duplicate();
+            trailer.position((int) size - TRAILER_SIZE);
+            int magic = trailer.getInt();
+            int flags = trailer.getInt();
+            long length = trailer.getLong();
+            int checksum = trailer.getInt();
+            if (magic != TRAILER_MAGIC || length != size - TRAILER_SIZE) {
+                discard(entry, "bad trailer");
+                return false;
+            }
+            payload = mapping.duplicate();
+            payload.limit((int) length);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                discard(entry, "checksum mismatch");
+                return false;
+            }
+            lz4 = (flags & FLAG_LZ4) != 0;
+        } catch (NoSuchFileException e) {
+            forget(entry);
+            return false;
+        }
+        try {
+            if (lz4) {
+                ktxData.loadStream(new LZ4FrameInputStream(new ByteBufferInputStream(payload)));
+            } else {
+                ktxData.loadBuffer(payload, entry.toString());
+            }
+        } catch (IOException e) {
+            // the checksum matched, so the entry was written from bad data
+            discard(entry, e.getMessage());
+            return false;
+        }
+        touch(entry);
+        return true;
+    }
+
+    /**
+     * Copy a block into the cache as it is read. The entry only becomes visible once the
+     * returned writer is committed, after the block was read and decoded successfully.
+     */
+    Writer store(KtxOctreeBlockTileKey key, InputStream blockStream) throws IOException {
+        return store(getEntryPath(key), blockStream);
+    }
+
+    Writer store(Path entry, InputStream blockStream) throws IOException {
+        Files.createDirectories(entry.getParent());
+        Path temp = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), TEMP_SUFFIX);
+        openTemps.add(temp);
+        return new Writer(entry, temp, blockStream);
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Delete every entry.
+     */
+    public CompletableFuture<Void> clear() {
+        return indexed.thenRunAsync(() -> {
+            List<Path> removed;
+            synchronized (this) {
+                removed = new ArrayList<>(entries.keySet());
+                entries.clear();
+                totalBytes = 0;
+            }
+            removed.forEach(KtxBlockDiskCache::deleteQuietly);
+        }, ioExecutor);
+    }
+
+    /**
+     * @return completes once the index is built and the entries committed so far are written
+     */
+    CompletableFuture<Void> flush() {
+        return indexed.thenRunAsync(() -> {}, ioExecutor);
+    }
+
+    Path getEntryPath(KtxOctreeBlockTileKey key) {
+        // the block URI includes the sample's KTX folder and the octree path
+        String identity = key.getTileSource().getOriginatingSampleURL() + "|"
+                + key.getTileSource().getKeyBlockAbsolutePathURI(key);
+        String name = Hashing.sha256().hashString(identity, StandardCharsets.UTF_8).toString();
+        return cacheDir.resolve(name.substring(0, 2)).resolve(name + ENTRY_SUFFIX);
+    }
+
+    private synchronized boolean contains(Path entry) {
+        return entries.containsKey(entry) || !indexed.isDone() && Files.exists(entry);
+    }
+
+    private void touch(Path entry) {
+        synchronized (this) {
+            entries.get(entry); // access order
+        }
+        ioExecutor.execute(() -> {
+            try {
+                Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                LOG.trace("Could not touch {}", entry, e);
+            }
+        });
+    }
+
+    private void discard(Path entry, String reason) {
+        LOG.warn("Discarding damaged KTX cache entry {}: {}", entry, reason);
+        forget(entry);
+        ioExecutor.execute(() -> deleteQuietly(entry));
+    }
+
+    private synchronized void forget(Path entry) {
+        Long size = entries.remove(entry);
+        if (size != null) {
+            totalBytes -= size;
+        }
+    }
+
+    private void add(Path entry, long size) {
+        synchronized (this) {
+            Long previous = entries.put(entry, size);
+            totalBytes += size - (previous != null ? previous : 0);
+        }
+        evict(entry);
+    }
+
+    /**
+     * Delete the least recently used entries, other than the one just stored, until the cache
+     * fits its budget.
+     */
+    private void evict(Path keep) {
+        List<Path> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<Path, Long>> lru = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && lru.hasNext()) {
+                Map.Entry<Path, Long> oldest = lru.next();
+                if (oldest.getKey().equals(keep)) {
+                    continue;
+                }
+                evicted.add(oldest.getKey());
+                totalBytes -= oldest.getValue();
+                lru.remove();
+            }
+        }
+        evicted.forEach(KtxBlockDiskCache::deleteQuietly);
+        if (!evicted.isEmpty()) {
+            LOG.debug("Evicted {} KTX cache entries", evicted.size());
+        }
+    }
+
+    /**
+     * Rebuild the index from the entries left by earlier sessions, oldest first.
+     */
+    private void indexEntries() {
+        if (!Files.isDirectory(cacheDir)) {
+            return;
+        }
+        List<Object[]> found = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(cacheDir, 2)) {
+            files.filter(Files::isRegularFile).forEach(file -> {
+                String name = file.getFileName().toString();
+                try {
+                    if (name.endsWith(TEMP_SUFFIX)) {
+                        if (!openTemps.contains(file)) {
+                            Files.deleteIfExists(file); // left behind by an interrupted session
+                        }
+                    } else if (name.endsWith(ENTRY_SUFFIX)) {
+                        found.add(new Object[]{file, Files.getLastModifiedTime(file).toMillis(), Files.size(file)});
+                    }
+                } catch (IOException e) {
+                    LOG.trace("Skipping {}", file, e);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not index the KTX cache in {}", cacheDir, e);
+            return;
+        }
+        found.sort((a, b) -> Long.compare((Long) a[1], (Long) b[1]));
+        synchronized (this) {
+            // entries stored since startup are more recent than any found here
+            LinkedHashMap<Path, Long> newer = new LinkedHashMap<>(entries);
+            entries.clear();
+            for (Object[] f : found) {
+                entries.put((Path) f[0], (Long) f[2]);
+            }
+            entries.putAll(newer);
+            totalBytes = 0;
+            for (long size : entries.values()) {
+                totalBytes += size;
+            }
+        }
+        // apply the budget, which may have shrunk since the entries were written
+        evict(null);
+        LOG.info("Found {} KTX cache entries ({} MB) in {}", getEntryCount(), getTotalBytes() / (1024 * 1024), cacheDir);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.debug("Could not delete {}", file, e);
+        }
+    }
+
+    /**
+     * Tees a block stream into a temporary file, which becomes the cache entry on commit().
+     */
+    class Writer implements AutoCloseable {
+        private final Path entry;
+        private final Path temp;
+        private final CRC32 crc = new CRC32();
+        private final OutputStream out;
+        private final OutputStream payloadOut;
+        private final InputStream teeStream;
+        private long length = 0;
+        private boolean failed = false;
+        private boolean closed = false;
+
+        private Writer(Path entry, Path temp, InputStream blockStream) throws IOException {
+            this.entry = entry;
+            this.temp = temp;
+            this.out = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16);
+            OutputStream checked = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    crc.update(b);
+                    length++;
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    crc.update(b, off, len);
+                    length += len;
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    out.flush();
+                }
+            };
+            this.payloadOut = compress
+                    ? new LZ4FrameOutputStream(checked, LZ4FrameOutputStream.BLOCKSIZE.SIZE_4MB)
+                    : checked;
+            this.teeStream = new FilterInputStream(blockStream) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        copy(new byte[]{(byte) b}, 0, 1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        copy(b, off, n);
+                    }
+                    return n;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    failed = true; // the entry would have a gap
+                    return super.skip(n);
+                }
+            };
+        }
+
+        /**
+         * @return the block stream, copying what is read from it into the cache
+         */
+        InputStream getStream() {
+            return teeStream;
+        }
+
+        private void copy(byte[] b, int off, int len) {
+            if (failed) {
+                return;
+            }
+            try {
+                payloadOut.write(b, off, len);
+            } catch (IOException e) {
+                // a full or unwritable disk must not fail the load itself
+                LOG.debug("Could not write KTX cache entry {}", entry, e);
+                failed = true;
+            }
+        }
+
+        /**
+         * Finish the entry in the background, once the whole block was read.
+         */
+        void commit() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (failed) {
+                abortQuietly();
+                return;
+            }
+            ioExecutor.execute(() -> {
+                try {
+                    payloadOut.close(); // finishes the LZ4 frame
+                    ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+                    trailer.putInt(TRAILER_MAGIC).putInt(compress ? FLAG_LZ4 : 0).putLong(length).putInt((int) crc.getValue());
+                    out.write(trailer.array());
+                    out.close();
+                    Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    add(entry, length + TRAILER_SIZE);
+                } catch (IOException e) {
+                    LOG.debug("Could not store KTX cache entry {}", entry, e);
+                    deleteQuietly(temp);
+                } finally {
+                    openTemps.remove(temp);
+                }
+            });
+        }
+
+        /**
+         * Discard the entry, unless it was committed.
+         */
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                abortQuietly();
+            }
+        }
+
+        private void abortQuietly() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOG.trace("Could not close {}", temp, e);
+            }
+            deleteQuietly(temp);
+            openTemps.remove(temp);
+        }
+    }
+
+    /**
+     * Reads a buffer, such as a mapped entry, without copying it to the heap first.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -3,6 +3,9 @@ package org.janelia.horta.blocks;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.function.Consumer;
 
 import org.janelia.geometry3d.ComposableObservable;
@@ -38,6 +41,9 @@ public class KtxBlockLoadRunner
     public State state = State.INITIAL;
     public TetVolumeMeshActor blockActor;
 
+    private volatile boolean cancelled = false;
+    private volatile InputStream openStream;
+
     public KtxBlockLoadRunner(DataSource ktxStreamDataSource) {
         this.ktxStreamDataSource = ktxStreamDataSource;
     }
@@ -51,20 +57,97 @@ public class KtxBlockLoadRunner
         long startTime = System.currentTimeMillis();
         URI sourceURI = ktxBlockTileSource.getKeyBlockAbsolutePathURI(ktxOctreeBlockTileKey);
         LOG.debug("Load ktx tile {} from {}", ktxOctreeBlockTileKey, sourceURI);
-        try (InputStream blockStream = ktxBlockTileSource.streamKeyBlock(ktxOctreeBlockTileKey).get()) {
-            loadStream(blockStream, ktxData -> {
+        Path localFile = getLocalFile(sourceURI);
+        if (localFile != null) {
+            loadData(ktxData -> ktxData.loadMappedFile(localFile), ktxData -> {
                 long endTime = System.currentTimeMillis();
-                LOG.info("Loading ktx tile {} from {} took {} ms", ktxOctreeBlockTileKey, sourceURI, endTime-startTime);
+                LOG.info("Mapping ktx tile {} from {} took {} ms", ktxOctreeBlockTileKey, localFile, endTime-startTime);
             });
+            return;
+        }
+        KtxBlockDiskCache diskCache = KtxBlockDiskCache.getShared();
+        if (diskCache != null && loadFromDiskCache(diskCache, startTime)) {
+            return;
+        }
+        try (InputStream blockStream = ktxBlockTileSource.streamKeyBlock(ktxOctreeBlockTileKey).get()) {
+            openStream = blockStream;
+            if (cancelled) {
+                state = State.INTERRUPTED;
+                return;
+            }
+            if (blockStream == null || diskCache == null) {
+                loadStream(blockStream, ktxData -> {
+                    long endTime = System.currentTimeMillis();
+                    LOG.info("Loading ktx tile {} from {} took {} ms", ktxOctreeBlockTileKey, sourceURI, endTime-startTime);
+                });
+                return;
+            }
+            try (KtxBlockDiskCache.Writer cacheWriter = diskCache.store(ktxOctreeBlockTileKey, blockStream)) {
+                loadStream(cacheWriter.getStream(), ktxData -> {
+                    long endTime = System.currentTimeMillis();
+                    LOG.info("Loading ktx tile {} from {} took {} ms", ktxOctreeBlockTileKey, sourceURI, endTime-startTime);
+                });
+                if (state == State.LOADED) {
+                    cacheWriter.commit();
+                }
+            }
         } catch (IllegalStateException ex) {
             // these are 404 errors for files which are missing (possibly correctly, our octree
             //  isn't 100% complete) on disk
             LOG.warn("IllegalStateException loading tile {} from block source", ktxOctreeBlockTileKey, ex);
             state = State.FAILED;
         } catch (IOException ex) {
-            LOG.warn("Exception loading tile {} from block source", ktxOctreeBlockTileKey, ex);
-            state = State.FAILED;
+            if (cancelled) {
+                LOG.info("loading tile {} was cancelled", ktxOctreeBlockTileKey);
+                state = State.INTERRUPTED;
+            } else {
+                LOG.warn("Exception loading tile {} from block source", ktxOctreeBlockTileKey, ex);
+                state = State.FAILED;
+            }
+        } finally {
+            openStream = null;
+        }
+    }
+
+    /**
+     * Abort loading from another thread. Closes the block stream, so that a read blocked on
+     * the network fails right away; the state becomes INTERRUPTED.
+     */
+    public void cancel() {
+        cancelled = true;
+        InputStream stream = openStream;
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ex) {
+                LOG.debug("Error closing stream of cancelled tile {}", ktxOctreeBlockTileKey, ex);
+            }
+        }
+    }
+
+    /**
+     * @return true if the block was read from the disk cache, or loading was interrupted
+     */
+    private boolean loadFromDiskCache(KtxBlockDiskCache diskCache, long startTime) {
+        state = State.LOADING;
+        KtxData ktxData = new KtxData();
+        try {
+            if (!diskCache.load(ktxOctreeBlockTileKey, ktxData)) {
+                return false;
+            }
+        } catch (IOException ex) {
+            LOG.warn("IOException loading tile {} from the disk cache", ktxOctreeBlockTileKey, ex);
+            return false;
+        } catch (InterruptedException ex) {
+            LOG.info("loading tile {} was interrupted", ktxOctreeBlockTileKey);
+            state = State.INTERRUPTED;
+            return true;
         }
+        finishLoad(ktxData, loadedData -> {
+            long endTime = System.currentTimeMillis();
+            LOG.info("Loading ktx tile {} from the disk cache took {} ms", ktxOctreeBlockTileKey, endTime-startTime);
+        });
+        return true;
     }
 
     private void loadFromDataSource() {
@@ -84,16 +167,44 @@ public class KtxBlockLoadRunner
         }
     }
 
+    /**
+     * @return the file behind the URI if it can be read directly, otherwise null
+     */
+    private static Path getLocalFile(URI sourceURI) {
+        if (sourceURI.getScheme() != null && !"file".equals(sourceURI.getScheme())) {
+            return null;
+        }
+        try {
+            Path path = Paths.get(sourceURI.getPath());
+            return Files.isRegularFile(path) && Files.isReadable(path) ? path : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private interface KtxDataLoader {
+        void load(KtxData ktxData) throws IOException, InterruptedException;
+    }
+
     private void loadStream(InputStream stream, Consumer<KtxData> finishLoader) {
         if (stream == null) {
             // no ktx data is available
             return;
         }
+        loadData(ktxData -> ktxData.loadStream(stream), finishLoader);
+    }
+
+    private void loadData(KtxDataLoader loader, Consumer<KtxData> finishLoader) {
         state = State.LOADING;
         KtxData ktxData = new KtxData();
         try {
-            ktxData.loadStream(stream);
+            loader.load(ktxData);
         } catch (IOException ex) {
+            if (cancelled) {
+                LOG.info("loading tile {} was cancelled", ktxOctreeBlockTileKey);
+                state = State.INTERRUPTED;
+                return;
+            }
             state = State.FAILED;
             LOG.warn("IOException loading tile {} from stream", ktxOctreeBlockTileKey, ex);
             return;
@@ -102,6 +213,10 @@ public class KtxBlockLoadRunner
             state = State.INTERRUPTED;
             return;
         }
+        finishLoad(ktxData, finishLoader);
+    }
+
+    private void finishLoad(KtxData ktxData, Consumer<KtxData> finishLoader) {
         TetVolumeActor parentActor = TetVolumeActor.getInstance();
         blockActor = new TetVolumeMeshActor(ktxData, parentActor);
         state = State.LOADED;
@@ -5,6 +5,7 @@ import java.util.Collection;
 import java.util.Map;
 import javax.media.opengl.GL3;
 import org.janelia.horta.actors.SortableBlockActor;
+import org.janelia.horta.actors.TetVolumeMeshActor;
 
 /**
  *
@@ -24,20 +25,37 @@ public class KtxTileCache extends BasicTileCache<KtxOctreeBlockTileKey, Sortable
 
     @Override
     LoadRunner<KtxOctreeBlockTileKey, SortableBlockActor> getLoadRunner() {
-        return new LoadRunner<KtxOctreeBlockTileKey, SortableBlockActor>() {
-            @Override
-            public SortableBlockActor loadTile(KtxOctreeBlockTileKey key) throws InterruptedException, IOException {
-                final KtxBlockLoadRunner loader = new KtxBlockLoadRunner(source, key);
-                loader.run();
-                return loader.blockActor;
+        return new KtxLoadRunner();
+    }
+
+    private class KtxLoadRunner implements LoadRunner<KtxOctreeBlockTileKey, SortableBlockActor> {
+        private volatile KtxBlockLoadRunner loader;
+        private volatile boolean cancelled = false;
+
+        @Override
+        public SortableBlockActor loadTile(KtxOctreeBlockTileKey key) throws InterruptedException, IOException {
+            loader = new KtxBlockLoadRunner(source, key);
+            if (cancelled) {
+                return null;
+            }
+            loader.run();
+            return loader.state == KtxBlockLoadRunner.State.LOADED ? loader.blockActor : null;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            KtxBlockLoadRunner currentLoader = loader;
+            if (currentLoader != null) {
+                currentLoader.cancel();
             }
-        };
+        }
     }
 
     public void disposeObsoleteTiles(GL3 gl) {
         Collection<SortableBlockActor> obs = popObsoleteTiles();
         for (SortableBlockActor actor : obs) {
-            actor.dispose(gl);
+            dispose(gl, actor);
         }
     }
 
@@ -47,8 +65,16 @@ public class KtxTileCache extends BasicTileCache<KtxOctreeBlockTileKey, Sortable
 
     private void disposeActorGroup(GL3 gl, Map<KtxOctreeBlockTileKey, SortableBlockActor> group) {
         for (SortableBlockActor actor : group.values()) {
-            actor.dispose(gl);
+            dispose(gl, actor);
         }
         group.clear();
     }
+
+    private void dispose(GL3 gl, SortableBlockActor actor) {
+        actor.dispose(gl);
+        if (actor instanceof TetVolumeMeshActor) {
+            // no longer displayed, so its mipmap buffers can be reused
+            ((TetVolumeMeshActor) actor).releaseVolumeData();
+        }
+    }
 }
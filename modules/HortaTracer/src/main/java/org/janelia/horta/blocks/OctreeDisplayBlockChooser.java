@@ -19,8 +19,10 @@ public class OctreeDisplayBlockChooser implements BlockChooser<KtxOctreeBlockTil
     private List<Float> zoomLevels = new ArrayList<>();
     private double BLOCK_WIDTH_ACROSS_VIEWPORT = 2.35;
     private int MAX_SIMULTANEOUS_BLOCKS = 14;
+    private int MAX_PREFETCH_BLOCKS = 4;
+    private float prefetchScreenHeight = 0;
 
-    private void initBlockSizes(KtxOctreeBlockTileSource source, Vantage vantage) {
+    private void initBlockSizes(KtxOctreeBlockTileSource source) {
         int numLevels = (int)source.getZoomLevels();
         for (int i=1; i<numLevels; i++) {
             float blockHeight = source.getBlockSize(new KtxOctreeResolution(i)).getY();
@@ -35,22 +37,70 @@ public class OctreeDisplayBlockChooser implements BlockChooser<KtxOctreeBlockTil
     public List<KtxOctreeBlockTileKey> chooseBlocks(KtxOctreeBlockTileSource source, ConstVector3 focus, ConstVector3 previousFocus,
                                                     Vantage vantage) {
         // Find up to eight closest blocks adjacent to focus
-        int zoomIndex = zoomLevels.size()-1;
-        int zoomLevel = 1;  // default to coarsest block
-        if (zoomIndex<=0) {
-            initBlockSizes(source, vantage);
-        }
-        boolean foundZoom = false;
+        int zoomLevel = chooseZoomLevel(source, vantage.getSceneUnitsPerViewportHeight());
+        return chooseClosestBlocks(source, focus, zoomLevel, 8);
+    }
+
+    /*
+     Choose the blocks around where the focus is headed, at the zoom level the camera is zooming towards.
+     */
+    @Override
+    public List<KtxOctreeBlockTileKey> choosePrefetchBlocks(KtxOctreeBlockTileSource source, ConstVector3 focus, ConstVector3 previousFocus,
+                                                            Vantage vantage) {
         float screenHeight = vantage.getSceneUnitsPerViewportHeight();
+        float previousScreenHeight = prefetchScreenHeight;
+        prefetchScreenHeight = screenHeight;
+        int zoomLevel = chooseZoomLevel(source, screenHeight);
+        int prefetchLevel = zoomLevel;
+        if (previousScreenHeight > 0 && screenHeight < previousScreenHeight) {
+            prefetchLevel = Math.min(zoomLevel + 1, zoomLevels.size() + 1); // zooming in
+        } else if (previousScreenHeight > 0 && screenHeight > previousScreenHeight) {
+            prefetchLevel = Math.max(zoomLevel - 1, 1); // zooming out
+        }
+        boolean moving = previousFocus != null && !previousFocus.equals(focus);
+        if (!moving && prefetchLevel == zoomLevel) {
+            return Collections.emptyList();
+        }
+        ConstVector3 prefetchFocus = focus;
+        if (moving) {
+            // one block further along the direction of motion
+            float blockHeight = source.getBlockSize(new KtxOctreeResolution(prefetchLevel)).getY();
+            prefetchFocus = focus.plus(new Vector3(focus.minus(previousFocus)).normalize().multiplyScalar(blockHeight));
+        }
+        return chooseClosestBlocks(source, prefetchFocus, prefetchLevel, MAX_PREFETCH_BLOCKS);
+    }
+
+    /*
+     Blocks that span more of the viewport, i.e. that have the larger screen space error while missing, load first,
+     and among those the blocks closest to the focus.
+     */
+    @Override
+    public double getLoadCost(KtxOctreeBlockTileSource source, KtxOctreeBlockTileKey block, ConstVector3 focus, Vantage vantage) {
+        ConstVector3 blockSize = source.getBlockSize(new KtxOctreeResolution(block.getKeyDepth()));
+        float blockExtent = Math.max(blockSize.getX(), Math.max(blockSize.getY(), blockSize.getZ()));
+        // fraction of the viewport height one block spans
+        double screenSpaceExtent = blockExtent / vantage.getSceneUnitsPerViewportHeight();
+        double distanceInBlocks = block.getCentroid().distance(focus) / blockExtent;
+        return (1 + distanceInBlocks) / screenSpaceExtent;
+    }
 
-        while (!foundZoom && zoomIndex>=0) {
+    private int chooseZoomLevel(KtxOctreeBlockTileSource source, float screenHeight) {
+        if (zoomLevels.isEmpty()) {
+            initBlockSizes(source);
+        }
+        int zoomIndex = zoomLevels.size()-1;
+        int zoomLevel = 1;  // default to coarsest block
+        while (zoomIndex>=0) {
             if (screenHeight<zoomLevels.get(zoomIndex)) {
-                zoomLevel = zoomIndex+2;
-                foundZoom = true;
+                return zoomIndex+2;
             }
             zoomIndex--;
         }
+        return zoomLevel;
+    }
 
+    private List<KtxOctreeBlockTileKey> chooseClosestBlocks(KtxOctreeBlockTileSource source, ConstVector3 focus, int zoomLevel,
+                                                            int maxBlocks) {
         BlockTileResolution blockResolution = new KtxOctreeResolution(zoomLevel);
         //         ConstVector3 blockSize = source.getMaximumResolutionBlockSize();
         ConstVector3 blockSize = source.getBlockSize(new KtxOctreeResolution(zoomLevel));
@@ -86,9 +136,9 @@ public class OctreeDisplayBlockChooser implements BlockChooser<KtxOctreeBlockTil
         // Sort the blocks strictly by distance to focus
         Collections.sort(neighboringBlocks, new BlockComparator(focus));
 
-        // Return only the closest 8 blocks
+        // Return only the closest blocks
         List<KtxOctreeBlockTileKey> result = new ArrayList<>();
-        int listLen = Math.min(8, neighboringBlocks.size());
+        int listLen = Math.min(maxBlocks, neighboringBlocks.size());
         for (int i = 0; i < listLen; ++i) {
             result.add(neighboringBlocks.get(i));
         }
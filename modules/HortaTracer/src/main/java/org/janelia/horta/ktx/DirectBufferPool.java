@@ -0,0 +1,99 @@
+package org.janelia.horta.ktx;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.janelia.workstation.core.util.ConsoleProperties;
+
+/**
+ * Pool of direct buffers for KTX mipmaps, so that loading a block does not allocate (and later
+ * free) fresh native memory for every mipmap level.
+ *
+ * Requests are rounded up to size classes a quarter power of two apart, which bounds the wasted
+ * space to 25%. Small requests are not worth pooling and are allocated directly.
+ */
+public class DirectBufferPool {
+
+    private static final int MIN_POOLED_SIZE = 64 * 1024;
+    private static final long DEFAULT_MAX_POOLED_BYTES =
+            ConsoleProperties.getLong("console.horta.ktxBufferPoolMB", 512L) * 1024 * 1024;
+
+    private static final DirectBufferPool SHARED = new DirectBufferPool(DEFAULT_MAX_POOLED_BYTES);
+
+    private final long maxPooledBytes;
+    private final Map<Integer, Deque<ByteBuffer>> freeBuffers = new HashMap<>();
+    private long pooledBytes = 0;
+
+    public static DirectBufferPool getShared() {
+        return SHARED;
+    }
+
+    public DirectBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * @return a cleared direct buffer of at least size bytes, with its limit set to size
+     */
+    public ByteBuffer acquire(int size) {
+        int capacity = sizeClass(size);
+        ByteBuffer result = null;
+        if (capacity >= MIN_POOLED_SIZE) {
+            synchronized (this) {
+                Deque<ByteBuffer> free = freeBuffers.get(capacity);
+                if (free != null && !free.isEmpty()) {
+                    result = free.pop();
+                    pooledBytes -= capacity;
+                }
+            }
+        }
+        if (result == null) {
+            result = ByteBuffer.allocateDirect(capacity);
+        }
+        result.clear();
+        result.limit(size);
+        return result;
+    }
+
+    /**
+     * Return a buffer obtained from acquire(). The caller must not use it, or any view of it, afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || capacity < MIN_POOLED_SIZE || sizeClass(capacity) != capacity) {
+            return; // not from this pool
+        }
+        synchronized (this) {
+            if (pooledBytes + capacity > maxPooledBytes) {
+                return; // let the garbage collector free it
+            }
+            freeBuffers.computeIfAbsent(capacity, c -> new ArrayDeque<>()).push(buffer);
+            pooledBytes += capacity;
+        }
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    public synchronized void clear() {
+        freeBuffers.clear();
+        pooledBytes = 0;
+    }
+
+    static int sizeClass(int size) {
+        if (size < MIN_POOLED_SIZE) {
+            return size;
+        }
+        int power = Integer.highestOneBit(size);
+        if (power == size) {
+            return size;
+        }
+        int step = power / 4;
+        long rounded = power + (long) (size - power + step - 1) / step * step;
+        return rounded > Integer.MAX_VALUE ? size : (int) rounded;
+    }
+}
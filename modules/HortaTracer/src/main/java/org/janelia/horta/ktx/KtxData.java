@@ -1,8 +1,17 @@
 package org.janelia.horta.ktx;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -10,6 +19,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * KTX texture header and mipmaps.
+ *
+ * Mipmaps are read straight into direct buffers, either from pooled buffers when reading a
+ * stream, or as views of a memory mapped file. Call release() once the mipmaps are no longer
+ * needed, to return pooled buffers for reuse.
  *
  * @author brunsc
  */
@@ -20,65 +34,141 @@ public class KtxData {
     public final KtxHeader header = new KtxHeader();
     public final List<ByteBuffer> mipmaps = new ArrayList<>();
 
-    private final byte[] unused = new byte[4]; // for bulk reading of unused padding bytes
+    private final DirectBufferPool bufferPool;
+    // pooled buffers backing the mipmaps, to be returned by release()
+    private final List<ByteBuffer> pooledBuffers = new ArrayList<>();
     private final ByteBuffer sizeBuf = ByteBuffer.allocate(4); // to hold binary representation of image size
+    private final ByteBuffer paddingBuf = ByteBuffer.allocate(3);
+
+    public KtxData() {
+        this(DirectBufferPool.getShared());
+    }
+
+    public KtxData(DirectBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
 
     public void loadStream(InputStream stream) throws IOException, InterruptedException {
         if (stream != null) {
-            try {
-                header.loadStream(stream);
-            } catch (IOException e) {
-                throw new InterruptedException("Interrupted while loading the KTX header");
-            }
+            loadChannel(Channels.newChannel(stream));
+        }
+    }
+
+    public void loadChannel(ReadableByteChannel channel) throws IOException, InterruptedException {
+        release();
+        try {
+            header.loadChannel(channel);
+            checkSupportedLayout();
             sizeBuf.order(header.byteOrder);
-            mipmaps.clear();
             for (int m = 0; m < header.numberOfMipmapLevels; ++m) {
-                mipmaps.add(loadOneMipmap(stream, m));
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException();
+                }
+                mipmaps.add(loadOneMipmap(channel, m));
             }
+        } catch (ClosedByInterruptException | InterruptedIOException e) {
+            release();
+            throw new InterruptedException("Interrupted the loading of KTX data");
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
         }
     }
 
-    private ByteBuffer loadOneMipmap(InputStream stream, int mipmapLevel) throws IOException, InterruptedException {
-        int imageSize;
-        int bytesRead;
-        byte[] b;
-        try {
-            stream.read(sizeBuf.array());
-            sizeBuf.rewind();
-            imageSize = (int) ((long) sizeBuf.getInt() & 0xffffffffL);
-            // TODO: figure out how to stream straight into the direct buffer
-            // For now, copy into the direct buffer
-            b = new byte[imageSize];
-            bytesRead = stream.read(b, 0, imageSize);
-        } catch (Exception e) {
-            // this exception most likely occurred because of an interruption
-            throw new InterruptedException("Interrupted the loading of mipmap level " + (mipmapLevel + 1));
-        }
-        if (bytesRead < 1) {
-            throw new IOException("Error reading bytes for mipmap level " + (mipmapLevel + 1));
+    /**
+     * Map a local KTX file; mipmaps are views of the mapping. The file is read into memory
+     * here, so that uploading the texture later does not wait on the disk.
+     */
+    public void loadMappedFile(Path file) throws IOException, InterruptedException {
+        release();
+        MappedByteBuffer mapping;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("KTX file too large to map: " + file);
+            }
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (ClosedByInterruptException e) {
+            throw new InterruptedException("Interrupted mapping " + file);
         }
-        while (bytesRead < imageSize) {
-            int moreBytes = stream.read(b, bytesRead, imageSize - bytesRead);
-            if (moreBytes < 1) {
-                throw new IOException("Error reading mipmap number " + mipmapLevel);
+        mapping.load();
+        loadBuffer(mapping, file.toString());
+    }
+
+    /**
+     * Parse KTX data held in memory; mipmaps are views of the buffer, which must not change
+     * while they are in use.
+     */
+    public void loadBuffer(ByteBuffer buffer, String what) throws IOException {
+        release();
+        header.loadBuffer(buffer);
+        checkSupportedLayout();
+        for (int m = 0; m < header.numberOfMipmapLevels; ++m) {
+            if (buffer.remaining() < 4) {
+                throw new EOFException("Unexpected end of data reading mipmap level " + (m + 1) + " of " + what);
+            }
+            long imageSize = buffer.order(header.byteOrder).getInt() & 0xffffffffL;
+            if (imageSize > buffer.remaining()) {
+                throw new EOFException("Unexpected end of data reading mipmap level " + (m + 1) + " of " + what);
             }
-            bytesRead += moreBytes;
+            ByteBuffer mipmap = buffer.slice();
+            mipmap.limit((int) imageSize);
+            mipmaps.add(mipmap.slice());
+            int padding = 3 - (int) ((imageSize + 3) % 4);
+            buffer.position(buffer.position() + (int) Math.min(imageSize + padding, buffer.remaining()));
+        }
+    }
+
+    /**
+     * Return pooled mipmap buffers. The mipmaps must not be used afterwards.
+     */
+    public synchronized void release() {
+        for (ByteBuffer buffer : pooledBuffers) {
+            bufferPool.release(buffer);
+        }
+        pooledBuffers.clear();
+        mipmaps.clear();
+    }
+
+    private void checkSupportedLayout() throws IOException {
+        // cube maps and texture arrays pad each face and element differently
+        if (header.numberOfFaces != 1 || header.numberOfArrayElements > 1) {
+            throw new IOException("Unsupported KTX layout with " + header.numberOfFaces + " faces and "
+                    + header.numberOfArrayElements + " array elements");
         }
-        if (bytesRead != imageSize) {
-            throw new IOException("Error reading mipmap number " + mipmapLevel);
+    }
+
+    private ByteBuffer loadOneMipmap(ReadableByteChannel channel, int mipmapLevel) throws IOException {
+        sizeBuf.clear();
+        KtxHeader.readFully(channel, sizeBuf, "size of mipmap level " + (mipmapLevel + 1));
+        long imageSize = sizeBuf.getInt(0) & 0xffffffffL;
+        if (imageSize > Integer.MAX_VALUE) {
+            throw new IOException("Bad size " + imageSize + " of mipmap level " + (mipmapLevel + 1));
         }
         // Use a DIRECT buffer for later efficient slurping into OpenGL
-        final boolean useDirect = true;
-        ByteBuffer mipmap;
-        if (useDirect) {
-            mipmap = ByteBuffer.allocateDirect(imageSize);
-            mipmap.put(b);
-        } else {
-            mipmap = ByteBuffer.wrap(b);
+        ByteBuffer buffer = bufferPool.acquire((int) imageSize);
+        synchronized (this) {
+            pooledBuffers.add(buffer);
         }
-        int padding = 3 - ((imageSize + 3) % 4);
-        stream.read(unused, 0, padding);
+        KtxHeader.readFully(channel, buffer, "mipmap level " + (mipmapLevel + 1));
+        buffer.flip();
+        ByteBuffer mipmap = buffer.slice();
+        skipPadding(channel, 3 - (int) ((imageSize + 3) % 4), mipmapLevel);
         return mipmap;
     }
 
+    private void skipPadding(ReadableByteChannel channel, int padding, int mipmapLevel) throws IOException {
+        paddingBuf.clear();
+        paddingBuf.limit(padding);
+        while (paddingBuf.hasRemaining()) {
+            if (channel.read(paddingBuf) < 0) {
+                // some writers omit the padding after the last level
+                if (mipmapLevel + 1 < header.numberOfMipmapLevels) {
+                    throw new EOFException("Unexpected end of stream after mipmap level " + (mipmapLevel + 1));
+                }
+                LOG.trace("No padding after the last mipmap level");
+                return;
+            }
+        }
+    }
+
 }
@@ -1,9 +1,13 @@
 package org.janelia.horta.ktx;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -30,6 +34,9 @@ public class KtxHeader {
     };
     private static final byte[] LITTLE_ENDIAN = new byte[] {1,2,3,4};
     private static final byte[] BIG_ENDIAN = new byte[] {4,3,2,1};
+    private static final int FIXED_HEADER_SIZE = 12 + 4 + 4 * 12;
+    private static final int MAX_MIPMAP_LEVELS = 32;
+    private static final int MAX_KEY_VALUE_BYTES = 1024 * 1024;
 
     public ByteOrder byteOrder;
     public int glType;
@@ -44,16 +51,60 @@ public class KtxHeader {
     public Map<String, String> keyValueMetadata = new LinkedHashMap<>(); // must preserve key order!
     
     public void loadStream(InputStream stream) throws IOException {
-        // https://www.khronos.org/opengles/sdk/tools/KTX/file_format_spec/
-        byte[] identifier = new byte[12];
-        int readCount = stream.read(identifier, 0, 12);
-        if (readCount != 12)
+        loadChannel(Channels.newChannel(stream));
+    }
+
+    /**
+     * Read the header, leaving the channel positioned at the first mipmap.
+     */
+    public void loadChannel(ReadableByteChannel channel) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER_SIZE);
+        readFully(channel, fixed, "KTX header");
+        fixed.flip();
+        int keyValueByteCount = parseFixedHeader(fixed);
+        ByteBuffer kv = ByteBuffer.allocate(keyValueByteCount);
+        readFully(channel, kv, "KTX key-value metadata");
+        kv.flip();
+        parseKeyValueData(kv);
+    }
+
+    /**
+     * Parse the header at the buffer's position, leaving the buffer positioned at the first mipmap.
+     */
+    public void loadBuffer(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < FIXED_HEADER_SIZE) {
             throw new IOException("Could not read KTX header identifier");
+        }
+        int keyValueByteCount = parseFixedHeader(buffer);
+        if (buffer.remaining() < keyValueByteCount) {
+            throw new IOException("Error reading KTX key-value metadata from stream");
+        }
+        ByteBuffer kv = buffer.slice();
+        kv.limit(keyValueByteCount);
+        parseKeyValueData(kv);
+        buffer.position(buffer.position() + keyValueByteCount);
+    }
+
+    /**
+     * Read exactly as many bytes as the buffer has room for.
+     */
+    static void readFully(ReadableByteChannel channel, ByteBuffer buffer, String what) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of stream reading " + what);
+            }
+        }
+    }
+
+    // https://www.khronos.org/opengles/sdk/tools/KTX/file_format_spec/
+    private int parseFixedHeader(ByteBuffer b) throws IOException {
+        byte[] identifier = new byte[12];
+        b.get(identifier);
         if (! Arrays.equals(identifier, IDENTIFIER))
             throw new IOException("KTX header identifier mismatch");
-        
+
         byte[] endian = new byte[4];
-        stream.read(endian, 0, 4);
+        b.get(endian);
         if (Arrays.equals(endian, LITTLE_ENDIAN))
             byteOrder = ByteOrder.LITTLE_ENDIAN;
         else if (Arrays.equals(endian, BIG_ENDIAN))
@@ -61,47 +112,55 @@ public class KtxHeader {
         else {
             throw new IOException("Error parsing KTX byte order");
         }
-        
-        // Read a sequence of unsigned 32 bit ints
-        int expected_read_size = 4 * 12; // twelve ints, to be exact
-        ByteBuffer b = ByteBuffer.allocate(expected_read_size);
-        int read_size = stream.read(b.array());
-        if (read_size != expected_read_size) {
-            throw new IOException("Error reading KTX integer parameters from stream");
-        }
+
+        // Read a sequence of twelve unsigned 32 bit ints
+        ByteOrder originalOrder = b.order();
         b.order(byteOrder);
-        b.rewind();
-        glType = (int)((long)b.getInt() & 0xffffffffL); // unsigned so &0xffffffffL
-        glTypeSize = (int)((long)b.getInt() & 0xffffffffL); // unsigned so &0xffffffffL
-        glFormat = (int)((long)b.getInt() & 0xffffffffL); // unsigned so &0xffffffffL
-        glInternalFormat = (int)((long)b.getInt() & 0xffffffffL); // unsigned so &0xffffffffL
-        glBaseInternalFormat = (int)((long)b.getInt() & 0xffffffffL); // unsigned so &0xffffffffL
-        pixelWidth = (int)((long)b.getInt() & 0xffffffffL); // unsigned so &0xffffffffL
-        pixelHeight = (int)((long)b.getInt() & 0xffffffffL); // unsigned so &0xffffffffL
-        pixelDepth = (int)((long)b.getInt() & 0xffffffffL); // unsigned so &0xffffffffL
-        numberOfArrayElements = (int)((long)b.getInt() & 0xffffffffL); // unsigned so &0xffffffffL
-        numberOfFaces = (int)((long)b.getInt() & 0xffffffffL); // unsigned so &0xffffffffL
-        numberOfMipmapLevels = (int)((long)b.getInt() & 0xffffffffL); // unsigned so &0xffffffffL
-        
-        int bytes_of_key_value_data = (int)((long)b.getInt() & 0xffffffffL); // unsigned so &0xffffffffL
-        ByteBuffer kv = ByteBuffer.allocate(bytes_of_key_value_data);
-        read_size = stream.read(kv.array());
-        if (read_size != bytes_of_key_value_data) {
-            throw new IOException("Error reading KTX key-value metadata from stream");
-        }
+        glType = b.getInt();
+        glTypeSize = b.getInt();
+        glFormat = b.getInt();
+        glInternalFormat = b.getInt();
+        glBaseInternalFormat = b.getInt();
+        pixelWidth = b.getInt();
+        pixelHeight = b.getInt();
+        pixelDepth = b.getInt();
+        numberOfArrayElements = b.getInt();
+        numberOfFaces = b.getInt();
+        numberOfMipmapLevels = b.getInt();
+        long keyValueByteCount = b.getInt() & 0xffffffffL; // unsigned so &0xffffffffL
+        b.order(originalOrder);
+
+        if (pixelWidth <= 0 || pixelHeight < 0 || pixelDepth < 0)
+            throw new IOException("Bad KTX image size " + pixelWidth + "x" + pixelHeight + "x" + pixelDepth);
+        if (numberOfArrayElements < 0 || numberOfFaces < 1 || numberOfFaces > 6)
+            throw new IOException("Bad KTX array element or face count");
+        if (numberOfMipmapLevels < 0 || numberOfMipmapLevels > MAX_MIPMAP_LEVELS)
+            throw new IOException("Bad KTX mipmap level count " + numberOfMipmapLevels);
+        if (keyValueByteCount > MAX_KEY_VALUE_BYTES)
+            throw new IOException("Bad KTX key-value metadata size " + keyValueByteCount);
+        return (int) keyValueByteCount;
+    }
+
+    private void parseKeyValueData(ByteBuffer kv) throws IOException {
         kv.order(byteOrder);
-        kv.rewind();
-        byte[] unused = new byte[4]; // 
+        keyValueMetadata.clear();
         while (kv.remaining() > 4) {
-            int keyAndValueByteSize = (int)((long)kv.getInt() & 0xffffffffL);
-            byte[] keyAndValue = new byte[keyAndValueByteSize];
+            long keyAndValueByteSize = kv.getInt() & 0xffffffffL;
+            if (keyAndValueByteSize > kv.remaining())
+                throw new IOException("Bad KTX key-value entry size " + keyAndValueByteSize);
+            byte[] keyAndValue = new byte[(int) keyAndValueByteSize];
             kv.get(keyAndValue);
-            int padding = 3 - ((keyAndValueByteSize + 3) % 4);
-            kv.get(unused, 0, padding);
-            String s = new String(keyAndValue);
+            int padding = 3 - (int) ((keyAndValueByteSize + 3) % 4);
+            kv.position(kv.position() + Math.min(padding, kv.remaining()));
+            String s = new String(keyAndValue, StandardCharsets.UTF_8);
             // Separate into distinct key and value string
             int nullPos = s.indexOf(0);
+            if (nullPos < 0) {
+                keyValueMetadata.put(s, "");
+                continue;
+            }
             String key = s.substring(0, nullPos);
+            // values are usually null terminated too
             String value = s.substring(nullPos + 1);
             keyValueMetadata.put(key, value);
         }
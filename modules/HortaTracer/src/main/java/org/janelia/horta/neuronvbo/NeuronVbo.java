@@ -18,6 +18,11 @@ import org.slf4j.LoggerFactory;
 /**
  * Holds one OpenGL vertex buffer object for rendering groups of neuron models.
  * Multiple NeuronVbos may be held in a NeuronVboPool
+ * 
+ * Each neuron occupies its own slots of vertices and edges, with some room
+ * to grow, so that an edited neuron is rewritten and uploaded in place.
+ * All neurons are packed again only when the buffers fill up, or when
+ * removed neurons leave too many holes.
  * @author brunsc
  * 
  * TODO: Perform full clear when workspace changes
@@ -26,10 +31,13 @@ import org.slf4j.LoggerFactory;
 public class NeuronVbo implements Iterable<TmNeuronMetadata>
 {
     private final static int FLOATS_PER_VERTEX = 8;
+    private final static int INTS_PER_EDGE = 2;
     // Be sure to synchronize these constants with the actual shader vertex attribute (in) layout
     private final static int XYZR_ATTRIB = 1;
     private final static int RGBV_ATTRIB = 2;
     private final static float REVIEWED_GRAY_COLOR = 200;
+    // Vertex 0 is never visible. Unused edges point at it, so the shaders skip them.
+    private final static int HIDDEN_VERTEX = 0;
 
     private final Set<TmNeuronMetadata> neurons = new HashSet<>();
     private int vboVertices = 0;
@@ -37,15 +45,26 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
     private int edgeCount = 0;
     private int vertexCount = 0;
     
-    private boolean buffersNeedRebuild = false; // non-gl population of buffer data
-    private boolean buffersNeedAllocation = false; // allocate and upload gl buffers
-    private boolean buffersNeedUpdate = false; // replace contents of existing gl buffers
+    private boolean buffersNeedRebuild = false; // repack all neurons into the buffers
+    private final Set<TmNeuronMetadata> dirtyNeurons = new HashSet<>(); // neurons to rewrite in their own slots
+    
+    // Slots of each neuron within the buffers, counted in vertices and edges
+    private final VboRangeAllocator<TmNeuronMetadata> vertexSlots = new VboRangeAllocator<>(HIDDEN_VERTEX + 1);
+    private final VboRangeAllocator<TmNeuronMetadata> edgeSlots = new VboRangeAllocator<>(0);
+    
+    private IntBuffer edgeBuffer = Buffers.newDirectIntBuffer(0);
+    private FloatBuffer vertexBuffer = Buffers.newDirectFloatBuffer(FLOATS_PER_VERTEX);
     
-    private IntBuffer edgeBuffer;
-    private FloatBuffer vertexBuffer;
+    // Capacity of the gl buffers, in vertices and edges; zero until allocated
+    private int glVertexCapacity = 0;
+    private int glEdgeCapacity = 0;
+    // Ranges changed since the last upload, in vertices and edges
+    private int dirtyVertexStart = Integer.MAX_VALUE;
+    private int dirtyVertexEnd = 0;
+    private int dirtyEdgeStart = Integer.MAX_VALUE;
+    private int dirtyEdgeEnd = 0;
     
-    // Cached indices
-    private final Map<TmNeuronMetadata, Integer> neuronOffsets = new HashMap<>(); // for surgically updating buffers
+    // Cached counts
     private final Map<TmNeuronMetadata, Integer> neuronVertexCounts = new HashMap<>(); // for sanity checking
     private final Map<TmNeuronMetadata, Integer> neuronEdgeCounts = new HashMap<>(); // for sanity checking
     private final Map<TmNeuronMetadata, NeuronObserver> neuronObservers = new HashMap<>();
@@ -56,19 +75,16 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
         return neurons.size();
     }
     
-    public void clear() {
+    public synchronized void clear() {
         // first disconnect all signals
-        if (edgeCount > 0)
-            buffersNeedRebuild = true;
-        if (vertexCount > 0)
-            buffersNeedRebuild = true;
         neurons.clear();
-        neuronOffsets.clear();
+        dirtyNeurons.clear();
         neuronEdgeCounts.clear();
         neuronVertexCounts.clear();
         neuronObservers.clear();
         edgeCount = 0;
         vertexCount = 0;
+        buffersNeedRebuild = true; // releases the space
     }
     
     private void connectSignals(final TmNeuronMetadata neuron) {
@@ -92,33 +108,33 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
     synchronized void displayEdges(GL3 gl) 
     {
         init(gl);
-        if (buffersNeedRebuild)
-            rebuildBuffers();
+        prepareBuffers();
         if (edgeCount < 1) 
             return;
         setUpVbo(gl);
         gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, vboEdgeIndices);
-        gl.glDrawElements(GL3.GL_LINES, 2 * edgeCount, GL3.GL_UNSIGNED_INT, 0);
+        // unused edge slots are drawn too, but they point at the hidden vertex
+        gl.glDrawElements(GL3.GL_LINES, INTS_PER_EDGE * edgeSlots.getEnd(), GL3.GL_UNSIGNED_INT, 0);
     }
     
     // Make sure the sphere shader is loaded before calling this method
     synchronized void displayNodes(GL3 gl) 
     {
         init(gl);
-        if (buffersNeedRebuild)
-            rebuildBuffers();
+        prepareBuffers();
         if (vertexCount < 1) 
             return;
         setUpVbo(gl);
-        gl.glDrawArrays(GL3.GL_POINTS, 0, vertexCount);
+        // unused vertex slots are drawn too, but they are invisible
+        gl.glDrawArrays(GL3.GL_POINTS, 0, vertexSlots.getEnd());
     }
     
     private void setUpVbo(GL3 gl) {
-        if (buffersNeedRebuild)
-            rebuildBuffers();
-        if (buffersNeedAllocation)
+        prepareBuffers();
+        if ( (glVertexCapacity != vertexSlots.getCapacity())
+                || (glEdgeCapacity != edgeSlots.getCapacity()) )
             allocateBuffers(gl);
-        if (buffersNeedUpdate)
+        else
             updateBuffers(gl);
         gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vboVertices);
         gl.glEnableVertexAttribArray(XYZR_ATTRIB);
@@ -143,8 +159,9 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
     
     synchronized void dispose(GL3 gl) 
     {
-        if (vertexCount > 0)
-            buffersNeedAllocation = true;
+        // upload everything again after the next init
+        glVertexCapacity = 0;
+        glEdgeCapacity = 0;
         if (vboVertices == 0)
             return; // never allocated
         int [] vbos = {vboVertices, vboEdgeIndices};
@@ -156,7 +173,7 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
     // lightweight update of just the color field
     private boolean updateNeuronColor(TmNeuronMetadata neuron)
     {
-        if (buffersNeedRebuild)
+        if (buffersNeedRebuild || dirtyNeurons.contains(neuron))
             return false;
         int sv = neuron.getAnnotationCount();
         int se = neuron.getEdges().size();
@@ -166,24 +183,25 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
         
         // check for whether the neuron is under review
         if (TmModelManager.getInstance().getCurrentView().isNeuronInReviewMode(neuron.getId())) {
-            buffersNeedRebuild = true;
+            dirtyNeurons.add(neuron);
             return false;
         }
         
         // sanity check
         // Do we already have most of the information for this neuron tabulated?
-        if ( neuronOffsets.containsKey(neuron)
+        if ( vertexSlots.contains(neuron)
                 && (neuronVertexCounts.get(neuron) == sv)
                 && (neuronEdgeCounts.get(neuron) == se)) 
         {
             // Has the color actually changed?
             final int COLOR_OFFSET = 4; // red color begins at 5th value
-            int offset = neuronOffsets.get(neuron) * FLOATS_PER_VERTEX + COLOR_OFFSET;
+            int vertexOffset = vertexSlots.getOffset(neuron);
+            int offset = vertexOffset * FLOATS_PER_VERTEX + COLOR_OFFSET;
             int max_offset = offset + (sv-1) * FLOATS_PER_VERTEX + 2;
             if (max_offset >= vertexBuffer.limit()) {
                 // Hmm. The actual buffer is no longer big enough to hold this neuron.
-                log.info("vertex buffer object is too small. rebuild queued (after updateNeuronColor())");
-                buffersNeedRebuild = true;
+                log.info("vertex buffer object is too small. neuron update queued (after updateNeuronColor())");
+                dirtyNeurons.add(neuron);
                 return true;
             }
             try {
@@ -205,16 +223,16 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
                         // assert(vertexBuffer.get(index + r) == rgb[r]);
                     }
                 }
-                buffersNeedUpdate = true;
+                markVerticesDirty(vertexOffset, vertexOffset + sv);
                 bChanged = true;
             } catch (IndexOutOfBoundsException exc) {
-                log.info("stale vertex buffer object accessed with bogus index {}. Queueing rebuild.", offset);
-                buffersNeedRebuild = true;
+                log.info("stale vertex buffer object accessed with bogus index {}. Queueing neuron update.", offset);
+                dirtyNeurons.add(neuron);
                 return true;
             }
         }
         else {
-            buffersNeedRebuild = true;
+            dirtyNeurons.add(neuron);
             bChanged = true;
         }
         return bChanged;
@@ -224,8 +242,8 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
     // returns true if the buffer state actually changed
     private boolean updateNeuronVisibility(TmNeuronMetadata neuron)
     {
-        if (buffersNeedRebuild)
-            return false; // we are going to redo everything anyway, so skip the surgical update
+        if (buffersNeedRebuild || dirtyNeurons.contains(neuron))
+            return false; // we are going to redo this neuron anyway, so skip the surgical update
         int sv = neuron.getAnnotationCount();
         int se = neuron.getEdges().size();
         boolean bIsVisible = neuron.isVisible();
@@ -235,18 +253,19 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
 
         // sanity check
         // Do we already have most of the information for this neuron tabulated?
-        if ( neuronOffsets.containsKey(neuron)
+        if ( vertexSlots.contains(neuron)
                 && (neuronVertexCounts.get(neuron) == sv)
                 && (neuronEdgeCounts.get(neuron) == se) ) 
         {
             // Has the visibility actually changed?
             final int VISIBILITY_OFFSET = 7; // visibility is the 8th attribute value
-            int offset = neuronOffsets.get(neuron) * FLOATS_PER_VERTEX + VISIBILITY_OFFSET;
+            int vertexOffset = vertexSlots.getOffset(neuron);
+            int offset = vertexOffset * FLOATS_PER_VERTEX + VISIBILITY_OFFSET;
             int max_offset = offset + (sv-1) * FLOATS_PER_VERTEX;
             if (max_offset >= vertexBuffer.limit()) {
-                log.info("vertex buffer object is too small. rebuild queued (after updateNeuronVisibility())");
+                log.info("vertex buffer object is too small. neuron update queued (after updateNeuronVisibility())");
                 // Hmm. The actual buffer is no longer big enough to hold this neuron.
-                buffersNeedRebuild = true;
+                dirtyNeurons.add(neuron);
                 return true;
             }
             try {
@@ -255,131 +274,194 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
                         int index = offset + v * FLOATS_PER_VERTEX;
                         vertexBuffer.put(index, visFloat);
                     }
-                    buffersNeedUpdate = true;
+                    markVerticesDirty(vertexOffset, vertexOffset + sv);
                     bChanged = true;
                 }
             } catch (IndexOutOfBoundsException exc) {
-                log.info("stale vertex buffer object accessed with bogus index {}. Queueing rebuild.", offset);
-                buffersNeedRebuild = true;
+                log.info("stale vertex buffer object accessed with bogus index {}. Queueing neuron update.", offset);
+                dirtyNeurons.add(neuron);
                 return true;
             }
         }
         else {
-            buffersNeedRebuild = true;
+            dirtyNeurons.add(neuron);
             bChanged = true; // something changed...
         }
         return bChanged;
     }
     
+    // Bring the buffer contents up to date, touching as little as possible
+    private void prepareBuffers()
+    {
+        if (! buffersNeedRebuild && ! dirtyNeurons.isEmpty())
+            updateDirtyNeurons();
+        if (! buffersNeedRebuild && (vertexSlots.needsCompaction() || edgeSlots.needsCompaction())) {
+            log.info("Compacting neuron vbo data");
+            buffersNeedRebuild = true;
+        }
+        if (buffersNeedRebuild)
+            rebuildBuffers();
+    }
+    
+    // Rewrite each changed neuron in its own slot, moving it to a bigger slot if it grew
+    private void updateDirtyNeurons()
+    {
+        TmViewState viewState = TmModelManager.getInstance().getCurrentView();
+        TmReviewState reviews = TmModelManager.getInstance().getCurrentReviews();
+        for (TmNeuronMetadata neuron : dirtyNeurons) {
+            if (! putNeuron(neuron, new NeuronGeometry(neuron, viewState, reviews))) {
+                log.info("Neuron vbo is full. Rebuild queued");
+                buffersNeedRebuild = true;
+                return;
+            }
+        }
+        dirtyNeurons.clear();
+    }
+    
+    // Pack all neurons into the buffers, growing or shrinking them as needed
     private void rebuildBuffers()
     {
         log.info("Rebuilding neuron vbo data");
-        // count the primitives
-        List<Float> vertexAttributes = new ArrayList<>();
-        List<Integer> edgeIndexes = new ArrayList<>();
+        TmViewState viewState = TmModelManager.getInstance().getCurrentView();
+        TmReviewState reviews = TmModelManager.getInstance().getCurrentReviews();
+        Map<TmNeuronMetadata, NeuronGeometry> geometries = new HashMap<>();
+        int vertexLength = HIDDEN_VERTEX + 1;
+        int edgeLength = 0;
+        for (TmNeuronMetadata neuron : neurons) {
+            NeuronGeometry geometry = new NeuronGeometry(neuron, viewState, reviews);
+            geometries.put(neuron, geometry);
+            vertexLength += VboRangeAllocator.slotLength(geometry.getVertexCount());
+            edgeLength += VboRangeAllocator.slotLength(geometry.getEdgeCount());
+        }
+        
+        int vertexCapacity = packedCapacity(vertexLength, vertexSlots.getCapacity());
+        int edgeCapacity = packedCapacity(edgeLength, edgeSlots.getCapacity());
+        vertexSlots.reset(vertexCapacity);
+        edgeSlots.reset(edgeCapacity);
+        // Every slot is written in full below, and the hidden vertex is never written,
+        // so the old contents can stay when the size is unchanged
+        if (vertexBuffer.capacity() != vertexCapacity * FLOATS_PER_VERTEX)
+            vertexBuffer = Buffers.newDirectFloatBuffer(vertexCapacity * FLOATS_PER_VERTEX);
+        if (edgeBuffer.capacity() != edgeCapacity * INTS_PER_EDGE)
+            edgeBuffer = Buffers.newDirectIntBuffer(edgeCapacity * INTS_PER_EDGE);
+        
         vertexCount = 0;
         edgeCount = 0;
-        float rgb[] = {0,0,0};
-        neuronOffsets.clear();
         neuronVertexCounts.clear();
         neuronEdgeCounts.clear();
-        TmViewState viewState = TmModelManager.getInstance().getCurrentView();
-        for (TmNeuronMetadata neuron : neurons) {
-            neuronOffsets.put(neuron, vertexCount);
-            neuronVertexCounts.put(neuron, neuron.getAnnotationCount());
-            neuronEdgeCounts.put(neuron, neuron.getEdges().size());
-            float visibility = viewState.isHidden(neuron.getId()) ? 0 : 1;
-            Color color = TmViewState.getColorForNeuron(neuron.getId());
-            if (color == null) {
-                if (neuron.getColor()==null) {
-                    color = TmViewState.generateNewColor(neuron.getId());
-                } else {
-                    color = neuron.getColor();
-                }
-            }
-            color.getColorComponents(rgb);
-            Map<TmGeoAnnotation, Integer> vertexIndices = new HashMap<>();
-            TmReviewState reviews = TmModelManager.getInstance().getCurrentReviews();
-            for (TmGeoAnnotation vertex : neuron.getGeoAnnotationMap().values()) {
-                int index = vertexCount;
-                vertexIndices.put(vertex, index);
-                // X, Y, Z, radius, r, g, b, visibility
-                float[] xyz = TmModelManager.getInstance().getLocationInMicrometers(vertex.getX(),
-                        vertex.getY(), vertex.getZ());
-                vertexAttributes.add(xyz[0]); // X
-                vertexAttributes.add(xyz[1]); // Y
-                vertexAttributes.add(xyz[2]); // Z
-                float radius = 1.0f;
-                if (vertex.getRadius()!=null)
-                    radius = vertex.getRadius().floatValue();
-                if (TmModelManager.getInstance().getCurrentView().isNeuronRadiusToggle(neuron.getId())) {
-                    radius = 0.3f;
-                }
-                vertexAttributes.add(radius); // radius
-                if (reviews.isReviewedAnnotation(vertex.getId())) {
-                    vertexAttributes.add(REVIEWED_GRAY_COLOR); // red
-                    vertexAttributes.add(REVIEWED_GRAY_COLOR); // green
-                    vertexAttributes.add(REVIEWED_GRAY_COLOR); // blue
-                } else if (reviews.isLoopedAnnotation(vertex.getId())) {
-                    Color loopColor = viewState.getColorLoopIndicator();
-                    vertexAttributes.add(loopColor.getRed()/255.0f); // red
-                    vertexAttributes.add(loopColor.getGreen()/255.0f); // green
-                    vertexAttributes.add(loopColor.getBlue()/255.0f); // blue
-                } else {
-                    vertexAttributes.add(rgb[0]); // red
-                    vertexAttributes.add(rgb[1]); // green
-                    vertexAttributes.add(rgb[2]); // blue
-                }
-                vertexAttributes.add(visibility); // visibility
-                vertexCount += 1;
-            }
-           for (TmNeuronEdge edge : getEdges(neuron)) {
-                TmGeoAnnotation v1 = edge.getParentVertex();
-                TmGeoAnnotation v2 = edge.getChildVertex();
-                Integer i1 = vertexIndices.get(v1);
-                Integer i2 = vertexIndices.get(v2);
-                if ( (i1 == null) || (i2 == null) ) {
-                    log.error("Found neuron edge with unknown vertices {} and {} in neuron '{}'", v1, v2, neuron.getName());
-                    continue;
-                }
-                edgeIndexes.add(i1);
-                edgeIndexes.add(i2);
-                edgeCount += 1;
-            }
+        for (Map.Entry<TmNeuronMetadata, NeuronGeometry> entry : geometries.entrySet()) {
+            if (! putNeuron(entry.getKey(), entry.getValue()))
+                throw new IllegalStateException("Packed neurons do not fit in neuron vbo");
         }
+        markVerticesDirty(0, vertexSlots.getEnd());
+        markEdgesDirty(0, edgeSlots.getEnd());
         
-        // allocate storage
-        vertexBuffer = Buffers.newDirectFloatBuffer(vertexCount * FLOATS_PER_VERTEX);        
-        vertexBuffer.rewind();
-        for (float f : vertexAttributes) {
-            vertexBuffer.put(f);
-        }
-        vertexBuffer.flip();
+        dirtyNeurons.clear();
+        buffersNeedRebuild = false;
+    }
+    
+    // Leave half again as much room as needed, so the next few neurons fit without a rebuild
+    private static int packedCapacity(int needed, int current)
+    {
+        if ( (needed > current) || (needed * 4 < current) )
+            return needed + needed / 2;
+        return current;
+    }
+    
+    // Write one neuron into its slots, finding new slots if it outgrew the old ones.
+    // Returns false if there is no room left.
+    private boolean putNeuron(TmNeuronMetadata neuron, NeuronGeometry geometry)
+    {
+        int oldVertexOffset = vertexSlots.getOffset(neuron);
+        int oldVertexLength = vertexSlots.getSlotLength(neuron);
+        int oldEdgeOffset = edgeSlots.getOffset(neuron);
+        int oldEdgeLength = edgeSlots.getSlotLength(neuron);
+        int oldEdgeCount = edgeSlots.getSize(neuron);
+        int vertexOffset = vertexSlots.allocate(neuron, geometry.getVertexCount());
+        int edgeOffset = edgeSlots.allocate(neuron, geometry.getEdgeCount());
+        if ( (vertexOffset < 0) || (edgeOffset < 0) )
+            return false;
         
-        edgeBuffer = Buffers.newDirectIntBuffer(edgeCount * 2);
-        edgeBuffer.rewind();
-        for (int i : edgeIndexes) {
-            edgeBuffer.put(i);
+        // Hide whatever was left behind in a slot that moved
+        if ( (oldVertexOffset >= 0) && (oldVertexOffset != vertexOffset) )
+            clearVertices(oldVertexOffset, oldVertexLength);
+        if ( (oldEdgeOffset >= 0) && (oldEdgeOffset != edgeOffset) )
+            clearEdges(oldEdgeOffset, oldEdgeLength);
+        
+        int vertexLength = vertexSlots.getSlotLength(neuron);
+        FloatBuffer vertices = vertexBuffer.duplicate();
+        vertices.position(vertexOffset * FLOATS_PER_VERTEX);
+        vertices.put(geometry.vertices);
+        while (vertices.position() < (vertexOffset + vertexLength) * FLOATS_PER_VERTEX)
+            vertices.put(0); // invisible headroom
+        markVerticesDirty(vertexOffset, vertexOffset + vertexLength);
+        
+        int edgeLength = edgeSlots.getSlotLength(neuron);
+        IntBuffer edges = edgeBuffer.duplicate();
+        edges.position(edgeOffset * INTS_PER_EDGE);
+        for (int index : geometry.edges)
+            edges.put(vertexOffset + index);
+        while (edges.position() < (edgeOffset + edgeLength) * INTS_PER_EDGE)
+            edges.put(HIDDEN_VERTEX);
+        markEdgesDirty(edgeOffset, edgeOffset + edgeLength);
+        
+        Integer oldVertexCount = neuronVertexCounts.put(neuron, geometry.getVertexCount());
+        vertexCount += geometry.getVertexCount() - (oldVertexCount == null ? 0 : oldVertexCount);
+        edgeCount += geometry.getEdgeCount() - oldEdgeCount;
+        neuronEdgeCounts.put(neuron, neuron.getEdges().size());
+        return true;
+    }
+    
+    private void freeSlots(TmNeuronMetadata neuron)
+    {
+        int vertexOffset = vertexSlots.getOffset(neuron);
+        if (vertexOffset >= 0) {
+            clearVertices(vertexOffset, vertexSlots.getSlotLength(neuron));
+            vertexSlots.free(neuron);
         }
-        edgeBuffer.flip();
-
-        buffersNeedRebuild = false;
-        buffersNeedAllocation = true;
-
-        final boolean debugVboContents = false;
-        if (debugVboContents) {
-            log.info("Vertex buffer contents:");
-            for (int i = 0; i < vertexBuffer.capacity(); ++i) {
-                log.info(" vertex {} : {}", i, vertexBuffer.get(i));            
-            }
-            log.info("Edge buffer contents:");
-            for (int i = 0; i < edgeBuffer.capacity(); ++i) {
-                log.info(" edge {} : {}", i, edgeBuffer.get(i));            
-            }
-        }        
+        int edgeOffset = edgeSlots.getOffset(neuron);
+        if (edgeOffset >= 0) {
+            edgeCount -= edgeSlots.getSize(neuron);
+            clearEdges(edgeOffset, edgeSlots.getSlotLength(neuron));
+            edgeSlots.free(neuron);
+        }
+    }
+    
+    private void clearVertices(int offset, int length)
+    {
+        for (int i = offset * FLOATS_PER_VERTEX; i < (offset + length) * FLOATS_PER_VERTEX; ++i)
+            vertexBuffer.put(i, 0);
+        markVerticesDirty(offset, offset + length);
+    }
+    
+    private void clearEdges(int offset, int length)
+    {
+        for (int i = offset * INTS_PER_EDGE; i < (offset + length) * INTS_PER_EDGE; ++i)
+            edgeBuffer.put(i, HIDDEN_VERTEX);
+        markEdgesDirty(offset, offset + length);
+    }
+    
+    private void markVerticesDirty(int start, int end)
+    {
+        dirtyVertexStart = Math.min(dirtyVertexStart, start);
+        dirtyVertexEnd = Math.max(dirtyVertexEnd, end);
+    }
+    
+    private void markEdgesDirty(int start, int end)
+    {
+        dirtyEdgeStart = Math.min(dirtyEdgeStart, start);
+        dirtyEdgeEnd = Math.max(dirtyEdgeEnd, end);
+    }
+    
+    private void clearDirtyRanges()
+    {
+        dirtyVertexStart = Integer.MAX_VALUE;
+        dirtyVertexEnd = 0;
+        dirtyEdgeStart = Integer.MAX_VALUE;
+        dirtyEdgeEnd = 0;
     }
 
-    private Collection<TmNeuronEdge> getEdges(TmNeuronMetadata neuron) {
+    private static Collection<TmNeuronEdge> getEdges(TmNeuronMetadata neuron) {
         Set<TmNeuronEdge> freshEdges = new HashSet<>(); // All edges in the current model
         for (TmGeoAnnotation child : neuron.getGeoAnnotationMap().values()) {
                 Long parentId = child.getParentId();
@@ -392,11 +474,10 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
         return freshEdges;
     }
 
+    // Reallocates both gl buffers at their full capacity
     private void allocateBuffers(GL3 gl)
     {
         log.info("Uploading neuron vbo data");
-        if (buffersNeedRebuild)
-            rebuildBuffers();
         vertexBuffer.rewind();
         gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vboVertices);
         gl.glBufferData(GL3.GL_ARRAY_BUFFER, 
@@ -411,36 +492,40 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
                 edgeBuffer,
                 GL3.GL_STATIC_DRAW);
 
-        buffersNeedAllocation = false;
-        buffersNeedUpdate = false;
+        glVertexCapacity = vertexSlots.getCapacity();
+        glEdgeCapacity = edgeSlots.getCapacity();
+        clearDirtyRanges();
     }
     
-    // Reloads the entire buffer
-    // TODO: Incrementally update one neuron at a time.
+    // Uploads just the ranges that changed since the last upload
     private void updateBuffers(GL3 gl)
     {
-        // log.info("Updating neuron vbo data");
-        if (buffersNeedRebuild)
-            rebuildBuffers();
-        vertexBuffer.rewind();
-        gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vboVertices);
-        gl.glBufferSubData(
-                GL3.GL_ARRAY_BUFFER, 
-                0,
-                vertexBuffer.capacity() * Buffers.SIZEOF_FLOAT,
-                vertexBuffer);
-        edgeBuffer.rewind();
-        gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, vboEdgeIndices);        
-        gl.glBufferSubData(
-                GL3.GL_ELEMENT_ARRAY_BUFFER,
-                0, 
-                edgeBuffer.capacity() * Buffers.SIZEOF_INT,
-                edgeBuffer);
-
-        buffersNeedUpdate = false;
+        if (dirtyVertexStart < dirtyVertexEnd) {
+            FloatBuffer vertices = vertexBuffer.duplicate();
+            vertices.limit(dirtyVertexEnd * FLOATS_PER_VERTEX);
+            vertices.position(dirtyVertexStart * FLOATS_PER_VERTEX);
+            gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, vboVertices);
+            gl.glBufferSubData(
+                    GL3.GL_ARRAY_BUFFER, 
+                    dirtyVertexStart * FLOATS_PER_VERTEX * Buffers.SIZEOF_FLOAT,
+                    vertices.remaining() * Buffers.SIZEOF_FLOAT,
+                    vertices);
+        }
+        if (dirtyEdgeStart < dirtyEdgeEnd) {
+            IntBuffer edges = edgeBuffer.duplicate();
+            edges.limit(dirtyEdgeEnd * INTS_PER_EDGE);
+            edges.position(dirtyEdgeStart * INTS_PER_EDGE);
+            gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, vboEdgeIndices);        
+            gl.glBufferSubData(
+                    GL3.GL_ELEMENT_ARRAY_BUFFER,
+                    dirtyEdgeStart * INTS_PER_EDGE * Buffers.SIZEOF_INT, 
+                    edges.remaining() * Buffers.SIZEOF_INT,
+                    edges);
+        }
+        clearDirtyRanges();
     }
 
-    boolean add(final TmNeuronMetadata neuron)
+    synchronized boolean add(final TmNeuronMetadata neuron)
     {
         if (neuron == null)
             return false;
@@ -449,8 +534,10 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
         if (! neurons.add(neuron))
             return false;
 
+        // count the vertices now, so the pool can balance its vbos before the next display
+        neuronVertexCounts.put(neuron, neuron.getAnnotationCount());
         vertexCount += neuron.getAnnotationCount();
-        buffersNeedRebuild = true;
+        dirtyNeurons.add(neuron);
 
         connectSignals(neuron);
         
@@ -474,24 +561,31 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
         return neurons.contains(neuron);
     }
 
-    boolean remove(TmNeuronMetadata neuron) {
+    synchronized boolean remove(TmNeuronMetadata neuron) {
         if (! neurons.remove(neuron))
             return false;
-        buffersNeedRebuild = true;
+        dirtyNeurons.remove(neuron);
+        Integer neuronVertexCount = neuronVertexCounts.remove(neuron);
+        if (neuronVertexCount != null)
+            vertexCount -= neuronVertexCount;
+        neuronEdgeCounts.remove(neuron);
+        freeSlots(neuron);
         return true;
     }
 
-    void checkForChanges() 
+    synchronized void checkForChanges() 
     {
         // log.info("check for changes");
         if (buffersNeedRebuild)
             return; // no need to check counts, if we will be rebuilding anyway
         for (TmNeuronMetadata neuron : this) {
+            if (dirtyNeurons.contains(neuron))
+                continue; // will be rewritten anyway
             if ( (neuron.getAnnotationCount() != neuronVertexCounts.get(neuron))
                     || (neuron.getEdges().size() != neuronEdgeCounts.get(neuron)))
             {
-                buffersNeedRebuild = true;
-                return;
+                dirtyNeurons.add(neuron);
+                continue;
             }
             // Check for visibility and color changes, in case of bulk update
             updateNeuronVisibility(neuron);
@@ -499,10 +593,102 @@ public class NeuronVbo implements Iterable<TmNeuronMetadata>
         }
     }
 
-    public void markAsDirty () {
+    public synchronized void markAsDirty () {
         buffersNeedRebuild = true;
     }
     
+    synchronized void markAsDirty(Long neuronId) {
+        for (TmNeuronMetadata neuron : neurons) {
+            if (Objects.equals(neuron.getId(), neuronId)) {
+                dirtyNeurons.add(neuron);
+                return;
+            }
+        }
+        buffersNeedRebuild = true;
+    }
+    
+    // Vertex attributes and edges of one neuron, with edges indexing its own vertices
+    private static class NeuronGeometry
+    {
+        private final float[] vertices;
+        private final int[] edges;
+        
+        NeuronGeometry(TmNeuronMetadata neuron, TmViewState viewState, TmReviewState reviews)
+        {
+            float rgb[] = {0,0,0};
+            float visibility = viewState.isHidden(neuron.getId()) ? 0 : 1;
+            Color color = TmViewState.getColorForNeuron(neuron.getId());
+            if (color == null) {
+                if (neuron.getColor()==null) {
+                    color = TmViewState.generateNewColor(neuron.getId());
+                } else {
+                    color = neuron.getColor();
+                }
+            }
+            color.getColorComponents(rgb);
+            Collection<TmGeoAnnotation> annotations = neuron.getGeoAnnotationMap().values();
+            vertices = new float[annotations.size() * FLOATS_PER_VERTEX];
+            Map<TmGeoAnnotation, Integer> vertexIndices = new HashMap<>();
+            int f = 0;
+            for (TmGeoAnnotation vertex : annotations) {
+                vertexIndices.put(vertex, vertexIndices.size());
+                // X, Y, Z, radius, r, g, b, visibility
+                float[] xyz = TmModelManager.getInstance().getLocationInMicrometers(vertex.getX(),
+                        vertex.getY(), vertex.getZ());
+                vertices[f++] = xyz[0]; // X
+                vertices[f++] = xyz[1]; // Y
+                vertices[f++] = xyz[2]; // Z
+                float radius = 1.0f;
+                if (vertex.getRadius()!=null)
+                    radius = vertex.getRadius().floatValue();
+                if (viewState.isNeuronRadiusToggle(neuron.getId())) {
+                    radius = 0.3f;
+                }
+                vertices[f++] = radius; // radius
+                if (reviews.isReviewedAnnotation(vertex.getId())) {
+                    vertices[f++] = REVIEWED_GRAY_COLOR; // red
+                    vertices[f++] = REVIEWED_GRAY_COLOR; // green
+                    vertices[f++] = REVIEWED_GRAY_COLOR; // blue
+                } else if (reviews.isLoopedAnnotation(vertex.getId())) {
+                    Color loopColor = viewState.getColorLoopIndicator();
+                    vertices[f++] = loopColor.getRed()/255.0f; // red
+                    vertices[f++] = loopColor.getGreen()/255.0f; // green
+                    vertices[f++] = loopColor.getBlue()/255.0f; // blue
+                } else {
+                    vertices[f++] = rgb[0]; // red
+                    vertices[f++] = rgb[1]; // green
+                    vertices[f++] = rgb[2]; // blue
+                }
+                vertices[f++] = visibility; // visibility
+            }
+            Collection<TmNeuronEdge> neuronEdges = getEdges(neuron);
+            int[] edgeIndexes = new int[neuronEdges.size() * INTS_PER_EDGE];
+            int e = 0;
+            for (TmNeuronEdge edge : neuronEdges) {
+                TmGeoAnnotation v1 = edge.getParentVertex();
+                TmGeoAnnotation v2 = edge.getChildVertex();
+                Integer i1 = vertexIndices.get(v1);
+                Integer i2 = vertexIndices.get(v2);
+                if ( (i1 == null) || (i2 == null) ) {
+                    LoggerFactory.getLogger(NeuronVbo.class).error(
+                            "Found neuron edge with unknown vertices {} and {} in neuron '{}'", v1, v2, neuron.getName());
+                    continue;
+                }
+                edgeIndexes[e++] = i1;
+                edgeIndexes[e++] = i2;
+            }
+            edges = Arrays.copyOf(edgeIndexes, e);
+        }
+        
+        int getVertexCount() {
+            return vertices.length / FLOATS_PER_VERTEX;
+        }
+        
+        int getEdgeCount() {
+            return edges.length / INTS_PER_EDGE;
+        }
+    }
+    
     private class NeuronObserver
     {
         private final TmNeuronMetadata neuron;
@@ -239,7 +239,7 @@ public class NeuronVboPool implements Iterable<TmNeuronMetadata> {
     public void markAsDirty(Long neuronId) {
         NeuronVbo dirtyVbo = neuronMap.get(neuronId);
         if (dirtyVbo!=null) {
-            dirtyVbo.markAsDirty();
+            dirtyVbo.markAsDirty(neuronId);
         }
     }
 
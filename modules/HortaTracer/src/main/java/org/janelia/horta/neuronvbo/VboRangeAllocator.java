@@ -0,0 +1,195 @@
+package org.janelia.horta.neuronvbo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bookkeeping for packing the data of many owners (neurons) into one buffer of fixed
+ * capacity, counted in elements (vertices or edges).
+ *
+ * Each owner gets one contiguous slot, with some headroom so that it can grow a little
+ * without moving. Freed slots go to a free list, merged with their free neighbors, and are
+ * reused best fit first. Nothing here touches OpenGL; NeuronVbo mirrors the slots in its
+ * buffers and uploads the changed ranges.
+ *
+ * When a request does not fit, or when needsCompaction() says too much of the buffer is
+ * holes, the owner of the buffer should reset() and allocate everything again, packed.
+ */
+class VboRangeAllocator<K> {
+
+    // extra room given to each slot, as a fraction of the requested size
+    static final float HEADROOM_FRACTION = 0.25f;
+    static final int MIN_HEADROOM = 4;
+    // compact once holes make up more than this fraction of the used part of the buffer
+    static final float COMPACTION_THRESHOLD = 0.5f;
+
+    private static class Slot {
+        final int offset;
+        final int length;
+        int size;
+
+        Slot(int offset, int length, int size) {
+            this.offset = offset;
+            this.length = length;
+            this.size = size;
+        }
+    }
+
+    private final int reserved; // elements at the start of the buffer that are never handed out
+    private final Map<K, Slot> slots = new HashMap<>();
+    private final TreeMap<Integer, Integer> holes = new TreeMap<>(); // offset -> length, below end
+    private int capacity;
+    private int end; // everything from here to capacity is free
+    private int holeElements;
+
+    VboRangeAllocator(int reserved) {
+        this.reserved = reserved;
+        reset(0);
+    }
+
+    /**
+     * Forget all slots, and take a buffer of a new capacity.
+     */
+    void reset(int capacity) {
+        slots.clear();
+        holes.clear();
+        holeElements = 0;
+        this.capacity = Math.max(capacity, reserved);
+        end = reserved;
+    }
+
+    /**
+     * Number of elements to set aside for an owner of the given size.
+     */
+    static int slotLength(int size) {
+        return size + Math.max(MIN_HEADROOM, (int) (size * HEADROOM_FRACTION));
+    }
+
+    /**
+     * Find room for size elements for key. An existing slot is kept if it is big enough,
+     * otherwise it is freed and a new slot found.
+     *
+     * @return offset of the slot, or -1 if the buffer is too full, in which case key has no slot
+     */
+    int allocate(K key, int size) {
+        Slot slot = slots.get(key);
+        if (slot != null) {
+            if (size <= slot.length) {
+                slot.size = size;
+                return slot.offset;
+            }
+            free(key);
+        }
+        int length = slotLength(size);
+        Map.Entry<Integer, Integer> bestHole = null;
+        for (Map.Entry<Integer, Integer> hole : holes.entrySet()) {
+            if (hole.getValue() >= length && (bestHole == null || hole.getValue() < bestHole.getValue())) {
+                bestHole = hole;
+            }
+        }
+        int offset;
+        if (bestHole != null) {
+            offset = bestHole.getKey();
+            holes.remove(offset);
+            holeElements -= bestHole.getValue();
+            if (bestHole.getValue() > length) {
+                holes.put(offset + length, bestHole.getValue() - length);
+                holeElements += bestHole.getValue() - length;
+            }
+        } else if (end + size <= capacity) {
+            // at the end of the buffer, settle for less headroom rather than fail
+            offset = end;
+            length = Math.min(length, capacity - end);
+            end += length;
+        } else {
+            return -1;
+        }
+        slots.put(key, new Slot(offset, length, size));
+        return offset;
+    }
+
+    /**
+     * Return the slot of key to the free list.
+     *
+     * @return false if key had no slot
+     */
+    boolean free(K key) {
+        Slot slot = slots.remove(key);
+        if (slot == null) {
+            return false;
+        }
+        int offset = slot.offset;
+        int length = slot.length;
+        Map.Entry<Integer, Integer> before = holes.lowerEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            holes.remove(before.getKey());
+            holeElements -= before.getValue();
+            offset = before.getKey();
+            length += before.getValue();
+        }
+        Integer afterLength = holes.remove(offset + length);
+        if (afterLength != null) {
+            holeElements -= afterLength;
+            length += afterLength;
+        }
+        if (offset + length == end) {
+            end = offset;
+        } else {
+            holes.put(offset, length);
+            holeElements += length;
+        }
+        return true;
+    }
+
+    boolean contains(K key) {
+        return slots.containsKey(key);
+    }
+
+    /**
+     * @return first element of the slot of key, or -1 if key has no slot
+     */
+    int getOffset(K key) {
+        Slot slot = slots.get(key);
+        return slot == null ? -1 : slot.offset;
+    }
+
+    /**
+     * @return number of elements last allocated for key, or 0 if key has no slot
+     */
+    int getSize(K key) {
+        Slot slot = slots.get(key);
+        return slot == null ? 0 : slot.size;
+    }
+
+    /**
+     * @return number of elements set aside for key, including headroom, or 0 if key has no slot
+     */
+    int getSlotLength(K key) {
+        Slot slot = slots.get(key);
+        return slot == null ? 0 : slot.length;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return one past the last element in use; elements below this may need to be drawn
+     */
+    int getEnd() {
+        return end;
+    }
+
+    /**
+     * @return number of free elements between the slots in use
+     */
+    int getHoleElements() {
+        return holeElements;
+    }
+
+    boolean needsCompaction() {
+        return holeElements > COMPACTION_THRESHOLD * (end - reserved);
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.janelia.horta.blocks;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IndexedPriorityQueueTest {
+
+    @Test
+    public void pollsLowestFirst() {
+        IndexedPriorityQueue<String, Integer> queue = new IndexedPriorityQueue<>(Comparator.naturalOrder());
+        queue.put("c", 3);
+        queue.put("a", 1);
+        queue.put("d", 4);
+        queue.put("b", 2);
+        assertEquals(Integer.valueOf(1), queue.peek());
+        assertEquals(Integer.valueOf(1), queue.poll());
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertEquals(Integer.valueOf(4), queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void reprioritizesInPlace() {
+        IndexedPriorityQueue<String, Integer> queue = new IndexedPriorityQueue<>(Comparator.naturalOrder());
+        queue.put("a", 1);
+        queue.put("b", 2);
+        queue.put("c", 3);
+        assertEquals(Integer.valueOf(3), queue.put("c", 0));
+        assertEquals(Integer.valueOf(1), queue.put("a", 5));
+        assertEquals(3, queue.size());
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertEquals(Integer.valueOf(5), queue.poll());
+    }
+
+    @Test
+    public void removesByKey() {
+        IndexedPriorityQueue<String, Integer> queue = new IndexedPriorityQueue<>(Comparator.naturalOrder());
+        queue.put("a", 1);
+        queue.put("b", 2);
+        queue.put("c", 3);
+        assertEquals(Integer.valueOf(1), queue.remove("a"));
+        assertNull(queue.remove("a"));
+        assertFalse(queue.containsKey("a"));
+        assertEquals(Integer.valueOf(3), queue.get("c"));
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertEquals(Integer.valueOf(3), queue.poll());
+    }
+
+    @Test
+    public void staysOrderedUnderRandomUpdates() {
+        IndexedPriorityQueue<Integer, Integer> queue = new IndexedPriorityQueue<>(Comparator.naturalOrder());
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            int key = random.nextInt(100);
+            if (random.nextInt(4) == 0) {
+                queue.remove(key);
+            } else {
+                queue.put(key, random.nextInt(1000));
+            }
+        }
+        List<Integer> polled = new ArrayList<>();
+        int size = queue.size();
+        while (!queue.isEmpty()) {
+            polled.add(queue.poll());
+        }
+        assertEquals(size, polled.size());
+        for (int i = 1; i < polled.size(); i++) {
+            assertTrue(polled.get(i - 1) <= polled.get(i));
+        }
+    }
+}
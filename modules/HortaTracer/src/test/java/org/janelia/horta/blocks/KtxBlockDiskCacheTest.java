@@ -0,0 +1,188 @@
+package org.janelia.horta.blocks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.janelia.horta.ktx.KtxData;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KtxBlockDiskCacheTest {
+
+    private static final byte[] KTX_IDENTIFIER = {
+            (byte) 0xAB, 0x4B, 0x54, 0x58, 0x20, 0x31, 0x31, (byte) 0xBB, 0x0D, 0x0A, 0x1A, 0x0A
+    };
+    private static final int BLOCK_EDGE = 8;
+
+    private final Path dir;
+
+    public KtxBlockDiskCacheTest() throws IOException {
+        dir = Files.createTempDirectory("KtxBlockDiskCacheTest");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * @return a single level, 8 bit, KTX block whose voxels are all the given value
+     */
+    private static byte[] ktxBlock(int value) {
+        int imageSize = BLOCK_EDGE * BLOCK_EDGE * BLOCK_EDGE;
+        ByteBuffer b = ByteBuffer.allocate(12 + 4 + 13 * 4 + 4 + imageSize).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(KTX_IDENTIFIER).put(new byte[]{1, 2, 3, 4});
+        b.putInt(0x1401).putInt(1).putInt(0x1903).putInt(0x8229).putInt(0x1903); // GL_UNSIGNED_BYTE, GL_RED, GL_R8
+        b.putInt(BLOCK_EDGE).putInt(BLOCK_EDGE).putInt(BLOCK_EDGE);
+        b.putInt(0).putInt(1).putInt(1).putInt(0); // array elements, faces, mipmap levels, key-value bytes
+        b.putInt(imageSize);
+        for (int i = 0; i < imageSize; i++) {
+            b.put((byte) value);
+        }
+        return b.array();
+    }
+
+    private Path entry(String name) {
+        return dir.resolve(name.substring(0, 2)).resolve(name + ".ktxc");
+    }
+
+    private static void store(KtxBlockDiskCache cache, Path entry, byte[] block) throws Exception {
+        try (KtxBlockDiskCache.Writer writer = cache.store(entry, new ByteArrayInputStream(block))) {
+            InputStream stream = writer.getStream();
+            byte[] buffer = new byte[100];
+            while (stream.read(buffer) >= 0) {
+                // the writer copies what is read
+            }
+            writer.commit();
+        }
+        cache.flush().get();
+    }
+
+    private static int loadedValue(KtxBlockDiskCache cache, Path entry) throws Exception {
+        KtxData ktxData = new KtxData();
+        if (!cache.load(entry, ktxData)) {
+            return -1;
+        }
+        assertEquals(BLOCK_EDGE, ktxData.header.pixelDepth);
+        assertEquals(1, ktxData.mipmaps.size());
+        return ktxData.mipmaps.get(0).get(0) & 0xff;
+    }
+
+    @Test
+    public void loadsCommittedBlocks() throws Exception {
+        KtxBlockDiskCache cache = new KtxBlockDiskCache(dir, 1 << 20, false);
+        Path entry = entry("aa01");
+        assertEquals(-1, loadedValue(cache, entry));
+        store(cache, entry, ktxBlock(7));
+        assertEquals(7, loadedValue(cache, entry));
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    public void blocksThatAreNotCommittedAreNotCached() throws Exception {
+        KtxBlockDiskCache cache = new KtxBlockDiskCache(dir, 1 << 20, false);
+        Path entry = entry("aa02");
+        try (KtxBlockDiskCache.Writer writer = cache.store(entry, new ByteArrayInputStream(ktxBlock(7)))) {
+            writer.getStream().read(new byte[100]);
+        }
+        cache.flush().get();
+        assertEquals(0, cache.getEntryCount());
+        assertFalse(Files.exists(entry));
+        try (Stream<Path> files = Files.walk(dir)) {
+            assertEquals(0, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    public void rejectsEntriesWithABadChecksum() throws Exception {
+        KtxBlockDiskCache cache = new KtxBlockDiskCache(dir, 1 << 20, false);
+        Path entry = entry("bb01");
+        store(cache, entry, ktxBlock(7));
+        try (RandomAccessFile file = new RandomAccessFile(entry.toFile(), "rw")) {
+            // a voxel, well before the trailer
+            file.seek(100);
+            file.write(9);
+        }
+        assertEquals(-1, loadedValue(cache, entry));
+        cache.flush().get();
+        assertFalse(Files.exists(entry));
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getTotalBytes());
+    }
+
+    @Test
+    public void rejectsTruncatedEntries() throws Exception {
+        KtxBlockDiskCache cache = new KtxBlockDiskCache(dir, 1 << 20, false);
+        Path entry = entry("bb02");
+        store(cache, entry, ktxBlock(7));
+        try (RandomAccessFile file = new RandomAccessFile(entry.toFile(), "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        assertEquals(-1, loadedValue(cache, entry));
+        cache.flush().get();
+        assertFalse(Files.exists(entry));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntriesPastTheBudget() throws Exception {
+        store(new KtxBlockDiskCache(dir, 1 << 20, false), entry("cc00"), ktxBlock(0));
+        long entrySize = Files.size(entry("cc00"));
+        Files.delete(entry("cc00"));
+
+        KtxBlockDiskCache cache = new KtxBlockDiskCache(dir, 2 * entrySize, false);
+        store(cache, entry("cc01"), ktxBlock(1));
+        store(cache, entry("cc02"), ktxBlock(2));
+        // using the first entry makes the second one the least recently used
+        assertEquals(1, loadedValue(cache, entry("cc01")));
+        store(cache, entry("cc03"), ktxBlock(3));
+
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(2 * entrySize, cache.getTotalBytes());
+        assertTrue(Files.exists(entry("cc01")));
+        assertFalse(Files.exists(entry("cc02")));
+        assertTrue(Files.exists(entry("cc03")));
+        assertEquals(-1, loadedValue(cache, entry("cc02")));
+    }
+
+    @Test
+    public void rebuildsTheIndexOnRestart() throws Exception {
+        KtxBlockDiskCache cache = new KtxBlockDiskCache(dir, 1 << 20, false);
+        for (int i = 1; i <= 3; i++) {
+            store(cache, entry("dd0" + i), ktxBlock(i));
+            // last modified times record the use across restarts
+            Files.setLastModifiedTime(entry("dd0" + i), FileTime.fromMillis(1000L * i));
+        }
+        long entrySize = Files.size(entry("dd01"));
+        Path leftover = Files.createTempFile(entry("dd01").getParent(), "dd04", ".tmp");
+
+        KtxBlockDiskCache restarted = new KtxBlockDiskCache(dir, 1 << 20, false);
+        restarted.flush().get();
+        assertEquals(3, restarted.getEntryCount());
+        assertEquals(3 * entrySize, restarted.getTotalBytes());
+        assertFalse(Files.exists(leftover));
+        assertEquals(2, loadedValue(restarted, entry("dd02")));
+        restarted.flush().get();
+
+        // a smaller budget drops the entries that were used longest ago
+        KtxBlockDiskCache shrunk = new KtxBlockDiskCache(dir, 2 * entrySize, false);
+        shrunk.flush().get();
+        assertEquals(2, shrunk.getEntryCount());
+        assertFalse(Files.exists(entry("dd01")));
+        assertEquals(3, loadedValue(shrunk, entry("dd03")));
+    }
+}
@@ -0,0 +1,95 @@
+package org.janelia.horta.neuronvbo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class VboRangeAllocatorTest {
+
+    @Test
+    public void allocatesAfterReservedElementsWithHeadroom() {
+        VboRangeAllocator<String> allocator = new VboRangeAllocator<>(1);
+        allocator.reset(1000);
+        assertEquals(1, allocator.allocate("a", 100));
+        assertEquals(125, allocator.getSlotLength("a"));
+        assertEquals(126, allocator.allocate("b", 10));
+        assertEquals(126 + VboRangeAllocator.slotLength(10), allocator.getEnd());
+    }
+
+    @Test
+    public void growsInPlaceWithinHeadroom() {
+        VboRangeAllocator<String> allocator = new VboRangeAllocator<>(0);
+        allocator.reset(1000);
+        allocator.allocate("a", 100);
+        allocator.allocate("b", 100);
+        assertEquals(0, allocator.allocate("a", 120));
+        assertEquals(120, allocator.getSize("a"));
+        // too big for the slot; moves to the end and leaves a hole
+        assertEquals(250, allocator.allocate("a", 200));
+        assertEquals(125, allocator.getHoleElements());
+    }
+
+    @Test
+    public void reusesBestFittingHole() {
+        VboRangeAllocator<String> allocator = new VboRangeAllocator<>(0);
+        allocator.reset(10000);
+        allocator.allocate("big", 800);
+        allocator.allocate("x", 10);
+        allocator.allocate("small", 80);
+        allocator.allocate("y", 10);
+        int smallOffset = allocator.getOffset("small");
+        allocator.free("big");
+        allocator.free("small");
+        assertEquals(smallOffset, allocator.allocate("c", 70));
+        assertEquals(0, allocator.allocate("d", 300));
+    }
+
+    @Test
+    public void mergesNeighboringHolesAndShrinksEnd() {
+        VboRangeAllocator<String> allocator = new VboRangeAllocator<>(0);
+        allocator.reset(1000);
+        allocator.allocate("a", 40);
+        allocator.allocate("b", 40);
+        allocator.allocate("c", 40);
+        allocator.allocate("d", 40);
+        allocator.free("a");
+        allocator.free("c");
+        assertEquals(100, allocator.getHoleElements());
+        allocator.free("b");
+        assertEquals(150, allocator.getHoleElements());
+        assertEquals(0, allocator.allocate("e", 100)); // fits only in the merged hole
+        allocator.free("e");
+        allocator.free("d");
+        assertEquals(0, allocator.getHoleElements());
+        assertEquals(0, allocator.getEnd());
+    }
+
+    @Test
+    public void failsWhenFullAndSettlesForLessHeadroomAtTheEnd() {
+        VboRangeAllocator<String> allocator = new VboRangeAllocator<>(0);
+        allocator.reset(110);
+        assertEquals(0, allocator.allocate("a", 100));
+        assertEquals(110, allocator.getSlotLength("a"));
+        assertEquals(-1, allocator.allocate("b", 1));
+        assertEquals(-1, allocator.allocate("a", 111));
+        assertFalse(allocator.contains("a"));
+    }
+
+    @Test
+    public void needsCompactionOnceHolesPassThreshold() {
+        VboRangeAllocator<Integer> allocator = new VboRangeAllocator<>(1);
+        allocator.reset(100000);
+        for (int i = 0; i < 100; ++i) {
+            allocator.allocate(i, 100);
+        }
+        // the last slot stays, so the freed ones are all holes
+        for (int i = 0; i < 99; ++i) {
+            allocator.free(i);
+            assertEquals(i + 1 > 100 * VboRangeAllocator.COMPACTION_THRESHOLD, allocator.needsCompaction());
+        }
+        allocator.reset(100000);
+        assertFalse(allocator.needsCompaction());
+        assertEquals(1, allocator.allocate(0, 100));
+    }
+}
@@ -778,7 +778,7 @@ public class QuadViewUi extends JPanel implements VolumeLoadListener {
 
         buttonsPanel.add(loadUpdatesButton);
 
-        buttonsPanel.add(new TileStackCacheStatusPanel());
+        buttonsPanel.add(new TileStackCacheStatusPanel(() -> tileServer.getTextureCache().getStats()));
 
         Component verticalGlue = Box.createVerticalGlue();
         buttonsPanel.add(verticalGlue);
@@ -12,9 +12,9 @@ import org.janelia.workstation.integration.activity_logging.ActionString;
 import org.janelia.workstation.integration.activity_logging.CategoryString;
 import org.janelia.workstation.integration.activity_logging.ToolString;
 
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import static org.janelia.workstation.gui.large_volume_viewer.LargeVolumeViewerTopComponent.LVV_LOGSTAMP_ID;
 
@@ -90,14 +90,17 @@ public class ActivityLogHelper {
     }
 
     public void logTileLoad(int relativeSlice, TileIndex tileIndex, final double elapsedMs, long folderOpenTimestamp) {
-        final ActionString actionString = new ActionString(
+        // Called for every tile, but only a few of these are logged, so the action is built only for those.
+        final Supplier<ActionString> actionString = () -> new ActionString(
                 folderOpenTimestamp + ":" + relativeSlice + ":" + tileIndex.toString() + ":elapsed_ms=" + elapsedMs
         );
+        long timestamp = System.currentTimeMillis();
         // Use the by-category granularity for these.
         SessionMgr.getSessionMgr().logToolEvent(
                 LVV_LOGSTAMP_ID,
                 LIX_CATEGORY_STRING,
                 actionString,
+                timestamp,
                 elapsedMs,
                 Double.MAX_VALUE
         );
@@ -106,7 +109,7 @@ public class ActivityLogHelper {
                 LVV_LOGSTAMP_ID,
                 LONG_TILE_LOAD_CATEGORY_STRING,
                 actionString,
-                new Date().getTime(),
+                timestamp,
                 elapsedMs,
                 LONG_TIME_LOAD_LOG_THRESHOLD
         );
@@ -239,15 +242,14 @@ public class ActivityLogHelper {
         if (annotation == null  ||  workspaceID == null) {
             return;
         }
-        SessionMgr.getSessionMgr().logToolEvent(
+        // the annotation may move before the action is formatted
+        Double x = annotation.getX();
+        Double y = annotation.getY();
+        Double z = annotation.getZ();
+        logFormattedEvent(
                 LVV_LOGSTAMP_ID,
                 END_OP_VOXEL_CATEGORY_STRING,
-                new ActionString(
-                        formatSingleLocationAction(
-                                annotation.getX(), annotation.getY(), annotation.getZ(),
-                                workspaceID
-                        )
-                )
+                () -> formatSingleLocationAction(x, y, z, workspaceID)
         );
     }
 
@@ -262,15 +264,13 @@ public class ActivityLogHelper {
         if (workspaceID == null  ||  location == null) {
             return;
         }
-        SessionMgr.getSessionMgr().logToolEvent(
+        double x = location.getX();
+        double y = location.getY();
+        double z = location.getZ();
+        logFormattedEvent(
                 LVV_LOGSTAMP_ID,
                 END_OP_VOXEL_CATEGORY_STRING,
-                new ActionString(
-                        formatSingleLocationAction(
-                                location.getX(), location.getY(), location.getZ(),
-                                workspaceID
-                        )
-                )
+                () -> formatSingleLocationAction(x, y, z, workspaceID)
         );
     }
 
@@ -425,38 +425,51 @@ public class ActivityLogHelper {
     }
 
     private void logGeometricEvent(Long sampleID, Long workspaceID, Double x, Double y, Double z, CategoryString category) {
-        String action = formatGeoAction(x, y, z, sampleID, workspaceID);
-        SessionMgr.getSessionMgr().logToolEvent(
+        float[] micronXyz = micronXyzForVoxelXyz(sampleID, x, y, z);
+        logFormattedEvent(
                 LVV_LOGSTAMP_ID,
                 category,
-                new ActionString(action)
+                () -> formatGeoAction(x, y, z, micronXyz[0], micronXyz[1], micronXyz[2], sampleID, workspaceID)
         );
     }
 
     private void logGeometricEvent(Long sampleID, Long workspaceID, Long neuronID, Double x, Double y, Double z, CategoryString category) {
-        String action = formatGeoAction(x, y, z, sampleID, workspaceID, neuronID);
-        SessionMgr.getSessionMgr().logToolEvent(
+        float[] micronXyz = micronXyzForVoxelXyz(sampleID, x, y, z);
+        logFormattedEvent(
                 LVV_LOGSTAMP_ID,
                 category,
-                new ActionString(action)
+                () -> formatGeoAction(x, y, z, micronXyz[0], micronXyz[1], micronXyz[2], sampleID, workspaceID, neuronID)
         );
     }
 
-    private void logExternalGeometricEvent(Long sampleID, Long workspaceID, Double x, Double y, Double z, float muX, float muY, float muZ, CategoryString category) {
-        String action = formatGeoAction(x, y, z, muX, muY, muZ, sampleID, workspaceID);
+    /**
+     * Log an event always, formatting its action later, off the calling thread.
+     */
+    private void logFormattedEvent(ToolString tool, CategoryString category, Supplier<String> action) {
+        // Force logging, by setting elapsed > threshold.
         SessionMgr.getSessionMgr().logToolEvent(
+                tool,
+                category,
+                () -> new ActionString(action.get()),
+                System.currentTimeMillis(),
+                1.0,
+                0.0
+        );
+    }
+
+    private void logExternalGeometricEvent(Long sampleID, Long workspaceID, Double x, Double y, Double z, float muX, float muY, float muZ, CategoryString category) {
+        logFormattedEvent(
                 EXTERNAL_LVV_LOGSTAMP_ID,   // For now: only Horta makes requests.
                 category,
-                new ActionString(action)
+                () -> formatGeoAction(x, y, z, muX, muY, muZ, sampleID, workspaceID)
         );
     }
 
     private void logExternalGeometricEvent(Long sampleID, Long workspaceID, Long neuronID, Double x, Double y, Double z, float muX, float muY, float muZ, CategoryString category) {
-        String action = formatGeoAction(x, y, z, muX, muY, muZ, sampleID, workspaceID, neuronID);
-        SessionMgr.getSessionMgr().logToolEvent(
+        logFormattedEvent(
                 EXTERNAL_LVV_LOGSTAMP_ID,   // For now: only Horta makes requests.
                 category,
-                new ActionString(action)
+                () -> formatGeoAction(x, y, z, muX, muY, muZ, sampleID, workspaceID, neuronID)
         );
     }
 
@@ -488,52 +501,18 @@ public class ActivityLogHelper {
                 category);
     }
 
-    private String formatGeoAction(Double x, Double y, Double z, Long sampleID, Long workspaceID) {
-        TileFormat.MicrometerXyz mxyz;
-        String action;
-        double muX = 0;
-        double muY = 0;
-        double muZ = 0;
+    private float[] micronXyzForVoxelXyz(Long sampleID, Double x, Double y, Double z) {
+        float[] micronXyz = new float[3];
         TileFormat tileFormat = sampleToTileFormat.get(sampleID);
         if (tileFormat != null) {
-            mxyz = tileFormat.micrometerXyzForVoxelXyz(
-                    new TileFormat.VoxelXyz(x.intValue(), y.intValue(), z.intValue()),
-                    CoordinateAxis.Z);
-            muX = mxyz.getX();
-            muY = mxyz.getY();
-            muZ = mxyz.getZ();
-        }
-        action = String.format(
-                BOTH_COORDS_FMT,
-                sampleID, workspaceID,
-                muX, muY, muZ,
-                x, y, z
-        );
-        return action;
-    }
-
-    private String formatGeoAction(Double x, Double y, Double z, Long sampleID, Long workspaceID, Long neuronID) {
-        TileFormat.MicrometerXyz mxyz;
-        String action;
-        double muX = 0;
-        double muY = 0;
-        double muZ = 0;
-        TileFormat tileFormat = sampleToTileFormat.get(sampleID);
-        if (tileFormat != null) {
-            mxyz = tileFormat.micrometerXyzForVoxelXyz(
+            TileFormat.MicrometerXyz mxyz = tileFormat.micrometerXyzForVoxelXyz(
                     new TileFormat.VoxelXyz(x.intValue(), y.intValue(), z.intValue()),
                     CoordinateAxis.Z);
-            muX = mxyz.getX();
-            muY = mxyz.getY();
-            muZ = mxyz.getZ();
+            micronXyz[0] = (float) mxyz.getX();
+            micronXyz[1] = (float) mxyz.getY();
+            micronXyz[2] = (float) mxyz.getZ();
         }
-        action = String.format(
-                BOTH_COORDS_NEURON_FMT,
-                sampleID, workspaceID, neuronID,
-                muX, muY, muZ,
-                x, y, z
-        );
-        return action;
+        return micronXyz;
     }
 
     private String formatGeoAction(Double x, Double y, Double z, float muX, float muY, float muZ, Long sampleID, Long workspaceID) {
@@ -2,6 +2,7 @@ package org.janelia.workstation.gui.large_volume_viewer.annotation;
 
 import org.janelia.workstation.controller.tileimagery.Subvolume;
 import org.janelia.workstation.controller.tileimagery.SubvolumeProvider;
+import org.janelia.workstation.controller.tileimagery.raster.RasterSubvolume;
 import org.janelia.workstation.geom.Vec3;
 import org.janelia.workstation.octree.ZoomLevel;
 import org.janelia.workstation.octree.ZoomedVoxelIndex;
@@ -85,15 +86,17 @@ public class PointRefiner {
         long maxSqrIntensity = -1L;
         long currentIntensity;
         long sumIntensitySquared;
-        ZoomedVoxelIndex currentZVI;
+        RasterSubvolume raster = volume.getRaster();
+        ZoomedVoxelIndex volumeOrigin = volume.getOrigin();
+        int xLocal = xc - volumeOrigin.getX();
+        int yLocal = yc - volumeOrigin.getY();
         Integer zMaxInt = null;
         double[] sisArr=new double[zmax-zmin+1];
         for (int z=zmin; z<=zmax; z++) {
             sumIntensitySquared = 0;
-            currentZVI = new ZoomedVoxelIndex(zoomLevel, xc, yc, z);
-            for (int c=0; c<volume.getChannelCount(); c++) {
-                currentIntensity = volume.getIntensityGlobal(currentZVI, c);
-                // System.out.println("z: " + z + "; channel " + c + " intensity: " + volume.getIntensityGlobal(currentZVI, c));
+            int voxel = raster.getVoxelOffset(xLocal, yLocal, z - volumeOrigin.getZ());
+            for (int c=0; c<raster.getChannelCount(); c++) {
+                currentIntensity = raster.getIntensity(voxel, c);
                 sumIntensitySquared += currentIntensity * currentIntensity;
             }
             sisArr[z-zmin]=(double)sumIntensitySquared;
@@ -5,6 +5,7 @@ import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.swing.JOptionPane;
 
@@ -84,6 +85,13 @@ public class AnnotationManager implements UpdateAnchorListener, PathTraceListene
     // AUTOMATIC_TRACING_TIMEOUT for automatic tracing in seconds
     private static final double AUTOMATIC_TRACING_TIMEOUT = 10.0;
 
+    // anchors farther apart than this (in voxels) are traced from both ends
+    //  at once; for short gaps a one-sided search is just as fast
+    private static final double BIDIRECTIONAL_TRACING_DISTANCE = 50.0;
+
+    // automatic traces still running, by the anchor they start from
+    private final Map<Long, PathTraceToParentWorker> activeTraces = new ConcurrentHashMap<>();
+
     // when dragging to merge, how close in pixels (squared) to trigger
     //  a merge instead of a move
     // this distance chosen by trial and error; I annotated a neuron
@@ -136,6 +144,12 @@ public class AnnotationManager implements UpdateAnchorListener, PathTraceListene
         }
     }
 
+    @Subscribe
+    public void workspaceUnloaded(UnloadProjectEvent event) {
+        // nobody is waiting for these paths any more
+        cancelAllTraces();
+    }
+
     /**
      * called when the model changes the current neuron
      */
@@ -316,6 +330,16 @@ public class AnnotationManager implements UpdateAnchorListener, PathTraceListene
         }
     }
 
+    @Override
+    public void pathTraceFinished(PathTraceToParentRequest request, PathTraceStatistics statistics) {
+        PathTraceToParentWorker worker = activeTraces.get(request.getAnchorGuid1());
+        if (worker != null && worker.getRequest() == request) {
+            activeTraces.remove(request.getAnchorGuid1(), worker);
+        }
+        log.info("Path trace from anchor {} of neuron {}: {}", request.getAnchorGuid1(),
+                request.getNeuronGuid(), statistics);
+    }
+
     public TileFormat getTileFormat() {
         return TmModelManager.getInstance().getTileServer().getLoadAdapter().getTileFormat();
     }
@@ -890,13 +914,31 @@ public class AnnotationManager implements UpdateAnchorListener, PathTraceListene
         request.setAnchorGuid2(parent.getId());
         request.setXyz1(new Vec3(annotation.getX(), annotation.getY(), annotation.getZ()));
         request.setXyz2(new Vec3(parent.getX(), parent.getY(), parent.getZ()));
+        if (request.getXyz1().minus(request.getXyz2()).norm() > BIDIRECTIONAL_TRACING_DISTANCE) {
+            request.setSearchMode(AStar.SearchMode.BIDIRECTIONAL);
+        }
+
+        startTrace(request);
+    }
 
-        // tracing:
+    private void startTrace(PathTraceToParentRequest request) {
         PathTraceToParentWorker worker = new PathTraceToParentWorker(request, AUTOMATIC_TRACING_TIMEOUT);
         worker.setPathTraceListener(this);
+        // a newer trace from the same anchor (eg, it was moved) supersedes the old one
+        PathTraceToParentWorker previous = activeTraces.put(request.getAnchorGuid1(), worker);
+        if (previous != null) {
+            previous.cancelTrace();
+        }
         worker.execute();
     }
 
+    private void cancelAllTraces() {
+        for (PathTraceToParentWorker worker : activeTraces.values()) {
+            worker.cancelTrace();
+        }
+        activeTraces.clear();
+    }
+
     private Long getSampleID() {
         if (TmModelManager.getInstance().getCurrentWorkspace() != null) {
             return TmModelManager.getInstance().getCurrentWorkspace().getSampleRef().getTargetId();
@@ -6,6 +6,7 @@ import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.List;
 import java.util.Map;
@@ -33,8 +34,6 @@ import org.janelia.workstation.gui.large_volume_viewer.tracing.SegmentIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Multiset;
-
 /**
  * SkeletonActor is responsible for painting neuron traces in the large volume
  * viewer.
@@ -239,8 +238,7 @@ public class SkeletonActor implements GLActor {
             return;
         }
         
-        Multiset<Long> neuronVertexCount = model.getNeuronVertexCount();
-        if (neuronVertexCount.size() <= 0) {
+        if (!model.hasBuffers()) {
             return;
         }
         if (!bIsGlInitialized) {
@@ -248,6 +246,10 @@ public class SkeletonActor implements GLActor {
         }
 
         GL gl = glDrawable.getGL();
+        SkeletonActorModel.BufferUpdate update = model.takeBufferUpdate();
+        if (update != null) {
+            uploadBuffers(gl.getGL2GL3(), update);
+        }
         if (rim == RenderInterpositionMethod.Occlusion) {
             gl.glEnable(GL2GL3.GL_DEPTH_TEST);
             gl.glDepthFunc(GL2GL3.GL_LESS);
@@ -265,33 +267,60 @@ public class SkeletonActor implements GLActor {
         }
     }
     
-    private synchronized void displayLines(GLAutoDrawable glDrawable) {
-
-        // at one point, this routine tested model.getNeuronLineIndices().isEmpty() and
-        //  returned immediately if true; this is a bug--it prevents model.updateVertices()
-        //  from running when it needs to; the result is that there is a crashing
-        //  bug under some rare circumstances; there's also something going on in
-        //  the loop that needs to happen even if getNeuronLineIndices() returns empty, too,
-        //  so you can't short-circuit it, either (you get line draw issues)
+    // Upload new buffers, or just the slices of the neurons that changed
+    private void uploadBuffers(GL2GL3 gl, SkeletonActorModel.BufferUpdate update) {
+        if (update.isNewBuffers()) {
+            FloatBuffer vertices = update.getVertexBuffer();
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+            gl.glBufferData(GL.GL_ARRAY_BUFFER, vertices.capacity() * SkeletonActorModel.FLOAT_BYTE_COUNT, vertices, GL.GL_DYNAMIC_DRAW);
 
-        GL2GL3 gl = glDrawable.getGL().getGL2GL3();
-        GL2 gl2 = gl.getGL2();
-        transparencyDepthMode(gl, true);
+            FloatBuffer colors = update.getColorBuffer();
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, colorBo);
+            gl.glBufferData(GL.GL_ARRAY_BUFFER, colors.capacity() * SkeletonActorModel.FLOAT_BYTE_COUNT, colors, GL.GL_DYNAMIC_DRAW);
 
-        int n = 0;
+            IntBuffer lines = update.getLineBuffer();
+            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, lineIbo);
+            gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, lines.capacity() * SkeletonActorModel.INT_BYTE_COUNT, lines, GL.GL_DYNAMIC_DRAW);
 
-        boolean refreshBufferData = model.updateVertices();
+            IntBuffer points = update.getPointBuffer();
+            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, pointIbo);
+            gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, points.capacity() * SkeletonActorModel.INT_BYTE_COUNT, points, GL.GL_DYNAMIC_DRAW);
+        }
 
-        if (refreshBufferData) {
+        for (SkeletonActorModel.BufferPatch patch : update.getPatches()) {
+            FloatBuffer vertices = patch.getVertices();
             gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
-            gl.glBufferData(GL.GL_ARRAY_BUFFER, model.getCummulativeVertexOffset(), model.getVertexBuffer(), GL.GL_DYNAMIC_DRAW);
+            gl.glBufferSubData(GL.GL_ARRAY_BUFFER, patch.getVertexOffset(),
+                    vertices.remaining() * SkeletonActorModel.FLOAT_BYTE_COUNT, vertices);
 
+            FloatBuffer colors = patch.getColors();
             gl.glBindBuffer(GL.GL_ARRAY_BUFFER, colorBo);
-            gl.glBufferData(GL.GL_ARRAY_BUFFER, model.getCummulativeColorOffset(), model.getColorBuffer(), GL.GL_DYNAMIC_DRAW);
+            gl.glBufferSubData(GL.GL_ARRAY_BUFFER, patch.getColorOffset(),
+                    colors.remaining() * SkeletonActorModel.FLOAT_BYTE_COUNT, colors);
 
-            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, lineIbo);
-            gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, model.getCummulativeLineOffset(), model.getLineBuffer(), GL.GL_DYNAMIC_DRAW);
+            IntBuffer points = patch.getPoints();
+            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, pointIbo);
+            gl.glBufferSubData(GL.GL_ELEMENT_ARRAY_BUFFER, patch.getPointOffset(),
+                    points.remaining() * SkeletonActorModel.INT_BYTE_COUNT, points);
+
+            IntBuffer lines = patch.getLines();
+            if (lines.hasRemaining()) {
+                gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, lineIbo);
+                gl.glBufferSubData(GL.GL_ELEMENT_ARRAY_BUFFER, patch.getLineOffset(),
+                        lines.remaining() * SkeletonActorModel.INT_BYTE_COUNT, lines);
+            }
         }
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    private synchronized void displayLines(GLAutoDrawable glDrawable) {
+
+        GL2GL3 gl = glDrawable.getGL().getGL2GL3();
+        GL2 gl2 = gl.getGL2();
+        transparencyDepthMode(gl, true);
+
+        int n = 0;
 
         gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
         lineShader.load(gl2);
@@ -406,24 +435,13 @@ public class SkeletonActor implements GLActor {
 
     private synchronized void displayAnchors(GLAutoDrawable glDrawable) {
         // Paint anchors as point sprites
-        Map<Long, IntBuffer> neuronPointIndices = model.getNeuronPointIndices();
-        if (neuronPointIndices == null) {
-            return;
-        }
-        if (neuronPointIndices.size() < 1) {
+        if (model.getPointOffsets().isEmpty()) {
             return;
         }
 
         GL2 gl = glDrawable.getGL().getGL2();
         setupAnchorShaders(gl);
 
-        boolean refreshBufferData = model.updatePoints();
-
-        if (refreshBufferData) {
-            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, pointIbo);
-            gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, model.getCummulativePointOffset(), model.getPointBuffer(), GL.GL_DYNAMIC_DRAW);
-        }
-
         gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
         gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
 
@@ -6,6 +6,7 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -14,8 +15,12 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
 
 import org.janelia.workstation.controller.NeuronManager;
 import org.janelia.workstation.controller.SpatialIndexManager;
@@ -36,11 +41,19 @@ import org.perf4j.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Created by murphys on 4/14/2016.
+ *
+ * Vertex, color, line and point data for drawing the skeleton, one slice of
+ * each buffer per neuron. The data are rebuilt on a background thread, and
+ * only for neurons whose anchors changed; each neuron's slice has room to
+ * grow, so most edits are patched into the existing buffers. All buffers are
+ * repacked only when a neuron outgrows the free space, or when hidden and
+ * deleted neurons leave too much of it unused. Finished updates are handed
+ * to the GL thread through takeBufferUpdate(), so drawing never waits for a
+ * rebuild.
  */
 public class SkeletonActorModel {
 
@@ -52,10 +65,17 @@ public class SkeletonActorModel {
     public static final int INT_BYTE_COUNT = 4;
     public static final int COLOR_FLOAT_COUNT = 3;
 
-    private int mostRecentAnchorVersion=-1;
+    // extra room in each neuron's slice of the buffers, as a fraction of its size
+    private static final float SLICE_HEADROOM = 0.25f;
+    private static final int MIN_SLICE_HEADROOM = 16;
+    // repack the buffers once more than this fraction of them is not drawn
+    private static final float MAX_UNUSED_FRACTION = 0.5f;
 
-    private boolean pointIndicesNeedCopy=true;
-    private boolean verticesNeedCopy=true;
+    // builds buffer data for all models, off the EDT and the GL thread
+    private static final ExecutorService updateExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("skeleton-actor-model-%d").setDaemon(true).build());
+
+    private int mostRecentAnchorVersion=-1;
 
     private Camera3d camera;
     private Viewport viewport;
@@ -82,64 +102,28 @@ public class SkeletonActorModel {
     private Skeleton skeleton;
     private SkeletonActorStateUpdater updater;
 
-    ByteBuffer vertexByteBuffer;
-    FloatBuffer vertexBuffer;
-
-    ByteBuffer colorByteBuffer;
-    FloatBuffer colorBuffer;
-
-    ByteBuffer lineByteBuffer;
-    IntBuffer lineBuffer;
-
-    ByteBuffer pointByteBuffer;
-    IntBuffer pointBuffer;
+    // anchors waiting for the update thread; only the latest is kept
+    private final AtomicReference<SkeletonSnapshot> queuedAnchors = new AtomicReference<>();
+    // buffer changes the GL thread has not taken yet
+    private final AtomicReference<BufferUpdate> pendingUpdate = new AtomicReference<>();
 
-    // arrays for draw
-    private Multiset<Long> neuronVertexCount = HashMultiset.create();
-    private Map<Long, FloatBuffer> neuronVertices = new HashMap<>();
-    private Map<Long, FloatBuffer> neuronColors = new HashMap<>();
+    // per neuron data, written only on the update thread
+    private final Map<Long, NeuronGeometry> neuronGeometries = new ConcurrentHashMap<>();
+    // layout of the buffers as last built, used only on the update thread
+    private BufferLayout builtLayout = BufferLayout.EMPTY;
+    // layout of the buffers as last uploaded, used only on the GL thread
+    private BufferLayout drawnLayout = BufferLayout.EMPTY;
 
-    List<ElementDataOffset> vertexOffsets=new ArrayList<>();
-    List<ElementDataOffset> colorOffsets=new ArrayList<>();
-    List<ElementDataOffset> lineOffsets=new ArrayList<>();
-    List<ElementDataOffset> pointOffsets=new ArrayList<>();
-
-    Map<Long, ElementDataOffset> vertexOffsetMap=new HashMap<>();
-    Map<Long, ElementDataOffset> colorOffsetMap=new HashMap<>();
-
-    // Vertex buffer objects need indices
-    private Map<Anchor, Integer> neuronAnchorIndices = new HashMap<>();
-    private Map<Long, Map<Integer, Anchor>> neuronIndexAnchors = new HashMap<>();
-    private Map<Long, IntBuffer> neuronPointIndices = new HashMap<>();
-    private Map<Long, IntBuffer> neuronLineIndices = new HashMap<>();
-
-    private Map<Long, Map<SegmentIndex, TracedPathActor>> neuronTracedSegments = new HashMap<>();
-
-    public Map<Long, IntBuffer> getNeuronLineIndices() { return neuronLineIndices; }
-
-    int cummulativeVertexOffset = 0;
-    int cummulativeColorOffset = 0;
-    int cummulativeLineOffset = 0;
-    int cummulativePointOffset=0;
+    private Map<Long, Map<SegmentIndex, TracedPathActor>> neuronTracedSegments = new ConcurrentHashMap<>();
 
     private float zoomedZThicknessInPixels = 0f;
 
-    public int getCummulativeVertexOffset() { return cummulativeVertexOffset; }
-    public ByteBuffer getVertexBuffer() { return vertexByteBuffer; }
-    public int getCummulativeColorOffset() { return cummulativeColorOffset; }
-    public FloatBuffer getColorBuffer() { return colorBuffer; }
-    public int getCummulativeLineOffset() { return cummulativeLineOffset; }
-    public IntBuffer getLineBuffer() { return lineBuffer; }
-    public List<ElementDataOffset> getLineOffsets() { return lineOffsets; }
-    public List<ElementDataOffset> getVertexOffsets() { return vertexOffsets; }
-    public List<ElementDataOffset> getColorOffsets() { return colorOffsets; }
-    public int getCummulativePointOffset() { return cummulativePointOffset; }
-    public IntBuffer getPointBuffer() { return pointBuffer; }
-    public Map<Long, IntBuffer> getNeuronPointIndices() { return neuronPointIndices; }
-    public List<ElementDataOffset> getPointOffsets() { return pointOffsets; }
-    public Map<Long, ElementDataOffset> getVertexOffsetMap() { return vertexOffsetMap; }
-    Map<Long, ElementDataOffset> getColorOffsetMap() { return colorOffsetMap; }
-    public Multiset<Long> getNeuronVertexCount() { return neuronVertexCount; }
+    public List<ElementDataOffset> getLineOffsets() { return drawnLayout.lineOffsets; }
+    public List<ElementDataOffset> getVertexOffsets() { return drawnLayout.vertexOffsets; }
+    public List<ElementDataOffset> getColorOffsets() { return drawnLayout.colorOffsets; }
+    public List<ElementDataOffset> getPointOffsets() { return drawnLayout.pointOffsets; }
+    public Map<Long, ElementDataOffset> getVertexOffsetMap() { return drawnLayout.vertexOffsetMap; }
+    Map<Long, ElementDataOffset> getColorOffsetMap() { return drawnLayout.colorOffsetMap; }
     public Map<Long, Map<SegmentIndex, TracedPathActor>> getNeuronTracedSegments() { return neuronTracedSegments; }
 
     public SkeletonActorModel() {
@@ -172,160 +156,38 @@ public class SkeletonActorModel {
         updater.update();
     }
 
-    public synchronized boolean updateVertices() {
-        if (verticesNeedCopy) {
-            log.trace("updateVertices - running");
-            
-            cummulativeVertexOffset=0;
-            cummulativeColorOffset=0;
-            cummulativeLineOffset=0;
-
-            vertexOffsets.clear();
-            colorOffsets.clear();
-            lineOffsets.clear();
-
-            vertexOffsetMap.clear();
-            colorOffsetMap.clear();
-
-            List<Long> neuronOrderList = new ArrayList<>();
-
-            //log.info("displayLines2 Check1");
-
-            for (Long neuronID : neuronVertices.keySet()) {
-                if (TmModelManager.getInstance().getCurrentView().isHidden(neuronID)) {
-                    continue;
-                }
-
-                neuronOrderList.add(neuronID);
-
-                int vertexCount=neuronVertexCount.count(neuronID);
-
-                int vertexBufferSize = vertexCount * FLOAT_BYTE_COUNT * VERTEX_FLOAT_COUNT;
-                int colorBufferSize = vertexCount * FLOAT_BYTE_COUNT * COLOR_FLOAT_COUNT;
-
-                int lineBufferSize = 0;
-                IntBuffer lineBuffer=neuronLineIndices.get(neuronID);
-                if (lineBuffer!=null) {
-                    lineBufferSize = lineBuffer.capacity() * INT_BYTE_COUNT;
-                }
-
-                ElementDataOffset vertexOffset = new ElementDataOffset(neuronID, vertexBufferSize, cummulativeVertexOffset);
-                vertexOffsets.add(vertexOffset);
-                vertexOffsetMap.put(neuronID, vertexOffset);
-
-                ElementDataOffset colorOffset = new ElementDataOffset(neuronID, colorBufferSize, cummulativeColorOffset);
-                colorOffsets.add(colorOffset);
-                colorOffsetMap.put(neuronID, colorOffset);
-
-                lineOffsets.add(new ElementDataOffset(neuronID, lineBufferSize, cummulativeLineOffset));
-
-                cummulativeVertexOffset += vertexBufferSize;
-                cummulativeColorOffset += colorBufferSize;
-                cummulativeLineOffset += lineBufferSize;
-            }
-
-            if (vertexByteBuffer==null || vertexByteBuffer.limit()!=cummulativeVertexOffset) {
-                vertexByteBuffer = ByteBuffer.allocateDirect(cummulativeVertexOffset);
-                vertexBuffer = vertexByteBuffer.order(ByteOrder.nativeOrder()).asFloatBuffer();
-            }
-            int n = 0;
-            for (Long neuronID : neuronOrderList) {
-                ElementDataOffset elementDataOffset = vertexOffsets.get(n);
-                FloatBuffer neuronVertexBuffer = neuronVertices.get(elementDataOffset.id);
-                neuronVertexBuffer.rewind();
-                vertexBuffer.put(neuronVertexBuffer);
-                n++;
-            }
-            vertexBuffer.rewind();
-
-            if (colorByteBuffer==null || colorByteBuffer.limit()!=cummulativeColorOffset) {
-                colorByteBuffer = ByteBuffer.allocateDirect(cummulativeColorOffset);
-                colorBuffer = colorByteBuffer.order(ByteOrder.nativeOrder()).asFloatBuffer();
-            }
-            n = 0;
-            for (Long neuronID : neuronOrderList) {
-                ElementDataOffset elementDataOffset = colorOffsets.get(n);
-                FloatBuffer neuronColorBuffer = neuronColors.get(elementDataOffset.id);
-                neuronColorBuffer.rewind();
-                colorBuffer.put(neuronColorBuffer);
-                n++;
-            }
-            colorBuffer.rewind();
-
-            if (lineByteBuffer==null || lineByteBuffer.limit()!=cummulativeLineOffset) {
-                lineByteBuffer = ByteBuffer.allocateDirect(cummulativeLineOffset);
-                lineBuffer = lineByteBuffer.order(ByteOrder.nativeOrder()).asIntBuffer();
-            }
-            n = 0;
-            for (Long neuronID : neuronOrderList) {
-                ElementDataOffset elementDataOffset = lineOffsets.get(n);
-                if (elementDataOffset.size != 0) {
-                    IntBuffer neuronLineBuffer = neuronLineIndices.get(elementDataOffset.id);
-                    lineBuffer.put(neuronLineBuffer);
-                }
-                n++;
-            }
-            lineBuffer.rewind();
-            verticesNeedCopy=false;
-            return true;
-        } else {
-            return false;
-        }
+    /**
+     * @return whether there is anything to draw, or to upload first
+     */
+    public boolean hasBuffers() {
+        return pendingUpdate.get() != null || !drawnLayout.vertexOffsets.isEmpty();
     }
 
-    public synchronized boolean updatePoints() {
-        if (pointIndicesNeedCopy) {
-            log.trace("updatePoints - running");
-
-            pointOffsets.clear();
-
-            cummulativePointOffset=0;
-            List<Long> neuronOrderList=new ArrayList<>();
-
-            for (Long neuronID : neuronVertices.keySet()) {
-                if (TmModelManager.getInstance().getCurrentView().isHidden(neuronID)) {
-                    continue;
-                }
-                neuronOrderList.add(neuronID);
-                IntBuffer intBuffer = neuronPointIndices.get(neuronID);
-                if (intBuffer==null) {
-                    log.warn("Missing neuron {} from neuronPointIndices",neuronID);
-                }
-                else {
-                    int pointBufferSize=intBuffer.capacity()*INT_BYTE_COUNT;
-                    pointOffsets.add(new ElementDataOffset(neuronID, pointBufferSize, cummulativePointOffset));
-                    cummulativePointOffset+=pointBufferSize;
-                }
-            }
-
-            int n=0;
-            if (pointByteBuffer==null || pointByteBuffer.limit()!=cummulativePointOffset) {
-                pointByteBuffer = ByteBuffer.allocateDirect(cummulativePointOffset);
-                pointBuffer = pointByteBuffer.order(ByteOrder.nativeOrder()).asIntBuffer();
-            }
-            for (Long neuronID : neuronOrderList) {
-                ElementDataOffset elementDataOffset = pointOffsets.get(n);
-                IntBuffer neuronPointBuffer=neuronPointIndices.get(elementDataOffset.id);
-                neuronPointBuffer.rewind();
-                pointBuffer.put(neuronPointBuffer);
-                n++;
-            }
-            pointBuffer.rewind();
-            pointIndicesNeedCopy=false;
-            return true;
-        } else {
-            return false;
+    /**
+     * Take the buffer changes made since the last call, for uploading to GL;
+     * the offset getters describe the buffers as they are after the upload.
+     * Call this on the GL thread only.
+     *
+     * @return changes to upload, or null if nothing changed
+     */
+    public BufferUpdate takeBufferUpdate() {
+        BufferUpdate update = pendingUpdate.getAndSet(null);
+        if (update != null) {
+            drawnLayout = update.layout;
         }
+        return update;
     }
 
     public int getIndexForAnchor(Anchor anchor) {
-        if (anchor == null) {
+        if (anchor == null || anchor.getNeuronID() == null) {
             return -1;
         }
-        if (neuronAnchorIndices.containsKey(anchor)) {
-            return neuronAnchorIndices.get(anchor);
+        NeuronGeometry geometry = neuronGeometries.get(anchor.getNeuronID());
+        if (geometry == null) {
+            return -1;
         }
-        return -1;
+        Integer index = geometry.anchorIndices.get(anchor);
+        return index == null ? -1 : index;
     }
 
     public synchronized void forceUpdateAnchors() {
@@ -339,17 +201,15 @@ public class SkeletonActorModel {
      * (thus the name of the method), the lines between them, and the
      * automatically traced paths if present
      *
-     * the update in general consists of looping over all points, and copying
-     * their positions into appropriate byte array, getting the data ready for
-     * the next call to display()
+     * the anchors are copied here; the arrays are filled in from the copies
+     * on the update thread, for the neurons whose anchors changed, getting
+     * the data ready for a later call to display()
      */
     public synchronized void updateAnchors() {
         if (skeleton == null) {
             return;
         }
         log.trace("updateAnchors - running");
-        StopWatch w = new StopWatch();
-        w.start();
 
         log.trace("skeleton has anchor set version = " + skeleton.getAnchorSetVersion());
         log.trace("mostRecentAnchorVerion = " + mostRecentAnchorVersion);
@@ -362,170 +222,213 @@ public class SkeletonActorModel {
             log.trace("updateAnchors() - updating to version = " + mostRecentAnchorVersion);
         }
 
-        // we do the point update in this method, then call out
-        //  to other methods for the lines and paths; no reason we
-        //  couldn't also refactor this into its own method, too
-        // clear out the maps first
-        neuronVertexCount.clear();
-        neuronVertices.clear();
-        neuronColors.clear();
-        // first, how many vertices per neuron; then, fill the buffers (one per neuron)
-        Collection<Anchor> anchors = getAnchorsSafe();
-        for (Anchor anchor : anchors) {
-            neuronVertexCount.add(anchor.getNeuronID());
-        }
-        for (Long neuronID : neuronVertexCount.elementSet()) {
-            int vertexCount=neuronVertexCount.count(neuronID);
-            ByteBuffer tempBytes = ByteBuffer.allocateDirect(vertexCount * FLOAT_BYTE_COUNT * VERTEX_FLOAT_COUNT);
-            tempBytes.order(ByteOrder.nativeOrder());
-            neuronVertices.put(neuronID, tempBytes.asFloatBuffer());
-            neuronVertices.get(neuronID).rewind();
-
-            tempBytes = ByteBuffer.allocateDirect(vertexCount * FLOAT_BYTE_COUNT * COLOR_FLOAT_COUNT);
-            tempBytes.order(ByteOrder.nativeOrder());
-            neuronColors.put(neuronID, tempBytes.asFloatBuffer());
-            neuronColors.get(neuronID).rewind();
-        }
-
-        neuronAnchorIndices.clear();
-        neuronIndexAnchors.clear();
-        Map<Long, Integer> neuronVertexIndex = new HashMap<>();
-        Integer currentVertexIndex;
-        for (Anchor anchor : anchors) {
-            Long neuronID = anchor.getNeuronID();
-
-            Vec3 xyz = anchor.getLocation();
-            FloatBuffer vertexBuffer=neuronVertices.get(neuronID);
-            vertexBuffer.put((float) xyz.getX());
-            vertexBuffer.put((float) xyz.getY());
-            vertexBuffer.put((float) xyz.getZ());
-
-            float[] styleColorArr= TmViewState.getColorForNeuronAsFloatArray(neuronID);
-            FloatBuffer colorBuffer=neuronColors.get(neuronID);
-            colorBuffer.put(styleColorArr);
-
-            currentVertexIndex=neuronVertexIndex.get(neuronID);
-            if (currentVertexIndex==null) {
-                currentVertexIndex=0;
-                neuronVertexIndex.put(neuronID, currentVertexIndex);
+        // the neuron of each traced path comes from the anchor at either end
+        //  of the path; if there isn't an anchor, just move on--that
+        //  path is also gone (happens when neurons deleted, merged)
+        Map<AnchoredVoxelPath, Long> pathNeurons = new LinkedHashMap<>();
+        for (AnchoredVoxelPath segment : skeleton.getTracedSegments()) {
+            Anchor pathAnchor = skeleton.getAnchorByID(segment.getSegmentIndex().getAnchor1Guid());
+            if (pathAnchor != null && pathAnchor.getNeuronID() != null) {
+                pathNeurons.put(segment, pathAnchor.getNeuronID());
             }
-            neuronAnchorIndices.put(anchor, currentVertexIndex);
+        }
+        queueUpdate(new SkeletonSnapshot(getAnchorsSafe(), pathNeurons, getNextParent()));
+    }
 
-            Map<Integer, Anchor> indexAnchorMap=neuronIndexAnchors.get(neuronID);
-            if (indexAnchorMap==null) {
-                indexAnchorMap=new HashMap<>();
-                neuronIndexAnchors.put(neuronID, indexAnchorMap);
-            }
-            indexAnchorMap.put(currentVertexIndex, anchor);
+    private void queueUpdate(SkeletonSnapshot snapshot) {
+        // a snapshot still in the queue is replaced rather than built
+        if (queuedAnchors.getAndSet(snapshot) == null) {
+            updateExecutor.execute(this::buildQueuedUpdate);
+        }
+    }
 
-            neuronVertexIndex.put(neuronID, currentVertexIndex + 1);
+    // runs on the update thread
+    private void buildQueuedUpdate() {
+        SkeletonSnapshot snapshot = queuedAnchors.getAndSet(null);
+        if (snapshot == null) {
+            return;
         }
+        StopWatch w = new StopWatch();
+        w.start();
+        buildUpdate(snapshot);
+        w.stop();
+        log.trace("updateAnchors took {} ms",w.getElapsedTime());
 
-        neuronPointIndices.clear();
-        for (Long neuronID : neuronVertexIndex.keySet()) {
-            // recall that the last value neuronVertexIndex takes is the
-            //  number of points:
-            ByteBuffer tempBytes = ByteBuffer.allocateDirect(neuronVertexIndex.get(neuronID) * INT_BYTE_COUNT);
-            tempBytes.order(ByteOrder.nativeOrder());
-            neuronPointIndices.put(neuronID, tempBytes.asIntBuffer());
-            neuronPointIndices.get(neuronID).rewind();
+        boolean foundNextParent = false;
+        Anchor nextParent = snapshot.nextParent;
+        if (nextParent!=null) {
+            for (AnchorSnapshot anchor: snapshot.anchors) {
+                if (anchor.guid.equals(snapshot.nextParentGuid)) {
+                    foundNextParent = true;
+                }
+            }
         }
-        for (Anchor anchor : anchors) {
-            int i1 = neuronAnchorIndices.get(anchor);
-            neuronPointIndices.get(anchor.getNeuronID()).put(i1);
+        if (!foundNextParent) {
+            SwingUtilities.invokeLater(() -> {
+                if (getNextParent() == nextParent) {
+                    setNextParent(null);
+                }
+            });
         }
 
-        pointIndicesNeedCopy=true;
+        updater.update();
+    }
 
+    private void buildUpdate(SkeletonSnapshot snapshot) {
         // automatically traced paths
-        updateTracedPaths(anchors);
+        updateTracedPaths(snapshot.anchors, snapshot.pathNeurons);
+
+        // the anchors of each neuron, in the order the skeleton returns them
+        Map<Long, List<AnchorSnapshot>> anchorsByNeuron = new LinkedHashMap<>();
+        for (AnchorSnapshot anchor : snapshot.anchors) {
+            if (anchor.neuronID == null) {
+                continue;
+            }
+            List<AnchorSnapshot> neuronAnchors = anchorsByNeuron.get(anchor.neuronID);
+            if (neuronAnchors == null) {
+                neuronAnchors = new ArrayList<>();
+                anchorsByNeuron.put(anchor.neuronID, neuronAnchors);
+            }
+            neuronAnchors.add(anchor);
+        }
 
         // lines between points, if no path (must be done after path updates so
         //  we know where the paths are!)
-        updateLines(anchors);
+        Set<Long> changedNeurons = new HashSet<>();
+        for (Map.Entry<Long, List<AnchorSnapshot>> entry : anchorsByNeuron.entrySet()) {
+            Long neuronID = entry.getKey();
+            Map<SegmentIndex, TracedPathActor> tracedSegments = neuronTracedSegments.get(neuronID);
+            float[] color = getNeuronColor(neuronID);
+            long fingerprint = NeuronGeometry.fingerprint(entry.getValue(), tracedSegments, color);
+            NeuronGeometry geometry = neuronGeometries.get(neuronID);
+            if (geometry == null || !geometry.matches(fingerprint)) {
+                neuronGeometries.put(neuronID, new NeuronGeometry(entry.getValue(), tracedSegments, color, fingerprint));
+                changedNeurons.add(neuronID);
+            }
+        }
+        neuronGeometries.keySet().retainAll(anchorsByNeuron.keySet());
 
-        boolean foundNextParent = false;
-        Anchor nextParent = getNextParent();
-        if (nextParent!=null) {
-            for (Anchor anchor: anchors) {
-                if (anchor.getGuid().equals(nextParent.getGuid())) {
-                    foundNextParent = true;
-                }
+        List<Long> drawnNeurons = new ArrayList<>();
+        for (Long neuronID : anchorsByNeuron.keySet()) {
+            if (!isNeuronHidden(neuronID)) {
+                drawnNeurons.add(neuronID);
             }
         }
-        if (!foundNextParent)
-            setNextParent(null);
-        
-        w.start();
-        log.trace("updateAnchors took {} ms",w.getElapsedTime());
-        
-        updater.update();
+
+        BufferUpdate update = patchLayout(drawnNeurons, changedNeurons);
+        if (update == null) {
+            update = repackLayout(drawnNeurons);
+        }
+        builtLayout = update.layout;
+        pendingUpdate.accumulateAndGet(update, (pending, next) -> pending == null ? next : pending.followedBy(next));
     }
 
-    private void updateLines(Collection<Anchor> anchors) {
-        // iterate through anchors and record lines where there are no traced
-        //  paths; then copy the line indices you get into an array
-        // note: I believe this works because we process the points and
-        //  lines in exactly the same order (the order skeleton.getAnchors()
-        //  returns them in)
+    // the view state is looked up through these, so that tests can stand in for it
+    float[] getNeuronColor(Long neuronID) {
+        return TmViewState.getColorForNeuronAsFloatArray(neuronID);
+    }
 
-        log.trace("updateLines - running");
-        if (anchors==null) {
-            anchors=getAnchorsSafe();
-        }
+    boolean isNeuronHidden(Long neuronID) {
+        return TmModelManager.getInstance().getCurrentView().isHidden(neuronID);
+    }
 
-        Map<Long, List<Integer>> tempLineIndices = new HashMap<>();
-        for (Anchor anchor : anchors) {
-            int i1 = getIndexForAnchor(anchor);
-            if (i1 < 0) {
-                continue;
-            }
-            for (Anchor neighbor : anchor.getNeighbors()) {
-                Integer i2=neuronAnchorIndices.get(neighbor);
-                if (i2==null) {
-                    i2=-1;
-                }
-                if (i2 < 0) {
-                    continue;
-                }
-                if (i1 >= i2) {
-                    continue; // only use ascending pairs, for uniqueness
-                }
-                Long neuronID=anchor.getNeuronID();
-                if (neuronTracedSegments.containsKey(neuronID)) {
-                    SegmentIndex segmentIndex = new SegmentIndex(anchor.getGuid(), neighbor.getGuid());
-                    // if neuron has any paths, check and don't draw line
-                    //  where there's already a traced segment
-                    if (neuronTracedSegments.get(neuronID).containsKey(segmentIndex)) {
-                        continue;
-                    }
-                }
-                if (!tempLineIndices.containsKey(neuronID)) {
-                    tempLineIndices.put(neuronID, new Vector<Integer>());
+    /**
+     * Keep every neuron in its slice of the current buffers, rewriting the
+     * changed ones, and appending neurons that are new or outgrew their slice.
+     *
+     * @return the patches, or null if the buffers need repacking
+     */
+    private BufferUpdate patchLayout(List<Long> drawnNeurons, Set<Long> changedNeurons) {
+        BufferLayout oldLayout = builtLayout;
+        Map<Long, Slice> slices = new LinkedHashMap<>();
+        Map<Long, NeuronGeometry> patches = new LinkedHashMap<>();
+        int vertexEnd = oldLayout.vertexEnd;
+        int lineEnd = oldLayout.lineEnd;
+        int drawnVertices = 0;
+        int drawnLines = 0;
+        for (Long neuronID : drawnNeurons) {
+            NeuronGeometry geometry = neuronGeometries.get(neuronID);
+            Slice slice = oldLayout.slices.get(neuronID);
+            if (slice == null || !slice.fits(geometry)) {
+                slice = new Slice(vertexEnd, sliceLength(geometry.vertexCount), lineEnd, sliceLength(geometry.lineIndexCount));
+                if (slice.vertexStart + slice.vertexLength > oldLayout.vertexCapacity
+                        || slice.lineStart + slice.lineLength > oldLayout.lineCapacity) {
+                    return null;
                 }
-                tempLineIndices.get(neuronID).add(i1);
-                tempLineIndices.get(neuronID).add(i2);
+                vertexEnd += slice.vertexLength;
+                lineEnd += slice.lineLength;
+                patches.put(neuronID, geometry);
             }
+            else if (changedNeurons.contains(neuronID)) {
+                patches.put(neuronID, geometry);
+            }
+            slices.put(neuronID, slice);
+            drawnVertices += slice.vertexLength;
+            drawnLines += slice.lineLength;
+        }
+        if (vertexEnd - drawnVertices > MAX_UNUSED_FRACTION * vertexEnd
+                || lineEnd - drawnLines > MAX_UNUSED_FRACTION * lineEnd) {
+            return null;
         }
+        BufferLayout layout = new BufferLayout(slices, neuronGeometries, oldLayout.vertexCapacity, oldLayout.lineCapacity,
+                vertexEnd, lineEnd);
+        return new BufferUpdate(layout, null, null, null, null, patches);
+    }
 
-        // loop over neurons and fill the arrays
-        neuronLineIndices.clear();
-        for (Long neuronID : tempLineIndices.keySet()) {
-            ByteBuffer lineBytes = ByteBuffer.allocateDirect(tempLineIndices.get(neuronID).size() * INT_BYTE_COUNT);
-            lineBytes.order(ByteOrder.nativeOrder());
-            IntBuffer lineIndexBuffer=lineBytes.asIntBuffer();
-            neuronLineIndices.put(neuronID, lineIndexBuffer);
-            lineIndexBuffer.rewind();
-            for (int i : tempLineIndices.get(neuronID)) // fill actual int buffer
-            {
-                lineIndexBuffer.put(i);
-            }
-            lineIndexBuffer.rewind();
+    /**
+     * Lay out all neurons afresh in new buffers, with room for more.
+     */
+    private BufferUpdate repackLayout(List<Long> drawnNeurons) {
+        log.trace("repacking skeleton buffers for {} neurons", drawnNeurons.size());
+        Map<Long, Slice> slices = new LinkedHashMap<>();
+        int vertexEnd = 0;
+        int lineEnd = 0;
+        for (Long neuronID : drawnNeurons) {
+            NeuronGeometry geometry = neuronGeometries.get(neuronID);
+            Slice slice = new Slice(vertexEnd, sliceLength(geometry.vertexCount), lineEnd, sliceLength(geometry.lineIndexCount));
+            slices.put(neuronID, slice);
+            vertexEnd += slice.vertexLength;
+            lineEnd += slice.lineLength;
+        }
+        int vertexCapacity = vertexEnd + vertexEnd / 2;
+        int lineCapacity = lineEnd + lineEnd / 2;
+
+        // new buffers every time, since the GL thread may still be uploading the old ones
+        FloatBuffer vertexBuffer = newDirectByteBuffer(vertexCapacity * VERTEX_FLOAT_COUNT * FLOAT_BYTE_COUNT).asFloatBuffer();
+        FloatBuffer colorBuffer = newDirectByteBuffer(vertexCapacity * COLOR_FLOAT_COUNT * FLOAT_BYTE_COUNT).asFloatBuffer();
+        IntBuffer pointBuffer = newDirectByteBuffer(vertexCapacity * INT_BYTE_COUNT).asIntBuffer();
+        IntBuffer lineBuffer = newDirectByteBuffer(lineCapacity * INT_BYTE_COUNT).asIntBuffer();
+        for (Map.Entry<Long, Slice> entry : slices.entrySet()) {
+            NeuronGeometry geometry = neuronGeometries.get(entry.getKey());
+            Slice slice = entry.getValue();
+            vertexBuffer.position(slice.vertexStart * VERTEX_FLOAT_COUNT);
+            vertexBuffer.put(geometry.vertices.duplicate());
+            colorBuffer.position(slice.vertexStart * COLOR_FLOAT_COUNT);
+            colorBuffer.put(geometry.colors.duplicate());
+            pointBuffer.position(slice.vertexStart);
+            pointBuffer.put(geometry.points.duplicate());
+            lineBuffer.position(slice.lineStart);
+            lineBuffer.put(geometry.lines.duplicate());
         }
-        verticesNeedCopy=true;
+        vertexBuffer.rewind();
+        colorBuffer.rewind();
+        pointBuffer.rewind();
+        lineBuffer.rewind();
+
+        BufferLayout layout = new BufferLayout(slices, neuronGeometries, vertexCapacity, lineCapacity, vertexEnd, lineEnd);
+        return new BufferUpdate(layout, vertexBuffer, colorBuffer, lineBuffer, pointBuffer,
+                Collections.<Long, NeuronGeometry>emptyMap());
+    }
+
+    private static int sliceLength(int size) {
+        return size + Math.max(MIN_SLICE_HEADROOM, (int) (size * SLICE_HEADROOM));
+    }
+
+    private static ByteBuffer newDirectByteBuffer(int byteCount) {
+        return ByteBuffer.allocateDirect(byteCount).order(ByteOrder.nativeOrder());
     }
 
-    private void updateTracedPaths(Collection<Anchor> anchors) {
+    private void updateTracedPaths(Collection<AnchorSnapshot> anchors, Map<AnchoredVoxelPath, Long> pathNeurons) {
         // Update Traced path actors
 
         log.trace("updateTracedPaths - running");
@@ -534,28 +437,17 @@ public class SkeletonActorModel {
         //  this is necessary because unlike in the old not-per-neuron way of
         //  doing things, we would normally need some info from anchors that
         //  just isn't there when the whole skeleton is cleared
-        if (anchors==null) {
-            anchors = getAnchorsSafe();
-        }
         if ( anchors.isEmpty() ) {
             neuronTracedSegments.clear();
             return;
         }
 
         Set<SegmentIndex> foundSegments = new HashSet<>();
-        Collection<AnchoredVoxelPath> skeletonSegments = skeleton.getTracedSegments();
-        // log.info("Skeleton has " + skeletonSegments.size() + " traced segments");
-        for (AnchoredVoxelPath segment : skeletonSegments) {
+        // log.info("Skeleton has " + pathNeurons.size() + " traced segments");
+        for (Map.Entry<AnchoredVoxelPath, Long> entry : pathNeurons.entrySet()) {
+            AnchoredVoxelPath segment = entry.getKey();
             SegmentIndex ix = segment.getSegmentIndex();
-
-            // need neuron ID; get it from the anchor at either end of the
-            //  traced path; if there isn't an anchor, just move on--that
-            //  path is also gone (happens when neurons deleted, merged)
-            Anchor pathAnchor = skeleton.getAnchorByID(ix.getAnchor1Guid());
-            if (pathAnchor == null) {
-                continue;
-            }
-            Long neuronID = pathAnchor.getNeuronID();
+            Long neuronID = entry.getValue();
 
             foundSegments.add(ix);
             if (neuronTracedSegments.containsKey(neuronID)) {
@@ -622,22 +514,30 @@ public class SkeletonActorModel {
     /**
      * Change visual anchor position without actually changing the Skeleton model
      */
-    public synchronized void lightweightPlaceAnchor(Anchor dragAnchor, Vec3 location) {
-        if (dragAnchor == null) {
-            return;
-        }
-        int index = getIndexForAnchor(dragAnchor);
-        if (index < 0) {
+    public void lightweightPlaceAnchor(Anchor dragAnchor, Vec3 location) {
+        if (dragAnchor == null || dragAnchor.getNeuronID() == null) {
             return;
         }
-        int offset = index * VERTEX_FLOAT_COUNT;
-        for (int i = 0; i < 3; ++i) {
-            neuronVertices.get(dragAnchor.getNeuronID()).put(offset + i, (float) (double) location.get(i));
-        }
-        updateLines(null);
-        updater.update();
+        final float[] xyz = {(float) location.getX(), (float) location.getY(), (float) location.getZ()};
+        updateExecutor.execute(() -> {
+            Long neuronID = dragAnchor.getNeuronID();
+            NeuronGeometry geometry = neuronGeometries.get(neuronID);
+            Integer index = geometry == null ? null : geometry.anchorIndices.get(dragAnchor);
+            if (index == null) {
+                return;
+            }
+            NeuronGeometry moved = geometry.withVertex(index, xyz);
+            neuronGeometries.put(neuronID, moved);
+            if (builtLayout.slices.containsKey(neuronID)) {
+                BufferUpdate update = new BufferUpdate(builtLayout, null, null, null, null,
+                        Collections.singletonMap(neuronID, moved));
+                pendingUpdate.accumulateAndGet(update, (pending, next) -> pending == null ? next : pending.followedBy(next));
+            }
+            updater.update();
+        });
     }
 
+
     /**
      * is the input anchor's neuron visible?
      */
@@ -645,7 +545,7 @@ public class SkeletonActorModel {
         if (anchor == null || anchor.getNeuronID() == null) {
             return false;
         } else {
-            return !TmModelManager.getInstance().getCurrentView().isHidden(anchor.getNeuronID());
+            return !isNeuronHidden(anchor.getNeuronID());
         }
     }
     
@@ -669,8 +569,7 @@ public class SkeletonActorModel {
             return Collections.emptyList();
         }
 
-        boolean anchorsInViewport = ApplicationPanel.isAnchorsInViewport();
-        if (viewport==null || pointComputer==null || !anchorsInViewport) {
+        if (viewport==null || pointComputer==null || !ApplicationPanel.isAnchorsInViewport()) {
             // Fallback on old inefficient behavior which always renders all anchors
             return getAllAnchors();
         }
@@ -848,6 +747,327 @@ public class SkeletonActorModel {
     public void setPointComputer(BasicMouseMode pointComputer) {
         this.pointComputer = pointComputer;
     }
-    
-    
+
+    // What updateAnchors() hands to the update thread
+    private static class SkeletonSnapshot {
+        private final List<AnchorSnapshot> anchors;
+        private final Map<AnchoredVoxelPath, Long> pathNeurons;
+        // compared by identity on the EDT only; the update thread uses the guid
+        private final Anchor nextParent;
+        private final Long nextParentGuid;
+
+        SkeletonSnapshot(Collection<Anchor> anchors, Map<AnchoredVoxelPath, Long> pathNeurons, Anchor nextParent) {
+            List<AnchorSnapshot> copies = new ArrayList<>(anchors.size());
+            for (Anchor anchor : anchors) {
+                copies.add(new AnchorSnapshot(anchor));
+            }
+            this.anchors = Collections.unmodifiableList(copies);
+            this.pathNeurons = Collections.unmodifiableMap(pathNeurons);
+            this.nextParent = nextParent;
+            this.nextParentGuid = nextParent == null ? null : nextParent.getGuid();
+        }
+    }
+
+    /**
+     * One anchor as it was when updateAnchors() ran. The update thread reads
+     * these instead of the anchors, which the EDT keeps changing.
+     */
+    private static class AnchorSnapshot {
+        // only a map key for getIndexForAnchor() once copied; its fields are not read again
+        private final Anchor anchor;
+        private final Long guid;
+        private final Long neuronID;
+        private final double x;
+        private final double y;
+        private final double z;
+        private final List<Long> neighborGuids;
+
+        AnchorSnapshot(Anchor anchor) {
+            this.anchor = anchor;
+            this.guid = anchor.getGuid();
+            this.neuronID = anchor.getNeuronID();
+            Vec3 xyz = anchor.getLocation();
+            this.x = xyz.getX();
+            this.y = xyz.getY();
+            this.z = xyz.getZ();
+            List<Long> guids = new ArrayList<>(anchor.getNeighbors().size());
+            for (Anchor neighbor : anchor.getNeighbors()) {
+                guids.add(neighbor.getGuid());
+            }
+            this.neighborGuids = Collections.unmodifiableList(guids);
+        }
+    }
+
+    // One neuron's slice of the buffers, in vertices and line indices
+    private static class Slice {
+        private final int vertexStart;
+        private final int vertexLength;
+        private final int lineStart;
+        private final int lineLength;
+
+        Slice(int vertexStart, int vertexLength, int lineStart, int lineLength) {
+            this.vertexStart = vertexStart;
+            this.vertexLength = vertexLength;
+            this.lineStart = lineStart;
+            this.lineLength = lineLength;
+        }
+
+        boolean fits(NeuronGeometry geometry) {
+            return geometry.vertexCount <= vertexLength && geometry.lineIndexCount <= lineLength;
+        }
+    }
+
+    /**
+     * Buffer data for one neuron, not changed once built. Points and lines
+     * index the neuron's own vertices.
+     */
+    private static class NeuronGeometry {
+        private final FloatBuffer vertices;
+        private final FloatBuffer colors;
+        private final IntBuffer points;
+        private final IntBuffer lines;
+        private final int vertexCount;
+        private final int lineIndexCount;
+        private final Map<Anchor, Integer> anchorIndices;
+        private final long fingerprint;
+        // moved by a drag, so it matches no fingerprint of the skeleton
+        private final boolean provisional;
+
+        NeuronGeometry(List<AnchorSnapshot> anchors, Map<SegmentIndex, TracedPathActor> tracedSegments, float[] color, long fingerprint) {
+            this.fingerprint = fingerprint;
+            this.provisional = false;
+            vertexCount = anchors.size();
+            vertices = newDirectByteBuffer(vertexCount * FLOAT_BYTE_COUNT * VERTEX_FLOAT_COUNT).asFloatBuffer();
+            colors = newDirectByteBuffer(vertexCount * FLOAT_BYTE_COUNT * COLOR_FLOAT_COUNT).asFloatBuffer();
+            points = newDirectByteBuffer(vertexCount * INT_BYTE_COUNT).asIntBuffer();
+            anchorIndices = new HashMap<>();
+            Map<Long, Integer> guidIndices = new HashMap<>();
+            int index = 0;
+            for (AnchorSnapshot anchor : anchors) {
+                vertices.put((float) anchor.x);
+                vertices.put((float) anchor.y);
+                vertices.put((float) anchor.z);
+                colors.put(color);
+                points.put(index);
+                anchorIndices.put(anchor.anchor, index);
+                guidIndices.put(anchor.guid, index);
+                index++;
+            }
+            vertices.rewind();
+            colors.rewind();
+            points.rewind();
+
+            // record lines where there are no traced paths
+            List<Integer> lineIndices = new ArrayList<>();
+            for (AnchorSnapshot anchor : anchors) {
+                int i1 = guidIndices.get(anchor.guid);
+                for (Long neighborGuid : anchor.neighborGuids) {
+                    Integer i2 = guidIndices.get(neighborGuid);
+                    if (i2 == null) {
+                        continue;
+                    }
+                    if (i1 >= i2) {
+                        continue; // only use ascending pairs, for uniqueness
+                    }
+                    // if neuron has any paths, check and don't draw line
+                    //  where there's already a traced segment
+                    if (tracedSegments != null
+                            && tracedSegments.containsKey(new SegmentIndex(anchor.guid, neighborGuid))) {
+                        continue;
+                    }
+                    lineIndices.add(i1);
+                    lineIndices.add(i2);
+                }
+            }
+            lineIndexCount = lineIndices.size();
+            lines = newDirectByteBuffer(lineIndexCount * INT_BYTE_COUNT).asIntBuffer();
+            for (int i : lineIndices) {
+                lines.put(i);
+            }
+            lines.rewind();
+        }
+
+        private NeuronGeometry(NeuronGeometry original, FloatBuffer vertices) {
+            this.vertices = vertices;
+            this.colors = original.colors;
+            this.points = original.points;
+            this.lines = original.lines;
+            this.vertexCount = original.vertexCount;
+            this.lineIndexCount = original.lineIndexCount;
+            this.anchorIndices = original.anchorIndices;
+            this.fingerprint = original.fingerprint;
+            this.provisional = true;
+        }
+
+        /**
+         * A summary of everything the buffer data depend on, to tell which
+         * neurons changed without building their data.
+         */
+        static long fingerprint(List<AnchorSnapshot> anchors, Map<SegmentIndex, TracedPathActor> tracedSegments, float[] color) {
+            long hash = Arrays.hashCode(color);
+            if (tracedSegments != null) {
+                hash = 31 * hash + tracedSegments.keySet().hashCode();
+            }
+            for (AnchorSnapshot anchor : anchors) {
+                // the anchor itself, since anchorIndices is keyed by it
+                hash = 31 * hash + System.identityHashCode(anchor.anchor);
+                hash = 31 * hash + Double.doubleToLongBits(anchor.x);
+                hash = 31 * hash + Double.doubleToLongBits(anchor.y);
+                hash = 31 * hash + Double.doubleToLongBits(anchor.z);
+                hash = 31 * hash + anchor.neighborGuids.hashCode();
+            }
+            return hash;
+        }
+
+        boolean matches(long fingerprint) {
+            return !provisional && this.fingerprint == fingerprint;
+        }
+
+        NeuronGeometry withVertex(int index, float[] xyz) {
+            FloatBuffer movedVertices = newDirectByteBuffer(vertexCount * FLOAT_BYTE_COUNT * VERTEX_FLOAT_COUNT).asFloatBuffer();
+            movedVertices.put(vertices.duplicate());
+            for (int i = 0; i < VERTEX_FLOAT_COUNT; ++i) {
+                movedVertices.put(index * VERTEX_FLOAT_COUNT + i, xyz[i]);
+            }
+            movedVertices.rewind();
+            return new NeuronGeometry(this, movedVertices);
+        }
+    }
+
+    // Where each drawn neuron is in the buffers, and the offsets to draw it with
+    private static class BufferLayout {
+        static final BufferLayout EMPTY = new BufferLayout(Collections.<Long, Slice>emptyMap(),
+                Collections.<Long, NeuronGeometry>emptyMap(), 0, 0, 0, 0);
+
+        private final Map<Long, Slice> slices;
+        private final int vertexCapacity;
+        private final int lineCapacity;
+        // first vertex and line index not in any slice
+        private final int vertexEnd;
+        private final int lineEnd;
+
+        private final List<ElementDataOffset> vertexOffsets = new ArrayList<>();
+        private final List<ElementDataOffset> colorOffsets = new ArrayList<>();
+        private final List<ElementDataOffset> lineOffsets = new ArrayList<>();
+        private final List<ElementDataOffset> pointOffsets = new ArrayList<>();
+        private final Map<Long, ElementDataOffset> vertexOffsetMap = new HashMap<>();
+        private final Map<Long, ElementDataOffset> colorOffsetMap = new HashMap<>();
+
+        BufferLayout(Map<Long, Slice> slices, Map<Long, NeuronGeometry> geometries,
+                int vertexCapacity, int lineCapacity, int vertexEnd, int lineEnd) {
+            this.slices = slices;
+            this.vertexCapacity = vertexCapacity;
+            this.lineCapacity = lineCapacity;
+            this.vertexEnd = vertexEnd;
+            this.lineEnd = lineEnd;
+            for (Map.Entry<Long, Slice> entry : slices.entrySet()) {
+                Long neuronID = entry.getKey();
+                Slice slice = entry.getValue();
+                NeuronGeometry geometry = geometries.get(neuronID);
+
+                ElementDataOffset vertexOffset = new ElementDataOffset(neuronID,
+                        geometry.vertexCount * FLOAT_BYTE_COUNT * VERTEX_FLOAT_COUNT,
+                        (long) slice.vertexStart * FLOAT_BYTE_COUNT * VERTEX_FLOAT_COUNT);
+                vertexOffsets.add(vertexOffset);
+                vertexOffsetMap.put(neuronID, vertexOffset);
+
+                ElementDataOffset colorOffset = new ElementDataOffset(neuronID,
+                        geometry.vertexCount * FLOAT_BYTE_COUNT * COLOR_FLOAT_COUNT,
+                        (long) slice.vertexStart * FLOAT_BYTE_COUNT * COLOR_FLOAT_COUNT);
+                colorOffsets.add(colorOffset);
+                colorOffsetMap.put(neuronID, colorOffset);
+
+                lineOffsets.add(new ElementDataOffset(neuronID,
+                        geometry.lineIndexCount * INT_BYTE_COUNT,
+                        (long) slice.lineStart * INT_BYTE_COUNT));
+                pointOffsets.add(new ElementDataOffset(neuronID,
+                        geometry.vertexCount * INT_BYTE_COUNT,
+                        (long) slice.vertexStart * INT_BYTE_COUNT));
+            }
+        }
+    }
+
+    /**
+     * Changes to the skeleton buffers, for the GL thread to upload: either
+     * whole new buffers, or slices of the existing ones, or both.
+     */
+    public static class BufferUpdate {
+        private final BufferLayout layout;
+        // new buffers, or null if the existing ones are patched
+        private final FloatBuffer vertexBuffer;
+        private final FloatBuffer colorBuffer;
+        private final IntBuffer lineBuffer;
+        private final IntBuffer pointBuffer;
+        // neurons to rewrite in their slices, after uploading any new buffers
+        private final Map<Long, NeuronGeometry> patches;
+
+        private BufferUpdate(BufferLayout layout, FloatBuffer vertexBuffer, FloatBuffer colorBuffer,
+                IntBuffer lineBuffer, IntBuffer pointBuffer, Map<Long, NeuronGeometry> patches) {
+            this.layout = layout;
+            this.vertexBuffer = vertexBuffer;
+            this.colorBuffer = colorBuffer;
+            this.lineBuffer = lineBuffer;
+            this.pointBuffer = pointBuffer;
+            this.patches = patches;
+        }
+
+        // an update the GL thread has not taken yet is combined with the next one
+        private BufferUpdate followedBy(BufferUpdate next) {
+            if (next.isNewBuffers()) {
+                return next;
+            }
+            Map<Long, NeuronGeometry> combinedPatches = new LinkedHashMap<>(patches);
+            combinedPatches.putAll(next.patches);
+            return new BufferUpdate(next.layout, vertexBuffer, colorBuffer, lineBuffer, pointBuffer, combinedPatches);
+        }
+
+        /**
+         * @return whether the buffers must be reallocated with the new
+         * contents; their capacity may differ from the old buffers
+         */
+        public boolean isNewBuffers() {
+            return vertexBuffer != null;
+        }
+
+        public FloatBuffer getVertexBuffer() { return vertexBuffer.duplicate(); }
+        public FloatBuffer getColorBuffer() { return colorBuffer.duplicate(); }
+        public IntBuffer getLineBuffer() { return lineBuffer.duplicate(); }
+        public IntBuffer getPointBuffer() { return pointBuffer.duplicate(); }
+
+        /**
+         * @return slices to rewrite within the buffers
+         */
+        public List<BufferPatch> getPatches() {
+            List<BufferPatch> result = new ArrayList<>();
+            for (Map.Entry<Long, NeuronGeometry> entry : patches.entrySet()) {
+                Slice slice = layout.slices.get(entry.getKey());
+                if (slice != null) { // not hidden or deleted since
+                    result.add(new BufferPatch(slice, entry.getValue()));
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * New data for one neuron's slice of the buffers; offsets are in bytes.
+     */
+    public static class BufferPatch {
+        private final Slice slice;
+        private final NeuronGeometry geometry;
+
+        private BufferPatch(Slice slice, NeuronGeometry geometry) {
+            this.slice = slice;
+            this.geometry = geometry;
+        }
+
+        public long getVertexOffset() { return (long) slice.vertexStart * FLOAT_BYTE_COUNT * VERTEX_FLOAT_COUNT; }
+        public FloatBuffer getVertices() { return geometry.vertices.duplicate(); }
+        public long getColorOffset() { return (long) slice.vertexStart * FLOAT_BYTE_COUNT * COLOR_FLOAT_COUNT; }
+        public FloatBuffer getColors() { return geometry.colors.duplicate(); }
+        public long getPointOffset() { return (long) slice.vertexStart * INT_BYTE_COUNT; }
+        public IntBuffer getPoints() { return geometry.points.duplicate(); }
+        public long getLineOffset() { return (long) slice.lineStart * INT_BYTE_COUNT; }
+        public IntBuffer getLines() { return geometry.lines.duplicate(); }
+    }
  }
@@ -132,6 +132,8 @@ public class SkeletonController implements NextParentListener {
     @Subscribe
     public void workspaceNeuronsLoaded(LoadNeuronsEvent event) {
         TmWorkspace workspace = event.getWorkspace();
+        // neurons may have been shown as they arrived
+        clearAnchors();
         loadWorkspaceNeurons(workspace);
     }
 
@@ -162,6 +164,16 @@ public class SkeletonController implements NextParentListener {
     // -------------------- neuron-level events
     @Subscribe
     public void neuronCreated(NeuronCreateEvent event) {
+        if (event instanceof NeuronLoadBatchEvent) {
+            // a batch of a workspace being loaded; update the skeleton once for all of them
+            setSkipSkeletonChange(true);
+            for (TmNeuronMetadata neuron: event.getNeurons()) {
+                processNeuronCreated(neuron);
+            }
+            skeletonChanged(true);
+            setSkipSkeletonChange(false);
+            return;
+        }
         for (TmNeuronMetadata neuron: event.getNeurons()) {
             log.info("neuronCreated: {}", neuron);
             processNeuronCreated(neuron);
@@ -170,10 +182,8 @@ public class SkeletonController implements NextParentListener {
 
     @Subscribe
     public void neuronDeleted(NeuronDeleteEvent event) {
-        Collection<TmNeuronMetadata> neurons = event.getNeurons();
-        // should never be empty, but check anyway:
-        if (!neurons.isEmpty()) {
-            TmNeuronMetadata neuron = neurons.iterator().next();
+        // remote deletes arrive in batches of several neurons
+        for (TmNeuronMetadata neuron: event.getNeurons()) {
             processNeuronDeleted(neuron);
         }
     }
@@ -181,10 +191,7 @@ public class SkeletonController implements NextParentListener {
     @Subscribe
     public void neuronChanged(NeuronUpdateEvent event) {
         Collection<TmNeuronMetadata> neurons = event.getNeurons();
-        TmNeuronMetadata neuron=null;
-        if (neurons!=null && !neurons.isEmpty()) {
-            neuron = neurons.iterator().next();
-        } else {
+        if (neurons==null || neurons.isEmpty()) {
             return;
         }
 
@@ -195,9 +202,11 @@ public class SkeletonController implements NextParentListener {
 
 
 
-        processNeuronDeleted(neuron);
+        for (TmNeuronMetadata neuron: neurons) {
+            processNeuronDeleted(neuron);
+        }
         NeuronCreateEvent nce = new NeuronCreateEvent(this,
-                event.getNeurons());
+                neurons);
         neuronCreated(nce);
 
         // see above; don't know how to get next parent yet
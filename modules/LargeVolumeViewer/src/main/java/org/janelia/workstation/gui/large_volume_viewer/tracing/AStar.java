@@ -1,26 +1,37 @@
 package org.janelia.workstation.gui.large_volume_viewer.tracing;
 
 import java.nio.ByteBuffer;
-import java.nio.ShortBuffer;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.Vector;
 import org.janelia.workstation.controller.tileimagery.Subvolume;
 import org.janelia.workstation.octree.ZoomLevel;
 import org.janelia.workstation.octree.ZoomedVoxelIndex;
 
 import com.google.common.collect.Lists;
+import org.janelia.workstation.controller.tileimagery.raster.RasterSubvolume;
+import org.janelia.workstation.controller.tileimagery.raster.RasterVolume;
 import org.janelia.workstation.controller.tileimagery.raster.VoxelIndex;
+import org.janelia.workstation.controller.tileimagery.raster.VoxelNeighborhood;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Maybe implement my own version of AStar.
  * http://en.wikipedia.org/wiki/A*_search_algorithm
- * 
+ *
+ * Search state lives in flat primitive arrays indexed by the linear voxel
+ * offset inside the subvolume (x fastest, then y, then z), and the open set
+ * is a binary min-heap with decrease-key.  Path step costs come from a
+ * lookup table with one entry per intensity value.  No objects are allocated
+ * per expanded voxel.
+ *
+ * Besides the classic single goal search, the tracer can search from both
+ * ends at once (meeting in the middle), or toward the cheapest of several
+ * goals in a single pass.  A trace can be cancelled from another thread, and
+ * statistics for the most recent trace are available from getStatistics().
+ *
  * @author brunsc
  *
  * TODO - store log(probability), not probability
@@ -31,41 +42,116 @@ public class AStar {
         MANHATTAN,
     }
     private DistanceMetric distanceMetric = DistanceMetric.EUCLIDEAN;
-    
+
     // How many neighbors to examine for each voxel?
-    // TODO - not implemented yet
     enum NeighborClass {
         SIX_CONNECTED,
         // EIGHTEEN_CONNECTED, // I don't have all day here...
         TWENTYSIX_CONNECTED,
     }
     private NeighborClass neighborClass = NeighborClass.TWENTYSIX_CONNECTED;
-    
+
+    /**
+     * How a trace explores the volume.
+     */
+    public enum SearchMode {
+        // from the start toward a single goal
+        UNIDIRECTIONAL,
+        // from both ends at once, meeting in the middle
+        BIDIRECTIONAL,
+        // from the start toward whichever of several goals is cheapest to reach
+        NEAREST_GOAL,
+    }
+
     private boolean debug = false;
     // Cached values
     // stepCostLowerBound has a dramatic effect on performance 9-25-2013
     // Numbers larger than <some small amount> take more time and cause more nodes to be explored.
     // Non-zero values prevent meandering path.
     private final double stepCostLowerBound = 1e-60;
-    
+
+    // heap position markers for voxels that are not in the open set
+    private static final int NOT_VISITED = -1;
+    private static final int CLOSED = -2;
+
+    // how many expansions between checks of the clock and the cancel flag
+    private static final int CHECK_INTERVAL = 4096;
+
     private double minStepCost = Double.NaN; // will be set from volume statistics
-    private Subvolume volume;
-    private Map<Integer, Double> pathCostForIntensity = new HashMap<Integer, Double>();
     private double meanIntensity = Double.NaN;
     private double stdDevIntensity = Double.NaN;
+    // path step cost for every possible intensity value
+    private double[] pathCostForIntensity;
     // In case of anisotropic voxel size
     private double voxelSizeX = 1.0;
     private double voxelSizeY = 1.0;
     private double voxelSizeZ = 1.0;
-    Map<VoxelIndex, Node> allNodes = new HashMap<VoxelIndex, Node>();
+
+    // Raster geometry
+    private final ZoomedVoxelIndex origin;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final int sliceSize;
+    private final int voxelCount;
+    private final RasterVolume raster;
+    // channel zero intensities, unsigned, indexed by linear voxel offset
+    private final char[] intensities;
+
+    // Neighbor tables, rebuilt whenever the voxel size or connectivity changes
+    private int[] neighborDx;
+    private int[] neighborDy;
+    private int[] neighborDz;
+    private int[] neighborOffset;
+    private double[] neighborDistance;
+
+    // Per-trace search state; allocated on first use and reused afterwards
+    private SearchFront forward;
+    private SearchFront backward;
+    private volatile boolean cancelled = false;
+    private long expandedVoxelCount;
+    private long traceStartTime;
+    private PathTraceStatistics statistics;
+    // best complete path found so far by a bidirectional trace, and the
+    // voxel where the two searches met along it
+    private double bestMeetingCost;
+    private int meetingVoxel;
 
     private static final Logger log = LoggerFactory.getLogger(AStar.class);
 
     public AStar(Subvolume volume) {
-        this.volume = volume;
+        this(volume.getRaster(), volume.getOrigin());
+    }
+
+    /**
+     * Trace directly on a raw raster, with the color channel as the fastest
+     * moving dimension, followed by x, y and z.
+     */
+    AStar(ByteBuffer intensityBytes,
+          int bytesPerIntensity,
+          int channelCount,
+          VoxelIndex extent,
+          ZoomedVoxelIndex origin) {
+        this(RasterSubvolume.wrap(intensityBytes, bytesPerIntensity, channelCount, extent,
+                new VoxelIndex(origin.getX(), origin.getY(), origin.getZ())),
+                origin);
+    }
+
+    public AStar(RasterVolume raster, ZoomedVoxelIndex origin) {
+        this.raster = raster;
+        this.origin = origin;
+        VoxelIndex extent = raster.getVolumeSizeInVoxels();
+        this.sizeX = extent.getX();
+        this.sizeY = extent.getY();
+        this.sizeZ = extent.getZ();
+        this.sliceSize = sizeX * sizeY;
+        this.voxelCount = sliceSize * sizeZ;
+        this.intensities = new char[voxelCount];
+        raster.forEachIntensity(0, (voxel, intensity) -> intensities[voxel] = (char) intensity);
         computeIntensityStats();
+        buildNeighborTables();
     }
-    
+
     public void setVoxelSizes(double[] sizes) {
         setVoxelSizes(sizes[0], sizes[1], sizes[2]);
     }
@@ -73,105 +159,312 @@ public class AStar {
         voxelSizeX = xSize;
         voxelSizeY = ySize;
         voxelSizeZ = zSize;
+        buildNeighborTables();
+    }
+
+    /**
+     * Ask a running trace to stop as soon as possible; it will return null.
+     * A cancel that arrives before the trace starts stops it right away.
+     * Safe to call from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Clear an earlier cancel, so that this tracer can be used for another trace.
+     */
+    public void reset() {
+        cancelled = false;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
     }
-    
+
+    /**
+     * @return number of voxels moved to the closed set by the most recent trace
+     */
+    public long getExpandedVoxelCount() {
+        return expandedVoxelCount;
+    }
+
+    /**
+     * @return statistics for the most recent trace, or null if none has run
+     */
+    public PathTraceStatistics getStatistics() {
+        return statistics;
+    }
+
     public List<ZoomedVoxelIndex> trace(
             ZoomedVoxelIndex start0,
             ZoomedVoxelIndex goal0,
             double timout)
     {
-        Node start = getNode(new VoxelIndex(
-                start0.getX() - volume.getOrigin().getX(), 
-                start0.getY() - volume.getOrigin().getY(), 
-                start0.getZ() - volume.getOrigin().getZ()));
-        Node goal = getNode(new VoxelIndex(
-                goal0.getX() - volume.getOrigin().getX(), 
-                goal0.getY() - volume.getOrigin().getY(), 
-                goal0.getZ() - volume.getOrigin().getZ()));
-        // 
-        // The set of nodes already evaluated
-        Set<Node> closedSet = new HashSet<Node>();
-        // The set of tentative nodes to be evaluated, initially containing the start node.
-        Set<Node> openSet = new HashSet<Node>();
-        openSet.add(start);
-        // The map of navigated nodes
-        // Map<VoxelIndex, VoxelIndex> cameFrom = new HashMap<VoxelIndex, VoxelIndex>();
-        // Cost from start along best known path
-        // Map<VoxelIndex, Double> gScore = new HashMap<VoxelIndex, Double>();
-        // Map<VoxelIndex, Double> fScore = new HashMap<VoxelIndex, Double>();
-        //
-        start.gScore = 0.0;
-        start.fScore = start.gScore + heuristicCostEstimate(start.index, goal.index);
-
-        long startTime = System.currentTimeMillis();
+        return traceToNearest(start0, Collections.singletonList(goal0), timout, SearchMode.UNIDIRECTIONAL);
+    }
+
+    /**
+     * Trace from the start toward whichever goal is cheapest to reach, in a
+     * single pass.  The returned path ends at the goal that was reached.
+     */
+    public List<ZoomedVoxelIndex> traceToNearest(
+            ZoomedVoxelIndex start0,
+            List<ZoomedVoxelIndex> goals0,
+            double timout)
+    {
+        return traceToNearest(start0, goals0, timout, SearchMode.NEAREST_GOAL);
+    }
+
+    private List<ZoomedVoxelIndex> traceToNearest(
+            ZoomedVoxelIndex start0,
+            List<ZoomedVoxelIndex> goals0,
+            double timout,
+            SearchMode mode)
+    {
+        beginTrace();
+        if (shouldStop(mode, timout))
+            return null;
+        int start = localIndex(start0);
+        int[] goals = new int[goals0.size()];
+        int goalCount = 0;
+        for (ZoomedVoxelIndex goal0 : goals0) {
+            int goal = localIndex(goal0);
+            if (goal >= 0)
+                goals[goalCount++] = goal;
+        }
+        if (start < 0 || goalCount == 0) {
+            log.warn("A-star trace endpoints {} and {} are outside the subvolume", start0, goals0);
+            finishTrace(mode, PathTraceStatistics.Outcome.NOT_FOUND, Double.NaN, 0);
+            return null;
+        }
+        goals = Arrays.copyOf(goals, goalCount);
+
+        if (forward == null)
+            forward = new SearchFront(voxelCount);
+        forward.reset();
+        forward.targets(goals);
+        forward.gScore[start] = 0.0;
+        forward.insert(start, forward.heuristic(start));
+
         long checkedVoxelCount = 0;
-        while (openSet.size() > 0) {
+        while (!forward.isEmpty()) {
             // Get node with lowest fScore in openSet
-            // TODO - perhaps a sorted list could be maintained, to avoid 
-            // exhaustive search each time.
-            Node current = null;
-            for (Node n : openSet) {
-                if (current == null) {
-                    current = n;
-                    continue;
-                }
-                if (n.fScore < current.fScore)
-                    current = n;
-            }
-            if (current.equals(goal)) {
+            int current = forward.peek();
+            if (forward.isTarget(current)) {
                 if (debug) {
                     System.out.println("Examined "+checkedVoxelCount+" voxels");
                 }
-                return reconstructPath(start, goal, start0.getZoomLevel());
+                List<ZoomedVoxelIndex> path = reconstructPath(start, current, start0.getZoomLevel());
+                finishTrace(mode, PathTraceStatistics.Outcome.FOUND, forward.gScore[current], path.size());
+                return path;
             }
-            // Remove current from openSet
-            openSet.remove(current);
-            closedSet.add(current);
+            expand(forward, null, true);
             checkedVoxelCount += 1;
             if (debug && checkedVoxelCount % 10000 == 0)
                 System.out.println("Examined "+checkedVoxelCount+" voxels");
-            // check timeout; quick tests suggest about 5k/sec, so this ought to
-            //  be more than sensitive enough
-            if (checkedVoxelCount % 1000 == 0) {
-                if (System.currentTimeMillis() - startTime > timout * 1000) {
-                    if (debug) {
-                        System.out.println("A-star tracing timed out");
-                        System.out.println("Examined "+checkedVoxelCount+" voxels");
-                    }
-                    log.warn("A-star tracing timed out, " + checkedVoxelCount + " voxels examined");
-                    return null;
-                }
-            }
-            for (VoxelIndex neighborIndex : getNeighbors(current.index))
-            {
-                Node neighbor = getNode(neighborIndex);
-                double tentativeGScore = current.gScore
-                        + distanceBetween(current.index, neighbor.index);
-                if ( closedSet.contains(neighbor)
-                       && (tentativeGScore >= neighbor.gScore ) ) {
+            if (checkedVoxelCount % CHECK_INTERVAL == 0 && shouldStop(mode, timout))
+                return null;
+        }
+        finishTrace(mode, PathTraceStatistics.Outcome.NOT_FOUND, Double.NaN, 0);
+        return null;
+    }
+
+    /**
+     * Trace from both ends at once.  On long gaps this explores far fewer
+     * voxels than a one-sided search, which wanders through a wide cone
+     * behind the goal before reaching it.
+     */
+    public List<ZoomedVoxelIndex> traceBidirectional(
+            ZoomedVoxelIndex start0,
+            ZoomedVoxelIndex goal0,
+            double timout)
+    {
+        beginTrace();
+        if (shouldStop(SearchMode.BIDIRECTIONAL, timout))
+            return null;
+        int start = localIndex(start0);
+        int goal = localIndex(goal0);
+        if (start < 0 || goal < 0) {
+            log.warn("A-star trace endpoints {} and {} are outside the subvolume", start0, goal0);
+            finishTrace(SearchMode.BIDIRECTIONAL, PathTraceStatistics.Outcome.NOT_FOUND, Double.NaN, 0);
+            return null;
+        }
+        if (forward == null)
+            forward = new SearchFront(voxelCount);
+        if (backward == null)
+            backward = new SearchFront(voxelCount);
+        forward.reset();
+        forward.targets(new int[] {goal});
+        backward.reset();
+        backward.targets(new int[] {start});
+        forward.gScore[start] = 0.0;
+        forward.insert(start, forward.heuristic(start));
+        backward.gScore[goal] = 0.0;
+        backward.insert(goal, backward.heuristic(goal));
+
+        bestMeetingCost = start == goal ? 0.0 : Double.POSITIVE_INFINITY;
+        meetingVoxel = start;
+
+        long checkedVoxelCount = 0;
+        while (!forward.isEmpty() && !backward.isEmpty()) {
+            // No unexplored path can beat the best meeting once either
+            // frontier's lowest estimate reaches it.
+            if (bestMeetingCost <= Math.max(forward.peekKey(), backward.peekKey()))
+                break;
+            // Grow the smaller frontier, to keep the two searches balanced
+            if (forward.size() <= backward.size())
+                expand(forward, backward, true);
+            else
+                expand(backward, forward, false);
+            checkedVoxelCount += 1;
+            if (checkedVoxelCount % CHECK_INTERVAL == 0 && shouldStop(SearchMode.BIDIRECTIONAL, timout))
+                return null;
+        }
+        if (bestMeetingCost == Double.POSITIVE_INFINITY) {
+            finishTrace(SearchMode.BIDIRECTIONAL, PathTraceStatistics.Outcome.NOT_FOUND, Double.NaN, 0);
+            return null;
+        }
+        List<ZoomedVoxelIndex> path = reconstructPath(start, meetingVoxel, start0.getZoomLevel());
+        for (int p = meetingVoxel; p != goal; ) {
+            p = backward.cameFrom[p];
+            path.add(zoomedVoxelIndex(start0.getZoomLevel(), p));
+        }
+        finishTrace(SearchMode.BIDIRECTIONAL, PathTraceStatistics.Outcome.FOUND, bestMeetingCost, path.size());
+        return path;
+    }
+
+    /**
+     * Close the lowest cost voxel of one search front and relax its
+     * neighbors.  The forward front steps onto neighbors and pays for the
+     * neighbor's intensity; the backward front walks edges in reverse, so it
+     * pays for the intensity of the voxel being expanded.  When other is
+     * non-null, neighbors already reached by the other front are checked for
+     * a cheaper meeting point.
+     */
+    private void expand(SearchFront front, SearchFront other, boolean isForward) {
+        final int current = front.poll();
+        front.heapPosition[current] = CLOSED;
+        expandedVoxelCount++;
+        final int cz = current / sliceSize;
+        final int cy = (current - cz * sliceSize) / sizeX;
+        final int cx = current - cz * sliceSize - cy * sizeX;
+        // interior voxels need no per-neighbor bounds checks
+        final boolean interior = cx > 0 && cy > 0 && cz > 0
+                && cx < sizeX - 1 && cy < sizeY - 1 && cz < sizeZ - 1;
+        final double currentG = front.gScore[current];
+        final double currentCost = pathCostForIntensity[intensities[current]];
+        final double[] gScore = front.gScore;
+        final int[] heapPosition = front.heapPosition;
+        final int neighborCount = neighborOffset.length;
+        for (int n = 0; n < neighborCount; ++n) {
+            if (!interior) {
+                int nx = cx + neighborDx[n];
+                int ny = cy + neighborDy[n];
+                int nz = cz + neighborDz[n];
+                if (nx < 0 || ny < 0 || nz < 0
+                        || nx >= sizeX || ny >= sizeY || nz >= sizeZ)
                     continue;
-                }
-                if ( (! openSet.contains(neighbor)) 
-                       || (tentativeGScore < neighbor.gScore) )
-                {
-                    neighbor.cameFrom = current;
-                    neighbor.gScore = tentativeGScore;
-                    neighbor.fScore = neighbor.gScore + heuristicCostEstimate(neighbor.index, goal.index);
-                    openSet.add(neighbor);
+            }
+            int neighbor = current + neighborOffset[n];
+            int position = heapPosition[neighbor];
+            if (position == CLOSED)
+                continue;
+            // Set distance to cost of second node.
+            double stepCost = isForward ? pathCostForIntensity[intensities[neighbor]] : currentCost;
+            double tentativeGScore = currentG + stepCost * neighborDistance[n];
+            if (position == NOT_VISITED) {
+                front.cameFrom[neighbor] = current;
+                gScore[neighbor] = tentativeGScore;
+                front.insert(neighbor, tentativeGScore + front.heuristic(neighbor));
+            }
+            else if (tentativeGScore < gScore[neighbor]) {
+                // heuristic part of the key is unchanged
+                double improvement = gScore[neighbor] - tentativeGScore;
+                front.cameFrom[neighbor] = current;
+                gScore[neighbor] = tentativeGScore;
+                front.decreaseKey(position, front.heapKey[position] - improvement);
+            }
+            else {
+                continue;
+            }
+            if (other != null && other.heapPosition[neighbor] != NOT_VISITED) {
+                double meetingCost = tentativeGScore + other.gScore[neighbor];
+                if (meetingCost < bestMeetingCost) {
+                    bestMeetingCost = meetingCost;
+                    meetingVoxel = neighbor;
                 }
             }
         }
-        return null;
     }
-    
-    private double distanceBetween(VoxelIndex current, VoxelIndex neighbor) {
-        // Set distance to cost of second node.
-        int intensity = volume.getIntensityLocal(neighbor, 0);
-        double pathScore = getPathStepCostForIntensity(intensity);
-        // Use Manhattan distance, and prohibit diagonal moves (for performance)
-        double dx = (current.getX() - neighbor.getX()) * voxelSizeX;
-        double dy = (current.getY() - neighbor.getY()) * voxelSizeY;
-        double dz = (current.getZ() - neighbor.getZ()) * voxelSizeZ;
+
+    private void beginTrace() {
+        expandedVoxelCount = 0;
+        traceStartTime = System.currentTimeMillis();
+        statistics = null;
+    }
+
+    private void finishTrace(SearchMode mode, PathTraceStatistics.Outcome outcome, double pathCost, int pathLength) {
+        statistics = new PathTraceStatistics(mode, outcome, expandedVoxelCount,
+                System.currentTimeMillis() - traceStartTime, pathCost, pathLength);
+    }
+
+    // check timeout and cancellation; true if the trace must be abandoned
+    private boolean shouldStop(SearchMode mode, double timout) {
+        if (cancelled) {
+            log.info("A-star tracing cancelled, " + expandedVoxelCount + " voxels examined");
+            finishTrace(mode, PathTraceStatistics.Outcome.CANCELLED, Double.NaN, 0);
+            return true;
+        }
+        if (System.currentTimeMillis() - traceStartTime > timout * 1000) {
+            if (debug) {
+                System.out.println("A-star tracing timed out");
+                System.out.println("Examined "+expandedVoxelCount+" voxels");
+            }
+            log.warn("A-star tracing timed out, " + expandedVoxelCount + " voxels examined");
+            finishTrace(mode, PathTraceStatistics.Outcome.TIMED_OUT, Double.NaN, 0);
+            return true;
+        }
+        return false;
+    }
+
+    private int localIndex(ZoomedVoxelIndex index) {
+        return linearIndex(
+                index.getX() - origin.getX(),
+                index.getY() - origin.getY(),
+                index.getZ() - origin.getZ());
+    }
+
+    private int linearIndex(int x, int y, int z) {
+        if (x < 0 || y < 0 || z < 0 || x >= sizeX || y >= sizeY || z >= sizeZ)
+            return -1;
+        return x + y * sizeX + z * sliceSize;
+    }
+
+    private void buildNeighborTables() {
+        VoxelNeighborhood neighborhood = new VoxelNeighborhood(raster.getVolumeSizeInVoxels(),
+                neighborClass == NeighborClass.SIX_CONNECTED
+                        ? VoxelNeighborhood.Connectivity.SIX // For performance, don't step to diagonals
+                        : VoxelNeighborhood.Connectivity.TWENTY_SIX);
+        int count = neighborhood.size();
+        neighborDx = new int[count];
+        neighborDy = new int[count];
+        neighborDz = new int[count];
+        neighborOffset = new int[count];
+        neighborDistance = new double[count];
+        for (int n = 0; n < count; ++n) {
+            int dx = neighborhood.getDx(n);
+            int dy = neighborhood.getDy(n);
+            int dz = neighborhood.getDz(n);
+            neighborDx[n] = dx;
+            neighborDy[n] = dy;
+            neighborDz[n] = dz;
+            neighborOffset[n] = neighborhood.getOffset(n);
+            neighborDistance[n] = distance(dx * voxelSizeX, dy * voxelSizeY, dz * voxelSizeZ);
+        }
+    }
+
+    private double distance(double dx, double dy, double dz) {
         double distance = 0;
         if (distanceMetric == DistanceMetric.MANHATTAN) {
             distance += Math.abs(dx);
@@ -180,139 +473,66 @@ public class AStar {
         } else if (distanceMetric == DistanceMetric.EUCLIDEAN) {
             distance = Math.sqrt(dx*dx + dy*dy + dz*dz);
         }
-        return pathScore * distance;
-    }
-    
-    private List<VoxelIndex> getNeighbors(VoxelIndex center) {
-        // For performance, don't step to diagonals
-        // Thus, up to six neighbors in 3D
-        List<VoxelIndex> result = new Vector<VoxelIndex>();
-        //
-        if (neighborClass == NeighborClass.SIX_CONNECTED) {
-            if (center.getX() > 0)
-                result.add(new VoxelIndex(center.getX()-1, center.getY(), center.getZ()));
-            if (center.getY() > 0)
-                result.add(new VoxelIndex(center.getX(), center.getY()-1, center.getZ()));
-            if (center.getZ() > 0)
-                result.add(new VoxelIndex(center.getX(), center.getY(), center.getZ()-1));
-            //
-            if (center.getX() < volume.getExtent().getX() - 1)
-                result.add(new VoxelIndex(center.getX()+1, center.getY(), center.getZ()));
-            if (center.getX() < volume.getExtent().getY() - 1)
-                result.add(new VoxelIndex(center.getX(), center.getY()+1, center.getZ()));
-            if (center.getX() < volume.getExtent().getZ() - 1)
-                result.add(new VoxelIndex(center.getX(), center.getY(), center.getZ()+1));
-        }
-        else if (neighborClass == NeighborClass.TWENTYSIX_CONNECTED) {            
-            for (int dx = -1; dx <= 1; ++dx) {
-                int x = center.getX() + dx;
-                if (x < 0) continue;
-                if (x >= volume.getExtent().getX() - 1) continue;
-                for (int dy = -1; dy <= 1; ++dy) {
-                    int y = center.getY() + dy;
-                    if (y < 0) continue;
-                    if (y >= volume.getExtent().getY() - 1) continue;
-                    for (int dz = -1; dz <= 1; ++dz) {
-                        if ((dx == 0) && (dy == 0) && (dz == 0)) 
-                            continue; // self is not a neighbor
-                        int z = center.getZ() + dz;
-                        if (z < 0) continue;
-                        if (z >= volume.getExtent().getZ() - 1) continue;
-                        result.add(new VoxelIndex(x, y, z));
-                    }
-                }
-            }
-        }
-        //
-        return result;
-    }
-    
-    private Node getNode(VoxelIndex index) {
-        if (! allNodes.containsKey(index))
-            allNodes.put(index, new Node(index));
-        return allNodes.get(index);
+        return distance;
     }
-    
+
+    // forward path from start to end, inclusive
     private List<ZoomedVoxelIndex> reconstructPath(
-            Node start,
-            Node goal,
-            ZoomLevel zoomLevel) 
+            int start,
+            int end,
+            ZoomLevel zoomLevel)
     {
-        List<ZoomedVoxelIndex> result = new Vector<ZoomedVoxelIndex>();
-        Node p = goal;
-        while (! p.equals(start)) {
-            result.add(new ZoomedVoxelIndex(zoomLevel, 
-                    p.index.getX() + volume.getOrigin().getX(), 
-                    p.index.getY() + volume.getOrigin().getY(), 
-                    p.index.getZ() + volume.getOrigin().getZ()));
-            p = p.cameFrom;
-        }
-        result.add(new ZoomedVoxelIndex(zoomLevel, 
-                start.index.getX() + volume.getOrigin().getX(), 
-                start.index.getY() + volume.getOrigin().getY(), 
-                start.index.getZ() + volume.getOrigin().getZ()));
-        return Lists.reverse(result);
+        List<ZoomedVoxelIndex> result = new ArrayList<ZoomedVoxelIndex>();
+        int p = end;
+        while (p != start) {
+            result.add(zoomedVoxelIndex(zoomLevel, p));
+            p = forward.cameFrom[p];
+        }
+        result.add(zoomedVoxelIndex(zoomLevel, start));
+        return new ArrayList<ZoomedVoxelIndex>(Lists.reverse(result));
+    }
+
+    private ZoomedVoxelIndex zoomedVoxelIndex(ZoomLevel zoomLevel, int voxel) {
+        int z = voxel / sliceSize;
+        int y = (voxel - z * sliceSize) / sizeX;
+        int x = voxel - z * sliceSize - y * sizeX;
+        return new ZoomedVoxelIndex(zoomLevel,
+                x + origin.getX(),
+                y + origin.getY(),
+                z + origin.getZ());
     }
 
     // Compute mean, standard deviation, and minimum path score
     void computeIntensityStats() {
-        double sumIntensity = 0;
-        long intensityCount = 0;
-        int maxIntensity = Integer.MIN_VALUE;
-        ByteBuffer intensityBytes = volume.getByteBuffer();
-        // Mean and min path
-        if (volume.getBytesPerIntensity() == 2) {
-            // two bytes per value ushort
-            ShortBuffer shorts = intensityBytes.asShortBuffer();
-            shorts.rewind();
-            while (shorts.hasRemaining()) {
-                int intensity = shorts.get() & 0xffff;
-                maxIntensity = Math.max(intensity, maxIntensity);
-                sumIntensity += intensity;
-                intensityCount += 1;
-            }
-        }
-        else { // one byte per value ubyte
-            intensityBytes.rewind();
-            while (intensityBytes.hasRemaining()) {
-                int intensity = intensityBytes.get() & 0xff;
-                maxIntensity = Math.max(intensity, maxIntensity);
-                sumIntensity += intensity;
-                intensityCount += 1;
-            }
+        // over every channel, as the statistics always have been
+        IntensityMoments moments = new IntensityMoments();
+        for (int c = 0; c < raster.getChannelCount(); ++c) {
+            raster.forEachIntensity(c, moments::addToMean);
         }
+        long intensityCount = moments.count;
+        int maxIntensity = moments.max;
         meanIntensity = 0.0;
         if (intensityCount > 0)
-            meanIntensity = sumIntensity / (double)intensityCount;
+            meanIntensity = moments.sum / (double)intensityCount;
         // Standard deviation
-        double delta = 0;
-        if (volume.getBytesPerIntensity() == 2) {
-            // two bytes per value ushort
-            ShortBuffer shorts = intensityBytes.asShortBuffer();
-            shorts.rewind();
-            while (shorts.hasRemaining()) {
-                int intensity = shorts.get() & 0xffff;
-                double di = meanIntensity - intensity;
-                delta += di * di;
-            }
-        }
-        else { // one byte per value ubyte
-            intensityBytes.rewind();
-            while (intensityBytes.hasRemaining()) {
-                int intensity = intensityBytes.get() & 0xff;
-                double di = meanIntensity - intensity;
-                delta += di * di;
-            }
+        moments.mean = meanIntensity;
+        for (int c = 0; c < raster.getChannelCount(); ++c) {
+            raster.forEachIntensity(c, moments::addToVariance);
         }
+        double delta = moments.squaredDeviation;
         stdDevIntensity = 1.0;
-        if (intensityCount > 0) 
+        if (intensityCount > 0 && delta > 0)
             stdDevIntensity = Math.sqrt(delta/(double)intensityCount);
-        // minStepCost must be computed AFTER mean/stddev
-        minStepCost = getPathStepCostForIntensity(maxIntensity) 
+        // Path costs must be computed AFTER mean/stddev
+        pathCostForIntensity = new double[maxIntensity + 1];
+        for (int intensity = 0; intensity <= maxIntensity; ++intensity) {
+            pathCostForIntensity[intensity] = getPathStepCostForIntensity(intensity);
+        }
+        minStepCost = pathCostForIntensity[maxIntensity]
                 + stepCostLowerBound
                 ;
     }
-    
+
     // fractional error in math formula less than 1.2 * 10 ^ -7.
     // although subject to catastrophic cancellation when z in very close to 0
     // from Chebyshev fitting formula for erf(z) from Numerical Recipes, 6.2
@@ -323,79 +543,201 @@ public class AStar {
         // use Horner's method
         double result = t * Math.exp( -z*z   -   1.26551223 +
                                             t * ( 1.00002368 +
-                                            t * ( 0.37409196 + 
-                                            t * ( 0.09678418 + 
-                                            t * (-0.18628806 + 
-                                            t * ( 0.27886807 + 
-                                            t * (-1.13520398 + 
-                                            t * ( 1.48851587 + 
-                                            t * (-0.82215223 + 
+                                            t * ( 0.37409196 +
+                                            t * ( 0.09678418 +
+                                            t * (-0.18628806 +
+                                            t * ( 0.27886807 +
+                                            t * (-1.13520398 +
+                                            t * ( 1.48851587 +
+                                            t * (-0.82215223 +
                                             t * ( 0.17087277))))))))));
-        if (z < 0) 
+        if (z < 0)
             result = 2.0 - result;
         return  result;
     }
 
-    // Let path step cost be the probability that this intensity could 
+    // Let path step cost be the probability that this intensity could
     // occur by chance, given the intensity statistics.
     private double getPathStepCostForIntensity(int intensity) {
-        double result;
-        if (pathCostForIntensity.containsKey(intensity))
-            result = pathCostForIntensity.get(intensity);
-        else {
-            double zScore = (intensity - meanIntensity) / stdDevIntensity;
-            // Reduce Z-score by a factor, so we can numerically distinguish more very bright values
-            final double zFudge = 0.80;
-            result = oneMinusErf(zFudge*zScore);
-            // Store computed value for future use
-            pathCostForIntensity.put(intensity, result);
-        }
-        return result;
+        double zScore = (intensity - meanIntensity) / stdDevIntensity;
+        // Reduce Z-score by a factor, so we can numerically distinguish more very bright values
+        final double zFudge = 0.80;
+        return oneMinusErf(zFudge*zScore);
     }
 
     // Must not overestimate actual cost of path to goal
     double heuristicCostEstimate(VoxelIndex v1, VoxelIndex v2) {
-        double dx = (v1.getX() - v2.getX()) * voxelSizeX;
-        double dy = (v1.getY() - v2.getY()) * voxelSizeY;
-        double dz = (v1.getZ() - v2.getZ()) * voxelSizeZ;
-        double distance = 0;
-        if (distanceMetric == DistanceMetric.MANHATTAN) {
-            // Use Manhattan distance, and prohibit diagonal moves (for performance)
-            distance += Math.abs(dx);
-            distance += Math.abs(dy);
-            distance += Math.abs(dz);
-        } else if (distanceMetric == DistanceMetric.EUCLIDEAN) {
-            // TODO - cache the 6? possible distances
-            distance = Math.sqrt(dx*dx + dy*dy + dz*dz);
-        }
-        return distance * minStepCost;
+        return distance(
+                (v1.getX() - v2.getX()) * voxelSizeX,
+                (v1.getY() - v2.getY()) * voxelSizeY,
+                (v1.getZ() - v2.getZ()) * voxelSizeZ) * minStepCost;
     }
-    
-    static class Node {
-        Node(VoxelIndex index) {
-            this.index = index;
+
+    /**
+     * One direction of search: scores, back pointers and an indexed binary
+     * min-heap over voxels, plus the targets its heuristic aims for.
+     */
+    private final class SearchFront {
+        final double[] gScore;
+        final int[] cameFrom;
+        // position of each voxel in the heap, or NOT_VISITED / CLOSED
+        final int[] heapPosition;
+        int[] heap = new int[1024];
+        double[] heapKey = new double[1024];
+        int heapSize;
+        int[] targets;
+        int[] targetX;
+        int[] targetY;
+        int[] targetZ;
+
+        SearchFront(int voxelCount) {
+            gScore = new double[voxelCount];
+            cameFrom = new int[voxelCount];
+            heapPosition = new int[voxelCount];
+        }
+
+        void reset() {
+            Arrays.fill(heapPosition, NOT_VISITED);
+            heapSize = 0;
+        }
+
+        void targets(int[] voxels) {
+            targets = voxels;
+            targetX = new int[voxels.length];
+            targetY = new int[voxels.length];
+            targetZ = new int[voxels.length];
+            for (int i = 0; i < voxels.length; ++i) {
+                targetZ[i] = voxels[i] / sliceSize;
+                targetY[i] = (voxels[i] - targetZ[i] * sliceSize) / sizeX;
+                targetX[i] = voxels[i] - targetZ[i] * sliceSize - targetY[i] * sizeX;
+            }
         }
 
-        @Override
-        public int hashCode() {
-            return index.hashCode();
+        boolean isTarget(int voxel) {
+            for (int target : targets) {
+                if (target == voxel)
+                    return true;
+            }
+            return false;
         }
-        
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            Node other = (Node) obj;
-            return index.equals(other.index);
+
+        // Must not overestimate actual cost of path to the nearest target
+        double heuristic(int voxel) {
+            int z = voxel / sliceSize;
+            int y = (voxel - z * sliceSize) / sizeX;
+            int x = voxel - z * sliceSize - y * sizeX;
+            double best = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < targets.length; ++i) {
+                best = Math.min(best, distance(
+                        (x - targetX[i]) * voxelSizeX,
+                        (y - targetY[i]) * voxelSizeY,
+                        (z - targetZ[i]) * voxelSizeZ));
+            }
+            return best * minStepCost;
         }
 
-        double fScore = Double.NaN;
-        double gScore = Double.NaN;
-        Node cameFrom = null;
-        VoxelIndex index;
+        boolean isEmpty() {
+            return heapSize == 0;
+        }
+
+        int size() {
+            return heapSize;
+        }
+
+        int peek() {
+            return heap[0];
+        }
+
+        double peekKey() {
+            return heapKey[0];
+        }
+
+        void insert(int voxel, double key) {
+            if (heapSize == heap.length) {
+                int newLength = heap.length * 2;
+                heap = Arrays.copyOf(heap, newLength);
+                heapKey = Arrays.copyOf(heapKey, newLength);
+            }
+            heap[heapSize] = voxel;
+            heapKey[heapSize] = key;
+            heapPosition[voxel] = heapSize;
+            heapSize++;
+            siftUp(heapSize - 1);
+        }
+
+        int poll() {
+            int top = heap[0];
+            heapSize--;
+            if (heapSize > 0) {
+                heap[0] = heap[heapSize];
+                heapKey[0] = heapKey[heapSize];
+                heapPosition[heap[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        void decreaseKey(int position, double key) {
+            heapKey[position] = key;
+            siftUp(position);
+        }
+
+        private void siftUp(int position) {
+            int voxel = heap[position];
+            double key = heapKey[position];
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (heapKey[parent] <= key)
+                    break;
+                heap[position] = heap[parent];
+                heapKey[position] = heapKey[parent];
+                heapPosition[heap[position]] = position;
+                position = parent;
+            }
+            heap[position] = voxel;
+            heapKey[position] = key;
+            heapPosition[voxel] = position;
+        }
+
+        private void siftDown(int position) {
+            int voxel = heap[position];
+            double key = heapKey[position];
+            int half = heapSize >>> 1;
+            while (position < half) {
+                int child = 2 * position + 1;
+                int right = child + 1;
+                if (right < heapSize && heapKey[right] < heapKey[child])
+                    child = right;
+                if (key <= heapKey[child])
+                    break;
+                heap[position] = heap[child];
+                heapKey[position] = heapKey[child];
+                heapPosition[heap[position]] = position;
+                position = child;
+            }
+            heap[position] = voxel;
+            heapKey[position] = key;
+            heapPosition[voxel] = position;
+        }
+    }
+
+    // Running sums for computeIntensityStats, filled without boxing
+    private static final class IntensityMoments {
+        long count;
+        int max;
+        double sum;
+        double mean;
+        double squaredDeviation;
+
+        void addToMean(int voxel, int intensity) {
+            max = Math.max(intensity, max);
+            sum += intensity;
+            count += 1;
+        }
+
+        void addToVariance(int voxel, int intensity) {
+            double di = mean - intensity;
+            squaredDeviation += di * di;
+        }
     }
 }
@@ -6,4 +6,11 @@ package org.janelia.workstation.gui.large_volume_viewer.tracing;
  */
 public interface PathTraceListener {
     void pathTraced(Long neuronId, AnchoredVoxelPath path);
+
+    /**
+     * Called once for every trace request when the worker is finished with
+     * it, whether or not a path was found.
+     */
+    default void pathTraceFinished(PathTraceToParentRequest request, PathTraceStatistics statistics) {
+    }
 }
@@ -0,0 +1,83 @@
+package org.janelia.workstation.gui.large_volume_viewer.tracing;
+
+/**
+ * Summary of one automatic trace, so that a slow or failed trace can be
+ * explained: how the volume was searched, how much of it was explored,
+ * how long it took, and what the resulting path cost.
+ */
+public class PathTraceStatistics {
+
+    public enum Outcome {
+        FOUND,
+        NOT_FOUND,
+        TIMED_OUT,
+        CANCELLED,
+    }
+
+    private final AStar.SearchMode searchMode;
+    private final Outcome outcome;
+    private final long expandedVoxelCount;
+    private final long elapsedMs;
+    private final double pathCost;
+    private final int pathLength;
+
+    public PathTraceStatistics(AStar.SearchMode searchMode, Outcome outcome, long expandedVoxelCount,
+            long elapsedMs, double pathCost, int pathLength) {
+        this.searchMode = searchMode;
+        this.outcome = outcome;
+        this.expandedVoxelCount = expandedVoxelCount;
+        this.elapsedMs = elapsedMs;
+        this.pathCost = pathCost;
+        this.pathLength = pathLength;
+    }
+
+    public AStar.SearchMode getSearchMode() {
+        return searchMode;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return number of voxels the search closed; for a bidirectional
+     * search, the total over both directions
+     */
+    public long getExpandedVoxelCount() {
+        return expandedVoxelCount;
+    }
+
+    /**
+     * @return wall time spent searching, in milliseconds; does not include
+     * loading the subvolume
+     */
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    /**
+     * @return accumulated step cost of the path, or NaN if no path was found
+     */
+    public double getPathCost() {
+        return pathCost;
+    }
+
+    /**
+     * @return number of voxels in the path, before simplification
+     */
+    public int getPathLength() {
+        return pathLength;
+    }
+
+    @Override
+    public String toString() {
+        return "PathTraceStatistics{" +
+                "searchMode=" + searchMode +
+                ", outcome=" + outcome +
+                ", expandedVoxelCount=" + expandedVoxelCount +
+                ", elapsedMs=" + elapsedMs +
+                ", pathCost=" + pathCost +
+                ", pathLength=" + pathLength +
+                '}';
+    }
+}
@@ -1,5 +1,9 @@
 package org.janelia.workstation.gui.large_volume_viewer.tracing;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.janelia.workstation.controller.tileimagery.SharedVolumeImage;
 import org.janelia.workstation.controller.tileimagery.TextureCache;
 import org.janelia.workstation.geom.Vec3;
@@ -14,6 +18,11 @@ import org.janelia.workstation.geom.Vec3;
  * -- something with access to model data identifies parent and adds second anchor and locations
  * -- request sent to tracing algorithm, which doesn't care about how any of the data got there
  *
+ * by default the path is traced from the first anchor toward the second; the
+ * search mode can ask for a bidirectional search instead, or for a search
+ * toward whichever of several target anchors is cheapest to reach (in which
+ * case the second anchor is filled in by the tracer)
+ *
  * djo, 1/14
  */
 public class PathTraceToParentRequest {
@@ -29,6 +38,9 @@ public class PathTraceToParentRequest {
     private SharedVolumeImage imageVolume;
     private TextureCache textureCache;
 
+    private AStar.SearchMode searchMode = AStar.SearchMode.UNIDIRECTIONAL;
+    private List<Target> targets = new ArrayList<>();
+
 
     public PathTraceToParentRequest(Long neuronGuid, Long anchorGuid) {
         setNeuronGuid(neuronGuid);
@@ -117,5 +129,40 @@ public class PathTraceToParentRequest {
         this.textureCache = textureCache;
     }
 
+    public AStar.SearchMode getSearchMode() {
+        return searchMode;
+    }
+
+    public void setSearchMode(AStar.SearchMode searchMode) {
+        this.searchMode = searchMode;
+    }
+
+    /**
+     * candidate end anchors for a NEAREST_GOAL search
+     */
+    public List<Target> getTargets() {
+        return Collections.unmodifiableList(targets);
+    }
+
+    public void addTarget(Long anchorGuid, Vec3 xyz) {
+        targets.add(new Target(anchorGuid, xyz));
+    }
+
+    public static class Target {
+        private final Long anchorGuid;
+        private final Vec3 xyz;
 
+        public Target(Long anchorGuid, Vec3 xyz) {
+            this.anchorGuid = anchorGuid;
+            this.xyz = xyz;
+        }
+
+        public Long getAnchorGuid() {
+            return anchorGuid;
+        }
+
+        public Vec3 getXyz() {
+            return xyz;
+        }
+    }
 }
@@ -29,6 +29,9 @@ public class PathTraceToParentWorker extends BackgroundWorker {
     // timeout in seconds
     private double timeout = 10.0;
 
+    private volatile boolean traceCancelled = false;
+    private volatile AStar astar;
+
     public PathTraceToParentWorker(PathTraceToParentRequest request) {
         this.request = request;
     }
@@ -42,6 +45,22 @@ public class PathTraceToParentWorker extends BackgroundWorker {
         pathTraceListener = l;
     }
 
+    public PathTraceToParentRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Stop tracing as soon as possible, eg, because the user has moved on and
+     * the result is no longer wanted; no path will be reported.
+     */
+    public void cancelTrace() {
+        traceCancelled = true;
+        AStar current = astar;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
     @Override
     public String getName() {
         return "trace path to parent of anchor";
@@ -61,35 +80,88 @@ public class PathTraceToParentWorker extends BackgroundWorker {
         ZoomedVoxelIndex zv1 = zoomedVoxelIndexForVoxelVec3(
                 vec3_1, tileFormat, zoomLevel);
 
-        Vec3 vec3_2 = request.getXyz2();
-        ZoomedVoxelIndex zv2 = zoomedVoxelIndexForVoxelVec3(
-                vec3_2, tileFormat, zoomLevel);
+        // all the places the trace may end
+        List<ZoomedVoxelIndex> goals = new ArrayList<>();
+        if (request.getSearchMode() == AStar.SearchMode.NEAREST_GOAL) {
+            for (PathTraceToParentRequest.Target target : request.getTargets()) {
+                goals.add(zoomedVoxelIndexForVoxelVec3(target.getXyz(), tileFormat, zoomLevel));
+            }
+        } else {
+            goals.add(zoomedVoxelIndexForVoxelVec3(request.getXyz2(), tileFormat, zoomLevel));
+        }
+        if (goals.isEmpty()) {
+            finished(new PathTraceStatistics(request.getSearchMode(),
+                    PathTraceStatistics.Outcome.NOT_FOUND, 0, 0, Double.NaN, 0));
+            return;
+        }
 
         // Create some padding around the neurite ends.
         final int padPixels = 10;
+        int minX = zv1.getX(), minY = zv1.getY(), minZ = zv1.getZ();
+        int maxX = zv1.getX(), maxY = zv1.getY(), maxZ = zv1.getZ();
+        for (ZoomedVoxelIndex goal : goals) {
+            minX = Math.min(minX, goal.getX());
+            minY = Math.min(minY, goal.getY());
+            minZ = Math.min(minZ, goal.getZ());
+            maxX = Math.max(maxX, goal.getX());
+            maxY = Math.max(maxY, goal.getY());
+            maxZ = Math.max(maxZ, goal.getZ());
+        }
         ZoomedVoxelIndex v1pad = new ZoomedVoxelIndex(
                 zv1.getZoomLevel(),
-                Math.min(zv1.getX(), zv2.getX()) - padPixels,
-                Math.min(zv1.getY(), zv2.getY()) - padPixels,
-                Math.min(zv1.getZ(), zv2.getZ()) - padPixels);
+                minX - padPixels,
+                minY - padPixels,
+                minZ - padPixels);
         ZoomedVoxelIndex v2pad = new ZoomedVoxelIndex(
-                zv2.getZoomLevel(),
-                Math.max(zv1.getX(), zv2.getX()) + padPixels,
-                Math.max(zv1.getY(), zv2.getY()) + padPixels,
-                Math.max(zv1.getZ(), zv2.getZ()) + padPixels);
+                zv1.getZoomLevel(),
+                maxX + padPixels,
+                maxY + padPixels,
+                maxZ + padPixels);
 
         Subvolume subvolume = new Subvolume(v1pad, v2pad, request.getImageVolume(),
                 request.getTextureCache());
-        AStar astar = new AStar(subvolume);
+        if (traceCancelled) {
+            setStatus("Cancelled");
+            finished(new PathTraceStatistics(request.getSearchMode(),
+                    PathTraceStatistics.Outcome.CANCELLED, 0, 0, Double.NaN, 0));
+            return;
+        }
+        astar = new AStar(subvolume);
         astar.setVoxelSizes(tileFormat.getVoxelMicrometers());
+        if (traceCancelled) {
+            astar.cancel();
+        }
 
         setStatus("Tracing");
-        List<ZoomedVoxelIndex> path = astar.trace(zv1, zv2, timeout); // This is the slow part
+        List<ZoomedVoxelIndex> path; // This is the slow part
+        switch (request.getSearchMode()) {
+            case BIDIRECTIONAL:
+                path = astar.traceBidirectional(zv1, goals.get(0), timeout);
+                break;
+            case NEAREST_GOAL:
+                path = astar.traceToNearest(zv1, goals, timeout);
+                break;
+            default:
+                path = astar.trace(zv1, goals.get(0), timeout);
+                break;
+        }
+        PathTraceStatistics statistics = astar.getStatistics();
         if (path == null) {
-            // probably timed out; I don't see any other way it could fail
+            // timed out, cancelled, or no route through the subvolume;
             // we don't do anything if we fail (would be nice to visually indicated it)
-            setStatus("Timed out");
+            if (statistics.getOutcome() == PathTraceStatistics.Outcome.CANCELLED) {
+                setStatus("Cancelled");
+            } else {
+                setStatus("Timed out");
+            }
         } else {
+            if (request.getSearchMode() == AStar.SearchMode.NEAREST_GOAL) {
+                // the trace decided which anchor it connects to
+                PathTraceToParentRequest.Target target =
+                        request.getTargets().get(goals.indexOf(path.get(path.size() - 1)));
+                request.setAnchorGuid2(target.getAnchorGuid());
+                request.setXyz2(target.getXyz());
+            }
             //DEBUG System.out.println("Original path length: " + path.size());
             final List<VoxelPosition> reducedPath = simplifyPath(path);
             if (!reducedPath.contains(zviToVoxel(path.get(0)))) {
@@ -117,10 +189,21 @@ public class PathTraceToParentWorker extends BackgroundWorker {
 
             setStatus("Done");
         }
+        finished(statistics);
+    }
+
+    private void finished(PathTraceStatistics statistics) {
+        if (pathTraceListener != null) {
+            pathTraceListener.pathTraceFinished(request, statistics);
+        }
     }
 
     @Override
     protected void hadError(Throwable error) {
+        AStar failed = astar;
+        finished(failed != null && failed.getStatistics() != null ? failed.getStatistics()
+                : new PathTraceStatistics(request.getSearchMode(),
+                        PathTraceStatistics.Outcome.NOT_FOUND, 0, 0, Double.NaN, 0));
         FrameworkAccess.handleException(error);
     }
 
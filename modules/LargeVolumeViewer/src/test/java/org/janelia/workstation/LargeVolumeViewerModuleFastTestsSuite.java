@@ -3,6 +3,8 @@ package org.janelia.workstation;
 
 
 import org.janelia.workstation.gui.large_volume_viewer.TestTileFormat;
+import org.janelia.workstation.gui.large_volume_viewer.skeleton.TestSkeletonActorModel;
+import org.janelia.workstation.gui.large_volume_viewer.skeleton.TestSkeletonController;
 import org.janelia.it.jacs.model.TestCategories;
 import org.junit.experimental.categories.Categories;
 import org.junit.runner.RunWith;
@@ -11,6 +13,8 @@ import org.junit.runners.Suite;
 @RunWith(Categories.class)
 @Categories.IncludeCategory(TestCategories.FastTests.class)
 @Suite.SuiteClasses({
-        TestTileFormat.class
+        TestTileFormat.class,
+        TestSkeletonActorModel.class,
+        TestSkeletonController.class
 })
 public class LargeVolumeViewerModuleFastTestsSuite {}
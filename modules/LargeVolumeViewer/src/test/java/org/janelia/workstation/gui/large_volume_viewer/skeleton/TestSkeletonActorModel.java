@@ -0,0 +1,164 @@
+package org.janelia.workstation.gui.large_volume_viewer.skeleton;
+
+import static org.junit.Assert.*;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.workstation.controller.tileimagery.TileFormat;
+import org.janelia.workstation.geom.Vec3;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+public class TestSkeletonActorModel {
+
+    private static final Long NEURON_ID = 5L;
+
+    private final TileFormat tileFormat = new TileFormat();
+    private final Skeleton skeleton = new Skeleton();
+    // threads that built geometry for the neuron, one entry per build
+    private final List<Thread> buildThreads = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<Thread> repaints = new LinkedBlockingQueue<>();
+    private final CountDownLatch firstBuildStarted = new CountDownLatch(1);
+    private final CountDownLatch firstBuildReleased = new CountDownLatch(1);
+
+    // stands in for the application-wide view state; the first build waits to be released
+    private final SkeletonActorModel model = new SkeletonActorModel() {
+        @Override
+        float[] getNeuronColor(Long neuronID) {
+            buildThreads.add(Thread.currentThread());
+            if (buildThreads.size() == 1) {
+                firstBuildStarted.countDown();
+                try {
+                    firstBuildReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new float[]{1.0f, 0.0f, 0.0f};
+        }
+
+        @Override
+        boolean isNeuronHidden(Long neuronID) {
+            return false;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        tileFormat.setDefaultParameters();
+        tileFormat.setVolumeSize(new int[] {65536, 65536, 7936});
+        tileFormat.setVoxelMicrometers(new double[] {1.0, 1.0, 1.0});
+        tileFormat.setTileSize(new int[] {1024, 1024, 124});
+        tileFormat.setZoomLevelCount(7);
+        model.getUpdater().addListener(() -> repaints.add(Thread.currentThread()));
+    }
+
+    // like the skeleton's own anchors, each has the id of its annotation
+    private Anchor addAnchor(int x, Anchor parent) {
+        Anchor anchor = new Anchor(new Vec3(x, 200, 300), parent, NEURON_ID, tileFormat);
+        anchor.setGuid((long) x);
+        return skeleton.addAnchor(anchor);
+    }
+
+    private Thread awaitRepaint() throws InterruptedException {
+        Thread thread = repaints.poll(5, TimeUnit.SECONDS);
+        assertNotNull("the skeleton buffers were not rebuilt", thread);
+        return thread;
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testRebuildRunsOffTheCallingThread() throws Exception {
+        firstBuildReleased.countDown();
+        Anchor root = addAnchor(100, null);
+        addAnchor(110, root);
+
+        // the test thread stands in for the GL thread
+        model.setSkeleton(skeleton);
+        Thread repaintThread = awaitRepaint();
+
+        assertEquals(1, buildThreads.size());
+        Thread buildThread = buildThreads.get(0);
+        assertNotSame(Thread.currentThread(), buildThread);
+        assertTrue(buildThread.getName().startsWith("skeleton-actor-model-"));
+        assertSame(buildThread, repaintThread);
+
+        assertTrue(model.getVertexOffsets().isEmpty());
+        SkeletonActorModel.BufferUpdate update = model.takeBufferUpdate();
+        assertNotNull(update);
+        assertTrue(update.isNewBuffers());
+        assertEquals(2 * SkeletonActorModel.VERTEX_FLOAT_COUNT * SkeletonActorModel.FLOAT_BYTE_COUNT,
+                model.getVertexOffsetMap().get(NEURON_ID).size);
+        assertNull(model.takeBufferUpdate());
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testStaleAnchorsAreNotBuiltOrDrawn() throws Exception {
+        Anchor root = addAnchor(100, null);
+        model.setSkeleton(skeleton);
+        assertTrue(firstBuildStarted.await(5, TimeUnit.SECONDS));
+
+        // while the first build runs, the skeleton changes twice; the
+        //  second change supersedes the first before it is built
+        Anchor child = addAnchor(110, root);
+        model.updateAnchors();
+        Anchor grandchild = addAnchor(120, child);
+        model.updateAnchors();
+        firstBuildReleased.countDown();
+        awaitRepaint();
+        awaitRepaint();
+
+        assertEquals(2, buildThreads.size());
+        SkeletonActorModel.BufferUpdate update = model.takeBufferUpdate();
+        assertNotNull(update);
+        assertEquals(3 * SkeletonActorModel.VERTEX_FLOAT_COUNT * SkeletonActorModel.FLOAT_BYTE_COUNT,
+                model.getVertexOffsetMap().get(NEURON_ID).size);
+
+        // the GL thread gets only the latest vertices, patched over the first build
+        List<SkeletonActorModel.BufferPatch> patches = update.getPatches();
+        assertEquals(1, patches.size());
+        FloatBuffer vertices = patches.get(0).getVertices();
+        assertEquals(3 * SkeletonActorModel.VERTEX_FLOAT_COUNT, vertices.remaining());
+        Anchor[] anchors = {root, child, grandchild};
+        for (Anchor anchor : anchors) {
+            int index = model.getIndexForAnchor(anchor);
+            Vec3 location = anchor.getLocation();
+            assertEquals(location.getX(), vertices.get(index * SkeletonActorModel.VERTEX_FLOAT_COUNT), 1e-3);
+            assertEquals(location.getY(), vertices.get(index * SkeletonActorModel.VERTEX_FLOAT_COUNT + 1), 1e-3);
+            assertEquals(location.getZ(), vertices.get(index * SkeletonActorModel.VERTEX_FLOAT_COUNT + 2), 1e-3);
+        }
+        assertNull(model.takeBufferUpdate());
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testBuildUsesTheAnchorsAsQueued() throws Exception {
+        Anchor root = addAnchor(100, null);
+        Anchor child = addAnchor(110, root);
+        Vec3 queuedLocation = child.getLocation();
+        model.setSkeleton(skeleton);
+        assertTrue(firstBuildStarted.await(5, TimeUnit.SECONDS));
+
+        // the anchor moves while its neuron is being built; the build still
+        //  sees it where it was, and the move waits for the next update
+        child.setLocationSilent(new Vec3(queuedLocation.getX() + 50, queuedLocation.getY(), queuedLocation.getZ()));
+        firstBuildReleased.countDown();
+        awaitRepaint();
+
+        SkeletonActorModel.BufferUpdate update = model.takeBufferUpdate();
+        assertNotNull(update);
+        assertTrue(update.isNewBuffers());
+        FloatBuffer vertices = update.getVertexBuffer();
+        int index = model.getIndexForAnchor(child);
+        assertEquals(queuedLocation.getX(), vertices.get(index * SkeletonActorModel.VERTEX_FLOAT_COUNT), 1e-3);
+    }
+}
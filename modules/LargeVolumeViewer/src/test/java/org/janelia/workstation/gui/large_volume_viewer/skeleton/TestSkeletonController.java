@@ -0,0 +1,107 @@
+package org.janelia.workstation.gui.large_volume_viewer.skeleton;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.model.domain.tiledMicroscope.TmGeoAnnotation;
+import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
+import org.janelia.workstation.controller.ViewerEventBus;
+import org.janelia.workstation.controller.eventbus.NeuronCreateEvent;
+import org.janelia.workstation.controller.eventbus.NeuronDeleteEvent;
+import org.janelia.workstation.controller.eventbus.NeuronUpdateEvent;
+import org.janelia.workstation.controller.tileimagery.TileFormat;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Remote changes made by other users reach the skeleton as one event per
+ * kind of change, each carrying every neuron of the batch.
+ */
+public class TestSkeletonController {
+
+    private final Skeleton skeleton = new Skeleton();
+
+    @Before
+    public void setUp() {
+        TileFormat tileFormat = new TileFormat();
+        tileFormat.setDefaultParameters();
+        tileFormat.setVolumeSize(new int[] {65536, 65536, 7936});
+        tileFormat.setVoxelMicrometers(new double[] {1.0, 1.0, 1.0});
+        tileFormat.setTileSize(new int[] {1024, 1024, 124});
+        tileFormat.setZoomLevelCount(7);
+        skeleton.setTileFormat(tileFormat);
+        SkeletonController.getInstance().reestablish(skeleton, null);
+    }
+
+    private static TmGeoAnnotation annotation(long id, long neuronId, long parentId, double x) {
+        TmGeoAnnotation annotation = new TmGeoAnnotation();
+        annotation.setId(id);
+        annotation.setNeuronId(neuronId);
+        annotation.setParentId(parentId);
+        annotation.setX(x);
+        annotation.setY(200.0);
+        annotation.setZ(300.0);
+        return annotation;
+    }
+
+    /**
+     * @return a neuron of a root and one child, with the child at the given x
+     */
+    private static TmNeuronMetadata neuron(long neuronId, double childX) {
+        TmNeuronMetadata neuron = new TmNeuronMetadata();
+        neuron.setId(neuronId);
+        TmGeoAnnotation root = annotation(10 * neuronId, neuronId, neuronId, 100.0);
+        TmGeoAnnotation child = annotation(10 * neuronId + 1, neuronId, root.getId(), childX);
+        root.addChild(child);
+        neuron.getGeoAnnotationMap().put(root.getId(), root);
+        neuron.getGeoAnnotationMap().put(child.getId(), child);
+        neuron.addRootAnnotation(root);
+        return neuron;
+    }
+
+    private List<TmNeuronMetadata> createNeurons(int count) {
+        List<TmNeuronMetadata> neurons = new ArrayList<>();
+        for (long neuronId = 1; neuronId <= count; neuronId++) {
+            neurons.add(neuron(neuronId, 110.0));
+        }
+        ViewerEventBus.postEvent(new NeuronCreateEvent(this, neurons));
+        assertEquals(2 * count, skeleton.getAnchors().size());
+        return neurons;
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testBatchedDeleteRemovesEveryNeuron() {
+        List<TmNeuronMetadata> neurons = createNeurons(3);
+
+        ViewerEventBus.postEvent(new NeuronDeleteEvent(this, neurons.subList(0, 2)));
+
+        assertEquals(2, skeleton.getAnchors().size());
+        for (Anchor anchor : skeleton.getAnchors()) {
+            assertEquals(Long.valueOf(3), anchor.getNeuronID());
+        }
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testBatchedChangeReplacesEveryNeuron() {
+        createNeurons(3);
+        Anchor unchanged = skeleton.getAnchorByID(31L);
+
+        ViewerEventBus.postEvent(new NeuronUpdateEvent(this, Arrays.asList(neuron(1, 150.0), neuron(2, 160.0))));
+
+        assertEquals(6, skeleton.getAnchors().size());
+        assertSame(unchanged, skeleton.getAnchorByID(31L));
+        double rootX = skeleton.getAnchorByID(10L).getLocation().getX();
+        assertEquals(50.0, skeleton.getAnchorByID(11L).getLocation().getX() - rootX, 1e-6);
+        assertEquals(60.0, skeleton.getAnchorByID(21L).getLocation().getX() - rootX, 1e-6);
+        for (Anchor anchor : skeleton.getAnchors()) {
+            assertSame(anchor, skeleton.getAnchorByID(anchor.getGuid()));
+        }
+    }
+}
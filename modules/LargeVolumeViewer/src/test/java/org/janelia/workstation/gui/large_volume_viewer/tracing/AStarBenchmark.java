@@ -0,0 +1,98 @@
+package org.janelia.workstation.gui.large_volume_viewer.tracing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+
+import org.janelia.workstation.controller.tileimagery.raster.VoxelIndex;
+import org.janelia.workstation.octree.ZoomLevel;
+import org.janelia.workstation.octree.ZoomedVoxelIndex;
+
+/**
+ * Times the tracing modes of AStar on a synthetic 16-bit volume: a noisy background with a bright tube
+ * wandering from one corner to the opposite one, and along the diagonal of a featureless volume.
+ * <p>
+ * Usage: AStarBenchmark [volume edge in voxels] [repetitions]; the default is a 128 voxel cube, traced 5 times.
+ */
+public class AStarBenchmark {
+
+    private static final ZoomLevel ZOOM_LEVEL = new ZoomLevel(0);
+
+    /**
+     * @return center of the tube in the given slice of a volume of the given edge
+     */
+    static int[] tubeCenter(int size, int z) {
+        return new int[]{
+                (int) (size / 2 + (size / 3) * Math.sin(z * 0.05)),
+                (int) (size / 2 + (size / 3) * Math.cos(z * 0.05))
+        };
+    }
+
+    /**
+     * @return 16-bit intensities, x varying fastest, of a noisy cube with a 5x5 voxel tube along z
+     */
+    static ByteBuffer tubeVolume(int size, Random random) {
+        ByteBuffer bytes = ByteBuffer.allocateDirect(2 * size * size * size);
+        bytes.order(ByteOrder.nativeOrder());
+        for (int z = 0; z < size; ++z) {
+            for (int y = 0; y < size; ++y) {
+                for (int x = 0; x < size; ++x) {
+                    int offset = x + size * (y + size * z);
+                    bytes.putShort(2 * offset, (short) (1000 + random.nextInt(200)));
+                }
+            }
+        }
+        for (int z = 0; z < size; ++z) {
+            int[] center = tubeCenter(size, z);
+            for (int y = center[1] - 2; y <= center[1] + 2; ++y) {
+                for (int x = center[0] - 2; x <= center[0] + 2; ++x) {
+                    int offset = x + size * (y + size * z);
+                    bytes.putShort(2 * offset, (short) (20000 + random.nextInt(2000)));
+                }
+            }
+        }
+        return bytes;
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        ZoomedVoxelIndex origin = new ZoomedVoxelIndex(ZOOM_LEVEL, 100, 200, 300);
+        VoxelIndex extent = new VoxelIndex(size, size, size);
+        int[] first = tubeCenter(size, 0);
+        int[] last = tubeCenter(size, size - 1);
+        ZoomedVoxelIndex start = new ZoomedVoxelIndex(ZOOM_LEVEL,
+                origin.getX() + first[0], origin.getY() + first[1], origin.getZ());
+        ZoomedVoxelIndex goal = new ZoomedVoxelIndex(ZOOM_LEVEL,
+                origin.getX() + last[0], origin.getY() + last[1], origin.getZ() + size - 1);
+        ZoomedVoxelIndex corner = new ZoomedVoxelIndex(ZOOM_LEVEL,
+                origin.getX() + size - 1, origin.getY() + size - 1, origin.getZ() + size - 1);
+
+        long startTime = System.nanoTime();
+        AStar tubeStar = new AStar(tubeVolume(size, new Random(42)), 2, 1, extent, origin);
+        AStar flatStar = new AStar(ByteBuffer.allocateDirect(size * size * size), 1, 1, extent, origin);
+        System.out.printf("Set up %d^3 volumes in %.1f ms%n", size, (System.nanoTime() - startTime) / 1e6);
+
+        for (int i = 0; i < repetitions; i++) {
+            startTime = System.nanoTime();
+            List<ZoomedVoxelIndex> path = tubeStar.trace(start, goal, 10.0);
+            report("tube", path, tubeStar, startTime);
+
+            startTime = System.nanoTime();
+            path = tubeStar.traceBidirectional(start, goal, 10.0);
+            report("tube, bidirectional", path, tubeStar, startTime);
+
+            startTime = System.nanoTime();
+            path = flatStar.trace(origin, corner, 10.0);
+            report("flat", path, flatStar, startTime);
+        }
+    }
+
+    private static void report(String name, List<ZoomedVoxelIndex> path, AStar astar, long startTime) {
+        System.out.printf("%-20s %8.1f ms, %9d voxels expanded, path of %d voxels%n",
+                name, (System.nanoTime() - startTime) / 1e6, astar.getExpandedVoxelCount(),
+                path == null ? 0 : path.size());
+    }
+}
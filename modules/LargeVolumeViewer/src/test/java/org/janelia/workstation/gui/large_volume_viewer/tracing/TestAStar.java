@@ -4,17 +4,25 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import org.janelia.workstation.controller.tileimagery.SharedVolumeImage;
 import org.janelia.workstation.controller.tileimagery.Subvolume;
+import org.janelia.workstation.controller.tileimagery.raster.VoxelIndex;
 import org.janelia.workstation.octree.ZoomLevel;
 import org.janelia.workstation.octree.ZoomedVoxelIndex;
 import org.janelia.it.jacs.model.TestCategories;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class TestAStar {
 
+    private static final Logger log = LoggerFactory.getLogger(TestAStar.class);
+
     @Test
     @Category(TestCategories.PrototypeTests.class) // mark this as prototype until octree folder can be properly setup
     public void testTracePath() {
@@ -62,4 +70,110 @@ public class TestAStar {
         }
     }
 
+    // 16-bit noisy background with a bright tube wandering from one corner of
+    // the volume to the opposite one, as made by AStarBenchmark
+    private static final int SIZE = 64;
+    private static final ZoomLevel ZOOM_LEVEL = new ZoomLevel(0);
+    private static final ZoomedVoxelIndex ORIGIN = new ZoomedVoxelIndex(ZOOM_LEVEL, 100, 200, 300);
+
+    private static AStar tubeTracer() {
+        return new AStar(AStarBenchmark.tubeVolume(SIZE, new Random(42)), 2, 1,
+                new VoxelIndex(SIZE, SIZE, SIZE), ORIGIN);
+    }
+
+    private static ZoomedVoxelIndex tubeCenter(int z) {
+        int[] center = AStarBenchmark.tubeCenter(SIZE, z);
+        return new ZoomedVoxelIndex(ZOOM_LEVEL,
+                ORIGIN.getX() + center[0], ORIGIN.getY() + center[1], ORIGIN.getZ() + z);
+    }
+
+    private static void assertConnectedPath(ZoomedVoxelIndex start, ZoomedVoxelIndex goal, List<ZoomedVoxelIndex> path) {
+        assertNotNull(path);
+        assertEquals(start, path.get(0));
+        assertEquals(goal, path.get(path.size() - 1));
+        for (int i = 1; i < path.size(); ++i) {
+            ZoomedVoxelIndex a = path.get(i - 1);
+            ZoomedVoxelIndex b = path.get(i);
+            assertTrue(Math.abs(a.getX() - b.getX()) <= 1);
+            assertTrue(Math.abs(a.getY() - b.getY()) <= 1);
+            assertTrue(Math.abs(a.getZ() - b.getZ()) <= 1);
+        }
+    }
+
+    /**
+     * @return fraction of the path which runs inside the tube
+     */
+    private static double fractionInTube(List<ZoomedVoxelIndex> path) {
+        int inTube = 0;
+        for (ZoomedVoxelIndex p : path) {
+            ZoomedVoxelIndex center = tubeCenter(p.getZ() - ORIGIN.getZ());
+            if (Math.abs(p.getX() - center.getX()) <= 2 && Math.abs(p.getY() - center.getY()) <= 2) {
+                inTube++;
+            }
+        }
+        return inTube / (double) path.size();
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testTraceFollowsTube() {
+        AStar astar = tubeTracer();
+        ZoomedVoxelIndex start = tubeCenter(0);
+        ZoomedVoxelIndex goal = tubeCenter(SIZE - 1);
+        List<ZoomedVoxelIndex> path = astar.trace(start, goal, 10.0);
+        assertConnectedPath(start, goal, path);
+        assertTrue(fractionInTube(path) > 0.95);
+        assertTrue(astar.getExpandedVoxelCount() > 0);
+        log.debug("Traced tube: {} voxels expanded", astar.getExpandedVoxelCount());
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testBidirectionalTraceJoinsIntoOnePath() {
+        AStar astar = tubeTracer();
+        ZoomedVoxelIndex start = tubeCenter(0);
+        ZoomedVoxelIndex goal = tubeCenter(SIZE - 1);
+        List<ZoomedVoxelIndex> path = astar.traceBidirectional(start, goal, 10.0);
+        assertConnectedPath(start, goal, path);
+        assertTrue(fractionInTube(path) > 0.95);
+        assertNotNull(astar.getStatistics());
+        log.debug("Bidirectional trace: {}", astar.getStatistics());
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testTraceToNearestStopsAtCheapestGoal() {
+        AStar astar = tubeTracer();
+        ZoomedVoxelIndex start = tubeCenter(0);
+        ZoomedVoxelIndex goal = tubeCenter(SIZE - 1);
+        ZoomedVoxelIndex offTube = new ZoomedVoxelIndex(ZOOM_LEVEL, ORIGIN.getX(), ORIGIN.getY(), goal.getZ());
+        List<ZoomedVoxelIndex> path = astar.traceToNearest(start, Arrays.asList(offTube, goal), 10.0);
+        assertConnectedPath(start, goal, path);
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testCancelledTraceReturnsNullUntilReset() {
+        AStar astar = tubeTracer();
+        ZoomedVoxelIndex start = tubeCenter(0);
+        ZoomedVoxelIndex goal = tubeCenter(SIZE - 1);
+        astar.cancel();
+        assertNull(astar.trace(start, goal, 10.0));
+        astar.reset();
+        assertConnectedPath(start, goal, astar.trace(start, goal, 10.0));
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testFlatVolumeTracesStraightDiagonal() {
+        // In a featureless volume the straight diagonal is the cheapest path
+        ByteBuffer flat = ByteBuffer.allocateDirect(SIZE * SIZE * SIZE);
+        AStar astar = new AStar(flat, 1, 1, new VoxelIndex(SIZE, SIZE, SIZE), ORIGIN);
+        ZoomedVoxelIndex goal = new ZoomedVoxelIndex(ZOOM_LEVEL,
+                ORIGIN.getX() + SIZE - 1, ORIGIN.getY() + SIZE - 1, ORIGIN.getZ() + SIZE - 1);
+        List<ZoomedVoxelIndex> path = astar.trace(ORIGIN, goal, 10.0);
+        assertConnectedPath(ORIGIN, goal, path);
+        assertEquals(SIZE, path.size());
+    }
+
 }
@@ -1,11 +1,9 @@
 package org.janelia.workstation.gui.viewer3d.mesh.actor;
 
 import org.janelia.workstation.mesh_loader.*;
-import org.janelia.workstation.mesh_loader.wavefront_obj.OBJWriter;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -13,15 +11,21 @@ import java.util.Map;
  * This voxel manager will make vertices from mocked voxels, rather than having to marshal them from an input file.
  * Great for testing.  Please do not delete!
  *
+ * The voxels are set in a small mask volume, which is meshed as any other mask, by a MaskSurfaceVtxAttribMgr.
+ *
  * Created by fosterl on 4/18/14.
  */
 @SuppressWarnings("unused")
 public class FewVoxelVtxAttribMgr implements VertexAttributeSourceI, VertexExporterI {
     public enum Scenario { minimal, small, whole }
-    private List<TriangleSource> triangleSources;
+
+    private static final float[] COLOR_ATTRIBUTE = new float[] {
+        1.0f, 0.0f, 1.0f
+    };
+
     private Scenario scenario = Scenario.small;
 
-    private Map<Long,RenderBuffersBean> renderIdToBuffers;
+    private MaskSurfaceVtxAttribMgr maskMgr;
     private Long id;
 
     public FewVoxelVtxAttribMgr( Long id ) {
@@ -35,244 +39,100 @@ public class FewVoxelVtxAttribMgr implements VertexAttributeSourceI, VertexExpor
 
     @Override
     public List<TriangleSource> execute() throws Exception {
-        triangleSources = new ArrayList<>();
-        renderIdToBuffers = new HashMap<>();
-
         int startingX = 74000;
         int startingY = 48200;
         int startingZ = 19500;
 
-        EnclosedVoxelVertexFactory factory = new EnclosedVoxelVertexFactory();
+        int[][] voxels;
         switch (scenario) {
             case whole:
-                establishStackedScenario(startingX, startingY, startingZ, factory);
+                voxels = getStackedScenario();
                 break;
             case small:
-                establishSmallScenario(startingX, startingY, startingZ, factory);
+                voxels = getSmallScenario();
                 break;
-            case minimal:
-                establishSimplestScenario(startingX, startingY, startingZ, factory);
+            default:
+                voxels = getSimplestScenario();
                 break;
         }
-        
-        // Now have a full complement of triangles and vertices.  For this renderable, can traverse the
-        // vertices, making a "composite normal" based on the normals of all entangling triangles.
-        NormalCompositor normalCompositor = new NormalCompositor();
-        normalCompositor.combineAxialNormals(factory);
-
-        // Add same colors to all vertices, as an afterthought.
-        addColor(factory);
-
-        triangleSources.add(factory);
-        BufferPackager packager = new BufferPackager();
-        RenderBuffersBean rbb = new RenderBuffersBean();
-        rbb.setAttributesBuffer( packager.getVertexAttributes(factory) );
-        rbb.setIndexBuffer( packager.getIndices(factory) );
 
-        renderIdToBuffers.put( id, rbb );
+        int[] size = new int[3];
+        for (int[] voxel: voxels) {
+            for (int i = 0; i < 3; i++) {
+                size[i] = Math.max(size[i], voxel[i] + 1);
+            }
+        }
+        byte[] volume = new byte[size[0] * size[1] * size[2]];
+        for (int[] voxel: voxels) {
+            volume[voxel[0] + size[0] * (voxel[1] + size[1] * voxel[2])] = 1;
+        }
 
-        return triangleSources;
+        MaskSurfaceMesher mesher = new MaskSurfaceMesher(volume, size[0], size[1], size[2], MaskSurfaceMesher.ANY_LABEL);
+        mesher.setOrigin(startingX, startingY, startingZ);
+        maskMgr = new MaskSurfaceVtxAttribMgr(id, mesher);
+        // Add same colors to all vertices, as an afterthought.
+        maskMgr.setColor(COLOR_ATTRIBUTE);
+        return maskMgr.execute();
     }
 
     @Override
     public void exportVertices(File outputLocation, String filenamePrefix) throws Exception {
-        OBJWriter objWriter = new OBJWriter();
-        for ( TriangleSource triangleSource: triangleSources) {
-            objWriter.writeVertices(outputLocation, filenamePrefix, OBJWriter.FILE_SUFFIX, id, triangleSource);
+        if (maskMgr != null) {
+            maskMgr.exportVertices(outputLocation, filenamePrefix);
         }
     }
 
     @Override
     public Map<Long,RenderBuffersBean> getRenderIdToBuffers() {
-        return renderIdToBuffers;
+        return maskMgr == null ? Collections.emptyMap() : maskMgr.getRenderIdToBuffers();
     }
 
     @Override
     public void close() {
-        renderIdToBuffers.clear();
-        triangleSources.clear();
+        if (maskMgr != null) {
+            maskMgr.close();
+        }
     }
 
-    private void establishStackedScenario(int startingX, int startingY, int startingZ, EnclosedVoxelVertexFactory factory) {
-        //NOTE: the definitions below appear very similar.  However, they differ in the important aspect,
-        // that the exposed face list tells which are out-facing.  Attempting to call functions and add
-        // single voxels will be compounded by this.
-
-        // Making a zig-zag pattern on level Z=0.
-        VoxelInfoBean voxelInfoBean;
-        VoxelInfoKey key;
-        
+    /**
+     * Makes a zig-zag pattern of separate voxels on one Z level, and another one on the next Z level.
+     */
+    private int[][] getStackedScenario() {
         int voxSize = 15;
-
-        voxelInfoBean = new VoxelInfoBean();
-        key = new VoxelInfoKey(startingX,startingY,startingZ);
-        voxelInfoBean.setKey(key);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BACK_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.FRONT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BOTTOM_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.TOP_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.LEFT_FACE);
-        voxelInfoBean.setExposedFace( VoxelInfoBean.RIGHT_FACE );
-        factory.addEnclosure(voxelInfoBean);
-
-        key = new VoxelInfoKey(startingX+voxSize, startingY+voxSize, startingZ);
-        voxelInfoBean = new VoxelInfoBean();
-        voxelInfoBean.setKey( key );
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BACK_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.FRONT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BOTTOM_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.TOP_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.LEFT_FACE);
-        voxelInfoBean.setExposedFace( VoxelInfoBean.RIGHT_FACE );
-        factory.addEnclosure(voxelInfoBean);
-
-        key = new VoxelInfoKey(startingX+voxSize * 2, startingY+voxSize * 2, startingZ);
-        voxelInfoBean = new VoxelInfoBean();
-        voxelInfoBean.setKey( key );
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BACK_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.FRONT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BOTTOM_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.TOP_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.LEFT_FACE);
-        voxelInfoBean.setExposedFace( VoxelInfoBean.RIGHT_FACE );
-        factory.addEnclosure(voxelInfoBean);
-
-        // Making zig-zag at next z-level.
-        voxelInfoBean = new VoxelInfoBean();
-        key = new VoxelInfoKey(startingX+voxSize,startingY,startingZ+voxSize);
-        voxelInfoBean.setKey(key);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BACK_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.FRONT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BOTTOM_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.TOP_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.LEFT_FACE);
-        voxelInfoBean.setExposedFace( VoxelInfoBean.RIGHT_FACE );
-        factory.addEnclosure(voxelInfoBean);
-
-        key = new VoxelInfoKey(startingX+voxSize * 2, startingY+voxSize, startingZ+voxSize);
-        voxelInfoBean = new VoxelInfoBean();
-        voxelInfoBean.setKey( key );
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BACK_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.FRONT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BOTTOM_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.TOP_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.LEFT_FACE);
-        voxelInfoBean.setExposedFace( VoxelInfoBean.RIGHT_FACE );
-        factory.addEnclosure(voxelInfoBean);
-
-        key = new VoxelInfoKey(startingX+voxSize * 3, startingY+voxSize * 2, startingZ+voxSize);
-        voxelInfoBean = new VoxelInfoBean();
-        voxelInfoBean.setKey( key );
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BACK_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.FRONT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BOTTOM_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.TOP_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.LEFT_FACE);
-        voxelInfoBean.setExposedFace( VoxelInfoBean.RIGHT_FACE );
-        factory.addEnclosure(voxelInfoBean);
-
-        key = new VoxelInfoKey(startingX+voxSize * 4, startingY+voxSize * 3, startingZ+voxSize * 1);
-        voxelInfoBean = new VoxelInfoBean();
-        voxelInfoBean.setKey( key );
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BACK_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.FRONT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BOTTOM_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.TOP_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.LEFT_FACE);
-        voxelInfoBean.setExposedFace( VoxelInfoBean.RIGHT_FACE );
-        factory.addEnclosure(voxelInfoBean);
-
-    }
-    
-    private void addColor(EnclosedVoxelVertexFactory factory) {
-        float[] colorAttribute = new float[] {
-            1.0f, 0.0f, 1.0f
+        return new int[][] {
+            // Making a zig-zag pattern on level Z=0.
+            { 0, 0, 0 },
+            { voxSize, voxSize, 0 },
+            { voxSize * 2, voxSize * 2, 0 },
+            // Making zig-zag at next z-level.
+            { voxSize, 0, voxSize },
+            { voxSize * 2, voxSize, voxSize },
+            { voxSize * 3, voxSize * 2, voxSize },
+            { voxSize * 4, voxSize * 3, voxSize },
         };
-        for (VertexInfoBean vertex: factory.getVertices()) {
-            vertex.setAttribute(
-                    VertexInfoBean.KnownAttributes.b_color.name(), 
-                    colorAttribute, 
-                    3
-            );
-        }
     }
 
     /**
      * Makes a stacked pair of boxes, joined on one line-corner to another box, and with another box in empty space
      * unattached to those three.
      */
-    private void establishSmallScenario(int startingX, int startingY, int startingZ, EnclosedVoxelVertexFactory factory) {
-        //NOTE: the definitions below appear very similar.  However, they differ in the important aspect,
-        // that the exposed face list tells which are out-facing.  Attempting to call functions and add
-        // single voxels will be compounded by this.
-        VoxelInfoBean voxelInfoBean = new VoxelInfoBean();
-        VoxelInfoKey key = new VoxelInfoKey(startingX,startingY,startingZ);
-        voxelInfoBean.setKey(key);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BACK_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.FRONT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BOTTOM_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.LEFT_FACE);
-        voxelInfoBean.setExposedFace( VoxelInfoBean.RIGHT_FACE );
-
-        factory.addEnclosure(voxelInfoBean);
-
-        voxelInfoBean = new VoxelInfoBean();
-        key = new VoxelInfoKey(startingX,startingY+1,startingZ);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BACK_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.FRONT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.LEFT_FACE);
-        voxelInfoBean.setExposedFace( VoxelInfoBean.RIGHT_FACE );
-        voxelInfoBean.setExposedFace(VoxelInfoBean.TOP_FACE);
-        voxelInfoBean.setKey(key);
-
-        factory.addEnclosure(voxelInfoBean);
-
-        voxelInfoBean = new VoxelInfoBean();
-        key = new VoxelInfoKey(startingX+1,startingY+1,startingZ+1);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BACK_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.FRONT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.TOP_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.LEFT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BOTTOM_FACE);
-        voxelInfoBean.setExposedFace( VoxelInfoBean.RIGHT_FACE );
-        voxelInfoBean.setKey(key);
-
-        factory.addEnclosure(voxelInfoBean);
-
-        // Isolated
-        voxelInfoBean = new VoxelInfoBean();
-        key = new VoxelInfoKey(startingX,startingY,startingZ+5);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BACK_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.FRONT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.TOP_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.LEFT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BOTTOM_FACE);
-        voxelInfoBean.setExposedFace( VoxelInfoBean.RIGHT_FACE );
-        voxelInfoBean.setKey(key);
-
-        factory.addEnclosure(voxelInfoBean);
+    private int[][] getSmallScenario() {
+        return new int[][] {
+            { 0, 0, 0 },
+            { 0, 1, 0 },
+            { 1, 1, 1 },
+            // Isolated
+            { 0, 0, 5 },
+        };
     }
 
     /**
-     * Makes a stacked pair of boxes, joined on one line-corner to another box, and with another box in empty space
-     * unattached to those three.
+     * Makes a single box.
      */
-    private void establishSimplestScenario(int startingX, int startingY, int startingZ, EnclosedVoxelVertexFactory factory) {
-        //NOTE: the definitions below appear very similar.  However, they differ in the important aspect,
-        // that the exposed face list tells which are out-facing.  Attempting to call functions and add
-        // single voxels will be compounded by this.
-        VoxelInfoBean voxelInfoBean = new VoxelInfoBean();
-        VoxelInfoKey key = new VoxelInfoKey(startingX,startingY,startingZ);
-        voxelInfoBean.setKey(key);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BACK_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.FRONT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.TOP_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.LEFT_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.BOTTOM_FACE);
-        voxelInfoBean.setExposedFace(VoxelInfoBean.RIGHT_FACE);
-
-        factory.addEnclosure(voxelInfoBean);
+    private int[][] getSimplestScenario() {
+        return new int[][] {
+            { 0, 0, 0 },
+        };
     }
 
 }
-
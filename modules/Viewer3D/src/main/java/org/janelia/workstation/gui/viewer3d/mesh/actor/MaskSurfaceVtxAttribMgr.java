@@ -0,0 +1,72 @@
+package org.janelia.workstation.gui.viewer3d.mesh.actor;
+
+import org.janelia.workstation.mesh_loader.*;
+import org.janelia.workstation.mesh_loader.wavefront_obj.OBJWriter;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This voxel manager makes the render buffers for a mask volume directly, with a MaskSurfaceMesher.  No
+ * triangle sources are produced: the mesh is kept in arrays until it is packed into buffers or exported.
+ * The color and id attributes must be set to match the coloring strategy and id use of the MeshDrawActor.
+ */
+public class MaskSurfaceVtxAttribMgr implements VertexAttributeSourceI {
+    private final Long id;
+    private final MaskSurfaceMesher mesher;
+
+    private float[] color;
+    private float[] idAttribute;
+    private SurfaceMesh mesh;
+    private Map<Long,RenderBuffersBean> renderIdToBuffers = new HashMap<>();
+
+    /**
+     * @param id renderable id for the buffers.
+     * @param mesher set up for the mask to enclose.
+     */
+    public MaskSurfaceVtxAttribMgr( Long id, MaskSurfaceMesher mesher ) {
+        this.id = id;
+        this.mesher = mesher;
+    }
+
+    /** Color given to all vertices, for drawing with ColoringStrategy.ATTRIBUTE. */
+    public void setColor( float[] color ) {
+        this.color = color;
+    }
+
+    /** Id attribute given to all vertices, for drawing with the id attribute in use. */
+    public void setIdAttribute( float[] idAttribute ) {
+        this.idAttribute = idAttribute;
+    }
+
+    @Override
+    public List<TriangleSource> execute() throws Exception {
+        mesh = mesher.mesh();
+        renderIdToBuffers.put( id, mesh.toRenderBuffers( color, idAttribute ) );
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void exportVertices(File outputLocation, String filenamePrefix) throws Exception {
+        if ( mesh != null ) {
+            OBJWriter objWriter = new OBJWriter();
+            objWriter.writeVertices(
+                    objWriter.getVertexFile(outputLocation, filenamePrefix, OBJWriter.FILE_SUFFIX, id), mesh
+            );
+        }
+    }
+
+    @Override
+    public Map<Long,RenderBuffersBean> getRenderIdToBuffers() {
+        return renderIdToBuffers;
+    }
+
+    @Override
+    public void close() {
+        renderIdToBuffers.clear();
+        mesh = null;
+    }
+}
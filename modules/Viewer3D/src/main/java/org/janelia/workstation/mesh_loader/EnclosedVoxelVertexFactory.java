@@ -10,6 +10,7 @@ import java.util.HashMap;
  * full set of vertices and a full set of triangles, which have reference to each other, and which can represent
  * a mesh enclosing all the original voxels.  One instance of this class should produce the "geometry"
  * for one contiguous surface.  Do not re-use instance for multiple renderables (such as neuron fragments).
+ * For whole mask volumes, MaskSurfaceMesher gives the same surface without an object per face.
  *
  * Created by fosterl on 4/2/14.
  */
@@ -0,0 +1,424 @@
+package org.janelia.workstation.mesh_loader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes the mesh enclosing all voxels of a mask volume which carry a label, straight from the bytes of the
+ * volume. This gives the same surface as pumping every exposed voxel through EnclosedVoxelVertexFactory,
+ * without making beans, keys and triangles for each face: vertices are found by their packed corner
+ * coordinates in a primitive hash, and the mesh is kept in arrays.
+ * <p>
+ * The volume is cut into slabs along Z, which are meshed in parallel and then stitched at their shared
+ * corners. Unless told otherwise, coplanar faces are merged greedily into rectangles, so that a flat side
+ * of the mask costs two triangles, rather than two per voxel. Merged faces do not share vertices with faces
+ * of other orientations, since their corners may be far apart, and so they are shaded flat. Without merging,
+ * vertices are shared, and their normals composited as by NormalCompositor.combineAxialNormals.
+ */
+public class MaskSurfaceMesher {
+    /** Label which encloses all non-zero voxels. */
+    public static final int ANY_LABEL = -1;
+
+    private static final Logger log = LoggerFactory.getLogger(MaskSurfaceMesher.class);
+
+    private static final int X = 0, Y = 1, Z = 2;
+    // Corner coordinates are packed 20 bits apiece, with the face direction above them, for merged faces.
+    private static final int COORD_BITS = 20;
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+    private static final int DIRECTION_SHIFT = 3 * COORD_BITS;
+    private static final int MIN_SLAB_DEPTH = 16;
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static ExecutorService sharedExecutor;
+
+    private final byte[] volume;
+    private final int[] size;
+    private final int label;
+    private final int[] stride;
+    private boolean mergeFaces = true;
+    private double[] origin = new double[3];
+
+    static synchronized ExecutorService getSharedExecutor() {
+        if (sharedExecutor == null) {
+            sharedExecutor = Executors.newFixedThreadPool(THREADS, new ThreadFactoryBuilder()
+                    .setNameFormat("MaskSurfaceMesher-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return sharedExecutor;
+    }
+
+    /**
+     * @param volume one byte per voxel, x varying fastest, then y, then z.
+     * @param label value of the voxels to enclose, or ANY_LABEL.
+     */
+    public MaskSurfaceMesher(byte[] volume, int sizeX, int sizeY, int sizeZ, int label) {
+        if ((long) sizeX * sizeY * sizeZ > volume.length) {
+            throw new IllegalArgumentException(
+                    "Volume of " + volume.length + " bytes is too small for " + sizeX + "x" + sizeY + "x" + sizeZ);
+        }
+        if (Math.max(sizeX, Math.max(sizeY, sizeZ)) > COORD_MASK) {
+            throw new IllegalArgumentException("Volume may not be more than " + COORD_MASK + " voxels across");
+        }
+        this.volume = volume;
+        this.size = new int[]{sizeX, sizeY, sizeZ};
+        this.label = label;
+        this.stride = new int[]{1, sizeX, sizeX * sizeY};
+    }
+
+    /** Merge coplanar faces into rectangles.  On by default. */
+    public void setMergeFaces(boolean mergeFaces) {
+        this.mergeFaces = mergeFaces;
+    }
+
+    /** Position of the first voxel, to which all vertices are relative.  Vertices lie 1/2 from voxel positions. */
+    public void setOrigin(double x, double y, double z) {
+        this.origin = new double[]{x, y, z};
+    }
+
+    /**
+     * Make the mesh. Runs in a background thread, which may be interrupted to give up.
+     *
+     * @return all triangles enclosing the labeled voxels.
+     */
+    public SurfaceMesh mesh() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        int slabDepth = Math.max(MIN_SLAB_DEPTH, (size[Z] + 4 * THREADS - 1) / (4 * THREADS));
+        ExecutorService executor = getSharedExecutor();
+        List<Future<Slab>> futures = new ArrayList<>();
+        for (int z0 = 0; z0 < size[Z]; z0 += slabDepth) {
+            Slab slab = new Slab(z0, Math.min(z0 + slabDepth, size[Z]));
+            futures.add(executor.submit(() -> {
+                slab.mesh();
+                return slab;
+            }));
+        }
+
+        List<Slab> slabs = new ArrayList<>();
+        try {
+            for (Future<Slab> future : futures) {
+                slabs.add(future.get());
+            }
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("Error meshing mask volume", e.getCause());
+        }
+        finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+
+        SurfaceMesh mesh = stitch(slabs);
+        log.info("Meshed {}x{}x{} mask with {} vertices and {} triangles in {} ms",
+                size[X], size[Y], size[Z], mesh.getVertexCount(), mesh.getTriangleCount(),
+                System.currentTimeMillis() - start);
+        return mesh;
+    }
+
+    /**
+     * Join the slabs into one mesh. Only vertices on the planes between slabs can be found in two of them.
+     */
+    private SurfaceMesh stitch(List<Slab> slabs) {
+        int maxVertices = 0;
+        int indexCount = 0;
+        for (Slab slab : slabs) {
+            maxVertices += slab.vertexCount;
+            indexCount += slab.indexCount;
+        }
+
+        long[] keys = new long[maxVertices];
+        byte[] directions = new byte[maxVertices];
+        int[] indices = new int[indexCount];
+        LongIntMap sharedVertices = new LongIntMap(16);
+        int vertexCount = 0;
+        int indexOffset = 0;
+        for (Slab slab : slabs) {
+            int[] globalIds = new int[slab.vertexCount];
+            for (int i = 0; i < slab.vertexCount; i++) {
+                long key = slab.keys[i];
+                int z = (int) (key & COORD_MASK);
+                int id = -1;
+                if (z == slab.z0 || z == slab.z1) {
+                    id = sharedVertices.get(key);
+                    if (id < 0) {
+                        sharedVertices.put(key, vertexCount);
+                    }
+                }
+                if (id < 0) {
+                    id = vertexCount++;
+                    keys[id] = key;
+                }
+                directions[id] |= slab.directions[i];
+                globalIds[i] = id;
+            }
+            for (int i = 0; i < slab.indexCount; i++) {
+                indices[indexOffset++] = globalIds[slab.indices[i]];
+            }
+        }
+
+        float[] coordinates = new float[vertexCount * 3];
+        float[] normals = new float[vertexCount * 3];
+        for (int i = 0; i < vertexCount; i++) {
+            long key = keys[i];
+            coordinates[i * 3 + X] = (float) (origin[X] + ((key >>> (2 * COORD_BITS)) & COORD_MASK) - 0.5);
+            coordinates[i * 3 + Y] = (float) (origin[Y] + ((key >>> COORD_BITS) & COORD_MASK) - 0.5);
+            coordinates[i * 3 + Z] = (float) (origin[Z] + (key & COORD_MASK) - 0.5);
+            combineAxialNormals(directions[i], normals, i * 3);
+        }
+        return new SurfaceMesh(coordinates, normals, indices);
+    }
+
+    /**
+     * Same result as NormalCompositor.combineAxialNormals, for a vertex touching faces of the given directions.
+     */
+    private static void combineAxialNormals(byte directions, float[] normals, int offset) {
+        double[] normalArray = new double[3];
+        for (int direction = 0; direction < 6; direction++) {
+            if ((directions & (1 << direction)) != 0) {
+                normalArray[direction >> 1] += isPositive(direction) ? 1 : -1;
+            }
+        }
+        double magnitude = Math.sqrt(normalArray[X] * normalArray[X] + normalArray[Y] * normalArray[Y] + normalArray[Z] * normalArray[Z]);
+        for (int i = 0; i < 3; i++) {
+            // Faces cancelling each other out are left to the shader; see NormalCompositor.combineNormals.
+            normals[offset + i] = magnitude > 0 ? (float) (normalArray[i] / magnitude) : 1.0f;
+        }
+    }
+
+    // Directions are numbered twice the axis, plus one if facing up that axis.
+    private static boolean isPositive(int direction) {
+        return (direction & 1) != 0;
+    }
+
+    private boolean isEnclosed(byte value) {
+        return label == ANY_LABEL ? value != 0 : (value & 0xff) == label;
+    }
+
+    /**
+     * The faces of all voxels from z0 up to z1, and the faces on plane z1 if it is the top of the volume.
+     * Vertex numbers are local to the slab until stitched.
+     */
+    private class Slab {
+        private final int z0;
+        private final int z1;
+        private final LongIntMap vertexMap = new LongIntMap(1 << 12);
+        private long[] keys = new long[1 << 12];
+        private byte[] directions = new byte[1 << 12];
+        private int vertexCount;
+        private int[] indices = new int[1 << 12];
+        private int indexCount;
+
+        Slab(int z0, int z1) {
+            this.z0 = z0;
+            this.z1 = z1;
+        }
+
+        void mesh() {
+            int[] lo = new int[]{0, 0, z0};
+            int[] hi = new int[]{size[X], size[Y], z1};
+            for (int d = 0; d < 3; d++) {
+                int u = (d + 1) % 3;
+                int v = (d + 2) % 3;
+                int width = hi[u] - lo[u];
+                int height = hi[v] - lo[v];
+                byte[] faces = new byte[width * height];
+                // Planes lie between voxels; plane k separates voxel k - 1 from voxel k.
+                int lastPlane = d == Z && z1 < size[Z] ? z1 - 1 : hi[d];
+                for (int k = lo[d]; k <= lastPlane; k++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    if (findFaces(d, u, v, k, lo, width, height, faces)) {
+                        coverFaces(d, u, v, k, lo, width, height, faces);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Mark each face on plane k with one more than its direction, leaving zero where there is none.
+         *
+         * @return whether there are any.
+         */
+        private boolean findFaces(int d, int u, int v, int k, int[] lo, int width, int height, byte[] faces) {
+            boolean below = k > 0;
+            boolean above = k < size[d];
+            boolean found = false;
+            int n = 0;
+            for (int j = 0; j < height; j++) {
+                int index = k * stride[d] + (lo[v] + j) * stride[v] + lo[u] * stride[u];
+                for (int i = 0; i < width; i++, n++, index += stride[u]) {
+                    boolean enclosedBelow = below && isEnclosed(volume[index - stride[d]]);
+                    boolean enclosedAbove = above && isEnclosed(volume[index]);
+                    if (enclosedBelow == enclosedAbove) {
+                        faces[n] = 0;
+                    }
+                    else {
+                        faces[n] = (byte) (1 + 2 * d + (enclosedBelow ? 1 : 0));
+                        found = true;
+                    }
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Cover the marked faces with quads, growing each as far as possible along u, and then along v.
+         */
+        private void coverFaces(int d, int u, int v, int k, int[] lo, int width, int height, byte[] faces) {
+            int n = 0;
+            for (int j = 0; j < height; j++) {
+                for (int i = 0; i < width; i++, n++) {
+                    byte face = faces[n];
+                    if (face == 0) {
+                        continue;
+                    }
+                    int quadWidth = 1;
+                    int quadHeight = 1;
+                    if (mergeFaces) {
+                        while (i + quadWidth < width && faces[n + quadWidth] == face) {
+                            quadWidth++;
+                        }
+                        grow:
+                        while (j + quadHeight < height) {
+                            int row = n + quadHeight * width;
+                            for (int w = 0; w < quadWidth; w++) {
+                                if (faces[row + w] != face) {
+                                    break grow;
+                                }
+                            }
+                            quadHeight++;
+                        }
+                    }
+                    for (int h = 0; h < quadHeight; h++) {
+                        Arrays.fill(faces, n + h * width, n + h * width + quadWidth, (byte) 0);
+                    }
+                    addQuad(d, u, v, k, lo[u] + i, lo[v] + j, quadWidth, quadHeight, face - 1);
+                }
+            }
+        }
+
+        /**
+         * Two triangles, wound counter-clockwise when seen from the side the face is on, as in
+         * EnclosedVoxelVertexFactory.
+         */
+        private void addQuad(int d, int u, int v, int k, int u0, int v0, int quadWidth, int quadHeight, int direction) {
+            int[] corner = new int[3];
+            corner[d] = k;
+            int[] quad = new int[4];
+            int[][] uv = {{u0, v0}, {u0 + quadWidth, v0}, {u0 + quadWidth, v0 + quadHeight}, {u0, v0 + quadHeight}};
+            for (int c = 0; c < 4; c++) {
+                // Walking u then v goes counter-clockwise about the positive direction of d.
+                int[] point = uv[isPositive(direction) ? c : (4 - c) % 4];
+                corner[u] = point[0];
+                corner[v] = point[1];
+                quad[c] = addVertex(corner, direction);
+            }
+            addTriangle(quad[0], quad[1], quad[2]);
+            addTriangle(quad[2], quad[3], quad[0]);
+        }
+
+        private int addVertex(int[] corner, int direction) {
+            long key = ((long) corner[X] << (2 * COORD_BITS)) | ((long) corner[Y] << COORD_BITS) | corner[Z];
+            if (mergeFaces) {
+                key |= (long) direction << DIRECTION_SHIFT;
+            }
+            int id = vertexMap.get(key);
+            if (id < 0) {
+                id = vertexCount++;
+                if (id == keys.length) {
+                    keys = Arrays.copyOf(keys, id * 2);
+                    directions = Arrays.copyOf(directions, id * 2);
+                }
+                keys[id] = key;
+                vertexMap.put(key, id);
+            }
+            directions[id] |= 1 << direction;
+            return id;
+        }
+
+        private void addTriangle(int a, int b, int c) {
+            if (indexCount + 3 > indices.length) {
+                indices = Arrays.copyOf(indices, indices.length * 2);
+            }
+            indices[indexCount++] = a;
+            indices[indexCount++] = b;
+            indices[indexCount++] = c;
+        }
+    }
+
+    /**
+     * Open-addressed map from non-negative longs to ints, which are never removed.
+     */
+    private static class LongIntMap {
+        private static final long EMPTY = -1;
+
+        private long[] keys;
+        private int[] values;
+        private int count;
+
+        LongIntMap(int capacity) {
+            keys = new long[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+        }
+
+        /** @return value of the key, or -1 if absent. */
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                if (keys[slot] == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        /** Add a key, which must be absent. */
+        void put(long key, int value) {
+            if (2 * (count + 1) > keys.length) {
+                rehash();
+            }
+            insert(key, value);
+            count++;
+        }
+
+        private void insert(long key, int value) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldKeys[slot] != EMPTY) {
+                    insert(oldKeys[slot], oldValues[slot]);
+                }
+            }
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
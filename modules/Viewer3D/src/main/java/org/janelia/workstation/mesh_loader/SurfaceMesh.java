@@ -0,0 +1,101 @@
+package org.janelia.workstation.mesh_loader;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * An indexed triangle mesh held in primitive arrays: three coordinates and three normal elements for each
+ * vertex, and three vertex numbers for each triangle. Produced by MaskSurfaceMesher, without any per-vertex
+ * or per-triangle objects.
+ */
+public class SurfaceMesh {
+    private static final int COORDS_PER_VERTEX = 3;
+    private static final int BYTES_PER_FLOAT = Float.SIZE / Byte.SIZE;
+    private static final int BYTES_PER_INT = Integer.SIZE / Byte.SIZE;
+
+    private final float[] coordinates;
+    private final float[] normals;
+    private final int[] indices;
+
+    public SurfaceMesh(float[] coordinates, float[] normals, int[] indices) {
+        this.coordinates = coordinates;
+        this.normals = normals;
+        this.indices = indices;
+    }
+
+    public int getVertexCount() {
+        return coordinates.length / COORDS_PER_VERTEX;
+    }
+
+    public int getTriangleCount() {
+        return indices.length / 3;
+    }
+
+    /** @return x, y and z of each vertex. */
+    public float[] getCoordinates() {
+        return coordinates;
+    }
+
+    /** @return the composited normal of each vertex, as set in the a_normal attribute. */
+    public float[] getNormals() {
+        return normals;
+    }
+
+    /** @return three vertex numbers for each triangle, counter-clockwise when seen from outside. */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * Make buffers suitable for upload to GPU, laid out as by BufferPackager: the coordinates of each vertex
+     * followed by its a_normal attribute.
+     *
+     * @return buffers for one renderable.
+     */
+    public RenderBuffersBean toRenderBuffers() {
+        return toRenderBuffers(null, null);
+    }
+
+    /**
+     * Make buffers suitable for upload to GPU, laid out as MeshDrawActor reads them: the coordinates of each
+     * vertex, its a_normal attribute, then the optional color and id attributes, which are the same for all
+     * vertices.  Give the color when drawing with ColoringStrategy.ATTRIBUTE, and the id when the id attribute
+     * is used, or the stride will not match.
+     *
+     * @param color three floats for the b_color attribute, or null.
+     * @param id three floats for the id attribute, or null.
+     * @return buffers for one renderable.
+     */
+    public RenderBuffersBean toRenderBuffers(float[] color, float[] id) {
+        int floatsPerVertex = 2 * COORDS_PER_VERTEX
+                + (color == null ? 0 : COORDS_PER_VERTEX)
+                + (id == null ? 0 : COORDS_PER_VERTEX);
+        ByteBuffer attributeBytes = ByteBuffer.allocateDirect(getVertexCount() * floatsPerVertex * BYTES_PER_FLOAT);
+        attributeBytes.order(ByteOrder.nativeOrder());
+        FloatBuffer attributesBuffer = attributeBytes.asFloatBuffer();
+        for (int i = 0; i < coordinates.length; i += COORDS_PER_VERTEX) {
+            attributesBuffer.put(coordinates, i, COORDS_PER_VERTEX);
+            attributesBuffer.put(normals, i, COORDS_PER_VERTEX);
+            if (color != null) {
+                attributesBuffer.put(color, 0, COORDS_PER_VERTEX);
+            }
+            if (id != null) {
+                attributesBuffer.put(id, 0, COORDS_PER_VERTEX);
+            }
+        }
+        attributesBuffer.rewind();
+
+        ByteBuffer indexBytes = ByteBuffer.allocateDirect(indices.length * BYTES_PER_INT);
+        indexBytes.order(ByteOrder.nativeOrder());
+        IntBuffer indexBuffer = indexBytes.asIntBuffer();
+        indexBuffer.put(indices);
+        indexBuffer.rewind();
+
+        RenderBuffersBean rbb = new RenderBuffersBean();
+        rbb.setAttributesBuffer(attributesBuffer);
+        rbb.setIndexBuffer(indexBuffer);
+        return rbb;
+    }
+}
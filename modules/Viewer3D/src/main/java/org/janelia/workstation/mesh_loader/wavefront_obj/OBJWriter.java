@@ -6,6 +6,7 @@
 
 package org.janelia.workstation.mesh_loader.wavefront_obj;
 
+import org.janelia.workstation.mesh_loader.SurfaceMesh;
 import org.janelia.workstation.mesh_loader.Triangle;
 import org.janelia.workstation.mesh_loader.TriangleSource;
 import org.janelia.workstation.mesh_loader.VertexInfoBean;
@@ -117,4 +118,50 @@ public class OBJWriter {
         objWriter.close();
     }
 
+    /**
+     * Write a mesh already held in arrays, in the same form as for a triangle source.
+     *
+     * @param outputLocationFile full location for file.
+     * @param mesh has all vertices, normals and triangles to be saved.
+     * @throws IOException thrown by failed io opertions.
+     */
+    public void writeVertices(File outputLocationFile, SurfaceMesh mesh) throws IOException {
+        try (PrintWriter objWriter = new PrintWriter( outputLocationFile )) {
+            float[] coords = mesh.getCoordinates();
+            for ( int i = 0; i < coords.length; i += 3 ) {
+                objWriter.print("v ");
+                objWriter.print(coords[i]);
+                objWriter.print(" ");
+                objWriter.print(coords[i + 1]);
+                objWriter.print(" ");
+                objWriter.println(coords[i + 2]);
+            }
+
+            float[] normals = mesh.getNormals();
+            for ( int i = 0; i < normals.length; i += 3 ) {
+                objWriter.print("vn ");
+                objWriter.print(normals[i]);
+                objWriter.print(" ");
+                objWriter.print(normals[i + 1]);
+                objWriter.print(" ");
+                objWriter.println(normals[i + 2]);
+            }
+
+            // OBJ vertex numbers start at 1.
+            int[] indices = mesh.getIndices();
+            for ( int i = 0; i < indices.length; i += 3 ) {
+                objWriter.print("f ");
+                objWriter.print(indices[i] + 1);
+                objWriter.print(" ");
+                objWriter.print(indices[i + 1] + 1);
+                objWriter.print(" ");
+                objWriter.println(indices[i + 2] + 1);
+            }
+
+            if (objWriter.checkError()) {
+                throw new IOException("Failed writing " + outputLocationFile);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,265 @@
+package org.janelia.workstation.mesh_loader;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MaskSurfaceMesherTest {
+
+    private static final double[] ORIGIN = {1000, 2000, 3000};
+
+    private static final class Mask {
+        final byte[] volume;
+        final int[] size;
+
+        Mask(int sizeX, int sizeY, int sizeZ) {
+            this.volume = new byte[sizeX * sizeY * sizeZ];
+            this.size = new int[]{sizeX, sizeY, sizeZ};
+        }
+
+        boolean isLabeled(int x, int y, int z, int label) {
+            if (x < 0 || y < 0 || z < 0 || x >= size[0] || y >= size[1] || z >= size[2]) {
+                return false;
+            }
+            int value = volume[x + size[0] * (y + size[1] * z)] & 0xff;
+            return label == MaskSurfaceMesher.ANY_LABEL ? value != 0 : value == label;
+        }
+
+        int count(int label) {
+            int count = 0;
+            for (int z = 0; z < size[2]; z++) {
+                for (int y = 0; y < size[1]; y++) {
+                    for (int x = 0; x < size[0]; x++) {
+                        if (isLabeled(x, y, z, label)) {
+                            count++;
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+
+        MaskSurfaceMesher mesher(int label, boolean mergeFaces) {
+            MaskSurfaceMesher mesher = new MaskSurfaceMesher(volume, size[0], size[1], size[2], label);
+            mesher.setOrigin(ORIGIN[0], ORIGIN[1], ORIGIN[2]);
+            mesher.setMergeFaces(mergeFaces);
+            return mesher;
+        }
+    }
+
+    /**
+     * @return balls of labels 1 to 3, which may overlap, over a speckle of single voxels of label 1
+     */
+    private static Mask blobs(int sizeX, int sizeY, int sizeZ, long seed) {
+        Random random = new Random(seed);
+        Mask mask = new Mask(sizeX, sizeY, sizeZ);
+        for (int blob = 0; blob < 5; blob++) {
+            double cx = random.nextDouble() * sizeX;
+            double cy = random.nextDouble() * sizeY;
+            double cz = random.nextDouble() * sizeZ;
+            double radius = 2 + random.nextDouble() * sizeX / 6;
+            byte label = (byte) (1 + random.nextInt(3));
+            for (int z = 0; z < sizeZ; z++) {
+                for (int y = 0; y < sizeY; y++) {
+                    for (int x = 0; x < sizeX; x++) {
+                        double dx = x - cx, dy = y - cy, dz = z - cz;
+                        if (dx * dx + dy * dy + dz * dz < radius * radius) {
+                            mask.volume[x + sizeX * (y + sizeY * z)] = label;
+                        }
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < mask.volume.length / 50; i++) {
+            mask.volume[random.nextInt(mask.volume.length)] = 1;
+        }
+        return mask;
+    }
+
+    /**
+     * @return the surface made voxel by voxel, as before MaskSurfaceMesher
+     */
+    private static EnclosedVoxelVertexFactory factoryMesh(Mask mask, int label) {
+        EnclosedVoxelVertexFactory factory = new EnclosedVoxelVertexFactory();
+        for (int z = 0; z < mask.size[2]; z++) {
+            for (int y = 0; y < mask.size[1]; y++) {
+                for (int x = 0; x < mask.size[0]; x++) {
+                    if (!mask.isLabeled(x, y, z, label)) {
+                        continue;
+                    }
+                    VoxelInfoBean bean = new VoxelInfoBean();
+                    bean.setKey(new VoxelInfoKey((long) (x + ORIGIN[0]), (long) (y + ORIGIN[1]), (long) (z + ORIGIN[2])));
+                    boolean exposed = false;
+                    if (!mask.isLabeled(x, y + 1, z, label)) {
+                        bean.setExposedFace(VoxelInfoBean.TOP_FACE);
+                        exposed = true;
+                    }
+                    if (!mask.isLabeled(x, y - 1, z, label)) {
+                        bean.setExposedFace(VoxelInfoBean.BOTTOM_FACE);
+                        exposed = true;
+                    }
+                    if (!mask.isLabeled(x + 1, y, z, label)) {
+                        bean.setExposedFace(VoxelInfoBean.RIGHT_FACE);
+                        exposed = true;
+                    }
+                    if (!mask.isLabeled(x - 1, y, z, label)) {
+                        bean.setExposedFace(VoxelInfoBean.LEFT_FACE);
+                        exposed = true;
+                    }
+                    if (!mask.isLabeled(x, y, z + 1, label)) {
+                        bean.setExposedFace(VoxelInfoBean.FRONT_FACE);
+                        exposed = true;
+                    }
+                    if (!mask.isLabeled(x, y, z - 1, label)) {
+                        bean.setExposedFace(VoxelInfoBean.BACK_FACE);
+                        exposed = true;
+                    }
+                    if (exposed) {
+                        factory.addEnclosure(bean);
+                    }
+                }
+            }
+        }
+        new NormalCompositor().combineAxialNormals(factory);
+        return factory;
+    }
+
+    /**
+     * @return the volume enclosed by the triangles, by the divergence theorem; positive if they face outward
+     */
+    private static double enclosedVolume(float[] coordinates, int[] indices) {
+        double volume = 0;
+        for (int t = 0; t < indices.length; t += 3) {
+            int a = 3 * indices[t], b = 3 * indices[t + 1], c = 3 * indices[t + 2];
+            volume += (coordinates[a] * ((double) coordinates[b + 1] * coordinates[c + 2] - (double) coordinates[b + 2] * coordinates[c + 1])
+                    - coordinates[a + 1] * ((double) coordinates[b] * coordinates[c + 2] - (double) coordinates[b + 2] * coordinates[c])
+                    + coordinates[a + 2] * ((double) coordinates[b] * coordinates[c + 1] - (double) coordinates[b + 1] * coordinates[c])) / 6;
+        }
+        return volume;
+    }
+
+    /**
+     * @return whether every edge is shared by two triangles which run it in opposite directions
+     */
+    private static boolean isClosed(int[] indices) {
+        Map<Long, Integer> edges = new HashMap<>();
+        for (int t = 0; t < indices.length; t += 3) {
+            for (int k = 0; k < 3; k++) {
+                long from = indices[t + k];
+                long to = indices[t + (k + 1) % 3];
+                edges.merge((from << 32) | to, 1, Integer::sum);
+            }
+        }
+        for (Map.Entry<Long, Integer> edge : edges.entrySet()) {
+            long from = edge.getKey() >>> 32;
+            long to = edge.getKey() & 0xffffffffL;
+            if (!edge.getValue().equals(edges.get((to << 32) | from))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void unmergedMeshMatchesTheVoxelFactory() throws Exception {
+        for (int trial = 0; trial < 4; trial++) {
+            Mask mask = blobs(20 + 7 * trial, 17 + 3 * trial, 40 + 11 * trial, trial);
+            int label = trial % 2 == 0 ? MaskSurfaceMesher.ANY_LABEL : 1;
+            EnclosedVoxelVertexFactory factory = factoryMesh(mask, label);
+            SurfaceMesh mesh = mask.mesher(label, false).mesh();
+
+            Map<String, String> factoryNormals = new HashMap<>();
+            for (VertexInfoBean vertex : factory.getVertices()) {
+                factoryNormals.put(Arrays.toString(vertex.getCoordinates()),
+                        Arrays.toString(vertex.getKnownAttribute(VertexInfoBean.KnownAttributes.a_normal)));
+            }
+            Map<String, String> meshNormals = new HashMap<>();
+            float[] coordinates = mesh.getCoordinates();
+            float[] normals = mesh.getNormals();
+            for (int i = 0; i < mesh.getVertexCount(); i++) {
+                meshNormals.put(Arrays.toString(Arrays.copyOfRange(coordinates, 3 * i, 3 * i + 3)),
+                        Arrays.toString(Arrays.copyOfRange(normals, 3 * i, 3 * i + 3)));
+            }
+            assertEquals(factory.getVertices().size(), mesh.getVertexCount());
+            assertEquals(factory.getTriangleList().size(), mesh.getTriangleCount());
+            assertEquals(factoryNormals, meshNormals);
+        }
+    }
+
+    @Test
+    public void unmergedMeshIsClosed() throws Exception {
+        for (int trial = 0; trial < 4; trial++) {
+            Mask mask = blobs(24, 20, 30, trial);
+            SurfaceMesh mesh = mask.mesher(MaskSurfaceMesher.ANY_LABEL, false).mesh();
+            assertTrue("mesh " + trial + " is not closed", isClosed(mesh.getIndices()));
+        }
+    }
+
+    @Test
+    public void meshesEncloseTheLabeledVoxels() throws Exception {
+        for (int trial = 0; trial < 4; trial++) {
+            Mask mask = blobs(24, 20, 30 + 9 * trial, trial);
+            int label = trial % 2 == 0 ? MaskSurfaceMesher.ANY_LABEL : 2;
+            double voxelCount = mask.count(label);
+
+            EnclosedVoxelVertexFactory factory = factoryMesh(mask, label);
+            List<VertexInfoBean> vertices = factory.getVertices();
+            float[] factoryCoordinates = new float[3 * vertices.size()];
+            for (VertexInfoBean vertex : vertices) {
+                System.arraycopy(vertex.getCoordinates(), 0, factoryCoordinates, 3 * vertex.getVtxBufOffset(), 3);
+            }
+            int[] factoryIndices = new int[3 * factory.getTriangleList().size()];
+            int i = 0;
+            for (Triangle triangle : factory.getTriangleList()) {
+                for (VertexInfoBean vertex : triangle.getVertices()) {
+                    factoryIndices[i++] = vertex.getVtxBufOffset();
+                }
+            }
+            SurfaceMesh unmerged = mask.mesher(label, false).mesh();
+            SurfaceMesh merged = mask.mesher(label, true).mesh();
+
+            double tolerance = 1e-3 * voxelCount + 1;
+            assertEquals(voxelCount, enclosedVolume(factoryCoordinates, factoryIndices), tolerance);
+            assertEquals(voxelCount, enclosedVolume(unmerged.getCoordinates(), unmerged.getIndices()), tolerance);
+            assertEquals(voxelCount, enclosedVolume(merged.getCoordinates(), merged.getIndices()), tolerance);
+            assertTrue(merged.getTriangleCount() < unmerged.getTriangleCount());
+        }
+    }
+
+    @Test
+    public void renderBuffersFollowTheAttributeLayoutOfTheDrawActor() throws Exception {
+        Mask mask = new Mask(1, 1, 1);
+        mask.volume[0] = 1;
+        SurfaceMesh mesh = mask.mesher(MaskSurfaceMesher.ANY_LABEL, true).mesh();
+        assertEquals(12, mesh.getTriangleCount());
+        float[] color = {1, 0, 1};
+        float[] id = {0.25f, 0.5f, 0.75f};
+
+        FloatBuffer plain = mesh.toRenderBuffers().getAttributesBuffer();
+        assertEquals(6 * mesh.getVertexCount(), plain.capacity());
+
+        FloatBuffer colored = mesh.toRenderBuffers(color, null).getAttributesBuffer();
+        assertEquals(9 * mesh.getVertexCount(), colored.capacity());
+
+        FloatBuffer all = mesh.toRenderBuffers(color, id).getAttributesBuffer();
+        assertEquals(12 * mesh.getVertexCount(), all.capacity());
+        for (int v = 0; v < mesh.getVertexCount(); v++) {
+            float[] vertex = new float[12];
+            all.position(12 * v);
+            all.get(vertex);
+            assertArrayEquals(Arrays.copyOfRange(mesh.getCoordinates(), 3 * v, 3 * v + 3), Arrays.copyOfRange(vertex, 0, 3), 0);
+            assertArrayEquals(Arrays.copyOfRange(mesh.getNormals(), 3 * v, 3 * v + 3), Arrays.copyOfRange(vertex, 3, 6), 0);
+            assertArrayEquals(color, Arrays.copyOfRange(vertex, 6, 9), 0);
+            assertArrayEquals(id, Arrays.copyOfRange(vertex, 9, 12), 0);
+        }
+    }
+}
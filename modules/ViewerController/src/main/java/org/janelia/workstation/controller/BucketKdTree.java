@@ -0,0 +1,586 @@
+package org.janelia.workstation.controller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+/**
+ * A 3D KD-tree with leaf buckets, for point items identified by a unique long ID.
+ *
+ * Coordinates are kept in flat float arrays inside each leaf. The tree is bulk loaded in parallel
+ * by recursive median partitioning, and afterwards supports incremental inserts, removals and moves.
+ * Several items may share exactly the same position; no key fuzzing is needed.
+ *
+ * Reads never block: leaves are immutable and are replaced (copy-on-write) when edited, and every
+ * structural change is published through a volatile reference. Writers are serialized on the tree.
+ * A reader running concurrently with an edit sees the tree either before or after that edit.
+ *
+ * @param <T> type of the indexed items
+ */
+class BucketKdTree<T> {
+
+    private static final int DEFAULT_LEAF_SIZE = 32;
+    // ranges larger than this are partitioned in parallel during bulk load
+    private static final int PARALLEL_BUILD_THRESHOLD = 1 << 16;
+
+    private final int leafSize;
+    private volatile Node root = new Leaf(new float[0], new long[0], new Object[0]);
+    private volatile int size = 0;
+    // location of every item currently in the tree, needed to find it again after it has moved
+    private LocationMap locations = new LocationMap(16);
+
+    BucketKdTree() {
+        this(DEFAULT_LEAF_SIZE);
+    }
+
+    BucketKdTree(int leafSize) {
+        this.leafSize = leafSize;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Replace the contents of the tree.
+     * The arrays are reordered in place while partitioning.
+     * @param xyz interleaved x, y, z coordinates, three per item
+     * @param ids unique item IDs
+     * @param items the items
+     */
+    synchronized void build(float[] xyz, long[] ids, Object[] items) {
+        int count = ids.length;
+        LocationMap newLocations = new LocationMap(count);
+        for (int i = 0; i < count; i++) {
+            newLocations.put(ids[i], xyz[3 * i], xyz[3 * i + 1], xyz[3 * i + 2]);
+        }
+        Node newRoot = ForkJoinPool.commonPool().invoke(new BuildTask(xyz, ids, items, 0, count));
+        locations = newLocations;
+        size = count;
+        root = newRoot;
+    }
+
+    synchronized void clear() {
+        locations = new LocationMap(16);
+        size = 0;
+        root = new Leaf(new float[0], new long[0], new Object[0]);
+    }
+
+    /**
+     * @return false if an item with this ID is already in the tree
+     */
+    synchronized boolean insert(long id, float x, float y, float z, T item) {
+        if (locations.contains(id)) {
+            return false;
+        }
+        Branch parent = null;
+        boolean isLeft = false;
+        Node node = root;
+        while (node instanceof Branch) {
+            parent = (Branch) node;
+            isLeft = coordinate(parent.axis, x, y, z) < parent.split;
+            node = isLeft ? parent.left : parent.right;
+        }
+        Leaf leaf = (Leaf) node;
+        int n = leaf.ids.length;
+        float[] xyz = Arrays.copyOf(leaf.xyz, 3 * n + 3);
+        long[] ids = Arrays.copyOf(leaf.ids, n + 1);
+        Object[] items = Arrays.copyOf(leaf.items, n + 1);
+        xyz[3 * n] = x;
+        xyz[3 * n + 1] = y;
+        xyz[3 * n + 2] = z;
+        ids[n] = id;
+        items[n] = item;
+        Node replacement = n + 1 > 2 * leafSize ? split(xyz, ids, items) : new Leaf(xyz, ids, items);
+        replaceChild(parent, isLeft, replacement);
+        locations.put(id, x, y, z);
+        size++;
+        return true;
+    }
+
+    /**
+     * @return false if no item with this ID is in the tree
+     */
+    synchronized boolean remove(long id) {
+        int slot = locations.find(id);
+        if (slot < 0) {
+            return false;
+        }
+        float x = locations.x(slot);
+        float y = locations.y(slot);
+        float z = locations.z(slot);
+        Branch parent = null;
+        boolean isLeft = false;
+        Node node = root;
+        while (node instanceof Branch) {
+            parent = (Branch) node;
+            isLeft = coordinate(parent.axis, x, y, z) < parent.split;
+            node = isLeft ? parent.left : parent.right;
+        }
+        Leaf leaf = (Leaf) node;
+        int n = leaf.ids.length;
+        for (int i = 0; i < n; i++) {
+            if (leaf.ids[i] != id) {
+                continue;
+            }
+            // move the last item into the hole
+            float[] xyz = Arrays.copyOf(leaf.xyz, 3 * n - 3);
+            long[] ids = Arrays.copyOf(leaf.ids, n - 1);
+            Object[] items = Arrays.copyOf(leaf.items, n - 1);
+            if (i < n - 1) {
+                System.arraycopy(leaf.xyz, 3 * n - 3, xyz, 3 * i, 3);
+                ids[i] = leaf.ids[n - 1];
+                items[i] = leaf.items[n - 1];
+            }
+            replaceChild(parent, isLeft, new Leaf(xyz, ids, items));
+            locations.remove(id);
+            size--;
+            return true;
+        }
+        // location map and tree disagree; should not happen
+        locations.remove(id);
+        return false;
+    }
+
+    /**
+     * Move an item to a new location, or add it if it was not in the tree.
+     */
+    synchronized void update(long id, float x, float y, float z, T item) {
+        remove(id);
+        insert(id, x, y, z, item);
+    }
+
+    /**
+     * @return up to n items closest to the given point and accepted by the filter, closest first
+     */
+    List<T> nearest(double x, double y, double z, int n, Predicate<? super T> filter) {
+        if (n <= 0) {
+            return Collections.emptyList();
+        }
+        Neighbors<T> neighbors = new Neighbors<>(n, filter);
+        nearest(root, x, y, z, neighbors);
+        return neighbors.toList();
+    }
+
+    /**
+     * @return all items inside the axis aligned box with the given corners, inclusive
+     */
+    List<T> range(double[] lo, double[] hi) {
+        List<T> result = new ArrayList<>();
+        range(root, lo, hi, result);
+        return result;
+    }
+
+    private void replaceChild(Branch parent, boolean isLeft, Node child) {
+        if (parent == null) {
+            root = child;
+        } else if (isLeft) {
+            parent.left = child;
+        } else {
+            parent.right = child;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void nearest(Node node, double x, double y, double z, Neighbors<T> neighbors) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            float[] xyz = leaf.xyz;
+            for (int i = 0, n = leaf.ids.length; i < n; i++) {
+                double dx = xyz[3 * i] - x;
+                double dy = xyz[3 * i + 1] - y;
+                double dz = xyz[3 * i + 2] - z;
+                double d2 = dx * dx + dy * dy + dz * dz;
+                if (d2 < neighbors.worst()) {
+                    neighbors.offer(d2, (T) leaf.items[i]);
+                }
+            }
+            return;
+        }
+        Branch branch = (Branch) node;
+        double delta = coordinate(branch.axis, x, y, z) - branch.split;
+        Node near = delta < 0 ? branch.left : branch.right;
+        Node far = delta < 0 ? branch.right : branch.left;
+        nearest(near, x, y, z, neighbors);
+        if (delta * delta <= neighbors.worst()) {
+            nearest(far, x, y, z, neighbors);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void range(Node node, double[] lo, double[] hi, List<T> result) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            float[] xyz = leaf.xyz;
+            for (int i = 0, n = leaf.ids.length; i < n; i++) {
+                float x = xyz[3 * i];
+                float y = xyz[3 * i + 1];
+                float z = xyz[3 * i + 2];
+                if (x >= lo[0] && x <= hi[0] && y >= lo[1] && y <= hi[1] && z >= lo[2] && z <= hi[2]) {
+                    result.add((T) leaf.items[i]);
+                }
+            }
+            return;
+        }
+        Branch branch = (Branch) node;
+        if (lo[branch.axis] < branch.split) {
+            range(branch.left, lo, hi, result);
+        }
+        if (hi[branch.axis] >= branch.split) {
+            range(branch.right, lo, hi, result);
+        }
+    }
+
+    private static double coordinate(int axis, double x, double y, double z) {
+        return axis == 0 ? x : (axis == 1 ? y : z);
+    }
+
+    /**
+     * Split an overfull leaf in two, or return it unsplit if all its points coincide.
+     */
+    private Node split(float[] xyz, long[] ids, Object[] items) {
+        return new BuildTask(xyz, ids, items, 0, ids.length).compute();
+    }
+
+    /**
+     * Builds the subtree over items [from, to), partitioning at the median of the widest axis.
+     * Items on the split plane always go right.
+     */
+    private final class BuildTask extends RecursiveTask<Node> {
+        private final float[] xyz;
+        private final long[] ids;
+        private final Object[] items;
+        private final int from;
+        private final int to;
+
+        BuildTask(float[] xyz, long[] ids, Object[] items, int from, int to) {
+            this.xyz = xyz;
+            this.ids = ids;
+            this.items = items;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Node compute() {
+            int count = to - from;
+            if (count <= leafSize) {
+                return leaf();
+            }
+            float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+            float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+            for (int i = from; i < to; i++) {
+                for (int a = 0; a < 3; a++) {
+                    float v = xyz[3 * i + a];
+                    if (v < min[a]) min[a] = v;
+                    if (v > max[a]) max[a] = v;
+                }
+            }
+            int axis = 0;
+            for (int a = 1; a < 3; a++) {
+                if (max[a] - min[a] > max[axis] - min[axis]) {
+                    axis = a;
+                }
+            }
+            if (!(max[axis] > min[axis])) {
+                // every point in this range is in the same place
+                return leaf();
+            }
+            int mid = from + count / 2;
+            select(axis, from, to - 1, mid);
+            float split = key(axis, mid);
+            if (split == min[axis]) {
+                // the lower half is all on the minimum; send just those left
+                split = Math.nextUp(min[axis]);
+            }
+            mid = partition(axis, split);
+
+            BuildTask left = new BuildTask(xyz, ids, items, from, mid);
+            BuildTask right = new BuildTask(xyz, ids, items, mid, to);
+            Node leftNode;
+            Node rightNode;
+            if (count > PARALLEL_BUILD_THRESHOLD) {
+                left.fork();
+                rightNode = right.compute();
+                leftNode = left.join();
+            } else {
+                leftNode = left.compute();
+                rightNode = right.compute();
+            }
+            return new Branch(axis, split, leftNode, rightNode);
+        }
+
+        private Leaf leaf() {
+            return new Leaf(
+                    Arrays.copyOfRange(xyz, 3 * from, 3 * to),
+                    Arrays.copyOfRange(ids, from, to),
+                    Arrays.copyOfRange(items, from, to));
+        }
+
+        private float key(int axis, int i) {
+            return xyz[3 * i + axis];
+        }
+
+        private void swap(int i, int j) {
+            long id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+            Object item = items[i];
+            items[i] = items[j];
+            items[j] = item;
+            for (int a = 0; a < 3; a++) {
+                float v = xyz[3 * i + a];
+                xyz[3 * i + a] = xyz[3 * j + a];
+                xyz[3 * j + a] = v;
+            }
+        }
+
+        // Hoare quickselect: afterwards position k holds the k-th smallest along the axis
+        private void select(int axis, int lo, int hi, int k) {
+            while (hi > lo) {
+                float pivot = key(axis, (lo + hi) >>> 1);
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (key(axis, i) < pivot) i++;
+                    while (key(axis, j) > pivot) j--;
+                    if (i <= j) {
+                        swap(i, j);
+                        i++;
+                        j--;
+                    }
+                }
+                if (k <= j) {
+                    hi = j;
+                } else if (k >= i) {
+                    lo = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        // move points below the split to the front; returns the first index at or above it
+        private int partition(int axis, float split) {
+            int i = from;
+            for (int j = from; j < to; j++) {
+                if (key(axis, j) < split) {
+                    swap(i++, j);
+                }
+            }
+            return i;
+        }
+    }
+
+    private static abstract class Node {
+    }
+
+    private static final class Branch extends Node {
+        final int axis;
+        final float split;
+        volatile Node left;
+        volatile Node right;
+
+        Branch(int axis, float split, Node left, Node right) {
+            this.axis = axis;
+            this.split = split;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final float[] xyz;
+        final long[] ids;
+        final Object[] items;
+
+        Leaf(float[] xyz, long[] ids, Object[] items) {
+            this.xyz = xyz;
+            this.ids = ids;
+            this.items = items;
+        }
+    }
+
+    /**
+     * Bounded max-heap of the best candidates seen so far by a nearest neighbor search.
+     */
+    private static final class Neighbors<T> {
+        private final int capacity;
+        private final Predicate<? super T> filter;
+        private double[] distances;
+        private Object[] items;
+        private int count = 0;
+
+        Neighbors(int capacity, Predicate<? super T> filter) {
+            this.capacity = capacity;
+            this.filter = filter;
+            this.distances = new double[Math.min(capacity, 64)];
+            this.items = new Object[distances.length];
+        }
+
+        double worst() {
+            return count < capacity ? Double.POSITIVE_INFINITY : distances[0];
+        }
+
+        void offer(double d2, T item) {
+            if (filter != null && !filter.test(item)) {
+                return;
+            }
+            if (count < capacity) {
+                if (count == distances.length) {
+                    grow();
+                }
+                // sift up
+                int i = count++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (distances[parent] >= d2) break;
+                    distances[i] = distances[parent];
+                    items[i] = items[parent];
+                    i = parent;
+                }
+                distances[i] = d2;
+                items[i] = item;
+            } else {
+                // replace the worst candidate, then sift down
+                int i = 0;
+                int half = count >>> 1;
+                while (i < half) {
+                    int child = 2 * i + 1;
+                    if (child + 1 < count && distances[child + 1] > distances[child]) child++;
+                    if (distances[child] <= d2) break;
+                    distances[i] = distances[child];
+                    items[i] = items[child];
+                    i = child;
+                }
+                distances[i] = d2;
+                items[i] = item;
+            }
+        }
+
+        private void grow() {
+            int length = (int) Math.min((long) capacity, 2L * distances.length);
+            distances = Arrays.copyOf(distances, length);
+            items = Arrays.copyOf(items, length);
+        }
+
+        @SuppressWarnings("unchecked")
+        List<T> toList() {
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(distances[a], distances[b]));
+            List<T> result = new ArrayList<>(count);
+            for (Integer i : order) {
+                result.add((T) items[i]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Open addressing map from item ID to its indexed location.
+     */
+    private static final class LocationMap {
+        private static final long EMPTY = Long.MIN_VALUE;
+        private long[] keys;
+        private float[] values;
+        private int count = 0;
+
+        LocationMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            values = new float[3 * capacity];
+        }
+
+        private int slotFor(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & (keys.length - 1);
+        }
+
+        int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = slotFor(key); ; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) return slot;
+                if (keys[slot] == EMPTY) return -1;
+            }
+        }
+
+        boolean contains(long key) {
+            return find(key) >= 0;
+        }
+
+        float x(int slot) {
+            return values[3 * slot];
+        }
+
+        float y(int slot) {
+            return values[3 * slot + 1];
+        }
+
+        float z(int slot) {
+            return values[3 * slot + 2];
+        }
+
+        void put(long key, float x, float y, float z) {
+            if (2 * (count + 1) > keys.length) {
+                rehash();
+            }
+            int mask = keys.length - 1;
+            int slot = slotFor(key);
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == EMPTY) {
+                count++;
+            }
+            keys[slot] = key;
+            values[3 * slot] = x;
+            values[3 * slot + 1] = y;
+            values[3 * slot + 2] = z;
+        }
+
+        void remove(long key) {
+            int slot = find(key);
+            if (slot < 0) {
+                return;
+            }
+            count--;
+            // backward shift deletion keeps probe sequences intact
+            int mask = keys.length - 1;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+                int home = slotFor(keys[next]);
+                boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+                if (movable) {
+                    keys[hole] = keys[next];
+                    System.arraycopy(values, 3 * next, values, 3 * hole, 3);
+                    hole = next;
+                }
+            }
+            keys[hole] = EMPTY;
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            float[] oldValues = values;
+            allocate(oldKeys.length * 2);
+            count = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    put(oldKeys[i], oldValues[3 * i], oldValues[3 * i + 1], oldValues[3 * i + 2]);
+                }
+            }
+        }
+    }
+}
@@ -1030,11 +1030,10 @@ public class NeuronManager implements DomainObjectSelectionSupport {
     }
 
     private TmHistoricalEvent createSerialization (List<TmNeuronMetadata> neuronList) throws Exception {
-        ObjectMapper mapper = new ObjectMapper();
         TmHistoricalEvent event = new TmHistoricalEvent();
         Map<Long, byte[]> map = new HashMap<>();
         for (TmNeuronMetadata neuron: neuronList) {
-            byte[] neuronData = mapper.writeValueAsBytes(neuron);
+            byte[] neuronData = TmNeuronSerializer.toBytes(neuron);
             map.put(neuron.getId(), neuronData);
         }
         event.setNeurons(map);
@@ -2357,6 +2356,18 @@ public class NeuronManager implements DomainObjectSelectionSupport {
         ViewerEventBus.postEvent(annotationEvent);
     }
 
+    public void fireNeuronsCreated(Collection<TmNeuronMetadata> neurons) {
+        ViewerEventBus.postEvent(new NeuronCreateEvent(this, neurons));
+    }
+
+    public void fireNeuronsChanged(Collection<TmNeuronMetadata> neurons) {
+        ViewerEventBus.postEvent(new NeuronUpdateEvent(this, neurons));
+    }
+
+    public void fireNeuronsDeleted(Collection<TmNeuronMetadata> neurons) {
+        ViewerEventBus.postEvent(new NeuronDeleteEvent(this, neurons));
+    }
+
     public void fireSharedNeuronChanged(TmNeuronMetadata neuron) {
         SharedNeuronUpdateEvent updateEvent = new SharedNeuronUpdateEvent(this,
                 Arrays.asList(new TmNeuronMetadata[]{neuron}));
@@ -2,14 +2,11 @@ package org.janelia.workstation.controller;
 
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import edu.wlu.cs.levy.CG.*;
+import Jama.Matrix;
+import edu.wlu.cs.levy.CG.Checker;
 import org.janelia.model.domain.tiledMicroscope.TmGeoAnnotation;
 import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
 import org.janelia.workstation.controller.model.TmModelManager;
@@ -19,6 +16,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Spatial index for fast access to local NeuronVertexes, given a position in micron space.
  *
+ * Vertices are keyed by annotation ID, so duplicate positions (common when tracers compare
+ * work) are indexed exactly, and a vertex can be found for removal even after it has moved.
+ * Queries are lock-free and may run while the index is being edited.
+ *
  * @author Christopher Bruns
  * @author <a href="mailto:rokickik@janelia.hhmi.org">Konrad Rokicki</a>
  */
@@ -26,19 +27,11 @@ public class NeuronVertexSpatialIndex {
 
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
-    private final Map<TmGeoAnnotation, CacheableKey> cachedKeys = new HashMap<>();
-    
-    private KDTree<TmGeoAnnotation> index; // Cannot be final because it doesn't have a clear method
+    private final BucketKdTree<TmGeoAnnotation> index = new BucketKdTree<>();
 
     // Is the index currently in a valid, usable state?
     private AtomicBoolean valid = new AtomicBoolean(false);
 
-    // used by key fuzzing routine
-    private Random generator = new Random();
-    private static final double XY_PIXEL_MICRONS = 0.4;
-    private double keyFuzzFactor = XY_PIXEL_MICRONS / 2.0 * 1.0e-3;
-
-
     public NeuronVertexSpatialIndex() {
         log.trace("Creating spatial index");
     }
@@ -49,7 +42,6 @@ public class NeuronVertexSpatialIndex {
      * @return
      */
     public TmGeoAnnotation getAnchorClosestToMicronLocation(double[] micronXYZ) {
-        if (index==null) return null;
         List<TmGeoAnnotation> nbrs = getAnchorClosestToMicronLocation(micronXYZ, 1);
         if (nbrs.isEmpty()) return null;
         return nbrs.get(0);
@@ -63,14 +55,7 @@ public class NeuronVertexSpatialIndex {
      * @return
      */
     public List<TmGeoAnnotation> getAnchorClosestToMicronLocation(double[] micronXYZ, int n) {
-        if (index==null) return Collections.emptyList();
-        try {
-            return index.nearest(micronXYZ, n);
-        } 
-        catch (KeySizeException ex) {
-            log.warn("Exception while finding anchor in spatial index", ex);
-            return null;
-        }
+        return index.nearest(micronXYZ[0], micronXYZ[1], micronXYZ[2], n, null);
     }
 
     /**
@@ -82,14 +67,7 @@ public class NeuronVertexSpatialIndex {
      * @return list of matching anchors
      */
     public List<TmGeoAnnotation> getAnchorClosestToMicronLocation(double[] micronXYZ, int n, final Checker<TmGeoAnnotation> filter) {
-        if (index==null) return Collections.emptyList();
-        try {
-            return index.nearest(micronXYZ, n, filter);
-        }
-        catch (KeySizeException ex) {
-            log.warn("Exception while finding anchor in spatial index", ex);
-            return null;
-        }
+        return index.nearest(micronXYZ[0], micronXYZ[1], micronXYZ[2], n, filter::usable);
     }
 
     /**
@@ -99,113 +77,43 @@ public class NeuronVertexSpatialIndex {
      * @return list of anchors 
      */
     public List<TmGeoAnnotation> getAnchorsInMicronArea(double[] p1, double[] p2) {
-        if (index==null) return Collections.emptyList();
-        try {
-            log.debug("Finding anchors in area bounded by points: p1=({},{},{}) p2=({},{},{})",p1[0],p1[1],p1[2],p2[0],p2[1],p2[2]);
-            return index.range(p1, p2);
-        } 
-        catch (KeySizeException ex) {
-            log.warn("Exception while anchors in area using spatial index", ex);
-            return null;
-        }
-    }
-    
-    /**
-     * Return the location of the vertex in micrometers, for indexing within the KD-tree.
-     * @param v
-     * @return
-     */
-    private double[] keyForVertex(TmGeoAnnotation v) {
-        if (cachedKeys.containsKey(v)) {
-            return cachedKeys.get(v).toArray();
-        }
-        else {
-
-            float xyz[] = getLocationInMicrometers(v); // Neuron API returns coordinates in micrometers
-
-            // we originally used the exact coords as the key; that caused
-            //  problems (collisions) when there were duplicate points, which
-            //  happens because (a) we're actually on a discrete pixel grid,
-            //  and (b) when tracers are comparing work, there's a high
-            //  likelihood that they have duplicate points; the problem
-            //  manifest as both inability to select visible points, and
-            //  as points not even being drawn
-
-            // old
-            // return new double[] { xyz[0], xyz[1], xyz[2] };
-
-            // new: add a random fuzz so the indices don't match; note that
-            //  they are all very close to each other, far closer than to any
-            //  other pixel, and that we return the original vertex, which has its
-            //  location data unchanged; it's only the internal key that is fuzzed
-            //  to prevent collisions
-
-            // I'm doing random fuzzing, but you could make a case for
-            //  generating an offset deterministically, based on some unique
-            //  ID, to prevent any possible collisions (again taking advantage
-            //  of the fact that all points are actually on a discrete grid)
-
-            // the usual pixel size is hard-coded as a constant above; we
-            //  could get it from the transform matrices, but they are loaded
-            //  async with the first spatial index build, so that's inconvenient
-            // for now, we'll use the static typical pixel size, and use a
-            //  fuzz factor that's three orders of magnitude less than the
-            //  pixel "radius"; this should behave well as long as the pixel
-            //  size doesn't drop by a couple orders of magnitude below
-            //  the hard-coded size
-
-            double dy = keyFuzzFactor * generator.nextDouble();
-            double dz = keyFuzzFactor * generator.nextDouble();
-            double dx = keyFuzzFactor * generator.nextDouble();
-            return new double[] { xyz[0] + dx, xyz[1] + dy, xyz[2] + dz };
-        }
+        log.debug("Finding anchors in area bounded by points: p1=({},{},{}) p2=({},{},{})",p1[0],p1[1],p1[2],p2[0],p2[1],p2[2]);
+        return index.range(p1, p2);
     }
 
     public boolean addToIndex(TmGeoAnnotation vertex) {
-        try {
-            double[] key = keyForVertex(vertex);
-            // log.info("Adding key to index: ({},{},{})",key[0],key[1],key[2]);
-            index.insert(key, vertex);
-            // log.info("index size = " + index.size());
-            // Store original key, in case the old position changes
-            cachedKeys.put(vertex, cacheableKey(key));
-        }
-        catch (KeySizeException | KeyDuplicateException ex) {
+        if (vertex.getId() == null) {
             return false;
         }
-        return true;
+        float[] xyz = getLocationInMicrometers(vertex);
+        return index.insert(vertex.getId(), xyz[0], xyz[1], xyz[2], vertex);
     }
 
     public float[] getLocationInMicrometers(TmGeoAnnotation vertex) {
         // Convert from image voxel coordinates to Cartesian micrometers
         // TmGeoAnnotation is in voxel coordinates
-        Jama.Matrix voxLoc = new Jama.Matrix(new double[][] {
-                {vertex.getX(), },
-                {vertex.getY(), },
-                {vertex.getZ(), },
-                {1.0, },
-        });
-        // NeuronVertex API requires coordinates in micrometers
-        Jama.Matrix micLoc = TmModelManager.getInstance().getVoxToMicronMatrix().times(voxLoc);
-        return new float[] {
-                (float) micLoc.get(0, 0),
-                (float) micLoc.get(1, 0),
-                (float) micLoc.get(2, 0)};
+        float[] xyz = new float[3];
+        toMicrometers(TmModelManager.getInstance().getVoxToMicronMatrix(), vertex, xyz, 0);
+        return xyz;
     }
 
+    private static void toMicrometers(Matrix voxToMicron, TmGeoAnnotation vertex, float[] xyz, int offset) {
+        double x = vertex.getX();
+        double y = vertex.getY();
+        double z = vertex.getZ();
+        for (int row = 0; row < 3; row++) {
+            xyz[offset + row] = (float) (voxToMicron.get(row, 0) * x
+                    + voxToMicron.get(row, 1) * y
+                    + voxToMicron.get(row, 2) * z
+                    + voxToMicron.get(row, 3));
+        }
+    }
 
     public boolean removeFromIndex(TmGeoAnnotation vertex) {
-        try {
-            double[] k = keyForVertex(vertex);
-            // log.info("Removing key from index: ({},{},{})",k[0],k[1],k[2]);
-            index.delete(k);
-            // log.info("index size = " + index.size());
-            cachedKeys.remove(vertex);
-        }
-        catch (KeySizeException | KeyMissingException ex) {
+        if (vertex.getId() == null) {
             return false;
         }
-        return true;
+        return index.remove(vertex.getId());
     }
     
     public boolean updateIndex(TmGeoAnnotation vertex) {
@@ -215,10 +123,6 @@ public class NeuronVertexSpatialIndex {
         return addToIndex(vertex);
     }
 
-    private CacheableKey cacheableKey(double[] key) {
-        return new CacheableKey(key);
-    }
-    
     public boolean isValid() {
         return valid.get();
     }
@@ -226,31 +130,43 @@ public class NeuronVertexSpatialIndex {
     public synchronized void rebuildIndex(Collection<TmNeuronMetadata> neuronList) {
         log.info("Rebuilding spatial index");
         valid.set(false);
-        clear();
+        int count = 0;
         for (TmNeuronMetadata neuronModel : neuronList) {
             for (TmGeoAnnotation neuronVertex : neuronModel.getGeoAnnotationMap().values()) {
-                addToIndex(neuronVertex);
+                // as in addToIndex, vertices without an ID cannot be indexed
+                if (neuronVertex.getId() != null) {
+                    count++;
+                }
             }
         }
+        Matrix voxToMicron = TmModelManager.getInstance().getVoxToMicronMatrix();
+        float[] xyz = new float[3 * count];
+        long[] ids = new long[count];
+        TmGeoAnnotation[] vertices = new TmGeoAnnotation[count];
+        int i = 0;
+        for (TmNeuronMetadata neuronModel : neuronList) {
+            for (TmGeoAnnotation neuronVertex : neuronModel.getGeoAnnotationMap().values()) {
+                if (neuronVertex.getId() == null || i == count) {
+                    continue;
+                }
+                toMicrometers(voxToMicron, neuronVertex, xyz, 3 * i);
+                ids[i] = neuronVertex.getId();
+                vertices[i] = neuronVertex;
+                i++;
+            }
+        }
+        if (i < count) {
+            // the neurons changed while they were counted
+            xyz = Arrays.copyOf(xyz, 3 * i);
+            ids = Arrays.copyOf(ids, i);
+            vertices = Arrays.copyOf(vertices, i);
+        }
+        index.build(xyz, ids, vertices);
         valid.set(true);
         log.info("Added {} vertices to spatial index", index.size());
     }
     
     public void clear() {
-        this.index = new KDTree<>(3);
-    }
-    
-    private class CacheableKey {
-
-        private final double[] data;
-        
-        public CacheableKey(double[] data) {
-            this.data = Arrays.copyOf(data, 3);
-        }
-        
-        public double[] toArray() {
-            return data;
-        }
-        
+        index.clear();
     }
 }
@@ -0,0 +1,84 @@
+package org.janelia.workstation.controller;
+
+/**
+ * Dispatch statistics of one subscriber method on the ViewerEventBus.
+ *
+ * Queue time is measured from posting an event until the subscriber starts handling it, which
+ * is only more than a few microseconds for subscribers that run on another thread.
+ */
+public class SubscriberStats {
+
+    private final String subscriberName;
+    private final ViewerEventBus.ThreadAffinity affinity;
+    private long eventCount;
+    private long coalescedCount;
+    private long totalQueueNanos;
+    private long maxQueueNanos;
+    private long totalHandleNanos;
+    private long maxHandleNanos;
+
+    SubscriberStats(String subscriberName, ViewerEventBus.ThreadAffinity affinity) {
+        this.subscriberName = subscriberName;
+        this.affinity = affinity;
+    }
+
+    synchronized void recordDispatch(long queueNanos, long handleNanos) {
+        eventCount++;
+        totalQueueNanos += queueNanos;
+        maxQueueNanos = Math.max(maxQueueNanos, queueNanos);
+        totalHandleNanos += handleNanos;
+        maxHandleNanos = Math.max(maxHandleNanos, handleNanos);
+    }
+
+    synchronized void recordCoalesced() {
+        coalescedCount++;
+    }
+
+    /**
+     * @return listener class and method, e.g. PanelController.annotationChanged
+     */
+    public String getSubscriberName() {
+        return subscriberName;
+    }
+
+    public ViewerEventBus.ThreadAffinity getAffinity() {
+        return affinity;
+    }
+
+    /**
+     * @return number of events handled
+     */
+    public synchronized long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return number of events merged into an earlier event that was still waiting for this subscriber
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public synchronized double getMeanQueueMillis() {
+        return eventCount == 0 ? 0 : totalQueueNanos / 1e6 / eventCount;
+    }
+
+    public synchronized double getMaxQueueMillis() {
+        return maxQueueNanos / 1e6;
+    }
+
+    public synchronized double getMeanHandleMillis() {
+        return eventCount == 0 ? 0 : totalHandleNanos / 1e6 / eventCount;
+    }
+
+    public synchronized double getMaxHandleMillis() {
+        return maxHandleNanos / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s (%s): %d events, %d coalesced, queued %.2f ms mean / %.2f ms max, handled in %.2f ms mean / %.2f ms max",
+                subscriberName, affinity, eventCount, coalescedCount,
+                getMeanQueueMillis(), getMaxQueueMillis(), getMeanHandleMillis(), getMaxHandleMillis());
+    }
+}
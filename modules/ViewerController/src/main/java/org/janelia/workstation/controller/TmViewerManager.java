@@ -106,10 +106,16 @@ public class TmViewerManager implements GlobalViewerController {
      *
       */
     public void loadProject(DomainObject project) {
+        // a previous workspace may still be streaming in its neurons
+        modelManager.getNeuronModel().cancelWorkspaceLoad();
         if (TmModelManager.getInstance().getCurrentSample()!=null) {
             boolean isSample = (TmModelManager.getInstance().getCurrentWorkspace()==null) ? true : false;
             TmModelManager.getInstance().setCurrentSample(null);
             TmModelManager.getInstance().setCurrentWorkspace(null);
+            if (TmModelManager.getInstance().getTileServer() != null) {
+                // no more tiles of the closed sample are needed
+                TmModelManager.getInstance().getTileServer().shutdown();
+            }
             UnloadProjectEvent event = new UnloadProjectEvent(this,
                     TmModelManager.getInstance().getCurrentWorkspace(),
                     TmModelManager.getInstance().getCurrentSample(),isSample);
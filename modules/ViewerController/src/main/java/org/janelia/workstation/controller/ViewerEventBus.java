@@ -1,19 +1,125 @@
 package org.janelia.workstation.controller;
 
-import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.janelia.model.domain.tiledMicroscope.TmGeoAnnotation;
+import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
+import org.janelia.workstation.controller.eventbus.AnnotationUpdateEvent;
+import org.janelia.workstation.controller.eventbus.NeuronUpdateEvent;
+import org.janelia.workstation.core.util.ConsoleProperties;
 
-import java.util.HashMap;
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
 
+/**
+ * Event bus shared by the viewers. Listeners mark their handlers with Guava's @Subscribe.
+ *
+ * By default a listener is called on the thread that posts the event, before postEvent returns,
+ * like with a plain Guava EventBus. Listeners that need not be up to date by then, such as
+ * panels and renderers, should register with the thread they want to be called on, so that
+ * they do not hold up the code that posts; bursts of events of a coalesced class, like
+ * AnnotationUpdateEvent, then reach them as fewer, batched events.
+ */
 public class ViewerEventBus {
-    private static final EventBus viewerbus = new EventBus();
+
+    public enum ThreadAffinity {
+        /** the thread that posts the event; the default */
+        POSTING,
+        /** the Swing event dispatch thread */
+        EDT,
+        /** the thread the OpenGL viewers draw on; the EDT unless changed with setGLExecutor */
+        GL,
+        /** a pool of background threads */
+        BACKGROUND
+    }
+
+    private static final ViewerEventDispatcher dispatcher =
+            new ViewerEventDispatcher(ConsoleProperties.getInt("console.eventbus.slowDispatchMillis", 100));
+
+    static {
+        dispatcher.setExecutor(ThreadAffinity.EDT, SwingUtilities::invokeLater);
+        dispatcher.setExecutor(ThreadAffinity.GL, SwingUtilities::invokeLater);
+        dispatcher.setExecutor(ThreadAffinity.BACKGROUND, Executors.newFixedThreadPool(
+                ConsoleProperties.getInt("console.eventbus.backgroundThreads", 2),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("ViewerEventBus-%d")
+                        .setDaemon(true)
+                        .build()));
+        coalesceEvents(AnnotationUpdateEvent.class, (first, second) -> new AnnotationUpdateEvent(
+                second.getSourceClass(),
+                mergeById(first.getAnnotations(), second.getAnnotations(), TmGeoAnnotation::getId),
+                second.hasRequestedNextParent() ? second.getRequestedNextParent() : first.getRequestedNextParent()));
+        coalesceEvents(NeuronUpdateEvent.class, (first, second) -> new NeuronUpdateEvent(
+                second.getSourceClass(),
+                mergeById(first.getNeurons(), second.getNeurons(), TmNeuronMetadata::getId)));
+    }
 
     public static void postEvent(Object event) {
-        viewerbus.post(event);
+        dispatcher.post(event);
     }
     public static void unregisterForEvents(Object listener) {
-        viewerbus.unregister(listener);
+        dispatcher.unregister(listener);
     }
     public static void registerForEvents(Object listener) {
-        viewerbus.register(listener);
+        dispatcher.register(listener, ThreadAffinity.POSTING);
+    }
+
+    /**
+     * Register a listener whose handlers are called on the given thread, in the order the events
+     * were posted, some time after postEvent returns.
+     */
+    public static void registerForEvents(Object listener, ThreadAffinity affinity) {
+        dispatcher.register(listener, affinity);
+    }
+
+    /**
+     * Set where GL listeners are called, e.g. to queue their handlers on a GLAutoDrawable.
+     */
+    public static void setGLExecutor(Executor executor) {
+        dispatcher.setExecutor(ThreadAffinity.GL, executor);
+    }
+
+    /**
+     * Let events of exactly this class be merged while they wait for a listener that is not
+     * called on the posting thread. Events of other classes are never merged across.
+     * @param mergeFunction makes one event out of an event and the one posted after it
+     */
+    public static <E> void coalesceEvents(Class<E> eventClass, BinaryOperator<E> mergeFunction) {
+        dispatcher.setMergeFunction(eventClass, mergeFunction);
+    }
+
+    /**
+     * @return dispatch statistics for the handlers of all registered listeners
+     */
+    public static List<SubscriberStats> getSubscriberStats() {
+        return dispatcher.getSubscriberStats();
+    }
+
+    /**
+     * @return the items of both collections, once per ID, in order of first appearance; the
+     * second collection's item wins when both have the same ID
+     */
+    private static <T> List<T> mergeById(Collection<T> first, Collection<T> second, Function<T, Object> idFunction) {
+        Map<Object, T> merged = new LinkedHashMap<>();
+        putById(merged, first, idFunction);
+        putById(merged, second, idFunction);
+        return new ArrayList<>(merged.values());
+    }
+
+    private static <T> void putById(Map<Object, T> itemsById, Collection<T> items, Function<T, Object> idFunction) {
+        if (items == null) {
+            return;
+        }
+        for (T item : items) {
+            Object id = idFunction.apply(item);
+            itemsById.put(id != null ? id : item, item);
+        }
     }
 }
@@ -0,0 +1,264 @@
+package org.janelia.workstation.controller;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.BinaryOperator;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers events to the @Subscribe methods of registered listeners, each on the thread its
+ * listener asked for.
+ *
+ * Subscribers on the posting thread are called as with Guava's EventBus: events posted while
+ * a thread is already dispatching are queued and delivered after the current event, and
+ * subscribers without @AllowConcurrentEvents never run on two threads at once. Every other
+ * subscriber has a mailbox that is drained, in order, on the subscriber's executor; an event
+ * with a registered merge function is merged into the previous event in the mailbox if that
+ * event is of the same class and still waiting, so a slow subscriber sees one batched event
+ * instead of a burst.
+ */
+class ViewerEventDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(ViewerEventDispatcher.class);
+
+    private final Map<ViewerEventBus.ThreadAffinity, Executor> executors = new ConcurrentHashMap<>();
+    private final Map<Class<?>, BinaryOperator<Object>> mergeFunctions = new ConcurrentHashMap<>();
+    private final Map<Class<?>, List<Subscriber>> subscribersByEventType = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Set<? extends Class<?>>> eventTypeHierarchy = new ConcurrentHashMap<>();
+    private final Map<Object, List<Subscriber>> subscribersByListener = new IdentityHashMap<>(); // guarded by this
+    private final ThreadLocal<Queue<Object>> postedEvents = ThreadLocal.withInitial(ArrayDeque::new);
+    private final ThreadLocal<Boolean> dispatching = ThreadLocal.withInitial(() -> false);
+    private final long slowDispatchNanos;
+
+    ViewerEventDispatcher(long slowDispatchMillis) {
+        this.slowDispatchNanos = slowDispatchMillis * 1000000L;
+    }
+
+    void setExecutor(ViewerEventBus.ThreadAffinity affinity, Executor executor) {
+        executors.put(affinity, executor);
+    }
+
+    <E> void setMergeFunction(Class<E> eventClass, BinaryOperator<E> mergeFunction) {
+        mergeFunctions.put(eventClass, (first, second) -> mergeFunction.apply(eventClass.cast(first), eventClass.cast(second)));
+    }
+
+    synchronized void register(Object listener, ViewerEventBus.ThreadAffinity affinity) {
+        if (subscribersByListener.containsKey(listener)) {
+            log.debug("{} is already registered", listener);
+            return;
+        }
+        List<Subscriber> subscribers = new ArrayList<>();
+        for (Method method : findSubscriberMethods(listener.getClass())) {
+            Subscriber subscriber = new Subscriber(listener, method, affinity);
+            subscribers.add(subscriber);
+            subscribersByEventType.computeIfAbsent(method.getParameterTypes()[0], type -> new CopyOnWriteArrayList<>())
+                    .add(subscriber);
+        }
+        subscribersByListener.put(listener, subscribers);
+    }
+
+    synchronized void unregister(Object listener) {
+        List<Subscriber> subscribers = subscribersByListener.remove(listener);
+        if (subscribers == null) {
+            log.debug("{} was not registered", listener);
+            return;
+        }
+        for (Subscriber subscriber : subscribers) {
+            subscriber.registered = false;
+            subscribersByEventType.get(subscriber.eventType).remove(subscriber);
+        }
+    }
+
+    void post(Object event) {
+        Queue<Object> queue = postedEvents.get();
+        queue.offer(event);
+        if (dispatching.get()) {
+            // delivered by the dispatch loop further up this thread's stack
+            return;
+        }
+        dispatching.set(true);
+        try {
+            Object nextEvent;
+            while ((nextEvent = queue.poll()) != null) {
+                dispatch(nextEvent);
+            }
+        } finally {
+            dispatching.remove();
+            postedEvents.remove();
+        }
+    }
+
+    private void dispatch(Object event) {
+        long postedNanos = System.nanoTime();
+        Set<? extends Class<?>> eventTypes = eventTypeHierarchy.computeIfAbsent(event.getClass(),
+                eventClass -> TypeToken.of(eventClass).getTypes().rawTypes());
+        for (Class<?> eventType : eventTypes) {
+            List<Subscriber> subscribers = subscribersByEventType.get(eventType);
+            if (subscribers != null) {
+                for (Subscriber subscriber : subscribers) {
+                    subscriber.deliver(event, postedNanos);
+                }
+            }
+        }
+    }
+
+    synchronized List<SubscriberStats> getSubscriberStats() {
+        List<SubscriberStats> stats = new ArrayList<>();
+        for (List<Subscriber> subscribers : subscribersByListener.values()) {
+            for (Subscriber subscriber : subscribers) {
+                stats.add(subscriber.stats);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return the @Subscribe methods of a class and its supertypes, overridden methods only once
+     */
+    private static List<Method> findSubscriberMethods(Class<?> listenerClass) {
+        Map<List<Object>, Method> methods = new HashMap<>();
+        for (Class<?> type : TypeToken.of(listenerClass).getTypes().rawTypes()) {
+            for (Method method : type.getDeclaredMethods()) {
+                if (!method.isAnnotationPresent(Subscribe.class) || method.isSynthetic()) {
+                    continue;
+                }
+                Class<?>[] parameterTypes = method.getParameterTypes();
+                if (parameterTypes.length != 1) {
+                    throw new IllegalArgumentException("Method " + method + " has @Subscribe annotation but has "
+                            + parameterTypes.length + " parameters; subscriber methods must have exactly 1 parameter");
+                }
+                List<Object> signature = new ArrayList<>();
+                signature.add(method.getName());
+                signature.addAll(Arrays.asList(parameterTypes));
+                // the most derived declaration comes first
+                methods.putIfAbsent(signature, method);
+            }
+        }
+        return new ArrayList<>(methods.values());
+    }
+
+    private static class PendingEvent {
+        Object event;
+        final long postedNanos;
+
+        PendingEvent(Object event, long postedNanos) {
+            this.event = event;
+            this.postedNanos = postedNanos;
+        }
+    }
+
+    private class Subscriber {
+        final Object listener;
+        final Method method;
+        final Class<?> eventType;
+        final boolean concurrent;
+        final ViewerEventBus.ThreadAffinity affinity;
+        final SubscriberStats stats;
+        final ArrayDeque<PendingEvent> mailbox = new ArrayDeque<>(); // guarded by mailbox
+        boolean drainScheduled = false; // guarded by mailbox
+        volatile boolean registered = true;
+
+        Subscriber(Object listener, Method method, ViewerEventBus.ThreadAffinity affinity) {
+            this.listener = listener;
+            this.method = method;
+            this.eventType = method.getParameterTypes()[0];
+            this.concurrent = method.isAnnotationPresent(AllowConcurrentEvents.class);
+            this.affinity = affinity;
+            this.stats = new SubscriberStats(listener.getClass().getSimpleName() + "." + method.getName(), affinity);
+            method.setAccessible(true);
+        }
+
+        void deliver(Object event, long postedNanos) {
+            if (affinity == ViewerEventBus.ThreadAffinity.POSTING) {
+                invoke(event, postedNanos);
+                return;
+            }
+            synchronized (mailbox) {
+                PendingEvent last = mailbox.peekLast();
+                BinaryOperator<Object> mergeFunction = mergeFunctions.get(event.getClass());
+                if (last != null && mergeFunction != null && last.event.getClass() == event.getClass()) {
+                    last.event = mergeFunction.apply(last.event, event);
+                    stats.recordCoalesced();
+                } else {
+                    mailbox.add(new PendingEvent(event, postedNanos));
+                }
+                if (drainScheduled) {
+                    return;
+                }
+                drainScheduled = true;
+            }
+            executors.get(affinity).execute(this::drainMailbox);
+        }
+
+        private void drainMailbox() {
+            List<PendingEvent> events;
+            synchronized (mailbox) {
+                events = new ArrayList<>(mailbox);
+                mailbox.clear();
+            }
+            try {
+                for (PendingEvent pendingEvent : events) {
+                    if (!registered) {
+                        // events still in the mailbox when the listener was unregistered
+                        break;
+                    }
+                    invoke(pendingEvent.event, pendingEvent.postedNanos);
+                }
+            } finally {
+                boolean moreEvents;
+                synchronized (mailbox) {
+                    moreEvents = !mailbox.isEmpty();
+                    drainScheduled = moreEvents;
+                }
+                if (moreEvents) {
+                    // give other work on the executor a turn before handling the events that came in meanwhile
+                    executors.get(affinity).execute(this::drainMailbox);
+                }
+            }
+        }
+
+        private void invoke(Object event, long postedNanos) {
+            long startNanos = System.nanoTime();
+            try {
+                if (concurrent) {
+                    method.invoke(listener, event);
+                } else {
+                    synchronized (this) {
+                        method.invoke(listener, event);
+                    }
+                }
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                log.error("Exception thrown by subscriber {} handling {}", stats.getSubscriberName(),
+                        event.getClass().getSimpleName(), e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Cannot call subscriber " + method, e);
+            }
+            long handleNanos = System.nanoTime() - startNanos;
+            stats.recordDispatch(Math.max(0, startNanos - postedNanos), handleNanos);
+            if (handleNanos > slowDispatchNanos) {
+                log.info("Subscriber {} took {} ms to handle {} on {}", stats.getSubscriberName(), handleNanos / 1000000,
+                        event.getClass().getSimpleName(), Thread.currentThread().getName());
+            }
+        }
+    }
+}
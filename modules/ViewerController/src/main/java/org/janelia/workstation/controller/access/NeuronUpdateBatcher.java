@@ -0,0 +1,185 @@
+package org.janelia.workstation.controller.access;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
+import org.janelia.workstation.controller.scripts.spatialfilter.NeuronMessageConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects decoded neuron updates made by other clients and applies them on the EDT in batches.
+ *
+ * The first update after a batch was applied starts a short window; everything that arrives
+ * until the EDT gets around to the batch goes into the same batch, so a busy EDT sees fewer,
+ * larger batches rather than a backlog of single updates. Updates must be added in the order
+ * the messages were received. Within a batch there is at most one update per neuron: a create
+ * followed by saves stays a create of the latest version, a create followed by a delete
+ * cancels out, and otherwise the latest update wins.
+ */
+class NeuronUpdateBatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(NeuronUpdateBatcher.class);
+
+    /**
+     * One decoded message about a neuron.
+     */
+    static class RemoteNeuronUpdate {
+        final long receivedTime;
+        final Long workspaceId;
+        final NeuronMessageConstants.MessageType action;
+        final String user;
+        final TmNeuronMetadata neuron;
+
+        /**
+         * @param receivedTime when the message was received, in milliseconds
+         */
+        RemoteNeuronUpdate(long receivedTime, Long workspaceId,
+                           NeuronMessageConstants.MessageType action, String user, TmNeuronMetadata neuron) {
+            this.receivedTime = receivedTime;
+            this.workspaceId = workspaceId;
+            this.action = action;
+            this.user = user;
+            this.neuron = neuron;
+        }
+    }
+
+    private final long windowMillis;
+    private final Consumer<List<RemoteNeuronUpdate>> batchConsumer;
+    private final Executor batchExecutor;
+    private final ScheduledExecutorService windowTimer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("NeuronUpdateBatcher-%d")
+                    .setDaemon(true)
+                    .build());
+
+    // all guarded by this
+    private final Map<Long, RemoteNeuronUpdate> pending = new LinkedHashMap<>();
+    private boolean batchScheduled = false;
+    private long oldestPendingTime;
+    private long coalescedCount;
+    private long appliedCount;
+
+    private volatile long lastLagMillis;
+    private volatile long maxLagMillis;
+
+    /**
+     * @param windowMillis how long to collect updates before handing a batch to the EDT
+     * @param batchConsumer applies a batch; called on the EDT
+     */
+    NeuronUpdateBatcher(long windowMillis, Consumer<List<RemoteNeuronUpdate>> batchConsumer) {
+        this(windowMillis, batchConsumer, SwingUtilities::invokeLater);
+    }
+
+    /**
+     * @param batchExecutor runs the batch consumer, in place of the EDT
+     */
+    NeuronUpdateBatcher(long windowMillis, Consumer<List<RemoteNeuronUpdate>> batchConsumer, Executor batchExecutor) {
+        this.windowMillis = windowMillis;
+        this.batchConsumer = batchConsumer;
+        this.batchExecutor = batchExecutor;
+    }
+
+    synchronized void add(RemoteNeuronUpdate update) {
+        Long neuronId = update.neuron.getId();
+        if (pending.isEmpty()) {
+            oldestPendingTime = update.receivedTime;
+        }
+        RemoteNeuronUpdate previous = pending.remove(neuronId);
+        if (previous == null) {
+            pending.put(neuronId, update);
+        } else {
+            coalescedCount++;
+            RemoteNeuronUpdate merged = merge(previous, update);
+            if (merged != null) {
+                pending.put(neuronId, merged);
+            } else {
+                // the neuron never existed as far as this client knows
+                coalescedCount++;
+            }
+        }
+        if (!batchScheduled) {
+            batchScheduled = true;
+            windowTimer.schedule(() -> batchExecutor.execute(this::applyPending), windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return the one update which has the effect of both, or null if they cancel out
+     */
+    private static RemoteNeuronUpdate merge(RemoteNeuronUpdate previous, RemoteNeuronUpdate update) {
+        if (previous.action == NeuronMessageConstants.MessageType.NEURON_CREATE) {
+            switch (update.action) {
+                case NEURON_SAVE_NEURONDATA:
+                    return new RemoteNeuronUpdate(previous.receivedTime, update.workspaceId,
+                            NeuronMessageConstants.MessageType.NEURON_CREATE, update.user, update.neuron);
+                case NEURON_DELETE:
+                    return null;
+            }
+        }
+        return update;
+    }
+
+    private void applyPending() {
+        List<RemoteNeuronUpdate> batch;
+        long oldestTime;
+        synchronized (this) {
+            batch = new ArrayList<>(pending.values());
+            oldestTime = oldestPendingTime;
+            pending.clear();
+            batchScheduled = false;
+            appliedCount += batch.size();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        long lag = System.currentTimeMillis() - oldestTime;
+        lastLagMillis = lag;
+        maxLagMillis = Math.max(maxLagMillis, lag);
+        try {
+            batchConsumer.accept(batch);
+        } catch (Exception e) {
+            log.error("Error applying {} remote neuron updates", batch.size(), e);
+        }
+    }
+
+    /**
+     * @return number of neurons with an update waiting for the EDT
+     */
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return number of updates dropped because a later message about the same neuron superseded them
+     */
+    synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    synchronized long getAppliedCount() {
+        return appliedCount;
+    }
+
+    /**
+     * @return milliseconds between receiving the oldest message of the last batch and applying the batch
+     */
+    long getLastLagMillis() {
+        return lastLagMillis;
+    }
+
+    long getMaxLagMillis() {
+        return maxLagMillis;
+    }
+}
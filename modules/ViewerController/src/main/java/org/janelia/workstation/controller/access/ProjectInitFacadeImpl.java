@@ -28,6 +28,8 @@ import org.openide.windows.WindowManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.swing.SwingUtilities;
+
 import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
@@ -149,6 +151,7 @@ public class ProjectInitFacadeImpl implements ProjectInitFacade {
         workspace = currProject;
         SimpleWorker worker = new SimpleWorker() {
             TmSample sample;
+            boolean cancelled = false;
 
             @Override
             protected void doStuff() throws Exception {
@@ -166,7 +169,25 @@ public class ProjectInitFacadeImpl implements ProjectInitFacade {
                 // Neurons need to be loaded en masse from raw data from server.
                 NeuronModel manager = modelManager.getNeuronModel();
                 log.info("Loading neurons for workspace {}", workspace.getId());
-                manager.loadWorkspaceNeurons(workspace);
+                boolean completed = manager.loadWorkspaceNeurons(workspace, (loadedCount, totalCount) -> {
+                    if (loadedCount == 0) {
+                        progress2.setDisplayName("Loading neurons");
+                        progress2.switchToDeterminate((int) totalCount);
+                    } else {
+                        progress2.progress(loadedCount + " of " + totalCount + " neurons", (int) loadedCount);
+                    }
+                }, batch -> SwingUtilities.invokeLater(() -> {
+                    // show the neurons as they arrive, unless another workspace was opened meanwhile;
+                    // the viewers are rebuilt from the whole model once loading completes
+                    if (modelManager.getCurrentWorkspace() == currProject) {
+                        ViewerEventBus.postEvent(new NeuronLoadBatchEvent(ProjectInitFacadeImpl.this, batch));
+                    }
+                }));
+                if (!completed) {
+                    // another workspace is being opened
+                    cancelled = true;
+                    return;
+                }
 
                 // if workspace contains more system-owned fragments than a threshold , enable filter
                 String systemNeuron = ConsoleProperties.getInstance().getProperty("console.LVVHorta.tracersgroup").trim();
@@ -212,8 +233,12 @@ public class ProjectInitFacadeImpl implements ProjectInitFacade {
 
             @Override
             protected void hadSuccess() {
-                log.info("Metadata loading completed");
                 progress2.finish();
+                if (cancelled) {
+                    log.info("Metadata loading cancelled for workspace {}", currProject.getId());
+                    return;
+                }
+                log.info("Metadata loading completed");
                 // now that data and tileimagery has been loaded sent out events to refresh the viewers
                 LoadMetadataEvent event;
                 if (workspace!=null)
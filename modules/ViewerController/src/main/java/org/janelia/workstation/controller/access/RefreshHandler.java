@@ -1,6 +1,6 @@
 package org.janelia.workstation.controller.access;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.janelia.messaging.core.AsyncMessageConsumer;
 import org.janelia.messaging.core.ConnectionManager;
 import org.janelia.messaging.core.MessageConnection;
@@ -9,7 +9,10 @@ import org.janelia.messaging.core.impl.AsyncMessageConsumerImpl;
 import org.janelia.messaging.utils.MessagingUtils;
 import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
 import org.janelia.workstation.controller.NeuronManager;
+import org.janelia.workstation.controller.access.NeuronUpdateBatcher.RemoteNeuronUpdate;
 import org.janelia.workstation.controller.model.TmModelManager;
+import org.janelia.workstation.controller.model.TmNeuronSerializer;
+import org.janelia.workstation.controller.model.annotations.neuron.NeuronModel;
 import org.janelia.workstation.controller.scripts.spatialfilter.NeuronMessageConstants;
 import org.janelia.workstation.core.api.AccessManager;
 import org.janelia.workstation.core.util.ConsoleProperties;
@@ -18,16 +21,30 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.SwingUtilities;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 /**
  * @author schauderd
  * handler to manage updates coming from the persistence broker
+ *
+ * Message bodies are decoded on a small pool of threads, off the messaging thread, and the
+ * decoded messages are then handled one at a time, in the order they arrived. Neuron changes
+ * made by other users are coalesced per neuron and applied on the EDT in batches by a
+ * NeuronUpdateBatcher.
  */
 public class RefreshHandler implements MessageHandler {
     private static final Logger log = LoggerFactory.getLogger(RefreshHandler.class);
@@ -35,14 +52,31 @@ public class RefreshHandler implements MessageHandler {
     private static final String MESSAGESERVER_USERACCOUNT = ConsoleProperties.getInstance().getProperty("domain.msgserver.useraccount").trim();
     private static final String MESSAGESERVER_PASSWORD = ConsoleProperties.getInstance().getProperty("domain.msgserver.password").trim();
     private static final String MESSAGESERVER_REFRESHEXCHANGE = ConsoleProperties.getInstance().getProperty("domain.msgserver.exchange.refresh").trim();
+    private static final int DECODE_THREADS = ConsoleProperties.getInt("console.refresh.decodeThreads", 2);
+    private static final long COALESCE_WINDOW_MS = ConsoleProperties.getLong("console.refresh.coalesceMillis", 50);
+    // Remote creates, saves and deletes used to be dropped while the workspace was open, because
+    // handling each on its own flooded the EDT; batched, they are applied unless turned off here.
+    private static final boolean APPLY_REMOTE_UPDATES = ConsoleProperties.getBoolean("console.refresh.applyRemoteUpdates", true);
 
     private NeuronManager annotationModel;
     private AsyncMessageConsumer msgReceiver;
     static RefreshHandler handler;
     private boolean receiveUpdates = false;
     private boolean freezeUpdates = false;
-    private Map<Long, Map<String, Object>> updatesMap = new HashMap<>();
+    private Map<Long, Map<String, Object>> updatesMap = new ConcurrentHashMap<>();
     private TmModelManager modelManager;
+    private final ExecutorService decodeExecutor = Executors.newFixedThreadPool(DECODE_THREADS,
+            new ThreadFactoryBuilder()
+                    .setNameFormat("RefreshDecode-%d")
+                    .setDaemon(true)
+                    .build());
+    private final ExecutorService messageExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("RefreshHandler-%d")
+                    .setDaemon(true)
+                    .build());
+    private final AtomicInteger decodeQueueDepth = new AtomicInteger();
+    private final NeuronUpdateBatcher updateBatcher = new NeuronUpdateBatcher(COALESCE_WINDOW_MS, this::applyRemoteUpdates);
 
     /**
      * @return the receiveUpdates
@@ -141,13 +175,12 @@ public class RefreshHandler implements MessageHandler {
         freezeUpdates = true;
     }
 
-    private void addNeuronUpdate(Map<String, Object> msgHeaders, byte[] msgBody, NeuronMessageConstants.MessageType action, String user) {
+    private void addNeuronUpdate(Future<TmNeuronMetadata> decodedNeuron, NeuronMessageConstants.MessageType action, String user) {
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            TmNeuronMetadata neuron = mapper.readValue(msgBody, TmNeuronMetadata.class);
+            TmNeuronMetadata neuron = getDecodedNeuron(decodedNeuron);
 
             // assume this has to do with neuron CRUD; otherwise ignore
-            Map neuronData = new HashMap<>();
+            Map<String, Object> neuronData = new HashMap<>();
             neuronData.put("neuron", neuron);
             neuronData.put("action", action);
             neuronData.put("user", user);
@@ -166,13 +199,50 @@ public class RefreshHandler implements MessageHandler {
      */
     @Override
     public void handleMessage(Map<String, Object> msgHeaders, byte[] msgBody) {
+        if (msgHeaders == null) {
+            logError("Issue trying to process metadata from update");
+            return;
+        }
+        long receivedTime = System.currentTimeMillis();
+        decodeQueueDepth.incrementAndGet();
+        // only the decoding runs in parallel; the single message thread waits for each message in turn
+        Future<TmNeuronMetadata> decodedNeuron = decodeExecutor.submit(() -> decodeNeuron(msgHeaders, msgBody));
+        messageExecutor.execute(() -> processMessage(msgHeaders, msgBody, decodedNeuron, receivedTime));
+    }
+
+    /**
+     * Decode the neuron carried by a message; runs on the decode pool.
+     *
+     * @return the neuron, or null for messages which carry something else
+     */
+    private TmNeuronMetadata decodeNeuron(Map<String, Object> msgHeaders, byte[] msgBody) throws IOException {
+        try {
+            String type = MessagingUtils.getHeaderAsString(msgHeaders, NeuronMessageConstants.Headers.TYPE);
+            if (NeuronMessageConstants.MessageType.ERROR_PROCESSING.name().equals(type)) {
+                return null;
+            }
+            return TmNeuronSerializer.fromBytes(msgBody);
+        } finally {
+            decodeQueueDepth.decrementAndGet();
+        }
+    }
+
+    private TmNeuronMetadata getDecodedNeuron(Future<TmNeuronMetadata> decodedNeuron) throws Exception {
+        try {
+            return decodedNeuron.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Handle one message once its neuron is decoded; runs on the message thread, in the order messages arrived.
+     */
+    private void processMessage(Map<String, Object> msgHeaders, byte[] msgBody, Future<TmNeuronMetadata> decodedNeuron,
+                                long receivedTime) {
         try {
             StopWatch stopWatch = new StopWatch();
 
-            if (msgHeaders == null) {
-                logError("Issue trying to process metadata from update");
-                return;
-            }
             // thead logging
             log.debug("Thread Count: {}", ManagementFactory.getThreadMXBean().getThreadCount());
             log.debug("Heap Size: {}", Runtime.getRuntime().totalMemory());
@@ -191,7 +261,7 @@ public class RefreshHandler implements MessageHandler {
             if (!receiveUpdates && !freezeUpdates && !user.equals(AccessManager.getSubjectKey())) {
                 if (workspace != null && annotationModel != null && modelManager.getCurrentWorkspace() != null
                         && workspace.longValue() == modelManager.getCurrentWorkspace().getId().longValue()) {
-                    addNeuronUpdate(msgHeaders, msgBody, action, user);
+                    addNeuronUpdate(decodedNeuron, action, user);
                     log.debug("SHARED UPDATE TIME: {}", stopWatch.getElapsedTime());
                 }
                 return;
@@ -205,8 +275,7 @@ public class RefreshHandler implements MessageHandler {
                 return;
             }
 
-            ObjectMapper mapper = new ObjectMapper();
-            TmNeuronMetadata neuron = mapper.readValue(msgBody, TmNeuronMetadata.class);
+            TmNeuronMetadata neuron = getDecodedNeuron(decodedNeuron);
 
             TmNeuronMetadata localNeuron = annotationModel.getNeuronModel().getNeuronById(neuron.getId());// decrease the sync level
             if (localNeuron != null) {
@@ -250,42 +319,18 @@ public class RefreshHandler implements MessageHandler {
                 log.debug("TOTAL MESSAGING PROCESSING TIME: {}", stopWatch.getElapsedTime());
             } else if (action == NeuronMessageConstants.MessageType.REQUEST_NEURON_OWNERSHIP) {
                 // some other user is asking for ownership of this neuron... process accordingly
-            } else {
-                SwingUtilities.invokeLater(new Runnable() {
-                    public void run() {
-                        try {
-                            StopWatch stopWatch2 = new StopWatch();
-                            // fire notice to NeuronManager
-                            // change relevant to this workspace and not executed on this client,
-                            // update model or process request
-                            switch (action) {
-                                case NEURON_CREATE:
-                                   // handleNeuronCreate(neuron, n -> annotationModel.getNeuronModel().addNeuron(n));
-                                    break;
-                                case NEURON_SAVE_NEURONDATA:
-                                    if (!user.equals(AccessManager.getSubjectKey())) {
-    //                                   handleNeuronChanged(neuron);
-                                    }
-                                    break;
-                                case NEURON_DELETE:
-//                                    if (!user.equals(AccessManager.getSubjectKey())) {
-                                      //  handleNeuronDeleted(neuron);
-                                         
-  //                                  }
-                                    break;
-                            }
-                            stopWatch2.stop();
-                            log.debug("RefreshHandler.invokeLater: handled update in {} ms", stopWatch2.getElapsedTime());
-                        } catch (Exception e) {
-                            log.error("Exception thrown in main GUI thread during message processing", e);
-                            logError(e.getMessage());
-                        }
-                        log.debug("TOTAL MESSAGING PROCESSING TIME: {}", stopWatch.getElapsedTime());
-                    }
-                });
+            } else if (APPLY_REMOTE_UPDATES && !user.equals(AccessManager.getSubjectKey())) {
+                // change relevant to this workspace and not executed on this client
+                switch (action) {
+                    case NEURON_CREATE:
+                    case NEURON_SAVE_NEURONDATA:
+                    case NEURON_DELETE:
+                        updateBatcher.add(new RemoteNeuronUpdate(receivedTime, workspace, action, user, neuron));
+                        break;
+                }
             }
             stopWatch.stop();
-            log.info("RefreshHandler: handled message in {} ms", stopWatch.getElapsedTime());
+            log.debug("RefreshHandler: handled message in {} ms", stopWatch.getElapsedTime());
         } catch (Exception e) {
             log.error(e.getMessage());
         }
@@ -303,28 +348,64 @@ public class RefreshHandler implements MessageHandler {
         }
     }
 
-    private void handleNeuronChanged(TmNeuronMetadata neuron) {
-        try {
-            log.info("remote processing change neuron " + neuron.getName());
-            annotationModel.getNeuronModel().addNeuron(neuron);
-            annotationModel.fireSharedNeuronChanged(neuron);
-        } catch (Exception e) {
-            logError("Error handling neuron change: " + e.getMessage());
-            log.error("Error handling neuron changed message for {}", neuron, e);
+    /**
+     * Apply a batch of changes made by other users to the neuron model; runs on the EDT. The
+     * viewers and the spatial index pick up the changes from one event per kind of change.
+     */
+    private void applyRemoteUpdates(List<RemoteNeuronUpdate> batch) {
+        StopWatch stopWatch = new StopWatch();
+        if (annotationModel == null || modelManager.getCurrentWorkspace() == null) {
+            return;
         }
-    }
-
-    private void handleNeuronDeleted(TmNeuronMetadata neuron) {
-        try {
-            log.info("remote processing delete neuron" + neuron.getName());
-            updateFilter(neuron, NeuronMessageConstants.MessageType.NEURON_DELETE);
-			annotationModel.fireNeuronDeleted(neuron);
-        } catch (Exception e) {
-            logError("Error handling neuron change: " + e.getMessage());
-            log.error("Error handling neuron changed message for {}", neuron, e);
+        Long workspaceId = modelManager.getCurrentWorkspace().getId();
+        NeuronModel neuronModel = annotationModel.getNeuronModel();
+        List<TmNeuronMetadata> createdNeurons = new ArrayList<>();
+        List<TmNeuronMetadata> changedNeurons = new ArrayList<>();
+        List<TmNeuronMetadata> deletedNeurons = new ArrayList<>();
+        for (RemoteNeuronUpdate update : batch) {
+            if (!workspaceId.equals(update.workspaceId)) {
+                // queued before another workspace was opened
+                continue;
+            }
+            TmNeuronMetadata neuron = update.neuron;
+            try {
+                switch (update.action) {
+                    case NEURON_CREATE:
+                        neuronModel.addNeuron(neuron);
+                        updateFilter(neuron, update.action);
+                        createdNeurons.add(neuron);
+                        break;
+                    case NEURON_SAVE_NEURONDATA:
+                        neuronModel.addNeuron(neuron);
+                        updateFilter(neuron, update.action);
+                        changedNeurons.add(neuron);
+                        break;
+                    case NEURON_DELETE:
+                        updateFilter(neuron, update.action);
+                        TmNeuronMetadata localNeuron = neuronModel.removeNeuron(neuron);
+                        deletedNeurons.add(localNeuron != null ? localNeuron : neuron);
+                        break;
+                }
+            } catch (Exception e) {
+                // skip this update
+                log.error("Error handling remote update of neuron {}", neuron, e);
+            }
+        }
+        if (!createdNeurons.isEmpty()) {
+            annotationModel.fireNeuronsCreated(createdNeurons);
+        }
+        if (!changedNeurons.isEmpty()) {
+            annotationModel.fireNeuronsChanged(changedNeurons);
         }
+        if (!deletedNeurons.isEmpty()) {
+            annotationModel.fireNeuronsDeleted(deletedNeurons);
+        }
+        stopWatch.stop();
+        log.info("RefreshHandler: applied {} remote updates in {} ms, lag {} ms, {} coalesced so far, {} messages waiting to be decoded",
+                batch.size(), stopWatch.getElapsedTime(), updateBatcher.getLastLagMillis(),
+                updateBatcher.getCoalescedCount(), decodeQueueDepth.get());
     }
-	
+
     public void updateFilter(TmNeuronMetadata neuron, NeuronMessageConstants.MessageType action) {
         annotationModel.updateNeuronFilter(neuron, action);
     }
@@ -346,6 +427,38 @@ public class RefreshHandler implements MessageHandler {
         log.info("The messaging system might have canceled the consumer");
     }
 
+    /**
+     * @return number of received messages that have not been decoded yet
+     */
+    public int getDecodeQueueDepth() {
+        return decodeQueueDepth.get();
+    }
+
+    /**
+     * @return number of neurons with a remote update waiting to be applied on the EDT
+     */
+    public int getPendingUpdateCount() {
+        return updateBatcher.getPendingCount();
+    }
+
+    /**
+     * @return number of remote updates dropped because a newer update of the same neuron superseded them
+     */
+    public long getCoalescedUpdateCount() {
+        return updateBatcher.getCoalescedCount();
+    }
+
+    /**
+     * @return milliseconds from receiving a remote update to applying it, for the oldest update in the last batch
+     */
+    public long getLastUpdateLagMillis() {
+        return updateBatcher.getLastLagMillis();
+    }
+
+    public long getMaxUpdateLagMillis() {
+        return updateBatcher.getMaxLagMillis();
+    }
+
     public NeuronManager getAnnotationModel() {
         return annotationModel;
     }
@@ -5,9 +5,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.RecursiveTask;
-import java.util.stream.Stream;
 
 import org.janelia.it.jacs.model.user_data.tiledMicroscope.CoordinateToRawTransform;
 import org.janelia.model.domain.DomainConstants;
@@ -33,7 +30,6 @@ import org.slf4j.LoggerFactory;
  * @author <a href="mailto:rokickik@janelia.hhmi.org">Konrad Rokicki</a>
  */
 public class TiledMicroscopeDomainMgr {
-    private final int NUM_PARALLEL_NEURONSTREAMS = 4;
     private static final Logger LOG = LoggerFactory.getLogger(TiledMicroscopeDomainMgr.class);
 
     // Singleton
@@ -208,51 +204,12 @@ public class TiledMicroscopeDomainMgr {
         getModel().notifyDomainObjectRemoved(workspace);
     }
 
-    class RetrieveNeuronsTask extends RecursiveTask<Stream<TmNeuronMetadata>> {
-        double defaultLength = 50000.0;
-        int start;
-        int end;
-        long workspaceId;
-
-        RetrieveNeuronsTask(long workspaceId,
-                                 int start, int end) {
-            this.start = start;
-            this.end = end;
-            this.workspaceId = workspaceId;
-        }
-
-        @Override
-        public Stream<TmNeuronMetadata> compute() {
-            if ((end-start)>defaultLength) {
-                List<RetrieveNeuronsTask> tasks = new ArrayList<>();
-                // break up into defaultLength chunks
-                int numChunks = (int)Math.ceil((end-start)/defaultLength);
-                for (int i=0; i<numChunks; i++) {
-                    int newStart = i*(int)defaultLength;
-                    int newEnd = newStart + (int)defaultLength;
-                    if ((newStart+defaultLength)>end) {
-                        newEnd = end;
-                    }
-                    RetrieveNeuronsTask task = new RetrieveNeuronsTask(workspaceId, newStart,
-                            newEnd);
-                    tasks.add(task);
-                    task.fork();
-                }
-
-                return tasks.stream().flatMap(subtask -> subtask.join());
-            } else {
-                LOG.info("Retrieving results - Neuron block: {} - {}", start, end);
-                return client.getWorkspaceNeurons(workspaceId, start, end - start).stream();
-            }
-        }
-    }
-    
-    public Stream<TmNeuronMetadata> streamWorkspaceNeurons(Long workspaceId) {
-        LOG.debug("getWorkspaceNeurons(workspaceId={})",workspaceId);
-        long neuronCount = client.getWorkspaceNeuronCount(workspaceId);
-        ForkJoinPool pool = new ForkJoinPool(NUM_PARALLEL_NEURONSTREAMS);
-        Stream<TmNeuronMetadata> neurons = pool.invoke(new RetrieveNeuronsTask(workspaceId, 0, (int)neuronCount));
-        return neurons;
+    /**
+     * Create a loader for the neurons of the given workspace, capped at maxNeurons.
+     */
+    public WorkspaceNeuronLoader createWorkspaceNeuronLoader(Long workspaceId, long maxNeurons) {
+        LOG.debug("createWorkspaceNeuronLoader(workspaceId={})",workspaceId);
+        return new WorkspaceNeuronLoader(client, workspaceId, maxNeurons);
     }
 
     public TmNeuronMetadata saveMetadata(TmNeuronMetadata neuronMetadata) throws Exception {
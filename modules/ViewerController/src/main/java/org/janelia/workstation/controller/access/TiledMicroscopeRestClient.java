@@ -31,7 +31,6 @@ import org.janelia.workstation.core.api.exceptions.RemoteServiceException;
 import org.janelia.workstation.core.api.http.RESTClientBase;
 import org.janelia.workstation.core.api.http.RestJsonClientManager;
 import org.janelia.workstation.core.util.ConsoleProperties;
-import org.janelia.workstation.integration.util.FrameworkAccess;
 import org.perf4j.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +43,8 @@ import org.slf4j.LoggerFactory;
 public class TiledMicroscopeRestClient extends RESTClientBase {
 
     private static final Logger LOG = LoggerFactory.getLogger(TiledMicroscopeRestClient.class);
+    // thread-safe once configured; shared by all neuron page decoders
+    private static final JsonFactory NEURON_JSON_FACTORY = new ObjectMapper().getFactory();
     private WebTarget service;
     private String remoteApiUrl;
     private String remoteStorageUrl;
@@ -237,19 +238,32 @@ public class TiledMicroscopeRestClient extends RESTClientBase {
     }
 
     Collection<TmNeuronMetadata> getWorkspaceNeurons(Long workspaceId, long offset, int length) {
+        return decodeWorkspaceNeurons(workspaceId, getWorkspaceNeuronBytes(workspaceId, offset, length));
+    }
+
+    /**
+     * Download one page of workspace neurons without decoding it, so that network transfer and
+     * JSON decoding can run on separate threads.
+     */
+    byte[] getWorkspaceNeuronBytes(Long workspaceId, long offset, int length) {
+        WebTarget target = getMouselightDataEndpoint("/workspace/neuron")
+                .queryParam("workspaceId", workspaceId)
+                .queryParam("offset", offset)
+                .queryParam("length", length);
+        try (InputStream is = target
+                .request("application/octet-stream")
+                .get(InputStream.class)) {
+            return ByteStreams.toByteArray(is);
+        } catch (Exception e) {
+            LOG.error("Problems reading the neuron stream from the server for workspace id {}", workspaceId);
+            throw new RemoteServiceException("Client had problems reading Neuron Server Stream", e);
+        }
+    }
+
+    List<TmNeuronMetadata> decodeWorkspaceNeurons(Long workspaceId, byte[] neuronBytes) {
         try {
             List<TmNeuronMetadata> neuronList = new ArrayList<>();
-            WebTarget target = getMouselightDataEndpoint("/workspace/neuron")
-                    .queryParam("workspaceId", workspaceId)
-                    .queryParam("offset", offset)
-                    .queryParam("length", length);
-            ObjectMapper mapper = new ObjectMapper();
-            InputStream is = target
-                    .request("application/octet-stream")
-                    .get(InputStream.class);
-            JsonFactory factory = new JsonFactory();
-            factory.setCodec(mapper);
-            JsonParser parser  = factory.createParser(is);
+            JsonParser parser = NEURON_JSON_FACTORY.createParser(neuronBytes);
             Iterator<TmNeuronMetadata> neurons = parser.readValuesAs(TmNeuronMetadata.class);
             while(neurons.hasNext()) {
                 neuronList.add(neurons.next());
@@ -257,9 +271,8 @@ public class TiledMicroscopeRestClient extends RESTClientBase {
             return neuronList;
 
         } catch (Exception e) {
-            FrameworkAccess.handleException(e);
             LOG.error ("Problems parsing the neuron stream from the server for workspace id {}",workspaceId);
-            throw new RemoteServiceException("Client had problems processing Neuron Server Stream");
+            throw new RemoteServiceException("Client had problems processing Neuron Server Stream", e);
         }
     }
 
@@ -0,0 +1,192 @@
+package org.janelia.workstation.controller.access;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the neurons of a workspace through a bounded pipeline, handing them to the caller
+ * in batches as they arrive instead of all at once at the end.
+ *
+ * Pages of neurons are downloaded in parallel, decoded from JSON on a separate set of threads,
+ * and delivered one page per batch on the thread that called {@link #load}. At most
+ * MAX_PAGES_IN_FLIGHT pages are downloaded ahead of the consumer, so a slow consumer holds
+ * back the downloads rather than letting decoded neurons pile up in memory.
+ *
+ * A loader runs once. It can be cancelled from any thread, e.g. when another workspace is opened.
+ */
+public class WorkspaceNeuronLoader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkspaceNeuronLoader.class);
+
+    private static final int PAGE_SIZE = 5000;
+    private static final int FETCH_THREADS = 4;
+    private static final int DECODE_THREADS = 2;
+    private static final int MAX_PAGES_IN_FLIGHT = 2 * FETCH_THREADS;
+
+    public interface ProgressListener {
+        void progress(long loadedCount, long totalCount);
+    }
+
+    private final TiledMicroscopeRestClient client;
+    private final Long workspaceId;
+    private final long maxNeurons;
+    private final ExecutorService fetchExecutor;
+    private final ExecutorService decodeExecutor;
+    private volatile boolean cancelled = false;
+    private volatile long totalCount = -1;
+    private volatile long loadedCount = 0;
+
+    WorkspaceNeuronLoader(TiledMicroscopeRestClient client, Long workspaceId, long maxNeurons) {
+        this.client = client;
+        this.workspaceId = workspaceId;
+        this.maxNeurons = maxNeurons;
+        this.fetchExecutor = Executors.newFixedThreadPool(FETCH_THREADS,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("NeuronFetch-%d")
+                        .setDaemon(true)
+                        .build());
+        this.decodeExecutor = Executors.newFixedThreadPool(DECODE_THREADS,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("NeuronDecode-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    public Long getWorkspaceId() {
+        return workspaceId;
+    }
+
+    /**
+     * @return number of neurons in the workspace, or -1 if not yet known
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getLoadedCount() {
+        return loadedCount;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stop loading. Batches already handed to the consumer stay delivered; no further batches follow.
+     */
+    public void cancel() {
+        cancelled = true;
+        fetchExecutor.shutdownNow();
+        decodeExecutor.shutdownNow();
+    }
+
+    /**
+     * Load all neurons, blocking until done.
+     * @param batchConsumer receives each decoded batch, on the calling thread
+     * @param progressListener notified after each batch, may be null
+     * @return true if every neuron was delivered, false if the load was cancelled
+     * @throws Exception if any page could not be downloaded or decoded
+     */
+    public boolean load(Consumer<List<TmNeuronMetadata>> batchConsumer,
+                        ProgressListener progressListener) throws Exception {
+        try {
+            long total = Math.min(client.getWorkspaceNeuronCount(workspaceId), maxNeurons);
+            totalCount = total;
+            int pageCount = (int) ((total + PAGE_SIZE - 1) / PAGE_SIZE);
+            LOG.info("Loading {} neurons for workspace {} in {} pages", total, workspaceId, pageCount);
+            if (progressListener != null) {
+                progressListener.progress(0, total);
+            }
+
+            BlockingQueue<Page> results = new LinkedBlockingQueue<>();
+            int submitted = 0;
+            int received = 0;
+            while (received < pageCount) {
+                try {
+                    while (!cancelled && submitted < pageCount && submitted - received < MAX_PAGES_IN_FLIGHT) {
+                        submit(submitted, total, results);
+                        submitted++;
+                    }
+                } catch (RejectedExecutionException e) {
+                    // executors were shut down by a concurrent cancel
+                    if (!cancelled) {
+                        throw e;
+                    }
+                }
+                if (cancelled) {
+                    LOG.info("Cancelled loading neurons for workspace {} after {} of {}", workspaceId, loadedCount, total);
+                    return false;
+                }
+                Page page = results.poll(100, TimeUnit.MILLISECONDS);
+                if (page == null) {
+                    continue;
+                }
+                received++;
+                if (cancelled) {
+                    return false;
+                }
+                if (page.error != null) {
+                    throw unwrap(page.error);
+                }
+                batchConsumer.accept(page.neurons);
+                loadedCount += page.neurons.size();
+                if (progressListener != null) {
+                    progressListener.progress(loadedCount, total);
+                }
+            }
+            return !cancelled;
+        } finally {
+            fetchExecutor.shutdownNow();
+            decodeExecutor.shutdownNow();
+        }
+    }
+
+    private void submit(int pageIndex, long total, BlockingQueue<Page> results) {
+        long offset = (long) pageIndex * PAGE_SIZE;
+        int length = (int) Math.min(PAGE_SIZE, total - offset);
+        CompletableFuture
+                .supplyAsync(() -> client.getWorkspaceNeuronBytes(workspaceId, offset, length), fetchExecutor)
+                .thenApplyAsync(this::decode, decodeExecutor)
+                .whenComplete((neurons, error) -> results.add(new Page(neurons, error)));
+    }
+
+    private List<TmNeuronMetadata> decode(byte[] neuronBytes) {
+        List<TmNeuronMetadata> neurons = client.decodeWorkspaceNeurons(workspaceId, neuronBytes);
+        for (TmNeuronMetadata neuron : neurons) {
+            // make sure to initialize cross references
+            neuron.initNeuronData();
+        }
+        return neurons;
+    }
+
+    private Exception unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    private static class Page {
+        private final List<TmNeuronMetadata> neurons;
+        private final Throwable error;
+
+        Page(List<TmNeuronMetadata> neurons, Throwable error) {
+            this.neurons = neurons;
+            this.error = error;
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package org.janelia.workstation.controller.action;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.janelia.workstation.controller.model.TmNeuronSerializer;
 import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
 import org.janelia.workstation.controller.NeuronManager;
 import org.janelia.workstation.controller.model.TmHistoricalEvent;
@@ -51,7 +51,6 @@ public class RedoNeuronChangeAction extends AbstractAction {
                     return;
                 for (TmHistoricalEvent event: eventList) {
                     Map<Long, byte[]> neuronMap = event.getNeurons();
-                    ObjectMapper objectMapper = new ObjectMapper();
 
                     for (Long neuronId : neuronMap.keySet()) {
                         if (event.getType()== TmHistoricalEvent.EVENT_TYPE.NEURON_DELETE) {
@@ -61,8 +60,7 @@ public class RedoNeuronChangeAction extends AbstractAction {
                                 NeuronManager.getInstance().deleteNeuron(targetDelete);
                             continue;
                         }
-                        TmNeuronMetadata restoredNeuron = objectMapper.readValue(
-                                neuronMap.get(neuronId), TmNeuronMetadata.class);
+                        TmNeuronMetadata restoredNeuron = TmNeuronSerializer.fromBytes(neuronMap.get(neuronId));
                         restoredNeuron.initNeuronData();
                         NeuronManager.getInstance().restoreNeuron(restoredNeuron);
                     }
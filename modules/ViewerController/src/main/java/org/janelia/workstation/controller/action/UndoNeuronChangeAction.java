@@ -9,7 +9,7 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.janelia.workstation.controller.model.TmNeuronSerializer;
 import org.janelia.model.domain.tiledMicroscope.TmGeoAnnotation;
 import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
 import org.janelia.workstation.controller.NeuronManager;
@@ -70,17 +70,15 @@ public class UndoNeuronChangeAction extends AbstractAction {
 
                 log.info("undoing {} actions", eventList.size());
                 for (TmHistoricalEvent event: eventList) {
-                    log.info("undoing type {} on neurons {}", event.getType(), event.getNeurons().keySet());
+                    log.info("undoing type {} on neurons {}", event.getType(), event.getNeuronIds());
                     if (event.getType()== TmHistoricalEvent.EVENT_TYPE.NEURON_DELETE)
                         continue;
                     Map<Long, byte[]> neuronMap = event.getNeurons();
-                    ObjectMapper objectMapper = new ObjectMapper();
 
                     for (Long neuronId : neuronMap.keySet()) {
                         TmModelManager.getInstance().getCurrentReviews().clearLoopedAnnotations();
 
-                        TmNeuronMetadata restoredNeuron = objectMapper.readValue(
-                                neuronMap.get(neuronId), TmNeuronMetadata.class);
+                        TmNeuronMetadata restoredNeuron = TmNeuronSerializer.fromBytes(neuronMap.get(neuronId));
                         restoredNeuron.initNeuronData();
                         NeuronManager.getInstance().restoreNeuron(restoredNeuron);
                     }
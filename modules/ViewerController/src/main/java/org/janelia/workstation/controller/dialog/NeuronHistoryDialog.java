@@ -13,7 +13,7 @@ import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableCellEditor;
 import javax.swing.table.TableCellRenderer;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.janelia.workstation.controller.model.TmNeuronSerializer;
 import com.google.common.eventbus.Subscribe;
 import org.apache.axis2.databinding.types.xsd.String;
 import org.janelia.workstation.controller.NeuronManager;
@@ -150,11 +150,9 @@ public class NeuronHistoryDialog extends ModalDialog {
         public void addRow(Map<Long,byte[]> neuronMap, TmHistoricalEvent.EVENT_TYPE type, Date timestamp) {
             List<TmNeuronMetadata> backupNeurons = new ArrayList<>();
             try {
-                ObjectMapper objectMapper = new ObjectMapper();
                 for (Long neuronId: neuronMap.keySet()) {
 
-                    backupNeurons.add(objectMapper.readValue(
-                            neuronMap.get(neuronId),TmNeuronMetadata.class));
+                    backupNeurons.add(TmNeuronSerializer.fromBytes(neuronMap.get(neuronId)));
                 }
             } catch (IOException e) {
                 FrameworkAccess.handleException(e);
@@ -195,11 +193,9 @@ public class NeuronHistoryDialog extends ModalDialog {
                             if (event==null)
                                 return;
                             Map<Long,byte[]> neuronMap = event.getNeurons();
-                            ObjectMapper objectMapper = new ObjectMapper();
 
                             for (Long neuronId: neuronMap.keySet()) {
-                                TmNeuronMetadata restoredNeuron = objectMapper.readValue(
-                                        neuronMap.get(neuronId), TmNeuronMetadata.class);
+                                TmNeuronMetadata restoredNeuron = TmNeuronSerializer.fromBytes(neuronMap.get(neuronId));
                                 restoredNeuron.initNeuronData();
                                 NeuronManager.getInstance().restoreNeuron(restoredNeuron);
                             }
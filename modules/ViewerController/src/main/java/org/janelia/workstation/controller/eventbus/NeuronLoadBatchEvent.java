@@ -0,0 +1,17 @@
+package org.janelia.workstation.controller.eventbus;
+
+import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
+
+import java.util.Collection;
+
+/**
+ * Neurons of a workspace that is being loaded, posted in batches as they arrive so that they
+ * can be shown before the whole workspace is in. Listeners for NeuronCreateEvent receive these
+ * as well. A LoadNeuronsEvent follows once all neurons have arrived.
+ */
+public class NeuronLoadBatchEvent extends NeuronCreateEvent {
+    public NeuronLoadBatchEvent(Object source,
+                                Collection<TmNeuronMetadata> neurons) {
+        super(source, neurons);
+    }
+}
@@ -1,13 +1,16 @@
 package org.janelia.workstation.controller.model;
 
-import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
-
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 public class TmHistoricalEvent {
     Map<Long, byte[]> neurons = new HashMap<>();
+    // once the event is in the history, the neurons are kept here as keyframes or deltas
+    Map<Long, TmHistoryRecord> records;
     public enum EVENT_TYPE {NEURON_UPDATE, NEURON_DELETE, NEURON_CREATE, NEURON_MERGE};
     EVENT_TYPE type;
     Date timestamp;
@@ -22,12 +25,38 @@ public class TmHistoricalEvent {
         this.timestamp = timestamp;
     }
 
+    /**
+     * @return serialized neurons by neuron ID, rebuilt from the history's compact form if necessary
+     */
     public Map<Long, byte[]> getNeurons() {
-        return neurons;
+        Map<Long, TmHistoryRecord> currentRecords = records;
+        if (currentRecords == null) {
+            return neurons;
+        }
+        Map<Long, byte[]> map = new LinkedHashMap<>();
+        for (Map.Entry<Long, TmHistoryRecord> entry : currentRecords.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().materialize());
+        }
+        return map;
     }
 
     public void setNeurons(Map<Long, byte[]> neurons) {
         this.neurons = neurons;
+        this.records = null;
+    }
+
+    public Set<Long> getNeuronIds() {
+        Map<Long, TmHistoryRecord> currentRecords = records;
+        return Collections.unmodifiableSet(currentRecords == null ? neurons.keySet() : currentRecords.keySet());
+    }
+
+    Map<Long, TmHistoryRecord> getRecords() {
+        return records;
+    }
+
+    void setRecords(Map<Long, TmHistoryRecord> records) {
+        this.records = records;
+        this.neurons = Collections.emptyMap();
     }
 
     public void addItemToSelectionState (TmSelectionState.SelectionCode key, Long itemID) {
@@ -1,18 +1,42 @@
 package org.janelia.workstation.controller.model;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.janelia.model.domain.tiledMicroscope.TmGeoAnnotation;
 import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
 import org.janelia.workstation.integration.util.FrameworkAccess;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * stores history information for doing undo-redos
+ *
+ * Each event still represents whole neuron snapshots, but they are stored compactly: a neuron's
+ * first snapshot is kept in full (a keyframe) and later snapshots of the same neuron as deltas
+ * against the previous one. Keyframes of older events are compressed in the background, and
+ * the oldest events are dropped once the history exceeds its operation count or memory budget.
  */
 public class TmHistory {
+    private static final Logger log = LoggerFactory.getLogger(TmHistory.class);
+
+    public static final int DEFAULT_MAX_OPERATIONS = 10;
+    public static final long DEFAULT_MEMORY_BUDGET = 128L * 1024 * 1024;
+    // longest chain of deltas before another keyframe is stored
+    private static final int KEYFRAME_INTERVAL = 16;
+    // events this recent are left uncompressed, as they are the likeliest to be undone
+    private static final int UNCOMPRESSED_EVENTS = 2;
+
+    private static final ExecutorService compressor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("HistoryCompressor-%d")
+                    .setDaemon(true)
+                    .build());
+
     List<TmHistoricalEvent> historyOperations = new ArrayList<>();
     int undoStep = 0;
     boolean undoMode = false;
@@ -20,29 +44,82 @@ public class TmHistory {
     boolean recordHistory = true;
     Set<Long> neuronsLogged = new HashSet<>();
 
+    private int maxOperations = DEFAULT_MAX_OPERATIONS;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    // newest stored version of each neuron, which the next version is diffed against
+    private final Map<Long, TmHistoryRecord> latestRecords = new HashMap<>();
+    private final Map<Long, byte[]> latestData = new HashMap<>();
+
     public List<TmHistoricalEvent> getHistoryOperations() {
         return historyOperations;
     }
 
-    public void setHistoryOperations(List<TmHistoricalEvent> historyOperations) {
+    public synchronized void setHistoryOperations(List<TmHistoricalEvent> historyOperations) {
         this.historyOperations = historyOperations;
+        resetStorage();
+    }
+
+    public int getMaxOperations() {
+        return maxOperations;
+    }
+
+    public synchronized void setMaxOperations(int maxOperations) {
+        this.maxOperations = Math.max(1, maxOperations);
+        evict();
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
     }
 
-    public TmHistoricalEvent restoreAction(int step) {
+    /**
+     * @param memoryBudget approximate number of bytes the stored history may use; the newest
+     *                     event is always kept, whatever its size
+     */
+    public synchronized void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        evict();
+    }
+
+    /**
+     * @return approximate number of bytes used by the stored history
+     */
+    public synchronized long getMemoryUsed() {
+        long total = 0;
+        for (TmHistoricalEvent event : historyOperations) {
+            Map<Long, TmHistoryRecord> records = event.getRecords();
+            if (records != null) {
+                for (TmHistoryRecord record : records.values()) {
+                    total += record.getMemorySize();
+                }
+            }
+        }
+        for (Map.Entry<Long, byte[]> entry : latestData.entrySet()) {
+            // a keyframe usually shares its bytes with the latest data
+            if (!latestRecords.get(entry.getKey()).sharesData(entry.getValue())) {
+                total += entry.getValue().length;
+            }
+        }
+        return total;
+    }
+
+    public synchronized TmHistoricalEvent restoreAction(int step) {
         TmHistoricalEvent event = historyOperations.get(step);
         historyOperations.clear();
+        resetStorage();
         undoMode = false;
         return event;
     }
 
-    public void clearHistory() {
+    public synchronized void clearHistory() {
         this.historyOperations.clear();
+        resetStorage();
         neuronsLogged.clear();
         undoMode = false;
 
     }
 
-    public List<TmHistoricalEvent> undoAction() {
+    public synchronized List<TmHistoricalEvent> undoAction() {
         if (historyOperations.size()==0)
             return null;
         List<TmHistoricalEvent> actions = new ArrayList<>();
@@ -71,7 +148,7 @@ public class TmHistory {
         return actions;
     }
 
-    public List<TmHistoricalEvent> redoAction() {
+    public synchronized List<TmHistoricalEvent> redoAction() {
         if (historyOperations.size()==0)
             return null;
         if (!undoMode || undoStep==historyOperations.size()-1) {
@@ -106,17 +183,17 @@ public class TmHistory {
         this.recordHistory = recordHistory;
     }
 
-    public void checkBackup(TmNeuronMetadata neuron) {
+    public synchronized void checkBackup(TmNeuronMetadata neuron) {
         if (undoMode) {
             historyOperations.clear();
+            resetStorage();
             neuronsLogged.clear();
             undoMode = false;
         }
         if (!neuronsLogged.contains(neuron.getId())) {
             try {
                 // add historical event
-                ObjectMapper mapper = new ObjectMapper();
-                byte[] neuronData = mapper.writeValueAsBytes(neuron);
+                byte[] neuronData = TmNeuronSerializer.toBytes(neuron);
                 TmHistoricalEvent event = new TmHistoricalEvent();
                 Map<Long, byte[]> map = new HashMap<>();
                 map.put(neuron.getId(), neuronData);
@@ -130,7 +207,7 @@ public class TmHistory {
         }
     }
 
-    private void addCurrentSelectionsToEvent(TmHistoricalEvent event) {
+    void addCurrentSelectionsToEvent(TmHistoricalEvent event) {
         TmSelectionState state = TmModelManager.getInstance().getCurrentSelections();
         if (state.getCurrentNeuron()!=null) {
             TmNeuronMetadata neuron = state.getCurrentNeuron();
@@ -144,7 +221,7 @@ public class TmHistory {
 
     // update last historical event with more relevant selection so undo
     // reverts make more sense contextually.
-    public void addSelectionEvent () {
+    public synchronized void addSelectionEvent () {
         if (undoMode)
             return;
         if (historyOperations.size()>0) {
@@ -153,7 +230,7 @@ public class TmHistory {
         }
     }
 
-    public void addHistoricalEvent (TmHistoricalEvent event) {
+    public synchronized void addHistoricalEvent (TmHistoricalEvent event) {
         if (!recordHistory)
             return;
 
@@ -163,15 +240,100 @@ public class TmHistory {
 
         if (undoMode) {
             historyOperations.clear();
+            resetStorage();
             neuronsLogged.clear();
             undoMode = false;
         }
 
         addCurrentSelectionsToEvent(event);
+        store(event);
         historyOperations.add(event);
         undoStep = 0;
 
-        if (historyOperations.size()>10)
-            historyOperations.remove(0);
+        evict();
+        compressOlderEvents();
+    }
+
+    /**
+     * Replace the event's serialized neurons with keyframes or deltas.
+     */
+    private void store(TmHistoricalEvent event) {
+        if (event.getRecords() != null) {
+            return;
+        }
+        Map<Long, TmHistoryRecord> records = new LinkedHashMap<>();
+        for (Map.Entry<Long, byte[]> entry : event.getNeurons().entrySet()) {
+            Long neuronId = entry.getKey();
+            byte[] neuronData = entry.getValue();
+            TmHistoryRecord previous = latestRecords.get(neuronId);
+            TmHistoryRecord record;
+            if (previous != null && previous.getDepth() < KEYFRAME_INTERVAL) {
+                record = TmHistoryRecord.delta(previous, latestData.get(neuronId), neuronData);
+            } else {
+                record = TmHistoryRecord.keyframe(neuronData);
+            }
+            records.put(neuronId, record);
+            latestRecords.put(neuronId, record);
+            latestData.put(neuronId, neuronData);
+        }
+        event.setRecords(records);
+    }
+
+    private void evict() {
+        while (historyOperations.size() > maxOperations
+                || (historyOperations.size() > 1 && getMemoryUsed() > memoryBudget)) {
+            TmHistoricalEvent evicted = historyOperations.remove(0);
+            if (undoStep > 0) {
+                undoStep--;
+            }
+            Map<Long, TmHistoryRecord> records = evicted.getRecords();
+            if (records == null) {
+                continue;
+            }
+            for (Map.Entry<Long, TmHistoryRecord> entry : records.entrySet()) {
+                Long neuronId = entry.getKey();
+                TmHistoryRecord record = entry.getValue();
+                // the next version of this neuron must no longer depend on the evicted one
+                for (TmHistoricalEvent later : historyOperations) {
+                    TmHistoryRecord next = later.getRecords() == null ? null : later.getRecords().get(neuronId);
+                    if (next != null) {
+                        if (next.getBase() == record) {
+                            next.rebaseAsKeyframe();
+                        }
+                        break;
+                    }
+                }
+                if (latestRecords.get(neuronId) == record) {
+                    latestRecords.remove(neuronId);
+                    latestData.remove(neuronId);
+                }
+            }
+        }
+    }
+
+    private void compressOlderEvents() {
+        int older = historyOperations.size() - UNCOMPRESSED_EVENTS;
+        for (int i = 0; i < older; i++) {
+            Map<Long, TmHistoryRecord> records = historyOperations.get(i).getRecords();
+            if (records == null) {
+                continue;
+            }
+            for (TmHistoryRecord record : records.values()) {
+                if (record.isKeyframe() && !record.isCompressed()) {
+                    compressor.submit(() -> {
+                        try {
+                            record.compress();
+                        } catch (RuntimeException e) {
+                            log.warn("Could not compress neuron history", e);
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    private void resetStorage() {
+        latestRecords.clear();
+        latestData.clear();
     }
 }
@@ -0,0 +1,229 @@
+package org.janelia.workstation.controller.model;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary delta between two serialized versions of the same neuron.
+ *
+ * An edit such as adding, moving, deleting or reparenting an annotation, or changing its radius
+ * or notes, rewrites only a few records of the neuron's JSON. The delta keeps the common prefix
+ * and suffix as copies, then matches the changed middle against the old version record by record
+ * (records end at '}'), so that only the bytes that really changed are stored.
+ *
+ * Encoded form: varint new length, followed by operations, each either
+ * COPY (varint old offset, varint length) or INSERT (varint length, raw bytes).
+ */
+final class TmHistoryDelta {
+
+    private static final int COPY = 0;
+    private static final int INSERT = 1;
+    // below this, matching records costs more than it saves
+    private static final int MIN_MATCH_REGION = 64;
+    private static final byte RECORD_END = '}';
+
+    private TmHistoryDelta() {
+    }
+
+    static byte[] encode(byte[] oldData, byte[] newData) {
+        Encoder encoder = new Encoder(newData);
+        int prefix = 0;
+        int maxCommon = Math.min(oldData.length, newData.length);
+        while (prefix < maxCommon && oldData[prefix] == newData[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < maxCommon - prefix
+                && oldData[oldData.length - 1 - suffix] == newData[newData.length - 1 - suffix]) {
+            suffix++;
+        }
+        encoder.copy(0, prefix);
+
+        int oldStart = prefix;
+        int oldEnd = oldData.length - suffix;
+        int newStart = prefix;
+        int newEnd = newData.length - suffix;
+        if (oldEnd - oldStart < MIN_MATCH_REGION || newEnd - newStart < MIN_MATCH_REGION) {
+            encoder.insert(newStart, newEnd);
+        } else {
+            encodeMiddle(encoder, oldData, oldStart, oldEnd, newData, newStart, newEnd);
+        }
+
+        encoder.copy(oldData.length - suffix, suffix);
+        return encoder.finish();
+    }
+
+    private static void encodeMiddle(Encoder encoder, byte[] oldData, int oldStart, int oldEnd,
+                                     byte[] newData, int newStart, int newEnd) {
+        Map<Long, Integer> oldRecords = new HashMap<>();
+        for (int start = oldStart; start < oldEnd; ) {
+            int end = recordEnd(oldData, start, oldEnd);
+            oldRecords.putIfAbsent(hash(oldData, start, end), start);
+            start = end;
+        }
+
+        int position = newStart;
+        while (position < newEnd) {
+            int end = recordEnd(newData, position, newEnd);
+            Integer match = oldRecords.get(hash(newData, position, end));
+            int length = end - position;
+            if (match == null || match + length > oldEnd || !rangeEquals(oldData, match, newData, position, length)) {
+                encoder.insert(position, end);
+                position = end;
+                continue;
+            }
+            // extend the match past the record for as long as the versions agree
+            while (position + length < newEnd && match + length < oldEnd
+                    && oldData[match + length] == newData[position + length]) {
+                length++;
+            }
+            encoder.copy(match, length);
+            position += length;
+        }
+    }
+
+    static byte[] decode(byte[] oldData, byte[] delta) {
+        int[] cursor = {0};
+        byte[] newData = new byte[readVarint(delta, cursor)];
+        int position = 0;
+        while (cursor[0] < delta.length) {
+            int op = delta[cursor[0]++];
+            if (op == COPY) {
+                int offset = readVarint(delta, cursor);
+                int length = readVarint(delta, cursor);
+                System.arraycopy(oldData, offset, newData, position, length);
+                position += length;
+            } else {
+                int length = readVarint(delta, cursor);
+                System.arraycopy(delta, cursor[0], newData, position, length);
+                cursor[0] += length;
+                position += length;
+            }
+        }
+        if (position != newData.length) {
+            throw new IllegalStateException("Corrupt neuron history delta");
+        }
+        return newData;
+    }
+
+    private static int recordEnd(byte[] data, int start, int limit) {
+        for (int i = start; i < limit; i++) {
+            if (data[i] == RECORD_END) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    // 64-bit FNV-1a
+    private static long hash(byte[] data, int start, int end) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            h ^= data[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static boolean rangeEquals(byte[] a, int aStart, byte[] b, int bStart, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aStart + i] != b[bStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readVarint(byte[] data, int[] cursor) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[cursor[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    /**
+     * Accumulates operations, merging adjacent copies and adjacent inserts.
+     */
+    private static final class Encoder {
+        private final byte[] newData;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int copyOffset = -1;
+        private int copyLength = 0;
+        private int insertStart = -1;
+        private int insertEnd = -1;
+
+        Encoder(byte[] newData) {
+            this.newData = newData;
+            writeVarint(newData.length);
+        }
+
+        void copy(int offset, int length) {
+            if (length == 0) {
+                return;
+            }
+            flushInsert();
+            if (copyLength > 0 && copyOffset + copyLength == offset) {
+                copyLength += length;
+                return;
+            }
+            flushCopy();
+            copyOffset = offset;
+            copyLength = length;
+        }
+
+        void insert(int start, int end) {
+            if (end <= start) {
+                return;
+            }
+            flushCopy();
+            if (insertStart >= 0 && insertEnd == start) {
+                insertEnd = end;
+                return;
+            }
+            flushInsert();
+            insertStart = start;
+            insertEnd = end;
+        }
+
+        byte[] finish() {
+            flushCopy();
+            flushInsert();
+            return out.toByteArray();
+        }
+
+        private void flushCopy() {
+            if (copyLength > 0) {
+                out.write(COPY);
+                writeVarint(copyOffset);
+                writeVarint(copyLength);
+            }
+            copyOffset = -1;
+            copyLength = 0;
+        }
+
+        private void flushInsert() {
+            if (insertStart >= 0) {
+                out.write(INSERT);
+                writeVarint(insertEnd - insertStart);
+                out.write(newData, insertStart, insertEnd - insertStart);
+            }
+            insertStart = -1;
+            insertEnd = -1;
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7f) != 0) {
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.janelia.workstation.controller.model;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * One stored version of a serialized neuron in the undo history: either a keyframe holding the
+ * whole serialization, or a delta against the previous version of the same neuron.
+ *
+ * Keyframes may later be compressed in place; readers always see a consistent payload.
+ */
+final class TmHistoryRecord {
+
+    // fixed per-record cost used in memory accounting
+    private static final int OVERHEAD_BYTES = 64;
+
+    // replaced as a whole, so that a reader never pairs a delta with a missing base
+    private static final class Payload {
+        final TmHistoryRecord base;
+        final byte[] bytes;
+        final boolean compressed;
+        final int rawLength;
+
+        Payload(TmHistoryRecord base, byte[] bytes, boolean compressed, int rawLength) {
+            this.base = base;
+            this.bytes = bytes;
+            this.compressed = compressed;
+            this.rawLength = rawLength;
+        }
+    }
+
+    private volatile Payload payload;
+    private volatile int depth;
+
+    private TmHistoryRecord(TmHistoryRecord base, byte[] bytes, int depth) {
+        this.payload = new Payload(base, bytes, false, bytes.length);
+        this.depth = depth;
+    }
+
+    static TmHistoryRecord keyframe(byte[] neuronData) {
+        return new TmHistoryRecord(null, neuronData, 0);
+    }
+
+    static TmHistoryRecord delta(TmHistoryRecord base, byte[] baseData, byte[] neuronData) {
+        return new TmHistoryRecord(base, TmHistoryDelta.encode(baseData, neuronData), base.depth + 1);
+    }
+
+    /**
+     * @return number of deltas between this record and its keyframe
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    TmHistoryRecord getBase() {
+        return payload.base;
+    }
+
+    boolean isKeyframe() {
+        return payload.base == null;
+    }
+
+    boolean isCompressed() {
+        return payload.compressed;
+    }
+
+    boolean sharesData(byte[] neuronData) {
+        return payload.bytes == neuronData;
+    }
+
+    long getMemorySize() {
+        return OVERHEAD_BYTES + payload.bytes.length;
+    }
+
+    /**
+     * @return the full serialized neuron
+     */
+    byte[] materialize() {
+        Payload current = payload;
+        byte[] bytes = current.compressed ? inflate(current.bytes, current.rawLength) : current.bytes;
+        TmHistoryRecord baseRecord = current.base;
+        return baseRecord == null ? bytes : TmHistoryDelta.decode(baseRecord.materialize(), bytes);
+    }
+
+    /**
+     * Turn this record into a keyframe so that its base can be discarded.
+     */
+    synchronized void rebaseAsKeyframe() {
+        if (payload.base == null) {
+            return;
+        }
+        byte[] neuronData = materialize();
+        payload = new Payload(null, neuronData, false, neuronData.length);
+        depth = 0;
+    }
+
+    /**
+     * Compress a keyframe in place; deltas are already small.
+     */
+    synchronized void compress() {
+        Payload current = payload;
+        if (current.base != null || current.compressed) {
+            return;
+        }
+        byte[] deflated = deflate(current.bytes);
+        if (deflated.length < current.bytes.length) {
+            payload = new Payload(null, deflated, true, current.bytes.length);
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int rawLength) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int count = inflater.inflate(result, length, rawLength - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += count;
+            }
+            if (length != rawLength) {
+                throw new IllegalStateException("Corrupt compressed neuron history");
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed neuron history", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
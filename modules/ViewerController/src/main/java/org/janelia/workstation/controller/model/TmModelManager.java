@@ -249,6 +249,10 @@ public class TmModelManager {
     }
 
     public void setTileServer(TileServer tileServer) {
+        if (this.tileServer != null && this.tileServer != tileServer) {
+            // the replaced server would keep its loader threads
+            this.tileServer.shutdown();
+        }
         this.tileServer = tileServer;
     }
 
@@ -0,0 +1,36 @@
+package org.janelia.workstation.controller.model;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
+
+/**
+ * Shared JSON (de)serialization of neurons for history snapshots and neuron messages.
+ *
+ * Building an ObjectMapper and its serializer caches is far more expensive than the
+ * serialization itself, so a single configured reader and writer are shared; both are thread-safe.
+ */
+public class TmNeuronSerializer {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectWriter WRITER = MAPPER.writerFor(TmNeuronMetadata.class);
+    private static final ObjectReader READER = MAPPER.readerFor(TmNeuronMetadata.class);
+
+    private TmNeuronSerializer() {
+    }
+
+    public static byte[] toBytes(TmNeuronMetadata neuron) throws JsonProcessingException {
+        return WRITER.writeValueAsBytes(neuron);
+    }
+
+    /**
+     * Note that cross references are not initialized; callers that need them must call initNeuronData().
+     */
+    public static TmNeuronMetadata fromBytes(byte[] neuronData) throws IOException {
+        return READER.readValue(neuronData);
+    }
+}
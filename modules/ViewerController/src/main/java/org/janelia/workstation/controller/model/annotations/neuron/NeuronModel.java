@@ -3,7 +3,7 @@ package org.janelia.workstation.controller.model.annotations.neuron;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 import org.janelia.model.domain.tiledMicroscope.TmAnchoredPath;
 import org.janelia.model.domain.tiledMicroscope.TmAnchoredPathEndpoints;
@@ -12,6 +12,7 @@ import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
 import org.janelia.model.domain.tiledMicroscope.TmStructuredTextAnnotation;
 import org.janelia.model.domain.tiledMicroscope.TmWorkspace;
 import org.janelia.model.util.TmNeuronUtils;
+import org.janelia.workstation.controller.access.WorkspaceNeuronLoader;
 import org.janelia.workstation.controller.model.IdSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,6 +25,9 @@ public class NeuronModel {
     private Map<Long, TmNeuronMetadata> neuronMap;
     private CompletableFuture<Boolean> ownershipRequest;
     private CompletableFuture<TmNeuronMetadata> createNeuronRequest;
+    private volatile WorkspaceNeuronLoader workspaceLoader;
+    // held while a workspace load runs, so that the next one starts after the previous one stopped
+    private final Object workspaceLoadLock = new Object();
     static NeuronModel modelInstance;
 
     static public NeuronModel getInstance() {
@@ -204,12 +208,75 @@ public class NeuronModel {
      * one which happens to be on the server.
      */
     public void loadWorkspaceNeurons(TmWorkspace workspace) throws Exception {
-        neuronMap.clear();
-        // addNeurons() must be done serially, so flatten the stream:
-        for (TmNeuronMetadata n: neuronModelAdapter.loadNeurons(workspace).collect(Collectors.toList())) {
-            addNeuron(n);
+        loadWorkspaceNeurons(workspace, null);
+    }
+
+    /**
+     * Load the workspace's neurons, adding them to the model in batches as they arrive. Any load
+     * still running for a previous workspace is cancelled first.
+     *
+     * @return false if this load was itself cancelled before all neurons arrived
+     */
+    public boolean loadWorkspaceNeurons(TmWorkspace workspace, WorkspaceNeuronLoader.ProgressListener progressListener) throws Exception {
+        return loadWorkspaceNeurons(workspace, progressListener, null);
+    }
+
+    /**
+     * Load the workspace's neurons, as above, passing each batch to the listener once it is in the model.
+     *
+     * @param batchListener called on the loading thread, and not after this load was cancelled; may be null
+     * @return false if this load was itself cancelled before all neurons arrived
+     */
+    public boolean loadWorkspaceNeurons(TmWorkspace workspace, WorkspaceNeuronLoader.ProgressListener progressListener,
+                                        Consumer<List<TmNeuronMetadata>> batchListener) throws Exception {
+        WorkspaceNeuronLoader loader = neuronModelAdapter.createNeuronLoader(workspace);
+        WorkspaceNeuronLoader previous;
+        synchronized (this) {
+            previous = workspaceLoader;
+            workspaceLoader = loader;
+        }
+        if (previous != null) {
+            previous.cancel();
+        }
+        // wait for the previous load to return, so that it adds no neurons after the map is cleared
+        synchronized (workspaceLoadLock) {
+            if (loader.isCancelled()) {
+                return false;
+            }
+            neuronMap.clear();
+            try {
+                // addNeuron() must be done serially, so batches are delivered on this thread
+                boolean completed = loader.load(batch -> {
+                    if (loader.isCancelled()) {
+                        return;
+                    }
+                    for (TmNeuronMetadata n : batch) {
+                        addNeuron(n);
+                    }
+                    if (batchListener != null) {
+                        batchListener.accept(batch);
+                    }
+                }, progressListener);
+                LOG.info("loadWorkspaceNeurons() loaded {} neurons{}", neuronMap.size(), completed ? "" : " before being cancelled");
+                return completed;
+            } finally {
+                synchronized (this) {
+                    if (workspaceLoader == loader) {
+                        workspaceLoader = null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop any workspace neuron load in progress.
+     */
+    public void cancelWorkspaceLoad() {
+        WorkspaceNeuronLoader loader = workspaceLoader;
+        if (loader != null) {
+            loader.cancel();
         }
-        LOG.info("loadWorkspaceNeurons() loaded {} neurons", neuronMap.size());
     }
 
     /**
@@ -2,9 +2,7 @@ package org.janelia.workstation.controller.model.annotations.neuron;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Stream;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.janelia.messaging.core.ConnectionManager;
 import org.janelia.messaging.core.MessageConnection;
@@ -15,13 +13,13 @@ import org.janelia.model.domain.tiledMicroscope.TmWorkspace;
 import org.janelia.workstation.controller.model.TmHistoricalEvent;
 import org.janelia.workstation.controller.model.TmHistory;
 import org.janelia.workstation.controller.model.TmModelManager;
+import org.janelia.workstation.controller.model.TmNeuronSerializer;
 import org.janelia.workstation.controller.scripts.spatialfilter.NeuronMessageConstants;
 import org.janelia.workstation.core.api.AccessManager;
-import org.janelia.workstation.core.api.ClientDomainUtils;
 import org.janelia.workstation.core.util.ConsoleProperties;
 import org.janelia.workstation.controller.access.TiledMicroscopeDomainMgr;
+import org.janelia.workstation.controller.access.WorkspaceNeuronLoader;
 //import org.janelia.workstation.gui.large_volume_viewer.options.ApplicationPanel;
-import org.perf4j.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,42 +43,9 @@ class NeuronModelAdapter {
     private TiledMicroscopeDomainMgr tmDomainMgr = TiledMicroscopeDomainMgr.getDomainMgr();
     private MessageSender messageSender;
 
-    Stream<TmNeuronMetadata> loadNeurons(TmWorkspace workspace) {
+    WorkspaceNeuronLoader createNeuronLoader(TmWorkspace workspace) {
         LOG.info("Loading neurons for workspace: {}", workspace);
-        StopWatch stopWatch = new StopWatch();
-        try {
-            return tmDomainMgr.streamWorkspaceNeurons(workspace.getId())
-                    .limit(MAX_NEURONS)
-                    .map(neuron -> {
-                        if (ClientDomainUtils.hasWriteAccess(workspace)) {
-                          /*  if (ApplicationPanel.isVerifyNeurons()) {
-                                LOG.info("Checking neuron data consistency");
-                                // check neuron consistency and repair (some) problems
-                                LOG.debug("Checking neuron data for TmNeuronMetadata#{}", neuron.getId());
-                                List<String> results = neuron.checkRepairNeuron();
-                                if (results.size() > 0) {
-                                    // save results, then output to LOG; this is unfortunately
-                                    //  not visible to the user; we aren't in a place in the
-                                    //  code where we can pop a dialog
-                                    for (String s : results) {
-                                        LOG.warn(s);
-                                    }
-                                    try {
-                                        return tmDomainMgr.save(neuron);
-                                    } catch (Exception e) {
-                                        throw new IllegalStateException(e);
-                                    }
-                                }
-                            }*/
-                        }
-                        // make sure to initialize cross references
-                        neuron.initNeuronData();
-                        return neuron;
-                    })
-                    ;
-        } finally {
-            LOG.info("Getting neurons stream took {} ms", stopWatch.getElapsedTime());
-        }
+        return tmDomainMgr.createWorkspaceNeuronLoader(workspace.getId(), MAX_NEURONS);
     }
 
     private MessageSender getSender() {
@@ -116,8 +81,7 @@ class NeuronModelAdapter {
 
         List<Long> neuronIds = new ArrayList<Long>();
         neuronIds.add(neuron.getId());
-        ObjectMapper mapper = new ObjectMapper();
-        byte[] neuronData = mapper.writeValueAsBytes(neuron);
+        byte[] neuronData = TmNeuronSerializer.toBytes(neuron);
 
         // add historical event
         TmHistoricalEvent event = new TmHistoricalEvent();
@@ -4,6 +4,8 @@ import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -12,7 +14,11 @@ import java.util.stream.Stream;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalListeners;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.janelia.workstation.geom.CoordinateAxis;
@@ -21,13 +27,25 @@ import org.janelia.workstation.core.util.ConsoleProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Caches decoded tiles on the heap, backed by a larger off-heap tier: tiles evicted from the heap
+ * are kept off-heap, and are decoded from there, rather than loaded again, when requested later.
+ */
 public class CachedBlockTiffOctreeLoadAdapter extends BlockTiffOctreeLoadAdapter {
 
     private static final int MAX_CACHE_SIZE = ConsoleProperties.getInt("console.lvv.tileCacheSize", 300);
     private final static Logger LOG = LoggerFactory.getLogger(CachedBlockTiffOctreeLoadAdapter.class);
+    // copying evicted tiles off the heap should not hold up the thread that caused the eviction;
+    // one thread serves every instance, since an instance is made for each sample opened
+    private static final ExecutorService TILE_DEMOTION_EXECUTOR = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("TileDemotion-%d")
+                    .setDaemon(true)
+                    .build());
 
     private final ScheduledThreadPoolExecutor tileLoadThreadPool;
     private final LoadingCache<TileIndex, Optional<TextureData2d>> tileCache;
+    private final OffHeapTileCache offHeapTiles;
 
     private final TextureData2dCacheLoader tileCacheLoader;
     private final BlockTiffOctreeLoadAdapter tileLoader;
@@ -37,13 +55,24 @@ public class CachedBlockTiffOctreeLoadAdapter extends BlockTiffOctreeLoadAdapter
 
     private Double zoom;
     private Vec3 focus;
+    private volatile boolean released;
 
     CachedBlockTiffOctreeLoadAdapter(BlockTiffOctreeLoadAdapter tileLoader) {
         super(tileLoader.getTileFormat(), tileLoader.getVolumeBaseURI());
         this.tileLoader = tileLoader;
-        this.tileCacheLoader = new TextureData2dCacheLoader(tileLoader);
+        this.offHeapTiles = new OffHeapTileCache();
+        this.tileCacheLoader = new TextureData2dCacheLoader(tileLoader, offHeapTiles);
+        RemovalListener<TileIndex, Optional<TextureData2d>> demoteEvictedTile = RemovalListeners.asynchronous(
+                notification -> {
+                    if (!released && notification.wasEvicted() && notification.getValue() != null) {
+                        notification.getValue().ifPresent(tile -> offHeapTiles.put(notification.getKey(), tile));
+                    }
+                },
+                TILE_DEMOTION_EXECUTOR);
         this.tileCache = CacheBuilder.newBuilder()
                 .maximumSize(MAX_CACHE_SIZE)
+                .recordStats()
+                .removalListener(demoteEvictedTile)
                 .build(tileCacheLoader);
         this.tileCachingMap = new LinkedHashMap<>();
         this.tileLoadThreadPool = new ScheduledThreadPoolExecutor(4);
@@ -73,8 +102,26 @@ public class CachedBlockTiffOctreeLoadAdapter extends BlockTiffOctreeLoadAdapter
         return VolumeCache.useVolumeCache();
     }
 
+    /**
+     * Stop loading tiles and free both cache tiers. Called when the adapter is replaced, e.g. by the
+     * one of another sample.
+     */
+    void release() {
+        released = true;
+        tileLoadThreadPool.shutdownNow();
+        tileCache.invalidateAll();
+        offHeapTiles.clear();
+    }
+
     boolean hasTile(TileIndex tileIndex) {
-        return tileCache.getIfPresent(tileIndex) != null;
+        return tileCache.getIfPresent(tileIndex) != null || offHeapTiles.contains(tileIndex);
+    }
+
+    TileStackCacheStats getCacheStats() {
+        CacheStats heapStats = tileCache.stats();
+        return new TileStackCacheStats(heapStats.hitCount(), heapStats.missCount(), tileCache.size(),
+                offHeapTiles.getHitCount(), offHeapTiles.getMissCount(), offHeapTiles.getEvictionCount(),
+                offHeapTiles.getTileCount(), offHeapTiles.getStoredBytes(), offHeapTiles.getBudget());
     }
 
     void setZoom(Double zoom) {
@@ -92,7 +139,7 @@ public class CachedBlockTiffOctreeLoadAdapter extends BlockTiffOctreeLoadAdapter
     }
 
     private void updateFocusTileIndex() {
-        if (zoom != null && focus != null) {
+        if (zoom != null && focus != null && !released) {
             // Update focus tile/stack
             int zoomLevel = tileLoader.getTileFormat().zoomLevelForCameraZoom(zoom);
             TileIndex xyzFocusTileIndex = tileLoader.getTileFormat().tileIndexForXyz(focus, zoomLevel, CoordinateAxis.Z);
@@ -163,6 +210,8 @@ public class CachedBlockTiffOctreeLoadAdapter extends BlockTiffOctreeLoadAdapter
                     Optional<TextureData2d> tile = tileCache.getIfPresent(tileKey);
                     if (tile != null) {
                         status = tile.map(td -> 2).orElse(0);
+                    } else if (offHeapTiles.contains(tileKey)) {
+                        status = 2;
                     } else if (tileCacheLoader.isLoading(tileKey)) {
                         status = 1;
                     } else {
@@ -32,6 +32,14 @@ public class ChannelBrightnessStats {
 		}
 	}
 	
+	public ChannelBrightnessStats copy() {
+		ChannelBrightnessStats result = new ChannelBrightnessStats();
+		result.min = min;
+		result.max = max;
+		result.histogram = histogram.clone();
+		return result;
+	}
+
 	public int getMin() {
 		return min;
 	}
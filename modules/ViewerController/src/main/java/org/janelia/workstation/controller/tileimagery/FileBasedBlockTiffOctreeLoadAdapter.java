@@ -1,5 +1,6 @@
 package org.janelia.workstation.controller.tileimagery;
 
+import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -15,6 +16,7 @@ import org.janelia.rendering.RenderedVolumeMetadata;
 import org.janelia.rendering.TileInfo;
 import org.janelia.rendering.TileKey;
 import org.janelia.workstation.core.api.LocalCacheMgr;
+import org.janelia.workstation.core.util.ConsoleProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,11 +32,14 @@ import org.slf4j.LoggerFactory;
  */
 public class FileBasedBlockTiffOctreeLoadAdapter extends BlockTiffOctreeLoadAdapter {
     private static final Logger LOG = LoggerFactory.getLogger(FileBasedBlockTiffOctreeLoadAdapter.class);
+    private static final boolean USE_MAPPED_TIFFS = ConsoleProperties.getBoolean("console.lvv.mappedTiffs", true);
 
     // Metadata: file location required for local system as mount point.
     private final Path baseFolder;
     private final RenderedVolumeLoader renderedVolumeLoader;
     private final RenderedVolumeLocation renderedVolumeLocation;
+    // reads uncompressed slices without copying; null if disabled
+    private final MappedTiffOctreeReader mappedTiffReader;
     private RenderedVolumeMetadata renderedVolumeMetadata;
 
     FileBasedBlockTiffOctreeLoadAdapter(TileFormat tileFormat, URI volumeBaseURI, int concurrency) {
@@ -50,10 +55,16 @@ public class FileBasedBlockTiffOctreeLoadAdapter extends BlockTiffOctreeLoadAdap
                                 .setNameFormat("FileBasedOctreeCacheWriter-%d")
                                 .setDaemon(true)
                                 .build()));
+        this.mappedTiffReader = USE_MAPPED_TIFFS
+                ? new MappedTiffOctreeReader(baseFolder, tileFormat, p -> Paths.get(OsFilePathRemapper.remapLinuxPath(p.toString())))
+                : null;
     }
 
     @Override
     public void loadMetadata() {
+        if (mappedTiffReader != null) {
+            mappedTiffReader.clear();
+        }
         renderedVolumeMetadata = renderedVolumeLoader.loadVolume(renderedVolumeLocation).orElse(null);
         getTileFormat().initializeFromRenderedVolumeMetadata(renderedVolumeMetadata);
     }
@@ -61,6 +72,16 @@ public class FileBasedBlockTiffOctreeLoadAdapter extends BlockTiffOctreeLoadAdap
     @Override
     public TextureData2d loadToRam(TileIndex tileIndex)
             throws TileLoadError {
+        if (mappedTiffReader != null) {
+            try {
+                TextureData2d texture = mappedTiffReader.loadToRam(tileIndex);
+                if (texture != null) {
+                    return texture;
+                }
+            } catch (IOException ex) {
+                LOG.warn("Error mapping tile {}; reading it through the volume loader instead", tileIndex, ex);
+            }
+        }
         TileInfo tileInfo = getTileInfo(tileIndex);
         TileKey tileKey = TileKey.fromRavelerTileCoord(tileIndex.getX(), tileIndex.getY(), tileIndex.getZ(),
                 tileIndex.getZoom(),
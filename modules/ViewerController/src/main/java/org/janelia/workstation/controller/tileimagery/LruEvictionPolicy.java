@@ -0,0 +1,49 @@
+package org.janelia.workstation.controller.tileimagery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Evicts the texture that was least recently loaded, displayed or requested.
+ */
+class LruEvictionPolicy extends TextureEvictionPolicy {
+
+    private final EntryQueue queue = new EntryQueue();
+
+    @Override
+    void added(TextureCacheEntry entry) {
+        queue.addLast(entry);
+    }
+
+    @Override
+    void displayed(TextureCacheEntry entry) {
+        queue.moveToLast(entry);
+    }
+
+    @Override
+    void retained(TextureCacheEntry entry) {
+        queue.moveToLast(entry);
+    }
+
+    @Override
+    void removed(TextureCacheEntry entry) {
+        queue.remove(entry);
+    }
+
+    @Override
+    TextureCacheEntry selectVictim() {
+        return queue.peekFirst();
+    }
+
+    @Override
+    List<TextureCacheEntry> coldestFirst() {
+        List<TextureCacheEntry> result = new ArrayList<>();
+        queue.appendTo(result);
+        return result;
+    }
+
+    @Override
+    void clear() {
+        queue.clear();
+    }
+}
@@ -0,0 +1,180 @@
+package org.janelia.workstation.controller.tileimagery;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.janelia.workstation.geom.CoordinateAxis;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads Z slices of a local (or NFS mounted) octree of uncompressed TIFF stacks straight from
+ * memory mapped files.
+ *
+ * The TIFF page directories of each octree node are parsed once and kept, with the mappings,
+ * for the most recently used nodes. Single channel slices whose width needs no padding are
+ * handed to the texture as a view of the mapping; otherwise the channels are interleaved and
+ * the rows padded into one direct buffer. Either way no pixels pass through the heap.
+ */
+class MappedTiffOctreeReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedTiffOctreeReader.class);
+    private static final int MAX_CACHED_NODES = ConsoleProperties.getInt("console.lvv.mappedTiffNodes", 512);
+    // textures are padded to a multiple of this width, as in TextureData2d.loadRenderedImage
+    private static final int WIDTH_ALIGNMENT = 8;
+
+    private final Path baseFolder;
+    private final TileFormat tileFormat;
+    private final Function<Path, Path> pathMapper;
+    // channel stacks per octree node folder; empty if the node cannot be mapped
+    private final Cache<Path, Optional<MappedTiffStack[]>> nodeCache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_NODES)
+            .build();
+
+    MappedTiffOctreeReader(Path baseFolder, TileFormat tileFormat, Function<Path, Path> pathMapper) {
+        this.baseFolder = baseFolder;
+        this.tileFormat = tileFormat;
+        this.pathMapper = pathMapper;
+    }
+
+    /**
+     * @return the slice texture, or null if this tile is not read by this reader
+     * (X or Y slices, missing files, or a TIFF layout that cannot be mapped)
+     */
+    TextureData2dGL loadToRam(TileIndex tileIndex) throws IOException {
+        if (tileIndex.getSliceAxis() != CoordinateAxis.Z || tileFormat.getChannelCount() < 1) {
+            return null;
+        }
+        Path relativePath = FileBasedOctreeMetadataSniffer.getOctreeFilePath(tileIndex, tileFormat);
+        if (relativePath == null) {
+            return null;
+        }
+        MappedTiffStack[] channels = getNode(pathMapper.apply(baseFolder.resolve(relativePath)));
+        if (channels == null) {
+            return null;
+        }
+        int axisIx = tileIndex.getSliceAxis().index();
+        int page = (tileIndex.getCoordinate(axisIx) >> tileIndex.getZoom()) % channels[0].getPageCount();
+        return createTexture(channels, page);
+    }
+
+    void clear() {
+        nodeCache.invalidateAll();
+    }
+
+    private MappedTiffStack[] getNode(Path nodeFolder) throws IOException {
+        try {
+            return nodeCache.get(nodeFolder, () -> Optional.ofNullable(openNode(nodeFolder))).orElse(null);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private MappedTiffStack[] openNode(Path nodeFolder) throws IOException {
+        String tiffBase = FileBasedOctreeMetadataSniffer.getTiffBase(CoordinateAxis.Z);
+        MappedTiffStack[] channels = new MappedTiffStack[tileFormat.getChannelCount()];
+        for (int c = 0; c < channels.length; c++) {
+            Path file = nodeFolder.resolve(FileBasedOctreeMetadataSniffer.getFilenameForChannel(tiffBase, c));
+            if (!Files.exists(file)) {
+                return null;
+            }
+            channels[c] = MappedTiffStack.open(file);
+            if (channels[c] == null) {
+                return null;
+            }
+            if (c > 0 && (channels[c].getWidth() != channels[0].getWidth()
+                    || channels[c].getHeight() != channels[0].getHeight()
+                    || channels[c].getBitsPerSample() != channels[0].getBitsPerSample()
+                    || channels[c].getPageCount() != channels[0].getPageCount())) {
+                LOG.debug("Channels of {} differ in size", nodeFolder);
+                return null;
+            }
+        }
+        return channels;
+    }
+
+    private static TextureData2dGL createTexture(MappedTiffStack[] channels, int page) {
+        MappedTiffStack first = channels[0];
+        int usedWidth = first.getWidth();
+        int height = first.getHeight();
+        int bitDepth = first.getBitsPerSample();
+        int width = (usedWidth + WIDTH_ALIGNMENT - 1) / WIDTH_ALIGNMENT * WIDTH_ALIGNMENT;
+
+        ByteBuffer pixels;
+        boolean swapBytes = false;
+        if (channels.length == 1 && width == usedWidth) {
+            pixels = first.getPage(page);
+            // let GL reorder 16 bit samples during upload, rather than copying them here
+            swapBytes = bitDepth == 16 && first.getByteOrder() != ByteOrder.nativeOrder();
+        } else {
+            ByteBuffer[] sources = new ByteBuffer[channels.length];
+            for (int c = 0; c < channels.length; c++) {
+                sources[c] = channels[c].getPage(page);
+            }
+            pixels = interleave(sources, usedWidth, width, height, bitDepth);
+        }
+
+        TextureData2d textureData = new TextureData2d();
+        textureData.setUsedWidth(usedWidth);
+        textureData.setWidth(width);
+        textureData.setHeight(height);
+        textureData.setBitDepth(bitDepth);
+        textureData.setChannelCount(channels.length);
+        textureData.setPixels(pixels);
+        TextureData2dGL result = new TextureData2dGL(textureData);
+        result.setSwapBytes(swapBytes);
+        return result;
+    }
+
+    /**
+     * Interleave channel planes into one native order buffer, padding each row on the right
+     * with its last pixel.
+     */
+    private static ByteBuffer interleave(ByteBuffer[] sources, int usedWidth, int width, int height, int bitDepth) {
+        int channelCount = sources.length;
+        ByteBuffer target = ByteBuffer.allocateDirect(width * height * channelCount * bitDepth / 8)
+                .order(ByteOrder.nativeOrder());
+        if (bitDepth == 16) {
+            ShortBuffer[] planes = new ShortBuffer[channelCount];
+            for (int c = 0; c < channelCount; c++) {
+                planes[c] = sources[c].asShortBuffer();
+            }
+            ShortBuffer out = target.asShortBuffer();
+            for (int y = 0; y < height; y++) {
+                int row = y * usedWidth;
+                for (int x = 0; x < width; x++) {
+                    int source = row + Math.min(x, usedWidth - 1);
+                    for (int c = 0; c < channelCount; c++) {
+                        out.put(planes[c].get(source));
+                    }
+                }
+            }
+        } else {
+            for (int y = 0; y < height; y++) {
+                int row = y * usedWidth;
+                for (int x = 0; x < width; x++) {
+                    int source = row + Math.min(x, usedWidth - 1);
+                    for (int c = 0; c < channelCount; c++) {
+                        target.put(sources[c].get(source));
+                    }
+                }
+            }
+            target.flip();
+        }
+        return target;
+    }
+}
@@ -0,0 +1,263 @@
+package org.janelia.workstation.controller.tileimagery;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory mapped, uncompressed, single sample per pixel TIFF stack, such as the
+ * "default.N.tif" files of an octree node.
+ *
+ * The page directory is parsed once when the file is opened; pages are then returned as
+ * views of the mapping, without copying them to the heap.
+ */
+final class MappedTiffStack {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedTiffStack.class);
+
+    private static final int TAG_IMAGE_WIDTH = 256;
+    private static final int TAG_IMAGE_LENGTH = 257;
+    private static final int TAG_BITS_PER_SAMPLE = 258;
+    private static final int TAG_COMPRESSION = 259;
+    private static final int TAG_STRIP_OFFSETS = 273;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int TAG_STRIP_BYTE_COUNTS = 279;
+    private static final int TAG_TILE_WIDTH = 322;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int NO_COMPRESSION = 1;
+
+    private final ByteBuffer mapping;
+    private final int width;
+    private final int height;
+    private final int bitsPerSample;
+    // per page: strip offsets and byte counts
+    private final long[][] stripOffsets;
+    private final long[][] stripByteCounts;
+
+    private MappedTiffStack(ByteBuffer mapping, int width, int height, int bitsPerSample,
+                            long[][] stripOffsets, long[][] stripByteCounts) {
+        this.mapping = mapping;
+        this.width = width;
+        this.height = height;
+        this.bitsPerSample = bitsPerSample;
+        this.stripOffsets = stripOffsets;
+        this.stripByteCounts = stripByteCounts;
+    }
+
+    /**
+     * @return the mapped stack, or null if the file layout is not supported
+     * (compressed, tiled, multi-sample, BigTIFF, or pages of differing size)
+     */
+    static MappedTiffStack open(Path file) throws IOException {
+        MappedByteBuffer mapping;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < 8 || channel.size() > Integer.MAX_VALUE) {
+                LOG.debug("Cannot map {} of size {}", file, channel.size());
+                return null;
+            }
+            // the mapping stays valid after the channel is closed
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mapping.get(0) == 'I' && mapping.get(1) == 'I') {
+            mapping.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (mapping.get(0) == 'M' && mapping.get(1) == 'M') {
+            mapping.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            throw new IOException("Not a TIFF file: " + file);
+        }
+        if (mapping.getShort(2) != 42) {
+            LOG.debug("Unsupported TIFF version in {}", file);
+            return null;
+        }
+        try {
+            return parse(file, mapping);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt TIFF file: " + file, e);
+        }
+    }
+
+    private static MappedTiffStack parse(Path file, ByteBuffer mapping) throws IOException {
+        List<long[]> offsets = new ArrayList<>();
+        List<long[]> byteCounts = new ArrayList<>();
+        int width = -1;
+        int height = -1;
+        int bitsPerSample = -1;
+        Set<Long> visited = new HashSet<>();
+        for (long ifd = unsignedInt(mapping, 4); ifd != 0; ) {
+            if (!visited.add(ifd)) {
+                throw new IOException("Circular page directory in TIFF file: " + file);
+            }
+            int ifdPosition = checkedPosition(ifd, mapping);
+            int entryCount = mapping.getShort(ifdPosition) & 0xffff;
+            long[] pageOffsets = null;
+            long[] pageByteCounts = null;
+            int pageWidth = -1;
+            int pageHeight = -1;
+            int pageBits = 1;
+            int samplesPerPixel = 1;
+            int compression = NO_COMPRESSION;
+            boolean tiled = false;
+            for (int i = 0; i < entryCount; i++) {
+                int entry = ifdPosition + 2 + 12 * i;
+                int tag = mapping.getShort(entry) & 0xffff;
+                switch (tag) {
+                    case TAG_IMAGE_WIDTH:
+                        pageWidth = (int) values(mapping, entry)[0];
+                        break;
+                    case TAG_IMAGE_LENGTH:
+                        pageHeight = (int) values(mapping, entry)[0];
+                        break;
+                    case TAG_BITS_PER_SAMPLE:
+                        pageBits = (int) values(mapping, entry)[0];
+                        break;
+                    case TAG_COMPRESSION:
+                        compression = (int) values(mapping, entry)[0];
+                        break;
+                    case TAG_STRIP_OFFSETS:
+                        pageOffsets = values(mapping, entry);
+                        break;
+                    case TAG_SAMPLES_PER_PIXEL:
+                        samplesPerPixel = (int) values(mapping, entry)[0];
+                        break;
+                    case TAG_STRIP_BYTE_COUNTS:
+                        pageByteCounts = values(mapping, entry);
+                        break;
+                    case TAG_TILE_WIDTH:
+                        tiled = true;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (compression != NO_COMPRESSION || tiled || samplesPerPixel != 1 || pageWidth < 1 || pageHeight < 1
+                    || (pageBits != 8 && pageBits != 16)
+                    || pageOffsets == null || pageByteCounts == null || pageOffsets.length != pageByteCounts.length) {
+                LOG.debug("Unsupported TIFF layout in {}", file);
+                return null;
+            }
+            if (offsets.isEmpty()) {
+                width = pageWidth;
+                height = pageHeight;
+                bitsPerSample = pageBits;
+            } else if (pageWidth != width || pageHeight != height || pageBits != bitsPerSample) {
+                LOG.debug("TIFF pages differ in size in {}", file);
+                return null;
+            }
+            long pageBytes = 0;
+            for (int s = 0; s < pageOffsets.length; s++) {
+                if (pageOffsets[s] + pageByteCounts[s] > mapping.capacity()) {
+                    throw new IOException("Truncated TIFF file: " + file);
+                }
+                pageBytes += pageByteCounts[s];
+            }
+            if (pageBytes < (long) width * height * (bitsPerSample / 8)) {
+                throw new IOException("Truncated TIFF page " + offsets.size() + " in " + file);
+            }
+            offsets.add(pageOffsets);
+            byteCounts.add(pageByteCounts);
+            ifd = unsignedInt(mapping, ifdPosition + 2 + 12 * entryCount);
+        }
+        if (offsets.isEmpty()) {
+            throw new IOException("No pages in TIFF file: " + file);
+        }
+        return new MappedTiffStack(mapping, width, height, bitsPerSample,
+                offsets.toArray(new long[0][]), byteCounts.toArray(new long[0][]));
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    int getPageCount() {
+        return stripOffsets.length;
+    }
+
+    ByteOrder getByteOrder() {
+        return mapping.order();
+    }
+
+    /**
+     * @return the pixels of the page, in file byte order. Usually a view of the mapping; pages
+     * whose strips are not stored back to back are gathered into a new direct buffer.
+     */
+    ByteBuffer getPage(int page) {
+        long[] offsets = stripOffsets[page];
+        long[] byteCounts = stripByteCounts[page];
+        int pageBytes = width * height * (bitsPerSample / 8);
+        boolean contiguous = true;
+        for (int s = 1; s < offsets.length && contiguous; s++) {
+            contiguous = offsets[s] == offsets[s - 1] + byteCounts[s - 1];
+        }
+        if (contiguous) {
+            return slice((int) offsets[0], pageBytes);
+        }
+        ByteBuffer gathered = ByteBuffer.allocateDirect(pageBytes).order(mapping.order());
+        for (int s = 0; s < offsets.length && gathered.hasRemaining(); s++) {
+            int length = (int) Math.min(byteCounts[s], gathered.remaining());
+            gathered.put(slice((int) offsets[s], length));
+        }
+        gathered.flip();
+        return gathered;
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer view = mapping.duplicate();
+        view.position(offset).limit(offset + length);
+        return view.slice().order(mapping.order());
+    }
+
+    private static long[] values(ByteBuffer mapping, int entry) throws IOException {
+        int type = mapping.getShort(entry + 2) & 0xffff;
+        long count = unsignedInt(mapping, entry + 4);
+        int size;
+        if (type == TYPE_SHORT) {
+            size = 2;
+        } else if (type == TYPE_LONG) {
+            size = 4;
+        } else {
+            throw new IOException("Unexpected TIFF field type " + type);
+        }
+        if (count < 1 || count * size > mapping.capacity()) {
+            throw new IOException("Bad TIFF field count " + count);
+        }
+        int position = count * size <= 4 ? entry + 8 : checkedPosition(unsignedInt(mapping, entry + 8), mapping);
+        long[] result = new long[(int) count];
+        for (int i = 0; i < count; i++) {
+            result[i] = size == 2
+                    ? mapping.getShort(position + 2 * i) & 0xffff
+                    : unsignedInt(mapping, position + 4 * i);
+        }
+        return result;
+    }
+
+    private static long unsignedInt(ByteBuffer mapping, int position) {
+        return mapping.getInt(position) & 0xffffffffL;
+    }
+
+    private static int checkedPosition(long offset, ByteBuffer mapping) throws IOException {
+        if (offset < 8 || offset >= mapping.capacity()) {
+            throw new IOException("Bad TIFF offset " + offset);
+        }
+        return (int) offset;
+    }
+}
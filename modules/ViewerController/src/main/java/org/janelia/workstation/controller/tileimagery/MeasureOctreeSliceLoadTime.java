@@ -0,0 +1,117 @@
+package org.janelia.workstation.controller.tileimagery;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.janelia.rendering.FileBasedRenderedVolumeLocation;
+import org.janelia.rendering.RenderedVolumeLoader;
+import org.janelia.rendering.RenderedVolumeLoaderImpl;
+import org.janelia.rendering.RenderedVolumeLocation;
+import org.janelia.rendering.RenderedVolumeMetadata;
+import org.janelia.rendering.TileKey;
+import org.janelia.workstation.geom.CoordinateAxis;
+
+/**
+ * Compares loading Z slices of a local octree through the rendered volume loader, which
+ * copies every slice through several heap arrays, with MappedTiffOctreeReader.
+ *
+ * Usage: MeasureOctreeSliceLoadTime octreeFolder [zoom [passes]]
+ *
+ * Reports slices per second, bytes allocated on the heap per slice, and garbage collections.
+ */
+public class MeasureOctreeSliceLoadTime {
+
+    private interface SliceLoader {
+        TextureData2d load(TileIndex tileIndex) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: MeasureOctreeSliceLoadTime octreeFolder [zoom [passes]]");
+            System.exit(1);
+        }
+        Path baseFolder = Paths.get(args[0]);
+        RenderedVolumeLoader volumeLoader = new RenderedVolumeLoaderImpl();
+        RenderedVolumeLocation location = new FileBasedRenderedVolumeLocation(baseFolder, p -> p);
+        RenderedVolumeMetadata metadata = volumeLoader.loadVolume(location)
+                .orElseThrow(() -> new IllegalArgumentException("No octree found at " + baseFolder));
+        TileFormat tileFormat = new TileFormat();
+        tileFormat.setIndexStyle(TileIndex.IndexStyle.OCTREE);
+        tileFormat.initializeFromRenderedVolumeMetadata(metadata);
+        int maxZoom = tileFormat.getZoomLevelCount() - 1;
+        int zoom = args.length > 1 ? Integer.parseInt(args[1]) : maxZoom;
+        int passes = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        MappedTiffOctreeReader mappedReader = new MappedTiffOctreeReader(baseFolder, tileFormat, p -> p);
+        SliceLoader currentPath = tileIndex -> {
+            TileKey tileKey = TileKey.fromRavelerTileCoord(tileIndex.getX(), tileIndex.getY(), tileIndex.getZ(),
+                    tileIndex.getZoom(), metadata.getXyTileInfo().getSliceAxis(), metadata.getXyTileInfo());
+            byte[] textureBytes = volumeLoader.loadSlice(location, metadata, tileKey).getContent();
+            return textureBytes != null ? new TextureData2d(textureBytes) : null;
+        };
+        SliceLoader mappedPath = mappedReader::loadToRam;
+
+        // first pass of each warms the page cache and the JIT
+        measure("warm up", currentPath, tileFormat, zoom, maxZoom, 1);
+        measure("warm up", mappedPath, tileFormat, zoom, maxZoom, 1);
+        measure("volume loader", currentPath, tileFormat, zoom, maxZoom, passes);
+        measure("mapped tiff", mappedPath, tileFormat, zoom, maxZoom, passes);
+    }
+
+    /**
+     * Load every Z slice of the first octree node at the given zoom.
+     */
+    private static void measure(String name, SliceLoader loader, TileFormat tileFormat, int zoom, int maxZoom, int passes)
+            throws Exception {
+        int sliceCount = tileFormat.getTileSize()[2];
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long allocated = allocatedBytes();
+        long checksum = 0;
+        int loaded = 0;
+        long start = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+            for (int slice = 0; slice < sliceCount; slice++) {
+                TileIndex tileIndex = new TileIndex(0, 0, slice << zoom, zoom, maxZoom,
+                        TileIndex.IndexStyle.OCTREE, CoordinateAxis.Z);
+                TextureData2d texture = loader.load(tileIndex);
+                if (texture != null) {
+                    // touch the pixels, since a mapped slice is only read on first access
+                    checksum += texture.getPixels().get(texture.getPixels().limit() / 2);
+                    loaded++;
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-14s %6d slices  %8.1f slices/s  %10.0f heap bytes/slice  %4d GCs  %5d ms GC  (%d)%n",
+                name, loaded, loaded / seconds,
+                loaded > 0 ? (allocatedBytes() - allocated) / (double) loaded : 0,
+                gcCount() - gcCount, gcMillis() - gcMillis, checksum);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,83 @@
+package org.janelia.workstation.controller.tileimagery;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Compares TextureData2d.loadRenderedImage, which copies common raster layouts a row at a
+ * time and gathers brightness statistics on the way, with copying every pixel through
+ * Raster.getPixel and then making a separate pass for the statistics.
+ *
+ * Usage: MeasureRasterLoadTime [width [passes]]
+ *
+ * Loads random 16 bit, 2 channel tiles.
+ */
+public class MeasureRasterLoadTime {
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        BufferedImage image = createImage(size);
+
+        TextureData2d rowCopy = loadRows(image);
+        TextureData2d pixelCopy = loadPixels(image);
+        if (!rowCopy.getPixels().equals(pixelCopy.getPixels())) {
+            throw new IllegalStateException("The row copy differs from the per pixel copy");
+        }
+
+        for (int round = 0; round < 2; round++) { // the first round warms up the JIT
+            long start = System.nanoTime();
+            for (int pass = 0; pass < passes; pass++) {
+                loadPixels(image).getBrightnessStats();
+            }
+            double pixelMillis = (System.nanoTime() - start) / 1e6 / passes;
+            start = System.nanoTime();
+            for (int pass = 0; pass < passes; pass++) {
+                loadRows(image).getBrightnessStats();
+            }
+            double rowMillis = (System.nanoTime() - start) / 1e6 / passes;
+            System.out.printf("%dx%d 16 bit 2 channel tile: per pixel %.2f ms, by rows %.2f ms per tile%n",
+                    size, size, pixelMillis, rowMillis);
+        }
+    }
+
+    private static TextureData2d loadRows(BufferedImage image) {
+        TextureData2d texture = new TextureData2d();
+        texture.loadRenderedImage(image);
+        return texture;
+    }
+
+    private static TextureData2d loadPixels(BufferedImage image) {
+        TextureData2d texture = new TextureData2d();
+        texture.setBitDepth(16);
+        texture.setChannelCount(2);
+        texture.setUsedWidth(image.getWidth());
+        texture.setWidth((image.getWidth() + 7) / 8 * 8);
+        texture.setHeight(image.getHeight());
+        ByteBuffer pixels = ByteBuffer.allocate(texture.getWidth() * texture.getHeight() * 4).order(ByteOrder.nativeOrder());
+        texture.loadRasterPixels(image.getData(), pixels);
+        texture.setPixels(pixels);
+        return texture;
+    }
+
+    private static BufferedImage createImage(int size) {
+        // gray with alpha is the stock two component color space
+        ComponentColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                new int[] {16, 16}, true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(size, size);
+        short[] data = ((DataBufferUShort) raster.getDataBuffer()).getData();
+        Random random = new Random(1);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) random.nextInt(1 << 16);
+        }
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+}
@@ -0,0 +1,256 @@
+package org.janelia.workstation.controller.tileimagery;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Second tier of the LVV tile cache, below the heap cache of decoded tiles. Keeps the pixels of
+ * tiles outside of the Java heap, in direct buffers, optionally LZ4 compressed, within a byte budget.
+ *
+ * Lookups do not lock, so any number of threads can read tiles at once; each read decodes a fresh
+ * heap copy of the tile. When the budget is exceeded, the least recently read tiles are dropped
+ * until the cache is back below a low water mark. Dropped buffers are freed by the garbage collector.
+ */
+class OffHeapTileCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapTileCache.class);
+
+    private static final long MB = 1024 * 1024;
+    private static final long DEFAULT_BUDGET = MB * ConsoleProperties.getLong("console.lvv.offHeapTileCacheMB", 1024);
+    private static final boolean DEFAULT_COMPRESS = ConsoleProperties.getBoolean("console.lvv.offHeapTileCacheLZ4", true);
+    // evict down to this fraction of the budget, so that eviction does not run on every insert
+    private static final double LOW_WATER_MARK = 0.9;
+    // store tiles raw unless compression saves at least this fraction
+    private static final double MIN_COMPRESSION_SAVING = 0.1;
+
+    private static final class Entry {
+        final ByteBuffer data; // direct, read only through duplicates
+        final boolean compressed;
+        final int pixelByteCount;
+        final int width;
+        final int usedWidth;
+        final int height;
+        final int bitDepth;
+        final int channelCount;
+        final boolean srgb;
+        volatile long lastAccess;
+
+        Entry(ByteBuffer data, boolean compressed, TextureData2d tile, long lastAccess) {
+            this.data = data;
+            this.compressed = compressed;
+            this.pixelByteCount = tile.getPixels().limit();
+            this.width = tile.getWidth();
+            this.usedWidth = tile.getUsedWidth();
+            this.height = tile.getHeight();
+            this.bitDepth = tile.getBitDepth();
+            this.channelCount = tile.getChannelCount();
+            this.srgb = tile.isSrgb();
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private static final class Candidate {
+        final TileIndex tileIndex;
+        final Entry entry;
+        final long lastAccess;
+
+        Candidate(TileIndex tileIndex, Entry entry) {
+            this.tileIndex = tileIndex;
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+    }
+
+    private final Map<TileIndex, Entry> entries = new ConcurrentHashMap<>();
+    private final long budget;
+    private final boolean compress;
+    private final LZ4Compressor compressor;
+    private final LZ4FastDecompressor decompressor;
+    private final ThreadLocal<byte[]> compressScratch = ThreadLocal.withInitial(() -> new byte[0]);
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    OffHeapTileCache() {
+        this(DEFAULT_BUDGET, DEFAULT_COMPRESS);
+    }
+
+    /**
+     * @param budget bytes of off-heap memory to use; 0 disables the cache
+     */
+    OffHeapTileCache(long budget, boolean compress) {
+        this.budget = budget;
+        this.compress = compress;
+        LZ4Factory lz4 = LZ4Factory.fastestInstance();
+        this.compressor = lz4.fastCompressor();
+        this.decompressor = lz4.fastDecompressor();
+    }
+
+    boolean contains(TileIndex tileIndex) {
+        return entries.containsKey(tileIndex);
+    }
+
+    /**
+     * @return a heap copy of the tile, or null if the tile is not cached
+     */
+    TextureData2d get(TileIndex tileIndex) {
+        Entry entry = entries.get(tileIndex);
+        if (entry == null) {
+            missCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        entry.lastAccess = clock.incrementAndGet();
+        byte[] pixelArray = new byte[entry.pixelByteCount];
+        ByteBuffer source = entry.data.duplicate();
+        if (entry.compressed) {
+            decompressor.decompress(source, 0, ByteBuffer.wrap(pixelArray), 0, entry.pixelByteCount);
+        } else {
+            source.rewind();
+            source.get(pixelArray);
+        }
+        ByteBuffer pixels = ByteBuffer.wrap(pixelArray);
+        pixels.order(ByteOrder.nativeOrder());
+
+        TextureData2d tile = new TextureData2d();
+        tile.setBitDepth(entry.bitDepth);
+        tile.setChannelCount(entry.channelCount);
+        tile.setHeight(entry.height);
+        tile.setWidth(entry.width);
+        tile.setUsedWidth(entry.usedWidth);
+        tile.srgb = entry.srgb;
+        tile.setPixels(pixels);
+        return tile;
+    }
+
+    /**
+     * Copy the pixels of the tile off the heap, unless the tile is already cached here.
+     */
+    void put(TileIndex tileIndex, TextureData2d tile) {
+        ByteBuffer pixels = tile.getPixels();
+        if (budget <= 0 || pixels == null || entries.containsKey(tileIndex)) {
+            return;
+        }
+        ByteBuffer source = pixels.duplicate();
+        source.rewind();
+        int length = source.limit();
+        if (length > budget) {
+            return;
+        }
+        byte[] raw;
+        if (source.hasArray() && source.arrayOffset() == 0) {
+            raw = source.array();
+        } else {
+            raw = new byte[length];
+            source.get(raw);
+        }
+
+        byte[] payload = raw;
+        int payloadLength = length;
+        boolean compressed = false;
+        if (compress) {
+            byte[] scratch = compressScratch.get();
+            int maxLength = compressor.maxCompressedLength(length);
+            if (scratch.length < maxLength) {
+                scratch = new byte[maxLength];
+                compressScratch.set(scratch);
+            }
+            int compressedLength = compressor.compress(raw, 0, length, scratch, 0, maxLength);
+            if (compressedLength < length * (1 - MIN_COMPRESSION_SAVING)) {
+                payload = scratch;
+                payloadLength = compressedLength;
+                compressed = true;
+            }
+        }
+
+        ByteBuffer data;
+        try {
+            data = ByteBuffer.allocateDirect(payloadLength);
+        } catch (OutOfMemoryError e) {
+            // direct memory is limited separately from the heap, by -XX:MaxDirectMemorySize
+            LOG.warn("No direct memory left for off-heap tile cache of {} MB", budget / MB);
+            return;
+        }
+        data.put(payload, 0, payloadLength);
+        data.flip();
+
+        Entry entry = new Entry(data, compressed, tile, clock.incrementAndGet());
+        if (entries.putIfAbsent(tileIndex, entry) != null) {
+            return; // cached by another thread meanwhile
+        }
+        if (storedBytes.addAndGet(payloadLength) > budget) {
+            evict();
+        }
+    }
+
+    /**
+     * Drop every tile; a tile put concurrently may stay cached.
+     */
+    void clear() {
+        entries.forEach((tileIndex, entry) -> {
+            if (entries.remove(tileIndex, entry)) {
+                storedBytes.addAndGet(-entry.data.capacity());
+            }
+        });
+    }
+
+    private synchronized void evict() {
+        long target = (long) (budget * LOW_WATER_MARK);
+        if (storedBytes.get() <= budget) {
+            return; // another thread evicted already
+        }
+        // snapshot the access times, which readers keep updating during the sort
+        List<Candidate> candidates = new ArrayList<>(entries.size());
+        entries.forEach((tileIndex, entry) -> candidates.add(new Candidate(tileIndex, entry)));
+        candidates.sort(Comparator.comparingLong(c -> c.lastAccess));
+        for (Candidate candidate : candidates) {
+            if (storedBytes.get() <= target) {
+                break;
+            }
+            if (entries.remove(candidate.tileIndex, candidate.entry)) {
+                storedBytes.addAndGet(-candidate.entry.data.capacity());
+                evictionCount.increment();
+            }
+        }
+    }
+
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+    long getMissCount() {
+        return missCount.sum();
+    }
+
+    long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    int getTileCount() {
+        return entries.size();
+    }
+
+    long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    long getBudget() {
+        return budget;
+    }
+}
@@ -11,22 +11,20 @@ import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.janelia.workstation.integration.util.FrameworkAccess;
 import org.janelia.workstation.octree.ZoomLevel;
 import org.janelia.workstation.octree.ZoomedVoxelIndex;
+import org.janelia.workstation.controller.tileimagery.raster.RasterSubvolume;
 import org.janelia.workstation.controller.tileimagery.raster.VoxelIndex;
 import org.janelia.workstation.core.workers.IndeterminateNoteProgressMonitor;
 import org.janelia.workstation.geom.BoundingBox3d;
@@ -37,7 +35,7 @@ import org.slf4j.LoggerFactory;
 
 public class Subvolume {
 
-    private static final int N_THREADS = 20;
+    private static final int FETCH_TIMEOUT_MINUTES = 5;
     private static final String PROGRESS_REPORT_FORMAT = "%d of %d to go...";
 
     private IndeterminateNoteProgressMonitor progressMonitor;
@@ -46,14 +44,28 @@ public class Subvolume {
     private ZoomedVoxelIndex origin; // upper left front corner within parent volume
     private VoxelIndex extent; // width, height, depth
     private ByteBuffer bytes;
-    private ShortBuffer shorts;
+    private RasterSubvolume raster;
     private int bytesPerIntensity = 1;
     private int channelCount = 1;
     private int totalTiles = 0;
-    private int remainingTiles = 0;
+    private final AtomicInteger remainingTiles = new AtomicInteger();
 
     private static final Logger logger = LoggerFactory.getLogger(Subvolume.class);
 
+    /**
+     * An empty subvolume, for copying tiles into with copyTile.
+     *
+     * @param origin upper left front corner within the whole volume
+     * @param extent width, height, depth
+     */
+    Subvolume(ZoomedVoxelIndex origin, VoxelIndex extent, int bytesPerIntensity, int channelCount) {
+        this.origin = origin;
+        this.extent = extent;
+        this.bytesPerIntensity = bytesPerIntensity;
+        this.channelCount = channelCount;
+        allocateBytes(new int[]{extent.getX(), extent.getY(), extent.getZ()});
+    }
+
     /**
      * You probably want to run this constructor in a worker thread, because it
      * can take a while to load its raster data over the network.
@@ -300,11 +312,11 @@ public class Subvolume {
                 channelIndex);
     }
 
-    public int getIntensityGlobal(Integer x, Integer y, Integer z, int channelIndex) {
-        return getIntensityLocal(new VoxelIndex(
+    public int getIntensityGlobal(int x, int y, int z, int channelIndex) {
+        return getIntensityLocal(
                 x - origin.getX(),
                 y - origin.getY(),
-                z - origin.getZ()),
+                z - origin.getZ(),
                 channelIndex);
     }
 
@@ -313,31 +325,23 @@ public class Subvolume {
     }
 
     public int getIntensityLocal(VoxelIndex v1, int channelIndex) {
-        int c = channelIndex;
-        int x = v1.getX();
-        int y = v1.getY();
-        int z = v1.getZ();
-        // Compute offset into local raster
-        int offset = 0;
-        // color channel is fastest moving dimension
-        int stride = 1;
-        offset += c * stride;
-        // x
-        stride *= channelCount;
-        offset += x * stride;
-        // y
-        stride *= extent.getX();
-        offset += y * stride;
-        // z
-        stride *= extent.getY();
-        offset += z * stride;
-        // our data is unsigned but Java doesn't do unsigned, so strip off the
-        //  sign bit explicitly; since we're returning int, no worry about overflow
-        if (bytesPerIntensity == 2) {
-            return shorts.get(offset) & 0xffff;
-        } else {
-            return bytes.get(offset) & 0xff;
+        return getIntensityLocal(v1.getX(), v1.getY(), v1.getZ(), channelIndex);
+    }
+
+    public int getIntensityLocal(int x, int y, int z, int channelIndex) {
+        return getRaster().getIntensity(x, y, z, channelIndex);
+    }
+
+    /**
+     * Typed view of the voxels of this subvolume, for loops that should read
+     * intensities by linear offset rather than through index objects.
+     */
+    public synchronized RasterSubvolume getRaster() {
+        if (raster == null) {
+            raster = RasterSubvolume.wrap(bytes, bytesPerIntensity, channelCount, extent,
+                    new VoxelIndex(origin.getX(), origin.getY(), origin.getZ()));
         }
+        return raster;
     }
 
     /**
@@ -364,164 +368,134 @@ public class Subvolume {
     }
 
     private void multiThreadedFetch(Set<TileIndex> neededTiles, final TextureCache textureCache, final AbstractTextureLoadAdapter loadAdapter, final TileFormat tileFormat, final ZoomLevel zoom, final ZoomedVoxelIndex farCorner) {
-        ExecutorService executorService = ThreadUtils.establishExecutor(
-                N_THREADS,
-                new ThreadFactoryBuilder()
-                        .setNameFormat("SubvolumeFetch-%03d")
-                        .build());
-        List<Future<Boolean>> followUps = new ArrayList<>();
         totalTiles = neededTiles.size();
-        remainingTiles = neededTiles.size();
+        remainingTiles.set(totalTiles);
         reportProgress(totalTiles, totalTiles);
-        for (final TileIndex tileIx : neededTiles) {
-            Callable<Boolean> fetchTask = new Callable<Boolean>() {
-                @Override
-                public Boolean call() throws Exception {
-                    return fetchTileData(
-                            textureCache, tileIx, loadAdapter, tileFormat, zoom, farCorner
-                    );
-                }
-            };
-            followUps.add(executorService.submit(fetchTask));
+        List<TileIndex> loadableTiles = new ArrayList<>();
+        boolean tileGaps = false;
+        for (TileIndex tileIx : neededTiles) {
+            if (tileIx.getX() < 0 || tileIx.getY() < 0 || tileIx.getZ() < 0) {
+                remainingTiles.decrementAndGet();
+                tileGaps = true;
+            } else {
+                loadableTiles.add(tileIx);
+            }
         }
-        executorService.shutdown();
+        final boolean filledToEnd = !tileGaps;
+        CompletableFuture<Subvolume> completion = SubvolumeAssembler.getShared()
+                .fetchTiles(loadableTiles, textureCache, loadAdapter,
+                        (tileIx, tileData) -> copyTileData(tileIx, tileData, tileFormat, zoom, farCorner))
+                .handle((allTilesFilled, ex) -> {
+                    if (ex != null) {
+                        logger.error(
+                                "Exception during subvolume fetch.  Request {}..{}.  Exception report follows.",
+                                origin, extent
+                        );
+                        FrameworkAccess.handleException(ex);
+                    } else if (!allTilesFilled || !filledToEnd) {
+                        logger.info("Request for {}..{} had tile gaps.", origin, extent);
+                    }
+                    return this;
+                });
+        awaitCompletion(completion);
+    }
 
+    private void awaitCompletion(CompletableFuture<Subvolume> completion) {
         try {
-            executorService.awaitTermination(5, TimeUnit.MINUTES);
-            for (Future<Boolean> result : followUps) {
-                logger.debug("DEBUG: checking a follow-up.");
-                boolean failureOnResult = false;
-                try {
-                    if (result == null || !result.get()) {
-                        failureOnResult = true;
-                    }
-                } catch (ExecutionException | RuntimeException rte) {
-                    logger.error(
-                            "Exception during subvolume fetch.  Request {}..{}.  Exception report follows.",
-                            origin, extent
-                    );
-                    FrameworkAccess.handleException(rte);
-                    failureOnResult = true;
-                }
-                if (failureOnResult) {
-                    logger.info("Request for {}..{} had tile gaps.", origin, extent);
-                }
-            }
+            completion.get(FETCH_TIMEOUT_MINUTES, TimeUnit.MINUTES);
         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
             if (progressMonitor != null) {
                 progressMonitor.close();
             }
             logger.error(
-                    "Failure awaiting completion of fetch threads for request {}..{}.  Exception report follows.",
+                    "Interrupted awaiting completion of fetch threads for request {}..{}.",
                     origin, extent
             );
-            ex.printStackTrace();
+        } catch (TimeoutException ex) {
+            logger.error(
+                    "Fetch threads for request {}..{} did not complete within {} minutes.",
+                    origin, extent, FETCH_TIMEOUT_MINUTES
+            );
+        } catch (ExecutionException ex) {
+            // reported when the fetch completed
         }
+    }
 
+    private boolean copyTileData(TileIndex tileIx, TextureData2dGL tileData, TileFormat tileFormat, ZoomLevel zoom, ZoomedVoxelIndex farCorner) {
+        boolean filledToEnd = true;
+        if (origin.getZ() >= 0) {
+            // If the origin were negative, it would mean there was a
+            // z-drill-in beyond the meaningful boundaries of the nascent
+            //  volume, and no data would be available to be added.
+            TileFormat.TileXyz tileXyz = new TileFormat.TileXyz(
+                    tileIx.getX(), tileIx.getY(), tileIx.getZ());
+            ZoomedVoxelIndex tileOrigin = tileFormat.zoomedVoxelIndexForTileXyz(
+                    tileXyz, zoom, tileIx.getSliceAxis());
+            filledToEnd = copyTile(tileIx, tileData, tileOrigin, farCorner);
+
+            int remaining = remainingTiles.decrementAndGet();
+            reportProgress(Math.max(0, remaining), totalTiles);
+        }
+        return filledToEnd;
     }
 
-    private boolean fetchTileData(TextureCache textureCache, TileIndex tileIx, AbstractTextureLoadAdapter loadAdapter, TileFormat tileFormat, ZoomLevel zoom, ZoomedVoxelIndex farCorner) {
+    /**
+     * Copy the part of the tile that overlaps this subvolume, one scan line at a time.
+     *
+     * @param tileOrigin where the first voxel of the tile is in the whole volume
+     * @param farCorner where the subvolume ends in the whole volume
+     * @return false if the tile did not fit where it belongs
+     */
+    boolean copyTile(TileIndex tileIx, TextureData2d tileData, ZoomedVoxelIndex tileOrigin, ZoomedVoxelIndex farCorner) {
         boolean filledToEnd = true;
-        try {
-            if (tileIx.getX() < 0 || tileIx.getY() < 0 || tileIx.getZ() < 0) {
-                remainingTiles--;
-                return false;
-            }
-            TextureData2dGL tileData = null;
-            // First try to get image from cache...
-            if ((textureCache != null) && (textureCache.containsKey(tileIx))) {
-                TileTexture tt = textureCache.get(tileIx);
-                tileData = tt.getTextureData();
-            }
-            // ... if that fails, load the data right now.
-            if (tileData == null) {
-                tileData = new TextureData2dGL(loadAdapter.loadToRam(tileIx));
-            }
-            if (tileData == null) {
-                logger.info("Found no tile data for " + tileIx);
-                filledToEnd = false;
-            } else if (origin.getZ() >= 0) {
-                // If the origin were negative, it would mean there was a
-                // z-drill-in beyond the meaningful boundaries of the nascent
-                //  volume, and no data would be available to be added.
-                TileFormat.TileXyz tileXyz = new TileFormat.TileXyz(
-                        tileIx.getX(), tileIx.getY(), tileIx.getZ());
-                ZoomedVoxelIndex tileOrigin = tileFormat.zoomedVoxelIndexForTileXyz(
-                        tileXyz, zoom, tileIx.getSliceAxis());
-                // One Z-tile goes to one destination Z coordinate in this subvolume.
-                int dstZ = tileOrigin.getZ() - origin.getZ(); // local Z coordinate
-                // Y
-                int startY = Math.max(origin.getY(), tileOrigin.getY());
-                int endY = Math.min(farCorner.getY(), tileOrigin.getY() + tileData.getHeight());
-                int overlapY = endY - startY;
-                //System.out.println("TileXyz=" + tileXyz.getX() + "," + tileXyz.getY() + "," + tileXyz.getZ() + ". Start Y=" + startY + ", End Y=" + endY + ", overlapY=" + overlapY);
-                // X
-                int startX = Math.max(origin.getX(), tileOrigin.getX());
-                int endX = Math.min(farCorner.getX(), tileOrigin.getX() + tileData.getUsedWidth());
-                int overlapX = endX - startX;
-                // byte array offsets
-                int pixelBytes = channelCount * bytesPerIntensity;
-                int tileLineBytes = pixelBytes * tileData.getWidth();
-                int subvolumeLineBytes = pixelBytes * extent.getX();
-                // Where to start putting bytes into subvolume?
-                // Probable source of bug: may not be getting proper start location in "subsequent" volume, and/or wrong overlap values.
-                int dstOffset = dstZ * subvolumeLineBytes * extent.getY() // z plane offset
-                        + (startY - origin.getY()) * subvolumeLineBytes // y scan-line offset
-                        + (startX - origin.getX()) * pixelBytes;
-                int srcOffset = (startY - tileOrigin.getY()) * tileLineBytes // y scan-line offset
-                        + (startX - tileOrigin.getX()) * pixelBytes;
-                // Copy one scan line at a time
-                OVERFLOW_LABEL:
-                for (int y = 0; y < overlapY; ++y) {
-                    for (int x = 0; x < overlapX; ++x) {
-                        // TODO faster copy
-                        for (int b = 0; b < pixelBytes; ++b) {
-                            int d = dstOffset + x * pixelBytes + b;
-                            int s = srcOffset + x * pixelBytes + b;
-                            try {
-                                bytes.put(d, tileData.getPixels().get(s));
-                            } catch (Exception ex) {
-                                logger.error("Failed to copy data into pixels buffer: " + ex.getMessage() + ".  Skipping remainder.");
-                                /* for debugging */
-                                if (logger.isDebugEnabled() && d >= bytes.capacity()) {
-                                    logger.info("overflow destination: {} vs {}.", d, bytes.capacity());
-                                    logger.info("dstOffset={}; dstZ={}; extent-Y={}; subvolumeLineBytes={}", dstOffset, dstZ, extent.getY(), subvolumeLineBytes);
-                                    logger.info("dstZ=tileOrigin.getZ() - origin.getZ(); tileOrigin.getZ()={}; origin.getZ()={}.", tileOrigin.getZ(), origin.getZ());
-                                    logger.info("startX={}. endX={}. startY={}. endY={}", startX, endX, startY, endY);
-                                    logger.info("Destination X={}, Y={}, dstZ={}. srcOffset={}.", x, y, dstZ, srcOffset);
-                                    logger.info("overlapX={}, overlapY={}.   tileLineBytes={}.", overlapX, overlapY, tileLineBytes);
-                                }
-                                if (s >= tileData.getPixels().capacity()) {
-                                    logger.info("overflow source: {} vs {}.", s, bytes.capacity());
-                                }
-                                if (s < 0) {
-                                    logger.info("Underflow source: {} vs {}.", s, bytes.capacity());
-                                }
-                                if (d < 0) {
-                                    logger.info("underflow destination: {} vs {}.", d, bytes.capacity());
-                                }
-                                break OVERFLOW_LABEL;
-                            }
-                        }
-                    }
-                    dstOffset += subvolumeLineBytes;
-                    srcOffset += tileLineBytes;
+        // One Z-tile goes to one destination Z coordinate in this subvolume.
+        int dstZ = tileOrigin.getZ() - origin.getZ(); // local Z coordinate
+        // Y
+        int startY = Math.max(origin.getY(), tileOrigin.getY());
+        int endY = Math.min(farCorner.getY(), tileOrigin.getY() + tileData.getHeight());
+        int overlapY = endY - startY;
+        // X
+        int startX = Math.max(origin.getX(), tileOrigin.getX());
+        int endX = Math.min(farCorner.getX(), tileOrigin.getX() + tileData.getUsedWidth());
+        int overlapX = endX - startX;
+        // byte array offsets
+        int pixelBytes = channelCount * bytesPerIntensity;
+        int tileLineBytes = pixelBytes * tileData.getWidth();
+        int subvolumeLineBytes = pixelBytes * extent.getX();
+        int overlapLineBytes = overlapX * pixelBytes;
+        // Where to start putting bytes into subvolume?
+        int dstOffset = dstZ * subvolumeLineBytes * extent.getY() // z plane offset
+                + (startY - origin.getY()) * subvolumeLineBytes // y scan-line offset
+                + (startX - origin.getX()) * pixelBytes;
+        int srcOffset = (startY - tileOrigin.getY()) * tileLineBytes // y scan-line offset
+                + (startX - tileOrigin.getX()) * pixelBytes;
+        // independent positions for each thread; the scan lines of different tiles do not overlap
+        ByteBuffer src = tileData.getPixels().duplicate();
+        ByteBuffer dst = bytes.duplicate();
+        // Copy one scan line at a time
+        for (int y = 0; y < overlapY && overlapLineBytes > 0; ++y) {
+            if (dstOffset < 0 || dstOffset + overlapLineBytes > dst.capacity()
+                    || srcOffset < 0 || srcOffset + overlapLineBytes > src.capacity()) {
+                logger.error("Failed to copy data into pixels buffer: scan line {} of tile {} is out of bounds.  Skipping remainder.", y, tileIx);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("dstOffset={} of {}; dstZ={}; extent-Y={}; subvolumeLineBytes={}", dstOffset, dst.capacity(), dstZ, extent.getY(), subvolumeLineBytes);
+                    logger.debug("dstZ=tileOrigin.getZ() - origin.getZ(); tileOrigin.getZ()={}; origin.getZ()={}.", tileOrigin.getZ(), origin.getZ());
+                    logger.debug("startX={}. endX={}. startY={}. endY={}", startX, endX, startY, endY);
+                    logger.debug("srcOffset={} of {}.", srcOffset, src.capacity());
+                    logger.debug("overlapX={}, overlapY={}.   tileLineBytes={}.", overlapX, overlapY, tileLineBytes);
                 }
-
-                // There is a slim chance this could be decremented to sub-zero,
-                // since there are multiple threads using this method.  However,
-                // we will avoid incurring the overhead of AtomicInteger by simple
-                // accepting that risk (off-by-a-few is not terrible, here), and
-                // simply ensuring the user never sees a negative remainder.
-                remainingTiles--;
-                int remaining = Math.max(0, remainingTiles);
-                reportProgress(remaining, totalTiles);
+                filledToEnd = false;
+                break;
             }
-
-        } catch (AbstractTextureLoadAdapter.TileLoadError | AbstractTextureLoadAdapter.MissingTileException e) {
-            // TODO Auto-generated catch block
-            logger.error("Request for {}..{} failed with error {}.", origin, extent, e.getMessage());
-            FrameworkAccess.handleException(e);
+            src.clear();
+            src.position(srcOffset);
+            src.limit(srcOffset + overlapLineBytes);
+            dst.clear();
+            dst.position(dstOffset);
+            dst.put(src);
+            dstOffset += subvolumeLineBytes;
+            srcOffset += tileLineBytes;
         }
         return filledToEnd;
     }
@@ -537,14 +511,15 @@ public class Subvolume {
     private void allocateRasterMemory(final TileFormat tileFormat, int[] dimensions) {
         bytesPerIntensity = tileFormat.getBitDepth() / 8;
         channelCount = tileFormat.getChannelCount();
+        allocateBytes(dimensions);
+    }
+
+    private void allocateBytes(int[] dimensions) {
         int totalBytes = bytesPerIntensity
                 * channelCount
                 * dimensions[0] * dimensions[1] * dimensions[2];
         bytes = ByteBuffer.allocateDirect(totalBytes);
         bytes.order(ByteOrder.nativeOrder());
-        if (bytesPerIntensity == 2) {
-            shorts = bytes.asShortBuffer();
-        }
     }
 
     private Set<TileIndex> getNeededTileSet(TileFormat tileFormat, ZoomedVoxelIndex farCorner, ZoomLevel zoom) {
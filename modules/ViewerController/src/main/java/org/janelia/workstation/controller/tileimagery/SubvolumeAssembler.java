@@ -0,0 +1,150 @@
+package org.janelia.workstation.controller.tileimagery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.janelia.workstation.integration.util.FrameworkAccess;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the tiles of subvolumes on a pool of threads shared by all subvolume requests.
+ *
+ * Tiles already in the texture cache are used as they are; tiles loaded here are added to the
+ * cache, so that repeated requests over the same region, as when tracing paths, do not load
+ * them again. A tile that is being loaded for one request is not loaded a second time for
+ * another request at the same time.
+ */
+class SubvolumeAssembler {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubvolumeAssembler.class);
+
+    private static final SubvolumeAssembler shared = new SubvolumeAssembler(
+            ConsoleProperties.getInt("console.subvolume.fetchThreads", 20));
+
+    /**
+     * Receives each tile of a subvolume as soon as it is loaded, on a pool thread.
+     */
+    interface TileConsumer {
+        /**
+         * @return false if the tile could not be used completely
+         */
+        boolean accept(TileIndex tileIndex, TextureData2dGL tileData);
+    }
+
+    private final ExecutorService executor;
+    private final Map<TileIndex, CompletableFuture<TextureData2dGL>> loadingTiles = new ConcurrentHashMap<>();
+
+    static SubvolumeAssembler getShared() {
+        return shared;
+    }
+
+    SubvolumeAssembler(int threadCount) {
+        executor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("SubvolumeFetch-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Load the tiles in parallel and hand each to the consumer.
+     *
+     * @return completes with true once every tile was loaded and accepted, or false if there were gaps
+     */
+    CompletableFuture<Boolean> fetchTiles(Collection<TileIndex> tiles,
+                                          TextureCache textureCache,
+                                          AbstractTextureLoadAdapter loadAdapter,
+                                          TileConsumer consumer) {
+        List<CompletableFuture<Boolean>> tileResults = new ArrayList<>();
+        for (TileIndex tileIndex : tiles) {
+            tileResults.add(CompletableFuture.supplyAsync(
+                    () -> fetchTile(tileIndex, textureCache, loadAdapter, consumer), executor));
+        }
+        return CompletableFuture.allOf(tileResults.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> tileResults.stream().allMatch(CompletableFuture::join));
+    }
+
+    private boolean fetchTile(TileIndex tileIndex,
+                              TextureCache textureCache,
+                              AbstractTextureLoadAdapter loadAdapter,
+                              TileConsumer consumer) {
+        TextureData2dGL tileData;
+        try {
+            tileData = loadTile(tileIndex, textureCache, loadAdapter);
+        } catch (AbstractTextureLoadAdapter.TileLoadError | AbstractTextureLoadAdapter.MissingTileException e) {
+            logger.error("Loading tile {} for a subvolume failed with error {}.", tileIndex, e.getMessage());
+            FrameworkAccess.handleException(e);
+            return false;
+        }
+        if (tileData == null) {
+            logger.info("Found no tile data for " + tileIndex);
+            return false;
+        }
+        return consumer.accept(tileIndex, tileData);
+    }
+
+    private TextureData2dGL loadTile(TileIndex tileIndex,
+                                     TextureCache textureCache,
+                                     AbstractTextureLoadAdapter loadAdapter)
+            throws AbstractTextureLoadAdapter.TileLoadError, AbstractTextureLoadAdapter.MissingTileException {
+        if (textureCache != null) {
+            TileTexture cachedTexture = textureCache.get(tileIndex);
+            TextureData2dGL cachedData = cachedTexture != null ? cachedTexture.getTextureData() : null;
+            if (cachedData != null) {
+                return cachedData;
+            }
+        }
+        CompletableFuture<TextureData2dGL> load = new CompletableFuture<>();
+        CompletableFuture<TextureData2dGL> otherLoad = loadingTiles.putIfAbsent(tileIndex, load);
+        if (otherLoad != null) {
+            // already being loaded by another thread, which does not wait for this one
+            return joinLoad(otherLoad);
+        }
+        try {
+            TextureData2dGL tileData = new TextureData2dGL(loadAdapter.loadToRam(tileIndex));
+            if (textureCache != null) {
+                textureCache.add(new TileTexture(tileIndex, loadAdapter, tileData));
+            }
+            load.complete(tileData);
+            return tileData;
+        } catch (AbstractTextureLoadAdapter.TileLoadError | AbstractTextureLoadAdapter.MissingTileException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadingTiles.remove(tileIndex, load);
+        }
+    }
+
+    /**
+     * @return how many requests wait for the tile that another request is loading
+     */
+    int getWaitingRequestCount(TileIndex tileIndex) {
+        CompletableFuture<TextureData2dGL> load = loadingTiles.get(tileIndex);
+        return load == null ? 0 : load.getNumberOfDependents();
+    }
+
+    private static TextureData2dGL joinLoad(CompletableFuture<TextureData2dGL> load)
+            throws AbstractTextureLoadAdapter.TileLoadError, AbstractTextureLoadAdapter.MissingTileException {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof AbstractTextureLoadAdapter.TileLoadError) {
+                throw (AbstractTextureLoadAdapter.TileLoadError) cause;
+            }
+            if (cause instanceof AbstractTextureLoadAdapter.MissingTileException) {
+                throw (AbstractTextureLoadAdapter.MissingTileException) cause;
+            }
+            throw e;
+        }
+    }
+}
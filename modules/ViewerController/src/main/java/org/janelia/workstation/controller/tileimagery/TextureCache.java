@@ -1,151 +1,231 @@
 package org.janelia.workstation.controller.tileimagery;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.janelia.workstation.controller.listener.StatusUpdateListener;
+import org.janelia.workstation.core.util.ConsoleProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /*
- * Wrap texture cache so indices can be interpolated for either quadtrees
- * or octrees.
+ * Holds the tile textures loaded for the LargeVolumeViewer, within a byte budget for
+ * RAM and a separate byte budget for video memory.
+ *
+ * The lowest resolution textures are pinned, so that there is always something to show
+ * for every part of the volume. All other textures are evicted from RAM by the configured
+ * Policy when the host budget is exceeded. When the GPU budget is exceeded, the coldest
+ * textures give up their OpenGL texture but keep their pixels, and are uploaded again
+ * if they are displayed later.
+ *
+ * OpenGL texture ids are never deleted here; they are handed to the rendering thread
+ * through popObsoleteTextureIds().
  */
 public class TextureCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(TextureCache.class);
 
-    private HistoryCache historyCache = new HistoryCache(2000); // textures that have been displayed, ordered by LRU
-    private HistoryCache futureCache = new HistoryCache(3000); // textures we predict will be displayed
-    private PersistentCache persistentCache = new PersistentCache(); // lowest resolution textures for everything
-    private Map<TileIndex, Long> queuedTextureTime = new HashMap<>();
-    private StatusUpdateListener queueDrainedListener;
+    public enum Policy {
+        LRU, // least recently used
+        TINY_LFU // frequency based admission, weighted by zoom level
+    }
+
+    private static final long MB = 1024 * 1024;
+    private static final long DEFAULT_HOST_BUDGET = MB * ConsoleProperties.getLong("console.lvv.textureCache.hostMB",
+            Math.min(Runtime.getRuntime().maxMemory() / 4, 4096 * MB) / MB);
+    private static final long DEFAULT_GPU_BUDGET = MB * ConsoleProperties.getLong("console.lvv.textureCache.gpuMB", 1024);
+    private static final Policy DEFAULT_POLICY = parsePolicy(ConsoleProperties.getString("console.lvv.textureCache.policy", Policy.TINY_LFU.name()));
+    // used before any texture has been loaded to estimate how many textures fit
+    private static final int DEFAULT_PREFETCH_CAPACITY = 3000;
+    // textures drawn this recently keep their OpenGL texture even when over the GPU budget
+    private static final int RECENT_DISPLAY_FRAMES = 16;
+
+    private final Map<TileIndex, TextureCacheEntry> entries = new ConcurrentHashMap<>();
+    private final Map<TileIndex, Long> queuedTextureTime = new ConcurrentHashMap<>();
+    private final List<TextureCacheEntry> pinnedEntries = new ArrayList<>();
+    // displayed textures whose upload to the GPU has not been accounted for yet
+    private final Set<TextureCacheEntry> pendingUploads = new HashSet<>();
+    private Set<Integer> obsoleteGlTextures = new HashSet<>();
+    private Policy policy = DEFAULT_POLICY;
+    private TextureEvictionPolicy evictionPolicy = TextureEvictionPolicy.create(DEFAULT_POLICY);
+    private long hostBudget = DEFAULT_HOST_BUDGET;
+    private long gpuBudget = DEFAULT_GPU_BUDGET;
+    private long hostBytes = 0;
+    private long pinnedBytes = 0;
+    private long gpuBytes = 0;
+    private long frame = 0;
+    private long evictionCount = 0;
+    private long gpuEvictionCount = 0;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private volatile StatusUpdateListener queueDrainedListener;
+
+    public TextureCache() {
+        evictionPolicy.setCapacity(hostBudget);
+    }
+
+    private static Policy parsePolicy(String name) {
+        try {
+            return Policy.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Unknown texture cache policy {}, using {}", name, Policy.TINY_LFU);
+            return Policy.TINY_LFU;
+        }
+    }
 
     public synchronized void add(TileTexture texture) {
         TileIndex index = texture.getIndex();
-        if (index.getZoom() == index.getMaxZoom()) {
-            persistentCache.put(texture.getIndex(), texture);
+        TextureCacheEntry previous = entries.get(index);
+        if (previous != null && previous.texture == texture) {
+            return;
+        }
+        if (previous != null) {
+            removeEntry(previous);
+        }
+        TextureCacheEntry entry = new TextureCacheEntry(texture, index.getZoom() == index.getMaxZoom());
+        entries.put(index, entry);
+        hostBytes += entry.hostBytes;
+        if (entry.pinned) {
+            pinnedEntries.add(entry);
+            pinnedBytes += entry.hostBytes;
+            evictionPolicy.setCapacity(Math.max(0, hostBudget - pinnedBytes));
         } else {
-            futureCache.put(index, texture);
+            evictionPolicy.added(entry);
         }
+        evictToHostBudget();
     }
 
-    synchronized public void clear() {
-        futureCache.clear();
-        historyCache.clear();
-        persistentCache.clear();
+    public synchronized void clear() {
+        for (TextureCacheEntry entry : entries.values()) {
+            retireGlTexture(entry.texture);
+        }
+        entries.clear();
+        pinnedEntries.clear();
+        pendingUploads.clear();
+        evictionPolicy.clear();
+        hostBytes = pinnedBytes = gpuBytes = 0;
+        evictionPolicy.setCapacity(hostBudget);
         queuedTextureTime.clear();
     }
 
     boolean containsKey(TileIndex index) {
-        return persistentCache.containsKey(index)
-                || historyCache.containsKey(index)
-                || futureCache.containsKey(index);
+        return entries.containsKey(index);
     }
 
-    synchronized TileTexture get(TileIndex index) {
-        if (persistentCache.containsKey(index)) {
-            return persistentCache.get(index);
-        } else if (historyCache.containsKey(index)) {
-            return historyCache.get(index);
-        } else {
-            return futureCache.get(index);
+    TileTexture get(TileIndex index) {
+        TextureCacheEntry entry = entries.get(index);
+        if (entry == null) {
+            missCount.increment();
+            return null;
         }
+        hitCount.increment();
+        return entry.texture;
     }
 
     // Keep track of recently queued textures, to avoid redundant loads
     public boolean hasQueuedTextures() {
-        if (queuedTextureTime.isEmpty()) {
-            return false;
-        }
-        return true;
+        return !queuedTextureTime.isEmpty();
     }
 
     public boolean isLoadQueued(TileIndex index) {
-        if (!queuedTextureTime.containsKey(index)) {
-            return false;
-        }
         Long queuedTextureTimeForIndex = queuedTextureTime.get(index);
         if (queuedTextureTimeForIndex == null) {
-            LOG.warn("Queued Texture Time had no entry for index {}.  Setting queued time to 0.", index);
-            queuedTextureTimeForIndex = System.nanoTime();
+            return false;
         }
         long elapsed = System.nanoTime() - queuedTextureTimeForIndex;
         // Don't wait longer than ten seconds
         long maxSeconds = 10;
         if (elapsed > maxSeconds * 1e9) {
-            // log.warn("Waited more than "+maxSeconds+" seconds for texture load "+index);
-            queuedTextureTime.remove(index);
+            queuedTextureTime.remove(index, queuedTextureTimeForIndex);
             return false;
         }
-        return true; // queued for less than 5 seconds
+        return true;
     }
 
     public void setLoadQueued(TileIndex index, boolean isQueued) {
         if (isQueued) {
             queuedTextureTime.put(index, System.nanoTime());
-        } else {
-            if (!queuedTextureTime.containsKey(index)) {
-                return;
-            }
-            queuedTextureTime.remove(index);
-            if (queuedTextureTime.isEmpty() && queueDrainedListener != null) {
-                queueDrainedListener.update();
+        } else if (queuedTextureTime.remove(index) != null && queuedTextureTime.isEmpty()) {
+            StatusUpdateListener listener = queueDrainedListener;
+            if (listener != null) {
+                listener.update();
             }
         }
     }
 
-    // Indicate that a particular texture has been viewed, rather than simply pre-fetched.
+    /**
+     * Indicate that a particular texture has been viewed, rather than simply pre-fetched.
+     *
+     * @return true if the texture had not been displayed before
+     */
     synchronized boolean markHistorical(TileTexture tile) {
         if (tile == null) {
             return false;
         }
-        // Only future cached textures need to be moved.
-        // (textures in the persistent cache should remain there)
-        if (persistentCache.containsKey(tile.getIndex())) {
+        TextureCacheEntry entry = entries.get(tile.getIndex());
+        if (entry == null) {
             return false;
         }
-        if (futureCache.remove(tile.getIndex()) != null) {
-            historyCache.put(tile.getIndex(), tile); // move texture to the front of the queue
-            LOG.trace("Successfully removed {} from future cache.", tile);
-            return true;
-        } else {
+        entry.lastDisplayFrame = frame;
+        if (entry.gpuBytes == 0) {
+            pendingUploads.add(entry);
+        }
+        if (entry.pinned) {
+            return false;
+        }
+        evictionPolicy.displayed(entry);
+        boolean firstDisplay = !entry.displayed;
+        entry.displayed = true;
+        return firstDisplay;
+    }
+
+    /**
+     * Keep a prefetched texture that is requested again from being evicted early.
+     *
+     * @return true if the texture is cached and has not been displayed yet
+     */
+    synchronized boolean retainPrefetched(TileIndex index) {
+        TextureCacheEntry entry = entries.get(index);
+        if (entry == null || entry.pinned || entry.displayed) {
             return false;
         }
+        evictionPolicy.retained(entry);
+        return true;
     }
 
     public int size() {
-        return futureCache.size() + historyCache.size() + persistentCache.size();
+        return entries.size();
     }
 
-    public synchronized Collection<TileTexture> values() {
-        Set<TileTexture> result = new HashSet<>();
-        result.addAll(historyCache.values());
-        result.addAll(futureCache.values());
-        result.addAll(persistentCache.values());
+    public Collection<TileTexture> values() {
+        List<TileTexture> result = new ArrayList<>(entries.size());
+        for (TextureCacheEntry entry : entries.values()) {
+            result.add(entry.texture);
+        }
         return result;
     }
 
     /**
-     * Do not use to modify future cache.
-     *
-     * @return
+     * Called on the rendering thread before drawing each frame. Accounts for the textures
+     * uploaded during the previous frame, releases OpenGL textures in excess of the GPU budget,
+     * and returns the texture ids that are no longer used.
      */
-    public HistoryCache getFutureCache() {
-        return futureCache;
-    }
-
-    public HistoryCache getHistoryCache() {
-        return historyCache;
-    }
-
-    public int[] popObsoleteTextureIds() {
-        Set<Integer> ids = historyCache.popObsoleteGlTextures();
-        ids.addAll(persistentCache.popObsoleteGlTextures());
-        ids.addAll(futureCache.popObsoleteGlTextures());
+    public synchronized int[] popObsoleteTextureIds() {
+        frame++;
+        updateGpuUsage();
+        evictToGpuBudget();
+        Set<Integer> ids = obsoleteGlTextures;
+        obsoleteGlTextures = new HashSet<>();
+        if (ids.size() > 0) {
+            LOG.info("Popping obsolete textures.  Size {}.", ids.size());
+        }
         int result[] = new int[ids.size()];
         int i = 0;
         for (int val : ids) {
@@ -155,6 +235,157 @@ public class TextureCache {
         return result;
     }
 
+    /**
+     * Hand over texture ids from a previous cache, so that they get deleted on the next draw.
+     */
+    public synchronized void storeObsoleteTextureIds(int[] textureIds) {
+        for (int id : textureIds) {
+            obsoleteGlTextures.add(id);
+        }
+    }
+
+    /**
+     * Call after all OpenGL textures were destroyed along with their context.
+     */
+    public synchronized void gpuTexturesReleased() {
+        for (TextureCacheEntry entry : entries.values()) {
+            entry.gpuBytes = 0;
+        }
+        pendingUploads.clear();
+        gpuBytes = 0;
+    }
+
+    /**
+     * @return estimated number of textures, besides the pinned lowest resolution ones, that fit in the host budget
+     */
+    public synchronized int getPrefetchCapacity() {
+        int count = entries.size() - pinnedEntries.size();
+        if (count == 0 || hostBytes == pinnedBytes) {
+            return DEFAULT_PREFETCH_CAPACITY;
+        }
+        long averageBytes = Math.max(1, (hostBytes - pinnedBytes) / count);
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, hostBudget - pinnedBytes) / averageBytes);
+    }
+
+    public synchronized TextureCacheStats getStats() {
+        return new TextureCacheStats(hitCount.sum(), missCount.sum(), evictionCount, gpuEvictionCount,
+                entries.size(), hostBytes, hostBudget, gpuBytes, gpuBudget);
+    }
+
+    public synchronized long getHostBudget() {
+        return hostBudget;
+    }
+
+    public synchronized void setHostBudget(long hostBudget) {
+        this.hostBudget = hostBudget;
+        evictionPolicy.setCapacity(Math.max(0, hostBudget - pinnedBytes));
+        evictToHostBudget();
+    }
+
+    public synchronized long getGpuBudget() {
+        return gpuBudget;
+    }
+
+    /**
+     * The new budget takes effect on the next frame.
+     */
+    public synchronized void setGpuBudget(long gpuBudget) {
+        this.gpuBudget = gpuBudget;
+    }
+
+    public synchronized Policy getPolicy() {
+        return policy;
+    }
+
+    public synchronized void setPolicy(Policy policy) {
+        if (this.policy == policy) {
+            return;
+        }
+        TextureEvictionPolicy replacement = TextureEvictionPolicy.create(policy);
+        replacement.setCapacity(Math.max(0, hostBudget - pinnedBytes));
+        for (TextureCacheEntry entry : evictionPolicy.coldestFirst()) {
+            evictionPolicy.removed(entry);
+            replacement.added(entry);
+        }
+        this.policy = policy;
+        this.evictionPolicy = replacement;
+    }
+
+    private void evictToHostBudget() {
+        while (hostBytes > hostBudget) {
+            TextureCacheEntry victim = evictionPolicy.selectVictim();
+            if (victim == null) {
+                break; // only pinned textures are left
+            }
+            removeEntry(victim);
+            evictionCount++;
+        }
+    }
+
+    private void removeEntry(TextureCacheEntry entry) {
+        entries.remove(entry.getIndex(), entry);
+        if (entry.pinned) {
+            pinnedEntries.remove(entry);
+            pinnedBytes -= entry.hostBytes;
+            evictionPolicy.setCapacity(Math.max(0, hostBudget - pinnedBytes));
+        } else {
+            evictionPolicy.removed(entry);
+        }
+        pendingUploads.remove(entry);
+        hostBytes -= entry.hostBytes;
+        gpuBytes -= entry.gpuBytes;
+        entry.gpuBytes = 0;
+        retireGlTexture(entry.texture);
+    }
+
+    private void retireGlTexture(TileTexture texture) {
+        PyramidTexture glTexture = texture.getTexture();
+        if (glTexture == null) {
+            return;
+        }
+        int id = glTexture.getTextureId();
+        if (id > 0) {
+            obsoleteGlTextures.add(id); // remember OpenGl texture IDs for later deletion.
+        }
+    }
+
+    private void updateGpuUsage() {
+        Iterator<TextureCacheEntry> it = pendingUploads.iterator();
+        while (it.hasNext()) {
+            TextureCacheEntry entry = it.next();
+            if (entry.texture.getLoadStatus() == TileTexture.LoadStatus.GL_LOADED) {
+                entry.gpuBytes = entry.gpuBytesWhenLoaded;
+                gpuBytes += entry.gpuBytes;
+                it.remove();
+            } else if (entry.lastDisplayFrame < frame - RECENT_DISPLAY_FRAMES) {
+                it.remove(); // was not drawn after all
+            }
+        }
+    }
+
+    private void evictToGpuBudget() {
+        if (gpuBytes <= gpuBudget) {
+            return;
+        }
+        List<TextureCacheEntry> candidates = evictionPolicy.coldestFirst();
+        candidates.addAll(pinnedEntries);
+        for (TextureCacheEntry entry : candidates) {
+            if (gpuBytes <= gpuBudget) {
+                break;
+            }
+            if (entry.gpuBytes == 0 || entry.lastDisplayFrame >= frame - RECENT_DISPLAY_FRAMES) {
+                continue;
+            }
+            int id = entry.texture.releaseGlTexture();
+            if (id > 0) {
+                obsoleteGlTextures.add(id);
+            }
+            gpuBytes -= entry.gpuBytes;
+            entry.gpuBytes = 0;
+            gpuEvictionCount++;
+        }
+    }
+
     /**
      * @param queueDrainedListener the queueDrainedListener to set
      */
@@ -0,0 +1,34 @@
+package org.janelia.workstation.controller.tileimagery;
+
+/**
+ * Bookkeeping for one texture held by the TextureCache. All fields besides the
+ * immutable sizes are guarded by the cache's lock.
+ */
+final class TextureCacheEntry {
+
+    final TileTexture texture;
+    final long hostBytes;
+    final long gpuBytesWhenLoaded;
+    final boolean pinned;
+
+    // video memory currently attributed to this texture
+    long gpuBytes = 0;
+    boolean displayed = false;
+    long lastDisplayFrame = -1;
+
+    // intrusive links, so that policies can reorder entries without allocating
+    TextureCacheEntry prev;
+    TextureCacheEntry next;
+    TextureEvictionPolicy.EntryQueue queue;
+
+    TextureCacheEntry(TileTexture texture, boolean pinned) {
+        this.texture = texture;
+        this.hostBytes = texture.getHostByteCount();
+        this.gpuBytesWhenLoaded = texture.getGpuByteCount();
+        this.pinned = pinned;
+    }
+
+    TileIndex getIndex() {
+        return texture.getIndex();
+    }
+}
@@ -0,0 +1,87 @@
+package org.janelia.workstation.controller.tileimagery;
+
+/**
+ * Snapshot of the TextureCache counters, e.g. for display in the cache status panel.
+ */
+public class TextureCacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long gpuEvictionCount;
+    private final int textureCount;
+    private final long hostBytes;
+    private final long hostBudget;
+    private final long gpuBytes;
+    private final long gpuBudget;
+
+    TextureCacheStats(long hitCount, long missCount, long evictionCount, long gpuEvictionCount,
+                      int textureCount, long hostBytes, long hostBudget, long gpuBytes, long gpuBudget) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.gpuEvictionCount = gpuEvictionCount;
+        this.textureCount = textureCount;
+        this.hostBytes = hostBytes;
+        this.hostBudget = hostBudget;
+        this.gpuBytes = gpuBytes;
+        this.gpuBudget = gpuBudget;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return fraction of lookups that found a texture, or 0 if there were no lookups
+     */
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 0 : (double) hitCount / requests;
+    }
+
+    /**
+     * @return number of textures dropped from RAM to stay within the host budget
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return number of textures dropped from video memory, but kept in RAM, to stay within the GPU budget
+     */
+    public long getGpuEvictionCount() {
+        return gpuEvictionCount;
+    }
+
+    public int getTextureCount() {
+        return textureCount;
+    }
+
+    public long getHostBytes() {
+        return hostBytes;
+    }
+
+    public long getHostBudget() {
+        return hostBudget;
+    }
+
+    public long getGpuBytes() {
+        return gpuBytes;
+    }
+
+    public long getGpuBudget() {
+        return gpuBudget;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d textures, RAM %d/%d MB, GPU %d/%d MB, hit rate %.1f%%, %d evicted, %d evicted from GPU",
+                textureCount, hostBytes >> 20, hostBudget >> 20, gpuBytes >> 20, gpuBudget >> 20,
+                100 * getHitRate(), evictionCount, gpuEvictionCount);
+    }
+}
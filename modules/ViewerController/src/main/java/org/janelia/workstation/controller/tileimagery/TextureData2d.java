@@ -2,12 +2,18 @@ package org.janelia.workstation.controller.tileimagery;
 
 
 import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
 import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
+import java.util.Arrays;
 
 /**
  * Created by murphys on 5/13/2016.
@@ -27,6 +33,10 @@ public class TextureData2d {
     protected int bitDepth = 8;
     protected int channelCount = 3;
     protected float textureCoordX = 1.0f;
+    // brightness statistics gathered while loading the pixels, if any
+    protected ImageBrightnessStats brightnessStats;
+
+    private static final ThreadLocal<LoadScratch> LOAD_SCRATCH = ThreadLocal.withInitial(LoadScratch::new);
 
     public void loadRenderedImage(RenderedImage image) {
         ColorModel colorModel = image.getColorModel();
@@ -55,15 +65,117 @@ public class TextureData2d {
         int pixelByteCount = this.channelCount * this.bitDepth/8;
         int rowByteCount = pixelByteCount * this.width;
         int imageByteCount = this.height * rowByteCount;
-        // Allocate image store buffer, exactly as it will be passed to openGL
-        // TODO - Consider sharing a buffer among multiple textures to save allocation time.
-        // (there would need to be a separate one for each thread)
+        // Allocate image store buffer, exactly as it will be passed to openGL.
+        // The texture keeps this buffer, and may be cached, so only scratch space is reused.
         byte byteArray[] = new byte[imageByteCount];
         ByteBuffer byteBuffer = ByteBuffer.wrap(byteArray);
         byteBuffer.order(ByteOrder.nativeOrder());
-        ShortBuffer shortBuffer = byteBuffer.asShortBuffer(); // for 16-bit case
         //
         Raster raster = image.getData();
+        brightnessStats = null;
+        if (!loadRasterRows(raster, byteBuffer)) {
+            loadRasterPixels(raster, byteBuffer);
+        }
+        pixels = byteBuffer;
+        return;
+    }
+
+    /**
+     * Copy the raster one scan line at a time straight from its data arrays, gathering the
+     * brightness statistics on the way.
+     *
+     * @return false if the raster layout is not one of the common ones handled here
+     */
+    private boolean loadRasterRows(Raster raster, ByteBuffer byteBuffer) {
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        if (!(sampleModel instanceof ComponentSampleModel)
+                || sampleModel.getNumBands() != channelCount
+                || raster.getMinX() != 0 || raster.getMinY() != 0
+                || raster.getWidth() < usedWidth || raster.getHeight() < height) {
+            return false;
+        }
+        boolean is16Bit = (bitDepth == 16);
+        if (is16Bit ? !(dataBuffer instanceof DataBufferUShort) : !(dataBuffer instanceof DataBufferByte)) {
+            return false;
+        }
+        ComponentSampleModel componentModel = (ComponentSampleModel) sampleModel;
+        int pixelStride = componentModel.getPixelStride();
+        int scanlineStride = componentModel.getScanlineStride();
+        int[] bankIndices = componentModel.getBankIndices();
+        int[] bandOffsets = componentModel.getBandOffsets();
+        int[] bankOffsets = dataBuffer.getOffsets();
+        int translateX = raster.getSampleModelTranslateX();
+        int translateY = raster.getSampleModelTranslateY();
+        int[] bandStarts = new int[channelCount];
+        for (int c = 0; c < channelCount; ++c) {
+            bandStarts[c] = bankOffsets[bankIndices[c]] - translateY * scanlineStride - translateX * pixelStride + bandOffsets[c];
+        }
+        LoadScratch scratch = LOAD_SCRATCH.get();
+        int[][] valueCounts = scratch.getValueCounts(channelCount, is16Bit ? 1 << 16 : 1 << 8);
+        int rowLength = width * channelCount;
+        if (is16Bit) {
+            short[][] banks = ((DataBufferUShort) dataBuffer).getBankData();
+            short[] row = scratch.getShortRow(rowLength);
+            ShortBuffer shortBuffer = byteBuffer.asShortBuffer();
+            for (int y = 0; y < height; ++y) {
+                for (int c = 0; c < channelCount; ++c) {
+                    short[] bank = banks[bankIndices[c]];
+                    int[] counts = valueCounts[c];
+                    int source = bandStarts[c] + y * scanlineStride;
+                    int target = c;
+                    for (int x = 0; x < usedWidth; ++x) {
+                        short value = bank[source];
+                        row[target] = value;
+                        counts[value & 0xffff]++;
+                        source += pixelStride;
+                        target += channelCount;
+                    }
+                    // pad the right edge with the color at the end of the used portion of the scan line
+                    short pad = row[target - channelCount];
+                    for (int x = usedWidth; x < width; ++x) {
+                        row[target] = pad;
+                        counts[pad & 0xffff]++;
+                        target += channelCount;
+                    }
+                }
+                shortBuffer.put(row, 0, rowLength);
+            }
+        } else {
+            byte[][] banks = ((DataBufferByte) dataBuffer).getBankData();
+            byte[] pixelArray = byteBuffer.array();
+            for (int y = 0; y < height; ++y) {
+                int rowStart = y * rowLength;
+                for (int c = 0; c < channelCount; ++c) {
+                    byte[] bank = banks[bankIndices[c]];
+                    int[] counts = valueCounts[c];
+                    int source = bandStarts[c] + y * scanlineStride;
+                    int target = rowStart + c;
+                    for (int x = 0; x < usedWidth; ++x) {
+                        byte value = bank[source];
+                        pixelArray[target] = value;
+                        counts[value & 0xff]++;
+                        source += pixelStride;
+                        target += channelCount;
+                    }
+                    byte pad = pixelArray[target - channelCount];
+                    for (int x = usedWidth; x < width; ++x) {
+                        pixelArray[target] = pad;
+                        counts[pad & 0xff]++;
+                        target += channelCount;
+                    }
+                }
+            }
+        }
+        brightnessStats = createBrightnessStats(valueCounts);
+        return true;
+    }
+
+    /**
+     * Copy the raster one pixel at a time; this works for any raster layout.
+     */
+    void loadRasterPixels(Raster raster, ByteBuffer byteBuffer) {
+        ShortBuffer shortBuffer = byteBuffer.asShortBuffer(); // for 16-bit case
         int pixelData[] = new int[this.channelCount];
         int padData[] = new int[this.channelCount]; // color for edge padding
         final boolean is16Bit = (this.bitDepth == 16);
@@ -102,13 +214,13 @@ public class TextureData2d {
                 }
             }
         }
-        pixels = byteBuffer;
-        return;
+        byteBuffer.rewind();
     }
 
     public void releaseMemory() {
         width = height = usedWidth = 0;
         pixels = null;
+        brightnessStats = null;
     }
 
     public void setBitDepth(int bitDepth) {
@@ -127,6 +239,7 @@ public class TextureData2d {
 
     public void setPixels(ByteBuffer pixels) {
         this.pixels = pixels;
+        this.brightnessStats = null;
     }
 
     public void setChannelCount(int channelCount) {
@@ -176,6 +289,10 @@ public class TextureData2d {
     }
 
     public ImageBrightnessStats getBrightnessStats() {
+        if (brightnessStats != null) {
+            // callers combine the stats of several tiles in place
+            return copyBrightnessStats(brightnessStats);
+        }
         ByteBuffer bb = getPixels();
         if (bb == null)
             return null;
@@ -183,53 +300,89 @@ public class TextureData2d {
             return null;
         if (height*width*channelCount < 1)
             return null;
-        ImageBrightnessStats result = new ImageBrightnessStats();
+        // Count each pixel value, per channel, in one pass
+        boolean is16Bit = getBitDepth() > 8;
+        int[][] valueCounts = LOAD_SCRATCH.get().getValueCounts(channelCount, is16Bit ? 1 << 16 : 1 << 8);
         bb.rewind();
-        // Initialize channel statistics
-        for (int c = 0; c < channelCount; ++c)
-            result.add(new ChannelBrightnessStats());
-        // Read pixel values
         ShortBuffer buf16 = bb.asShortBuffer(); // ...which might be 16-bit values...
-        // First set min/max
-        for (int c = 0; c < channelCount; ++c) {
-            ChannelBrightnessStats chanStats = result.get(c);
-            for (int y = 0; y < height; ++y) {
-                for (int x = 0; x < width; ++x) {
-                    int val = 0;
-                    if (getBitDepth() > 8)
-                        val = (buf16.get() & 0xffff); // unsigned 16 bit value
-                    else
-                        val = (bb.get() & 0xff); // unsigned 8 bit value
-                    if (val == 0)
-                        continue; // zero means "no data"
-                    chanStats.setMax(Math.max(chanStats.getMax(), val));
-                    chanStats.setMin(Math.min(chanStats.getMin(), val));
-                }
-            }
+        int sampleCount = height * width * channelCount;
+        for (int i = 0; i < sampleCount; ++i) {
+            int val;
+            if (is16Bit)
+                val = (buf16.get(i) & 0xffff); // unsigned 16 bit value
+            else
+                val = (bb.get(i) & 0xff); // unsigned 8 bit value
+            valueCounts[i % channelCount][val]++;
         }
-        bb.rewind();
-        buf16.rewind();
-        // Next set histogram, now that min/max are set
-        for (int c = 0; c < channelCount; ++c) {
-            ChannelBrightnessStats chanStats = result.get(c);
+        brightnessStats = createBrightnessStats(valueCounts);
+        return copyBrightnessStats(brightnessStats);
+    }
+
+    /**
+     * Turn per channel counts of each pixel value into brightness statistics.
+     */
+    private static ImageBrightnessStats createBrightnessStats(int[][] valueCounts) {
+        ImageBrightnessStats result = new ImageBrightnessStats();
+        for (int[] counts : valueCounts) {
+            ChannelBrightnessStats chanStats = new ChannelBrightnessStats();
+            counts[0] = 0; // zero means "no data"
+            int min = 1;
+            while (min < counts.length && counts[min] == 0)
+                ++min;
+            int max = counts.length - 1;
+            while (max > min && counts[max] == 0)
+                --max;
             chanStats.clearHistogram();
-            for (int y = 0; y < height; ++y) {
-                for (int x = 0; x < width; ++x) {
-                    int val = 0;
-                    if (getBitDepth() > 8)
-                        val = (buf16.get() & 0xffff); // unsigned 16 bit value
-                    else
-                        val = (bb.get() & 0xff); // unsigned 8 bit value
-                    if (val == 0)
-                        continue; // zero means "no data"
-                    chanStats.updateHistogram(val, 1);
+            if (min < counts.length) {
+                // set min/max before the histogram, which is binned over that range
+                chanStats.setMin(min);
+                chanStats.setMax(max);
+                for (int val = min; val <= max; ++val) {
+                    chanStats.updateHistogram(val, counts[val]);
                 }
             }
+            result.add(chanStats);
         }
-        bb.rewind();
         return result;
     }
 
+    private static ImageBrightnessStats copyBrightnessStats(ImageBrightnessStats stats) {
+        ImageBrightnessStats result = new ImageBrightnessStats();
+        for (ChannelBrightnessStats chanStats : stats) {
+            result.add(chanStats.copy());
+        }
+        return result;
+    }
+
+    /**
+     * Scratch space reused by the loads on one thread.
+     */
+    private static class LoadScratch {
+        private int[][] valueCounts = new int[0][];
+        private short[] shortRow = new short[0];
+
+        /**
+         * @return zeroed counts of channelCount channels of valueCount values each
+         */
+        int[][] getValueCounts(int channelCount, int valueCount) {
+            if (valueCounts.length != channelCount || valueCounts[0].length != valueCount) {
+                valueCounts = new int[channelCount][valueCount];
+            } else {
+                for (int[] counts : valueCounts) {
+                    Arrays.fill(counts, 0);
+                }
+            }
+            return valueCounts;
+        }
+
+        short[] getShortRow(int length) {
+            if (shortRow.length < length) {
+                shortRow = new short[length];
+            }
+            return shortRow;
+        }
+    }
+
     // This method takes 4ms, vs 40ms for the above more general version
     public void load8bitStackSliceByteBufferTo16bitTexture(int xSize, int ySize, int zSize, int cSize, int zSlice, int ushortOffset, int ushortRange, ByteBuffer sourceBuffer) {
         try {
@@ -10,16 +10,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * 2D TextureData loader for the in memory texture cache.
+ * 2D TextureData loader for the in memory texture cache. Tiles that are still held in the
+ * off-heap tier are decoded from there instead of being loaded again.
  */
 public class TextureData2dCacheLoader extends CacheLoader<TileIndex, Optional<TextureData2d>> {
     private static final Logger LOG = LoggerFactory.getLogger(TextureData2dCacheLoader.class);
 
     private final BlockTiffOctreeLoadAdapter delegateTileLoader;
+    private final OffHeapTileCache offHeapTiles;
     private final Set<TileIndex> currentlyLoadingTiles;
 
-    TextureData2dCacheLoader(BlockTiffOctreeLoadAdapter delegateTileLoader) {
+    TextureData2dCacheLoader(BlockTiffOctreeLoadAdapter delegateTileLoader, OffHeapTileCache offHeapTiles) {
         this.delegateTileLoader = delegateTileLoader;
+        this.offHeapTiles = offHeapTiles;
         this.currentlyLoadingTiles = new LinkedHashSet<>();
     }
 
@@ -28,6 +31,10 @@ public class TextureData2dCacheLoader extends CacheLoader<TileIndex, Optional<Te
         try {
             LOG.debug("Loading tile {}", tileIndex);
             currentlyLoadingTiles.add(tileIndex);
+            TextureData2d offHeapImage = offHeapTiles.get(tileIndex);
+            if (offHeapImage != null) {
+                return Optional.of(offHeapImage);
+            }
             TextureData2d sliceImage = delegateTileLoader.loadToRam(tileIndex);
             if (sliceImage == null) {
                 return Optional.empty();
@@ -37,6 +37,7 @@ implements TextureDataI
 		this.srgb=textureData2d.isSrgb();
 		this.bitDepth=textureData2d.getBitDepth();
 		this.channelCount=textureData2d.getChannelCount();
+		this.brightnessStats=textureData2d.brightnessStats;
 		updateTexImageParams();
 	}
 
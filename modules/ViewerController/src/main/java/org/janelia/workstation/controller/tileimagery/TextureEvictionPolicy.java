@@ -0,0 +1,137 @@
+package org.janelia.workstation.controller.tileimagery;
+
+import java.util.List;
+
+/**
+ * Decides which texture the TextureCache drops next when it runs over its byte budget.
+ * Policies are not thread-safe; the cache calls them while holding its lock.
+ */
+abstract class TextureEvictionPolicy {
+
+    static TextureEvictionPolicy create(TextureCache.Policy policy) {
+        switch (policy) {
+            case LRU:
+                return new LruEvictionPolicy();
+            case TINY_LFU:
+                return new TinyLfuEvictionPolicy();
+            default:
+                throw new IllegalArgumentException("Unknown texture cache policy " + policy);
+        }
+    }
+
+    // bytes available to the entries managed by this policy
+    protected long capacity;
+
+    void setCapacity(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * A texture was loaded into the cache, typically ahead of being displayed.
+     */
+    abstract void added(TextureCacheEntry entry);
+
+    /**
+     * A cached texture was drawn on screen.
+     */
+    abstract void displayed(TextureCacheEntry entry);
+
+    /**
+     * A cached texture that has not been displayed yet was requested again by the prefetcher.
+     */
+    abstract void retained(TextureCacheEntry entry);
+
+    abstract void removed(TextureCacheEntry entry);
+
+    /**
+     * @return the entry to evict next, or null if the policy holds no entries
+     */
+    abstract TextureCacheEntry selectVictim();
+
+    /**
+     * @return all entries, least valuable first
+     */
+    abstract List<TextureCacheEntry> coldestFirst();
+
+    abstract void clear();
+
+    /**
+     * Doubly linked list of entries, ordered from least to most recently used,
+     * that also keeps the total host size of its entries.
+     */
+    static final class EntryQueue {
+        private TextureCacheEntry head;
+        private TextureCacheEntry tail;
+        private long bytes;
+
+        TextureCacheEntry peekFirst() {
+            return head;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        boolean contains(TextureCacheEntry entry) {
+            return entry.queue == this;
+        }
+
+        void addLast(TextureCacheEntry entry) {
+            entry.queue = this;
+            entry.prev = tail;
+            entry.next = null;
+            if (tail == null) {
+                head = entry;
+            } else {
+                tail.next = entry;
+            }
+            tail = entry;
+            bytes += entry.hostBytes;
+        }
+
+        void remove(TextureCacheEntry entry) {
+            if (entry.queue != this) {
+                return;
+            }
+            if (entry.prev == null) {
+                head = entry.next;
+            } else {
+                entry.prev.next = entry.next;
+            }
+            if (entry.next == null) {
+                tail = entry.prev;
+            } else {
+                entry.next.prev = entry.prev;
+            }
+            entry.prev = entry.next = null;
+            entry.queue = null;
+            bytes -= entry.hostBytes;
+        }
+
+        void moveToLast(TextureCacheEntry entry) {
+            if (entry.queue != this || entry == tail) {
+                return;
+            }
+            remove(entry);
+            addLast(entry);
+        }
+
+        void appendTo(List<TextureCacheEntry> result) {
+            for (TextureCacheEntry entry = head; entry != null; entry = entry.next) {
+                result.add(entry);
+            }
+        }
+
+        void clear() {
+            TextureCacheEntry entry = head;
+            while (entry != null) {
+                TextureCacheEntry next = entry.next;
+                entry.prev = entry.next = null;
+                entry.queue = null;
+                entry = next;
+            }
+            head = tail = null;
+            bytes = 0;
+        }
+    }
+}
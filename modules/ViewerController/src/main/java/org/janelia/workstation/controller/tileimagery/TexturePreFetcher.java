@@ -1,14 +1,6 @@
 package org.janelia.workstation.controller.tileimagery;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.Collection;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,83 +9,91 @@ class TexturePreFetcher {
 
     private static final Logger log = LoggerFactory.getLogger(TexturePreFetcher.class);
 
-    private final ThreadPoolExecutor textureLoadExecutor;
-    private final Map<Future<?>, TileIndex> futures = new HashMap<>();
-    private TextureCache textureCache; // holds texture
+    private final TileLoadScheduler scheduler;
+    private volatile TextureCache textureCache; // holds texture
     private AbstractTextureLoadAdapter loadAdapter; // knows how to load textures
 
-    TexturePreFetcher(int coreThreadPoolSize, int maxThreadPoolSize) {
-        textureLoadExecutor = new ThreadPoolExecutor(
-                coreThreadPoolSize,
-                maxThreadPoolSize,
-                0, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<>(),
-                new ThreadFactoryBuilder()
-                        .setNameFormat("TexturePreFetch-%03d")
-                        .setDaemon(true)
-                        .build()
-        );
+    TexturePreFetcher(int minConcurrency, int maxConcurrency) {
+        scheduler = new TileLoadScheduler("TexturePreFetch-%03d", minConcurrency, maxConcurrency, this::loadDropped);
     }
 
     /**
-     * Like loadTexture, but emits an update signal when complete.
+     * Queues a texture load, ranked by priority and by its distance from the current view,
+     * or re-ranks the load if the texture is already queued.
      *
      * Returns "true" if this tile would occupy desired space in the future
      * cache.
      */
-    synchronized boolean loadDisplayedTexture(TileIndex index, TileServer tileServer) {
+    synchronized boolean loadTexture(TileIndex index, TileLoadScheduler.Priority priority, TileServer tileServer) {
         if (textureCache == null) {
-            log.trace("loadDisplayedTexture - return because textureCache is null");
+            log.trace("loadTexture - return because textureCache is null");
             return false;
         }
         if (loadAdapter == null) {
-            log.trace("loadDisplayedTexture - return because loadAdapter is null");
+            log.trace("loadTexture - return because loadAdapter is null");
             return false;
         }
-        if (textureCache.getFutureCache().containsKey(index)) {
-            log.trace("loadDisplayedTexture - already in future cache");
-            textureCache.getFutureCache().get(index); // move cached texture to back of queue
+        if (textureCache.retainPrefetched(index)) {
+            log.trace("loadTexture - already prefetched");
             return true;
         }
         if (textureCache.containsKey(index)) {
-            log.trace("loadDisplayedTexture - already in current cache");
+            log.trace("loadTexture - already in current cache");
             return false; // we already have this one!
         }
+        // Lowest resolution textures are in the persistent cache, and thus
+        // do not impact the future cache.
+        boolean cacheable = index.getZoom() != index.getMaxZoom();
+        if (scheduler.resubmit(index, priority)) {
+            log.trace("loadTexture - already queued");
+            return cacheable;
+        }
         if (textureCache.isLoadQueued(index)) {
-            log.trace("loadDisplayedTexture - already queued");
+            log.trace("loadTexture - already loading");
             return false;
         }
         TileTexture texture = new TileTexture(index, loadAdapter);
-        TextureLoadWorker textureLoadWorker = new TextureLoadWorker(texture, textureCache, tileServer);
         // TODO - handle MISSING textures vs. ERROR textures
-        Future<?> foo = textureLoadExecutor.submit(textureLoadWorker);
-        futures.put(foo, texture.getIndex());
+        scheduler.submit(index, priority, new TextureLoadWorker(texture, textureCache, tileServer));
         textureCache.setLoadQueued(index, true);
-        // Lowest resolution textures are in the persistent cache, and thus
-        // do not impact the future cache.
-        log.debug("loadDisplayedTexture - queued for download: {}", index);
-        return (index.getZoom() != index.getMaxZoom());
+        log.debug("loadTexture - queued for download: {}", index);
+        return cacheable;
     }
 
-    synchronized void clear() {
-        if (textureCache == null) {
-            return;
-        }
-        BlockingQueue<Runnable> blockingQueue = textureLoadExecutor.getQueue();
-        if (blockingQueue == null) {
-            return;
-        }
-        //synchronize on it to prevent tasks from being polled
-        synchronized (blockingQueue) {
-            //clear the Queue
-            for (Runnable r : blockingQueue) {
-                if (futures.containsKey(r)) {
-                    textureCache.setLoadQueued(futures.get(r), false);
-                }
-            }
-            blockingQueue.clear();
+    /**
+     * Start queueing loads for a new view, centered on the given visible tiles.
+     */
+    void beginView(Collection<TileIndex> visibleTiles) {
+        scheduler.beginView(visibleTiles);
+    }
+
+    /**
+     * Drop queued loads that were not requested again since the last beginView.
+     */
+    void endView() {
+        scheduler.endView();
+    }
+
+    void cancel(TileLoadScheduler.Priority priority) {
+        scheduler.cancel(priority);
+    }
+
+    void clear() {
+        scheduler.cancelAll();
+    }
+
+    /**
+     * Drop queued loads and stop the loader threads; no textures are loaded afterwards.
+     */
+    void shutdown() {
+        scheduler.shutdown();
+    }
+
+    private void loadDropped(TileIndex index) {
+        TextureCache cache = textureCache;
+        if (cache != null) {
+            cache.setLoadQueued(index, false);
         }
-        futures.clear();
     }
 
     void setLoadAdapter(AbstractTextureLoadAdapter loadAdapter) {
@@ -101,6 +101,8 @@ class TexturePreFetcher {
     }
 
     void setTextureCache(TextureCache textureCache) {
+        // queued loads would fill the old cache
+        scheduler.cancelAll();
         this.textureCache = textureCache;
     }
 
@@ -0,0 +1,424 @@
+package org.janelia.workstation.controller.tileimagery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.janelia.workstation.geom.CoordinateAxis;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tile loads in the order their tiles are likely to be needed, rather than in the order
+ * they were requested.
+ *
+ * Pending loads are ranked first by Priority, then by their distance from the center of the
+ * current view, then coarser zoom levels first, so that a quick low resolution image appears
+ * before the detail. Each view change starts a new view (see beginView/endView); requests that
+ * are not renewed for the new view are dropped before they ever run.
+ *
+ * The number of loads running at once adapts to the measured throughput of the loader:
+ * while the queue is backed up, concurrency is nudged up or down in steps, keeping the
+ * direction that increased throughput.
+ */
+class TileLoadScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TileLoadScheduler.class);
+
+    /**
+     * Load classes, most urgent first.
+     */
+    enum Priority {
+        VISIBLE, // tiles on screen now
+        UMBRELLA, // nearby slices, at reduced resolution
+        MIN_RES, // lowest resolution of the whole volume; never obsolete
+        PREFETCH // nearby slices, at full resolution
+    }
+
+    // measure throughput over at least this many loads and this much time before adapting
+    private static final int ADAPT_MIN_LOADS = 16;
+    private static final long ADAPT_MIN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // throughput changes smaller than this are treated as noise
+    private static final double SIGNIFICANT_CHANGE = 0.05;
+
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final Consumer<TileIndex> dropListener;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workChanged = lock.newCondition();
+    private final List<Thread> workers = new ArrayList<>();
+
+    // guarded by lock
+    private PriorityQueue<Request> queue = new PriorityQueue<>();
+    private final Map<TileIndex, Request> pending = new HashMap<>();
+    private final Map<CoordinateAxis, double[]> focus = new EnumMap<>(CoordinateAxis.class);
+    private int cancelledCount = 0;
+    private long sequence = 0;
+    private int view = 0;
+    private int running = 0;
+    private int targetConcurrency;
+    private boolean shutdown = false;
+    // current throughput measurement
+    private long windowStart = System.nanoTime();
+    private int windowLoads = 0;
+    private boolean windowSaturated = true;
+    private double lastThroughput = 0;
+    private int direction = 1;
+
+    /**
+     * @param dropListener called, without holding any lock, for each request dropped before it ran
+     */
+    TileLoadScheduler(String threadNameFormat, int minConcurrency, int maxConcurrency, Consumer<TileIndex> dropListener) {
+        this.minConcurrency = minConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.targetConcurrency = (minConcurrency + maxConcurrency) / 2;
+        this.dropListener = dropListener;
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat(threadNameFormat)
+                .setDaemon(true)
+                .build();
+        for (int i = 0; i < maxConcurrency; i++) {
+            workers.add(threadFactory.newThread(this::work));
+        }
+        workers.forEach(Thread::start);
+    }
+
+    /**
+     * Queue a load, or re-rank it if the tile is already waiting to be loaded.
+     */
+    void submit(TileIndex index, Priority priority, Runnable task) {
+        lock.lock();
+        try {
+            enqueue(index, priority, task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Re-rank a waiting load for the current view.
+     *
+     * @return false if the tile is not waiting to be loaded
+     */
+    boolean resubmit(TileIndex index, Priority priority) {
+        lock.lock();
+        try {
+            Request existing = pending.get(index);
+            if (existing == null) {
+                return false;
+            }
+            enqueue(index, priority, existing.task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(TileIndex index, Priority priority, Runnable task) {
+        if (shutdown) {
+            return; // nothing would run it
+        }
+        Request request = new Request(index, priority, distanceFromFocus(index), sequence++, view, task);
+        Request existing = pending.get(index);
+        if (existing != null) {
+            if (existing.view == view && existing.compareTo(request) <= 0) {
+                return; // already ranked at least as high in this view
+            }
+            existing.cancelled = true;
+            cancelledCount++;
+        }
+        pending.put(index, request);
+        queue.add(request);
+        workChanged.signal();
+    }
+
+    /**
+     * Start ranking requests for a new view, centered on the given visible tiles.
+     */
+    void beginView(Collection<TileIndex> visibleTiles) {
+        Map<CoordinateAxis, double[]> sums = new EnumMap<>(CoordinateAxis.class);
+        Map<CoordinateAxis, Integer> counts = new EnumMap<>(CoordinateAxis.class);
+        for (TileIndex index : visibleTiles) {
+            double[] center = fullResolutionCenter(index);
+            double[] sum = sums.computeIfAbsent(index.getSliceAxis(), axis -> new double[3]);
+            for (int i = 0; i < 3; i++) {
+                sum[i] += center[i];
+            }
+            counts.merge(index.getSliceAxis(), 1, Integer::sum);
+        }
+        lock.lock();
+        try {
+            view++;
+            focus.clear();
+            for (Map.Entry<CoordinateAxis, double[]> entry : sums.entrySet()) {
+                double[] center = entry.getValue();
+                int count = counts.get(entry.getKey());
+                for (int i = 0; i < 3; i++) {
+                    center[i] /= count;
+                }
+                focus.put(entry.getKey(), center);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop the requests of earlier views that were not submitted again for the current one.
+     * Lowest resolution loads are kept, as they are useful for any view.
+     */
+    void endView() {
+        cancelWhere(request -> request.view != view && request.priority != Priority.MIN_RES);
+    }
+
+    void cancel(Priority priority) {
+        cancelWhere(request -> request.priority == priority);
+    }
+
+    void cancelAll() {
+        cancelWhere(request -> true);
+    }
+
+    private void cancelWhere(Predicate<Request> condition) {
+        List<TileIndex> dropped = new ArrayList<>();
+        lock.lock();
+        try {
+            Iterator<Request> it = pending.values().iterator();
+            while (it.hasNext()) {
+                Request request = it.next();
+                if (condition.test(request)) {
+                    request.cancelled = true;
+                    cancelledCount++;
+                    dropped.add(request.index);
+                    it.remove();
+                }
+            }
+            if (cancelledCount > pending.size()) {
+                // rebuild rather than let dead requests pile up
+                queue = new PriorityQueue<>(pending.values());
+                cancelledCount = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!dropped.isEmpty()) {
+            LOG.debug("Dropped {} obsolete tile loads", dropped.size());
+        }
+        dropped.forEach(dropListener);
+    }
+
+    int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getConcurrency() {
+        lock.lock();
+        try {
+            return targetConcurrency;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop the waiting loads and stop the worker threads once their running loads are done.
+     * Loads submitted afterwards are ignored.
+     */
+    void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            workChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        cancelAll();
+    }
+
+    /**
+     * Wait for the worker threads to stop after shutdown.
+     *
+     * @return false if some are still running after the timeout
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread worker : workers) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis > 0) {
+                worker.join(remainingMillis);
+            }
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void work() {
+        while (true) {
+            Request request;
+            lock.lock();
+            try {
+                request = null;
+                while (request == null) {
+                    if (shutdown) {
+                        return;
+                    }
+                    if (running < targetConcurrency) {
+                        request = poll();
+                        if (request == null) {
+                            windowSaturated = false; // loads are limited by demand, not by the loader
+                        }
+                    }
+                    if (request == null) {
+                        workChanged.awaitUninterruptibly();
+                    }
+                }
+                running++;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                request.task.run();
+            } catch (RuntimeException e) {
+                LOG.error("Error loading tile {}", request.index, e);
+            } finally {
+                lock.lock();
+                try {
+                    running--;
+                    recordLoad();
+                    workChanged.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private Request poll() {
+        Request request;
+        while ((request = queue.poll()) != null) {
+            if (request.cancelled) {
+                cancelledCount--;
+                continue;
+            }
+            pending.remove(request.index);
+            return request;
+        }
+        return null;
+    }
+
+    private void recordLoad() {
+        windowLoads++;
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (windowLoads < ADAPT_MIN_LOADS || elapsed < ADAPT_MIN_NANOS) {
+            return;
+        }
+        double throughput = windowLoads * 1e9 / elapsed;
+        if (windowSaturated) {
+            adaptConcurrency(throughput);
+        } else {
+            lastThroughput = 0; // not comparable with a backed up queue
+        }
+        windowStart = now;
+        windowLoads = 0;
+        windowSaturated = true;
+    }
+
+    private void adaptConcurrency(double throughput) {
+        if (lastThroughput > 0) {
+            if (throughput < lastThroughput * (1 - SIGNIFICANT_CHANGE)) {
+                direction = -direction; // the last step hurt, so undo it
+            } else if (throughput < lastThroughput * (1 + SIGNIFICANT_CHANGE)) {
+                direction = -1; // no gain, so prefer fewer threads
+            }
+        }
+        lastThroughput = throughput;
+        int next = Math.max(minConcurrency, Math.min(maxConcurrency, targetConcurrency + direction));
+        if (next != targetConcurrency) {
+            LOG.debug("Tile load concurrency {} -> {} at {} tiles/s", targetConcurrency, next, String.format("%.1f", throughput));
+            targetConcurrency = next;
+            workChanged.signalAll();
+        }
+    }
+
+    private double distanceFromFocus(TileIndex index) {
+        double[] center = focus.get(index.getSliceAxis());
+        if (center == null) {
+            return 0;
+        }
+        double[] tileCenter = fullResolutionCenter(index);
+        int sliceIx = index.getSliceAxis().index();
+        double inPlane = 0;
+        for (int i = 0; i < 3; i++) {
+            if (i != sliceIx) {
+                inPlane = Math.max(inPlane, Math.abs(tileCenter[i] - center[i]));
+            }
+        }
+        return inPlane + Math.abs(tileCenter[sliceIx] - center[sliceIx]);
+    }
+
+    // in-plane position in full resolution tiles, slice position in full resolution slices
+    private static double[] fullResolutionCenter(TileIndex index) {
+        double scale = 1 << index.getZoom();
+        int sliceIx = index.getSliceAxis().index();
+        double[] result = new double[3];
+        for (int i = 0; i < 3; i++) {
+            result[i] = i == sliceIx ? index.getCoordinate(i) : (index.getCoordinate(i) + 0.5) * scale;
+        }
+        return result;
+    }
+
+    private static class Request implements Comparable<Request> {
+        private final TileIndex index;
+        private final Priority priority;
+        private final double distance;
+        private final long sequence;
+        private final int view;
+        private final Runnable task;
+        private boolean cancelled = false;
+
+        Request(TileIndex index, Priority priority, double distance, long sequence, int view, Runnable task) {
+            this.index = index;
+            this.priority = priority;
+            this.distance = distance;
+            this.sequence = sequence;
+            this.view = view;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            int result = priority.compareTo(other.priority);
+            if (result == 0) {
+                result = Double.compare(distance, other.distance);
+            }
+            if (result == 0) {
+                result = Integer.compare(other.index.getZoom(), index.getZoom()); // coarser first
+            }
+            if (result == 0) {
+                result = Long.compare(sequence, other.sequence);
+            }
+            return result;
+        }
+    }
+}
@@ -26,7 +26,9 @@ public class TileServer implements ComponentListener, // so changes in viewer si
         VolumeLoadListener {
 
     private static final Logger LOG = LoggerFactory.getLogger(TileServer.class);
-    private static final int MIN_RES_TILE_LOADER_CONCURRENCY = 10;
+    // bounds for the adaptive number of concurrent tile loads
+    private static final int MIN_TILE_LOADER_CONCURRENCY = 4;
+    private static final int MAX_TILE_LOADER_CONCURRENCY = 25;
     private static final int HIGHER_RES_TILE_LOADER_CONCURRENCY = 15;
 
     // Derived from individual ViewTileManagers
@@ -41,10 +43,8 @@ public class TileServer implements ComponentListener, // so changes in viewer si
     private boolean doPrefetch = true;
     private LoadStatus loadStatus = LoadStatus.UNINITIALIZED;
 
-    // One thread pool to load minimal representation of volume
-    private final TexturePreFetcher minResPreFetcher; //!!!! = new TexturePreFetcher(MIN_RES_TILE_LOADER_CONCURRENCY, MIN_RES_TILE_LOADER_CONCURRENCY);
-    // One thread pool to load current and prefetch textures
-    private final TexturePreFetcher futurePreFetcher; //!!!! = new TexturePreFetcher(MIN_RES_TILE_LOADER_CONCURRENCY, HIGHER_RES_TILE_LOADER_CONCURRENCY);
+    // Loads current, prefetch and minimal representation textures, most urgent first
+    private final TexturePreFetcher preFetcher;
 
     // Refactoring 6/12/2013
     private SharedVolumeImage sharedVolumeImage;
@@ -61,8 +61,7 @@ public class TileServer implements ComponentListener, // so changes in viewer si
     private Set<TileIndex> currentDisplayTiles = new HashSet<>();
 
     public TileServer(SharedVolumeImage sharedVolumeImage) {
-        this.minResPreFetcher = new TexturePreFetcher(MIN_RES_TILE_LOADER_CONCURRENCY, MIN_RES_TILE_LOADER_CONCURRENCY);
-        this.futurePreFetcher = new TexturePreFetcher(MIN_RES_TILE_LOADER_CONCURRENCY, HIGHER_RES_TILE_LOADER_CONCURRENCY);
+        this.preFetcher = new TexturePreFetcher(MIN_TILE_LOADER_CONCURRENCY, MAX_TILE_LOADER_CONCURRENCY);
 
         setSharedVolumeImage(sharedVolumeImage.setTileLoaderProvider(new BlockTiffOctreeTileLoaderProvider() {
             int concurrency = HIGHER_RES_TILE_LOADER_CONCURRENCY;
@@ -74,8 +73,7 @@ public class TileServer implements ComponentListener, // so changes in viewer si
             }
         }));
 
-        minResPreFetcher.setTextureCache(getTextureCache());
-        futurePreFetcher.setTextureCache(getTextureCache());
+        preFetcher.setTextureCache(getTextureCache());
         queueDrainedListener = new StatusUpdateListener() {
             @Override
             public void update() {
@@ -98,7 +96,7 @@ public class TileServer implements ComponentListener, // so changes in viewer si
             return;
         }
         // queue load of all low resolution textures
-        minResPreFetcher.clear();
+        preFetcher.cancel(TileLoadScheduler.Priority.MIN_RES);
         TileFormat format = sharedVolumeImage.getLoadAdapter().getTileFormat();
         List<MinResSliceGenerator> generators = new ArrayList<>();
         if (format.isHasXSlices()) {
@@ -123,7 +121,7 @@ public class TileServer implements ComponentListener, // so changes in viewer si
             }
         }
         for (TileIndex i : tileGenerator) {
-            minResPreFetcher.loadDisplayedTexture(i, TileServer.this);
+            preFetcher.loadTexture(i, TileLoadScheduler.Priority.MIN_RES, TileServer.this);
         }
     }
 
@@ -154,10 +152,9 @@ public class TileServer implements ComponentListener, // so changes in viewer si
         textureCache = new TextureCache();
         textureCache.setQueueDrainedListener(queueDrainedListener);
         if (textureIds != null) {
-            textureCache.getHistoryCache().storeObsoleteTextureIds(textureIds); // so old texture ids can get deleted next draw
+            textureCache.storeObsoleteTextureIds(textureIds); // so old texture ids can get deleted next draw
         }
-        minResPreFetcher.setTextureCache(textureCache);
-        futurePreFetcher.setTextureCache(textureCache);
+        preFetcher.setTextureCache(textureCache);
         for (ViewTileManager vtm : viewTileManagers) {
             vtm.clear();
             vtm.setTextureCache(textureCache);
@@ -256,10 +253,11 @@ public class TileServer implements ComponentListener, // so changes in viewer si
         }
         updateLoadStatus();
 
-        futurePreFetcher.clear();
+        // Requests not renewed below are obsolete, and are dropped by endView()
+        preFetcher.beginView(currentDisplayTiles);
 
         Set<TileIndex> cacheableTextures = new HashSet<TileIndex>();
-        int maxCacheable = (int) (0.90 * getTextureCache().getFutureCache().getMaxSize());
+        int maxCacheable = (int) (0.90 * getTextureCache().getPrefetchCapacity());
 
         LOG.debug("rearrangeLoadQueue for {} ViewTileManagers", viewTileManagers.size());
         // First in line are current display tiles
@@ -272,7 +270,7 @@ public class TileServer implements ComponentListener, // so changes in viewer si
                 if (cacheableTextures.contains(ix)) {
                     continue; // already noted
                 }
-                if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this)) {
+                if (preFetcher.loadTexture(ix, TileLoadScheduler.Priority.VISIBLE, TileServer.this)) {
                     cacheableTextures.add(ix);
                 }
             }
@@ -329,7 +327,7 @@ public class TileServer implements ComponentListener, // so changes in viewer si
                         break;
                     }
 
-                    if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this)) {
+                    if (preFetcher.loadTexture(ix, TileLoadScheduler.Priority.UMBRELLA, TileServer.this)) {
                         cacheableTextures.add(ix);
                     }
                 }
@@ -343,12 +341,13 @@ public class TileServer implements ComponentListener, // so changes in viewer si
                         break;
                     }
 
-                    if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this)) {
+                    if (preFetcher.loadTexture(ix, TileLoadScheduler.Priority.PREFETCH, TileServer.this)) {
                         cacheableTextures.add(ix);
                     }
                 }
             }
         }
+        preFetcher.endView();
         updateLoadStatus();
     }
 
@@ -413,8 +412,14 @@ public class TileServer implements ComponentListener, // so changes in viewer si
     }
 
     public void stop() {
-        minResPreFetcher.clear();
-        futurePreFetcher.clear();
+        preFetcher.clear();
+    }
+
+    /**
+     * Stop the tile loader threads for good, once this server is replaced or its sample closed.
+     */
+    public void shutdown() {
+        preFetcher.shutdown();
     }
 
     //-------------------------------------------IMPLEMENTS VolumeLoadListener
@@ -424,8 +429,7 @@ public class TileServer implements ComponentListener, // so changes in viewer si
             return;
         }
         // Initialize pre-fetchers
-        minResPreFetcher.setLoadAdapter(sharedVolumeImage.getLoadAdapter());
-        futurePreFetcher.setLoadAdapter(sharedVolumeImage.getLoadAdapter());
+        preFetcher.setLoadAdapter(sharedVolumeImage.getLoadAdapter());
         //clearCache();
         refreshCurrentTileSet();
     }
@@ -14,7 +14,12 @@ public class TileStackCacheController extends BlockTiffOctreeLoadAdapter {
     }
 
     public static TileStackCacheController createInstance(BlockTiffOctreeLoadAdapter blockKeyTileLoader) {
+        TileStackCacheController previousInstance = instance;
         instance = new TileStackCacheController(blockKeyTileLoader);
+        if (previousInstance != null) {
+            // the tiles of the previous sample are not needed anymore
+            previousInstance.cachedTilesLoader.release();
+        }
         return instance;
     }
 
@@ -52,4 +57,8 @@ public class TileStackCacheController extends BlockTiffOctreeLoadAdapter {
         return cachedTilesLoader.getCachingMap();
     }
 
+    public TileStackCacheStats getCacheStats() {
+        return cachedTilesLoader.getCacheStats();
+    }
+
 }
@@ -0,0 +1,75 @@
+package org.janelia.workstation.controller.tileimagery;
+
+/**
+ * Snapshot of the counters of the two tiers of the tile stack cache, for display in the cache status panel.
+ */
+public class TileStackCacheStats {
+
+    private final long heapHitCount;
+    private final long heapMissCount;
+    private final long heapTileCount;
+    private final long offHeapHitCount;
+    private final long offHeapMissCount;
+    private final long offHeapEvictionCount;
+    private final int offHeapTileCount;
+    private final long offHeapBytes;
+    private final long offHeapBudget;
+
+    TileStackCacheStats(long heapHitCount, long heapMissCount, long heapTileCount,
+                        long offHeapHitCount, long offHeapMissCount, long offHeapEvictionCount,
+                        int offHeapTileCount, long offHeapBytes, long offHeapBudget) {
+        this.heapHitCount = heapHitCount;
+        this.heapMissCount = heapMissCount;
+        this.heapTileCount = heapTileCount;
+        this.offHeapHitCount = offHeapHitCount;
+        this.offHeapMissCount = offHeapMissCount;
+        this.offHeapEvictionCount = offHeapEvictionCount;
+        this.offHeapTileCount = offHeapTileCount;
+        this.offHeapBytes = offHeapBytes;
+        this.offHeapBudget = offHeapBudget;
+    }
+
+    /**
+     * @return fraction of tile requests served from decoded tiles on the heap
+     */
+    public double getHeapHitRate() {
+        long requests = heapHitCount + heapMissCount;
+        return requests == 0 ? 0 : (double) heapHitCount / requests;
+    }
+
+    /**
+     * @return fraction of heap misses served from the off-heap tier instead of storage
+     */
+    public double getOffHeapHitRate() {
+        long requests = offHeapHitCount + offHeapMissCount;
+        return requests == 0 ? 0 : (double) offHeapHitCount / requests;
+    }
+
+    public long getHeapTileCount() {
+        return heapTileCount;
+    }
+
+    public long getOffHeapEvictionCount() {
+        return offHeapEvictionCount;
+    }
+
+    public int getOffHeapTileCount() {
+        return offHeapTileCount;
+    }
+
+    public long getOffHeapBytes() {
+        return offHeapBytes;
+    }
+
+    public long getOffHeapBudget() {
+        return offHeapBudget;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("heap %d tiles, hit rate %.1f%%; off-heap %d tiles, %d/%d MB, hit rate %.1f%%, %d evicted",
+                heapTileCount, 100 * getHeapHitRate(),
+                offHeapTileCount, offHeapBytes >> 20, offHeapBudget >> 20, 100 * getOffHeapHitRate(),
+                offHeapEvictionCount);
+    }
+}
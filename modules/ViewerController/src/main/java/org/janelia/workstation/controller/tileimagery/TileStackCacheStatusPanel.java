@@ -7,12 +7,15 @@ package org.janelia.workstation.controller.tileimagery;
 import javax.swing.JPanel;
 import javax.swing.Timer;
 import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.util.Collection;
+import java.util.function.Supplier;
 
 /**
  * Created by murphys on 11/4/2015.
@@ -26,6 +29,10 @@ public class TileStackCacheStatusPanel extends JPanel implements ActionListener
     private static final int BOX_YSIZE=7;
     private static final int BOX_XBORDER=2;
     private static final int BOX_YBORDER=2;
+    private static final int METRICS_HEIGHT=36;
+    // strip above the caching map for the tile cache hit rates
+    private static final int TILE_METRICS_HEIGHT=14;
+    private static final int GAUGE_HEIGHT=5;
 
     private int completeCount = 0;
     private long combinedLoadTime = 0;
@@ -35,23 +42,44 @@ public class TileStackCacheStatusPanel extends JPanel implements ActionListener
     Color[] statusColors=new Color[] { Color.RED, Color.YELLOW, Color.GREEN };
     int zLevelCenter=3;
 
-    public TileStackCacheStatusPanel() {
+    private final Supplier<TextureCacheStats> textureCacheStats;
+    private TextureCacheStats stats;
+    private TileStackCacheStats tileStackStats;
+
+    public TileStackCacheStatusPanel(Supplier<TextureCacheStats> textureCacheStats) {
+        this.textureCacheStats = textureCacheStats;
+        setPanelHeight(METRICS_HEIGHT);
         timer.start();
     }
 
     @Override
     public void actionPerformed(ActionEvent e) {
+        stats = textureCacheStats.get();
         if (VolumeCache.useVolumeCache()) {
-            if (!isVisible()) {
-                setVisible(true);
-            }
             cachingMap = TileStackCacheController.getInstance().getCachingMap();
-            repaint();
+            tileStackStats = TileStackCacheController.getInstance().getCacheStats();
+            setPanelHeight(TILE_METRICS_HEIGHT + PANEL_HEIGHT + METRICS_HEIGHT);
         } else {
-            if (isVisible()) {
-                setVisible(false);
-            }
+            cachingMap = null;
+            tileStackStats = null;
+            setPanelHeight(METRICS_HEIGHT);
         }
+        if (stats != null && tileStackStats != null) {
+            setToolTipText("<html>Texture cache: " + stats + "<br>Tile cache: " + tileStackStats + "</html>");
+        } else if (stats != null) {
+            setToolTipText("Texture cache: " + stats);
+        }
+        repaint();
+    }
+
+    private void setPanelHeight(int height) {
+        Dimension size = new Dimension(PANEL_WIDTH, height);
+        if (size.equals(getPreferredSize())) {
+            return;
+        }
+        setPreferredSize(size);
+        setMaximumSize(size);
+        revalidate();
     }
 
     private int[] getStatusBoxCoordinates(int[] statusArr) {
@@ -71,20 +99,55 @@ public class TileStackCacheStatusPanel extends JPanel implements ActionListener
 
     @Override
     public void paint(Graphics graphics) {
-        if (cachingMap==null)
-            return;
-        BufferedImage image=new BufferedImage(PANEL_WIDTH, PANEL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        int mapHeight = cachingMap==null ? 0 : TILE_METRICS_HEIGHT + PANEL_HEIGHT;
+        BufferedImage image=new BufferedImage(PANEL_WIDTH, mapHeight + METRICS_HEIGHT, BufferedImage.TYPE_INT_RGB);
         Graphics2D g = image.createGraphics();
         g.setBackground(Color.BLACK);
 
-        for (int[] statusArr : cachingMap) {
-            int[] xy = getStatusBoxCoordinates(statusArr);
-            g.setColor(statusColors[statusArr[3]]);
-            g.fillRect(xy[0], xy[1], BOX_XSIZE, BOX_YSIZE);
+        if (cachingMap!=null) {
+            for (int[] statusArr : cachingMap) {
+                int[] xy = getStatusBoxCoordinates(statusArr);
+                g.setColor(statusColors[statusArr[3]]);
+                g.fillRect(xy[0], TILE_METRICS_HEIGHT + xy[1], BOX_XSIZE, BOX_YSIZE);
+            }
+            if (tileStackStats!=null) {
+                paintTileStackMetrics(g);
+            }
+        }
+        if (stats!=null) {
+            paintMetrics(g, mapHeight);
         }
 
         graphics.drawImage(image, 0, 0, this);
     }
 
+    // RAM and GPU usage gauges, with the hit rate below them
+    private void paintMetrics(Graphics2D g, int top) {
+        paintGauge(g, top + 2, stats.getHostBytes(), stats.getHostBudget());
+        paintGauge(g, top + 4 + GAUGE_HEIGHT, stats.getGpuBytes(), stats.getGpuBudget());
+        g.setColor(Color.LIGHT_GRAY);
+        g.setFont(g.getFont().deriveFont(Font.PLAIN, 10f));
+        g.drawString(String.format("hit %.0f%% ev %d", 100 * stats.getHitRate(), stats.getEvictionCount()),
+                BOX_XBORDER, top + METRICS_HEIGHT - 6);
+    }
+
+    // hit rates of the heap and off-heap tile tiers, above the caching map
+    private void paintTileStackMetrics(Graphics2D g) {
+        g.setColor(Color.LIGHT_GRAY);
+        g.setFont(g.getFont().deriveFont(Font.PLAIN, 10f));
+        g.drawString(String.format("ram %.0f%% off %.0f%%",
+                100 * tileStackStats.getHeapHitRate(), 100 * tileStackStats.getOffHeapHitRate()),
+                BOX_XBORDER, TILE_METRICS_HEIGHT - 3);
+    }
+
+    private void paintGauge(Graphics2D g, int y, long used, long budget) {
+        int width = PANEL_WIDTH - 2 * BOX_XBORDER;
+        int filled = budget <= 0 ? 0 : (int) Math.min(width, width * used / budget);
+        g.setColor(Color.DARK_GRAY);
+        g.fillRect(BOX_XBORDER, y, width, GAUGE_HEIGHT);
+        g.setColor(statusColors[used < budget * 3 / 4 ? 2 : used < budget ? 1 : 0]);
+        g.fillRect(BOX_XBORDER, y, filled, GAUGE_HEIGHT);
+    }
+
 }
 
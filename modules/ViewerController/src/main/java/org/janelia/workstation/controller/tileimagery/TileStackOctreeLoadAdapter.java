@@ -34,7 +34,9 @@ public class TileStackOctreeLoadAdapter extends BlockTiffOctreeLoadAdapter {
     @Override
     public TextureData2dGL loadToRam(TileIndex tileIndex) throws TileLoadError, MissingTileException {
         TextureData2d textureData2d = blockTiffOctreeLoadAdapter.loadToRam(tileIndex);
-        if (textureData2d != null) {
+        if (textureData2d instanceof TextureData2dGL) {
+            return (TextureData2dGL) textureData2d;
+        } else if (textureData2d != null) {
             return new TextureData2dGL(textureData2d);
         } else {
             return null;
@@ -45,6 +45,15 @@ public class TileTexture {
         this.loadAdapter = loadAdapter;
     }
 
+    /**
+     * A texture whose pixels were already loaded to RAM by someone else.
+     */
+    TileTexture(TileIndex index, AbstractTextureLoadAdapter loadAdapter, TextureData2dGL textureData) {
+        this(index, loadAdapter);
+        this.textureData = textureData;
+        setLoadStatus(LoadStatus.RAM_LOADED);
+    }
+
     public long getDownloadDataTime() {
         return downloadDataTime;
     }
@@ -93,6 +102,44 @@ public class TileTexture {
         texture = null;
     }
 
+    /**
+     * Drop the OpenGL texture but keep the pixels in RAM, so that the texture
+     * can be uploaded again the next time it is displayed.
+     *
+     * @return the OpenGL texture id to be deleted by the caller, or 0 if none
+     */
+    int releaseGlTexture() {
+        if (loadStatus != LoadStatus.GL_LOADED || texture == null) {
+            return 0;
+        }
+        int textureId = texture.getTextureId();
+        texture = null;
+        setLoadStatus(LoadStatus.RAM_LOADED);
+        return textureId;
+    }
+
+    /**
+     * @return size of the pixels held in RAM
+     */
+    long getHostByteCount() {
+        TextureData2dGL data = textureData;
+        if (data == null || data.getPixels() == null) {
+            return 0;
+        }
+        return data.getPixels().capacity();
+    }
+
+    /**
+     * @return size of the texture in video memory once uploaded
+     */
+    long getGpuByteCount() {
+        TextureData2dGL data = textureData;
+        if (data == null) {
+            return 0;
+        }
+        return (long) data.getWidth() * data.getHeight() * data.getChannelCount() * (data.getBitDepth() / 8);
+    }
+
     public void setFirstDisplayTime(long firstDisplayTime) {
         this.firstDisplayTime = firstDisplayTime;
     }
@@ -0,0 +1,172 @@
+package org.janelia.workstation.controller.tileimagery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Window TinyLFU: newly loaded textures enter a small LRU window; textures that overflow the
+ * window are only admitted to the main cache if they are expected to be worth at least as
+ * much as the main cache's next victim. The main cache is a segmented LRU, where textures that
+ * have been displayed are protected from textures that were only prefetched.
+ *
+ * A texture's worth is its recent use frequency, weighted by its zoom level: one coarse tile
+ * stands in for many finer tiles while those are still loading, and is reused across a much
+ * larger part of the volume.
+ */
+class TinyLfuEvictionPolicy extends TextureEvictionPolicy {
+
+    // prefetch bursts land in the window, so it is larger than the usual 1%
+    private static final double WINDOW_SHARE = 0.2;
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final EntryQueue window = new EntryQueue();
+    // overflowed from the window, still to be compared with the main cache's victims
+    private final EntryQueue candidates = new EntryQueue();
+    private final EntryQueue probation = new EntryQueue();
+    private final EntryQueue protectedQueue = new EntryQueue();
+    private final FrequencySketch sketch = new FrequencySketch();
+
+    @Override
+    void added(TextureCacheEntry entry) {
+        sketch.increment(entry.getIndex());
+        window.addLast(entry);
+        long windowLimit = (long) (capacity * WINDOW_SHARE);
+        while (window.getBytes() > windowLimit && window.peekFirst() != entry) {
+            TextureCacheEntry overflow = window.peekFirst();
+            window.remove(overflow);
+            candidates.addLast(overflow);
+        }
+    }
+
+    @Override
+    void displayed(TextureCacheEntry entry) {
+        sketch.increment(entry.getIndex());
+        if (probation.contains(entry) || candidates.contains(entry)) {
+            entry.queue.remove(entry);
+            protectedQueue.addLast(entry);
+            long protectedLimit = (long) ((capacity - window.getBytes()) * PROTECTED_SHARE);
+            while (protectedQueue.getBytes() > protectedLimit && protectedQueue.peekFirst() != entry) {
+                TextureCacheEntry demoted = protectedQueue.peekFirst();
+                protectedQueue.remove(demoted);
+                probation.addLast(demoted);
+            }
+        } else if (entry.queue != null) {
+            entry.queue.moveToLast(entry);
+        }
+    }
+
+    @Override
+    void retained(TextureCacheEntry entry) {
+        sketch.increment(entry.getIndex());
+        if (entry.queue != null) {
+            entry.queue.moveToLast(entry);
+        }
+    }
+
+    @Override
+    void removed(TextureCacheEntry entry) {
+        if (entry.queue != null) {
+            entry.queue.remove(entry);
+        }
+    }
+
+    @Override
+    TextureCacheEntry selectVictim() {
+        while (true) {
+            TextureCacheEntry candidate = candidates.peekFirst();
+            TextureCacheEntry victim = probation.peekFirst() != null ? probation.peekFirst() : protectedQueue.peekFirst();
+            if (candidate == null) {
+                return victim != null ? victim : window.peekFirst();
+            }
+            if (victim != null && worth(candidate) < worth(victim)) {
+                return candidate;
+            }
+            candidates.remove(candidate);
+            probation.addLast(candidate);
+            if (victim != null) {
+                return victim;
+            }
+        }
+    }
+
+    private long worth(TextureCacheEntry entry) {
+        return (long) sketch.frequency(entry.getIndex()) * (1 + entry.getIndex().getZoom());
+    }
+
+    @Override
+    List<TextureCacheEntry> coldestFirst() {
+        List<TextureCacheEntry> result = new ArrayList<>();
+        candidates.appendTo(result);
+        probation.appendTo(result);
+        window.appendTo(result);
+        protectedQueue.appendTo(result);
+        return result;
+    }
+
+    @Override
+    void clear() {
+        window.clear();
+        candidates.clear();
+        probation.clear();
+        protectedQueue.clear();
+        sketch.clear();
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters that estimates how often each tile was used recently.
+     * All counters are halved periodically, so that old popularity fades.
+     */
+    static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int WIDTH = 1 << 13;
+        private static final int MAX_COUNT = 15;
+        private static final int SAMPLE_SIZE = 10 * WIDTH;
+        private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+
+        private final byte[] counters = new byte[DEPTH * WIDTH];
+        private int additions = 0;
+
+        void increment(Object key) {
+            int hash = key.hashCode();
+            boolean incremented = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int slot = slot(hash, row);
+                if (counters[slot] < MAX_COUNT) {
+                    counters[slot]++;
+                    incremented = true;
+                }
+            }
+            if (incremented && ++additions >= SAMPLE_SIZE) {
+                age();
+            }
+        }
+
+        int frequency(Object key) {
+            int hash = key.hashCode();
+            int result = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                result = Math.min(result, counters[slot(hash, row)]);
+            }
+            return result;
+        }
+
+        void clear() {
+            Arrays.fill(counters, (byte) 0);
+            additions = 0;
+        }
+
+        private void age() {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] >>= 1;
+            }
+            additions /= 2;
+        }
+
+        private static int slot(int hash, int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 16;
+            return row * WIDTH + (h & (WIDTH - 1));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.janelia.workstation.controller.tileimagery.raster;
+
+/**
+ * Geometry shared by the raster subvolumes of each intensity type.
+ */
+abstract class AbstractRasterSubvolume implements RasterSubvolume {
+
+    final int channelCount;
+    final int sizeX;
+    final int sliceSize;
+    final int voxelCount;
+    private final VoxelIndex size;
+    private final VoxelIndex origin;
+
+    AbstractRasterSubvolume(int channelCount, VoxelIndex size, VoxelIndex origin) {
+        this.channelCount = channelCount;
+        this.size = size;
+        this.origin = origin;
+        this.sizeX = size.getX();
+        this.sliceSize = size.getX() * size.getY();
+        this.voxelCount = sliceSize * size.getZ();
+    }
+
+    @Override
+    public VoxelIndex getVolumeSizeInVoxels() {
+        return size;
+    }
+
+    @Override
+    public VoxelIndex getVolumeOriginInVoxels() {
+        return origin;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public int getVoxelCount() {
+        return voxelCount;
+    }
+
+    @Override
+    public final int getVoxelOffset(int x, int y, int z) {
+        return x + y * sizeX + z * sliceSize;
+    }
+}
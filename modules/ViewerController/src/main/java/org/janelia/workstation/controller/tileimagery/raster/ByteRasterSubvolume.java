@@ -2,25 +2,38 @@ package org.janelia.workstation.controller.tileimagery.raster;
 
 import java.nio.ByteBuffer;
 
-
-public class ByteRasterSubvolume
-implements RasterSubvolume
+/**
+ * Raster subvolume of 8 bit intensities.
+ */
+public final class ByteRasterSubvolume
+extends AbstractRasterSubvolume
 {
-	private ByteBuffer byteBuffer;
-	VoxelIndex size;
-	VoxelIndex origin;
-	
+	private final ByteBuffer byteBuffer;
+
+	public ByteRasterSubvolume(ByteBuffer bytes, int channelCount, VoxelIndex size, VoxelIndex origin) {
+		super(channelCount, size, origin);
+		// absolute reads only; a view of our own leaves the caller's position alone
+		this.byteBuffer = bytes.duplicate();
+	}
+
 	public ByteBuffer getByteBuffer() {
 		return byteBuffer;
 	}
 
 	@Override
-	public VoxelIndex getVolumeSizeInVoxels() {
-		return size;
+	public int getBytesPerIntensity() {
+		return 1;
+	}
+
+	@Override
+	public int getIntensity(int voxelOffset, int channel) {
+		return byteBuffer.get(voxelOffset * channelCount + channel) & 0xff;
 	}
 
 	@Override
-	public VoxelIndex getVolumeOriginInVoxels() {
-		return origin;
+	public void forEachIntensity(int channel, IntensityConsumer consumer) {
+		for (int voxel = 0, i = channel; voxel < voxelCount; ++voxel, i += channelCount) {
+			consumer.accept(voxel, byteBuffer.get(i) & 0xff);
+		}
 	}
 }
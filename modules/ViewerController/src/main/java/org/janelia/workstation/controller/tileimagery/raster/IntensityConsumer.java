@@ -0,0 +1,9 @@
+package org.janelia.workstation.controller.tileimagery.raster;
+
+/**
+ * Receives voxel intensities without boxing.
+ */
+@FunctionalInterface
+public interface IntensityConsumer {
+    void accept(int voxelOffset, int intensity);
+}
@@ -1,7 +1,25 @@
 package org.janelia.workstation.controller.tileimagery.raster;
 
+import java.nio.ByteBuffer;
+
 public interface RasterSubvolume 
 extends RasterVolume
 {
 	VoxelIndex getVolumeOriginInVoxels();
+
+	/**
+	 * Wrap a raster of 8 or 16 bit intensities without copying it. 16 bit intensities are read
+	 * in the byte order of the buffer.
+	 */
+	static RasterSubvolume wrap(ByteBuffer bytes, int bytesPerIntensity, int channelCount,
+			VoxelIndex size, VoxelIndex origin) {
+		switch (bytesPerIntensity) {
+			case 1:
+				return new ByteRasterSubvolume(bytes, channelCount, size, origin);
+			case 2:
+				return new ShortRasterSubvolume(bytes, channelCount, size, origin);
+			default:
+				throw new IllegalArgumentException("Unsupported intensity size " + bytesPerIntensity);
+		}
+	}
 }
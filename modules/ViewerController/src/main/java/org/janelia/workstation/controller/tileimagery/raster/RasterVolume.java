@@ -1,5 +1,37 @@
 package org.janelia.workstation.controller.tileimagery.raster;
 
+/**
+ * A dense volume of unsigned intensities, with the color channel as the fastest
+ * moving dimension, followed by x, y and z.
+ * 
+ * Voxels can be addressed by their linear offset, x + y * sizeX + z * sizeX * sizeY,
+ * so that loops over voxels and their neighbors need no index objects.
+ */
 public interface RasterVolume {
 	VoxelIndex getVolumeSizeInVoxels();
+
+	int getChannelCount();
+
+	int getBytesPerIntensity();
+
+	int getVoxelCount();
+
+	/**
+	 * @return linear offset of the voxel; not checked against the volume bounds
+	 */
+	int getVoxelOffset(int x, int y, int z);
+
+	/**
+	 * @return unsigned intensity of one channel of the voxel at a linear offset
+	 */
+	int getIntensity(int voxelOffset, int channel);
+
+	default int getIntensity(int x, int y, int z, int channel) {
+		return getIntensity(getVoxelOffset(x, y, z), channel);
+	}
+
+	/**
+	 * Visit every voxel in order of linear offset.
+	 */
+	void forEachIntensity(int channel, IntensityConsumer consumer);
 }
@@ -0,0 +1,45 @@
+package org.janelia.workstation.controller.tileimagery.raster;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Raster subvolume of 16 bit intensities.
+ */
+public final class ShortRasterSubvolume
+extends AbstractRasterSubvolume
+{
+	private final ShortBuffer shortBuffer;
+
+	/**
+	 * @param bytes raster in the byte order of the buffer
+	 */
+	public ShortRasterSubvolume(ByteBuffer bytes, int channelCount, VoxelIndex size, VoxelIndex origin) {
+		super(channelCount, size, origin);
+		ByteBuffer view = bytes.duplicate();
+		view.order(bytes.order());
+		view.rewind();
+		this.shortBuffer = view.asShortBuffer();
+	}
+
+	public ShortBuffer getShortBuffer() {
+		return shortBuffer;
+	}
+
+	@Override
+	public int getBytesPerIntensity() {
+		return 2;
+	}
+
+	@Override
+	public int getIntensity(int voxelOffset, int channel) {
+		return shortBuffer.get(voxelOffset * channelCount + channel) & 0xffff;
+	}
+
+	@Override
+	public void forEachIntensity(int channel, IntensityConsumer consumer) {
+		for (int voxel = 0, i = channel; voxel < voxelCount; ++voxel, i += channelCount) {
+			consumer.accept(voxel, shortBuffer.get(i) & 0xffff);
+		}
+	}
+}
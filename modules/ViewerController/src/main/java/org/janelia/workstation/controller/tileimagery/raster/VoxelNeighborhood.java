@@ -0,0 +1,122 @@
+package org.janelia.workstation.controller.tileimagery.raster;
+
+/**
+ * The neighbors of a voxel as steps in x, y and z together with their linear
+ * offsets in a volume of a given size, computed once per volume so that loops
+ * visiting neighbors only add integers.
+ */
+public final class VoxelNeighborhood {
+
+    public enum Connectivity {
+        // faces
+        SIX(1),
+        // faces and edges
+        EIGHTEEN(2),
+        // faces, edges and corners
+        TWENTY_SIX(3);
+
+        private final int maxManhattanDistance;
+
+        Connectivity(int maxManhattanDistance) {
+            this.maxManhattanDistance = maxManhattanDistance;
+        }
+    }
+
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final int[] dx;
+    private final int[] dy;
+    private final int[] dz;
+    private final int[] offsets;
+
+    public VoxelNeighborhood(VoxelIndex volumeSize, Connectivity connectivity) {
+        this.sizeX = volumeSize.getX();
+        this.sizeY = volumeSize.getY();
+        this.sizeZ = volumeSize.getZ();
+        int count = 0;
+        for (int z = -1; z <= 1; ++z) {
+            for (int y = -1; y <= 1; ++y) {
+                for (int x = -1; x <= 1; ++x) {
+                    if (isNeighborStep(x, y, z, connectivity))
+                        count++;
+                }
+            }
+        }
+        dx = new int[count];
+        dy = new int[count];
+        dz = new int[count];
+        offsets = new int[count];
+        int n = 0;
+        for (int z = -1; z <= 1; ++z) {
+            for (int y = -1; y <= 1; ++y) {
+                for (int x = -1; x <= 1; ++x) {
+                    if (!isNeighborStep(x, y, z, connectivity))
+                        continue;
+                    dx[n] = x;
+                    dy[n] = y;
+                    dz[n] = z;
+                    offsets[n] = x + y * sizeX + z * sizeX * sizeY;
+                    n++;
+                }
+            }
+        }
+    }
+
+    private static boolean isNeighborStep(int x, int y, int z, Connectivity connectivity) {
+        int manhattan = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        return manhattan > 0 && manhattan <= connectivity.maxManhattanDistance;
+    }
+
+    public int size() {
+        return offsets.length;
+    }
+
+    public int getDx(int neighbor) {
+        return dx[neighbor];
+    }
+
+    public int getDy(int neighbor) {
+        return dy[neighbor];
+    }
+
+    public int getDz(int neighbor) {
+        return dz[neighbor];
+    }
+
+    /**
+     * @return linear offset of the neighbor relative to the voxel
+     */
+    public int getOffset(int neighbor) {
+        return offsets[neighbor];
+    }
+
+    /**
+     * @return true if every neighbor of the voxel lies inside the volume
+     */
+    public boolean isInterior(int x, int y, int z) {
+        return x > 0 && y > 0 && z > 0
+                && x < sizeX - 1 && y < sizeY - 1 && z < sizeZ - 1;
+    }
+
+    /**
+     * Visit those neighbors of the voxel that lie inside the volume. The
+     * volume must have the size this neighborhood was built for.
+     */
+    public void forEachNeighborIntensity(RasterVolume volume, int x, int y, int z,
+            int channel, IntensityConsumer consumer) {
+        int voxel = volume.getVoxelOffset(x, y, z);
+        boolean interior = isInterior(x, y, z);
+        for (int n = 0; n < offsets.length; ++n) {
+            if (!interior) {
+                int nx = x + dx[n];
+                int ny = y + dy[n];
+                int nz = z + dz[n];
+                if (nx < 0 || ny < 0 || nz < 0 || nx >= sizeX || ny >= sizeY || nz >= sizeZ)
+                    continue;
+            }
+            int neighbor = voxel + offsets[n];
+            consumer.accept(neighbor, volume.getIntensity(neighbor, channel));
+        }
+    }
+}
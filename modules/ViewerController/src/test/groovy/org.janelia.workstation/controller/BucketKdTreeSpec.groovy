@@ -0,0 +1,73 @@
+package org.janelia.workstation.controller
+
+import spock.lang.Specification
+
+class BucketKdTreeSpec extends Specification {
+
+    BucketKdTree<Long> tree = new BucketKdTree<>(4)
+    Random random = new Random(42)
+    Map<Long, float[]> reference = [:]
+
+    def setup() {
+        int count = 500
+        float[] xyz = new float[3 * count]
+        long[] ids = new long[count]
+        Object[] items = new Object[count]
+        for (int i = 0; i < count; i++) {
+            // coarse grid so that many points share a position
+            float[] p = [random.nextInt(10), random.nextInt(10), random.nextInt(10)] as float[]
+            System.arraycopy(p, 0, xyz, 3 * i, 3)
+            ids[i] = i
+            items[i] = (long) i
+            reference[(long) i] = p
+        }
+        tree.build(xyz, ids, items)
+    }
+
+    def "bulk load keeps every point, including duplicates"() {
+        expect:
+        tree.size() == 500
+        tree.range([-1, -1, -1] as double[], [10, 10, 10] as double[]).size() == 500
+    }
+
+    def "nearest neighbors match a brute force search after edits"() {
+        given:
+        for (int step = 0; step < 2000; step++) {
+            long id = random.nextInt(700)
+            float[] p = [random.nextInt(10), random.nextInt(10), random.nextInt(10)] as float[]
+            switch (random.nextInt(3)) {
+                case 0:
+                    assert tree.insert(id, p[0], p[1], p[2], id) == !reference.containsKey(id)
+                    reference.putIfAbsent(id, p)
+                    break
+                case 1:
+                    assert tree.remove(id) == reference.containsKey(id)
+                    reference.remove(id)
+                    break
+                default:
+                    tree.update(id, p[0], p[1], p[2], id)
+                    reference[id] = p
+            }
+        }
+
+        expect:
+        tree.size() == reference.size()
+        (0..<50).every {
+            double[] q = [random.nextDouble() * 10, random.nextDouble() * 10, random.nextDouble() * 10]
+            List<Long> found = tree.nearest(q[0], q[1], q[2], 10, { it % 2 == 0 })
+            List<Double> expected = reference.findAll { it.key % 2 == 0 }
+                    .collect { distance(it.value, q) }.sort().take(10)
+            found.collect { distance(reference[it], q) } == expected
+        }
+    }
+
+    def "range query is inclusive of the box corners"() {
+        expect:
+        tree.range([2, 2, 2] as double[], [4, 4, 4] as double[]) as Set ==
+                reference.findAll { it.value.every { v -> v >= 2 && v <= 4 } }.keySet()
+    }
+
+    private static double distance(float[] p, double[] q) {
+        (p[0] - q[0]) * (p[0] - q[0]) + (p[1] - q[1]) * (p[1] - q[1]) + (p[2] - q[2]) * (p[2] - q[2])
+    }
+}
@@ -0,0 +1,138 @@
+package org.janelia.workstation.controller.tileimagery
+
+import java.nio.ByteBuffer
+
+import org.janelia.workstation.geom.CoordinateAxis
+import spock.lang.Specification
+
+class OffHeapTileCacheSpec extends Specification {
+
+    static final int TILE_BYTES = 1000
+
+    Random random = new Random(42)
+
+    static TileIndex tileIndex(int x) {
+        return new TileIndex(x, 0, 0, 0, 0, TileIndex.IndexStyle.OCTREE, CoordinateAxis.Z)
+    }
+
+    static TextureData2d tile(byte[] pixels) {
+        TextureData2d tile = new TextureData2d()
+        tile.setBitDepth(8)
+        tile.setChannelCount(1)
+        tile.setWidth(40)
+        tile.setUsedWidth(40)
+        tile.setHeight(25)
+        tile.setPixels(ByteBuffer.wrap(pixels))
+        return tile
+    }
+
+    byte[] noise() {
+        byte[] pixels = new byte[TILE_BYTES]
+        random.nextBytes(pixels)
+        return pixels
+    }
+
+    static byte[] pixelsOf(TextureData2d tile) {
+        ByteBuffer pixels = tile.getPixels().duplicate()
+        pixels.rewind()
+        byte[] bytes = new byte[pixels.remaining()]
+        pixels.get(bytes)
+        return bytes
+    }
+
+    def "tiles are kept within the budget until it is exceeded"() {
+        given:
+        OffHeapTileCache cache = new OffHeapTileCache(10 * TILE_BYTES, false)
+
+        when:
+        (0..<10).each { cache.put(tileIndex(it), tile(noise())) }
+
+        then:
+        cache.getTileCount() == 10
+        cache.getStoredBytes() == 10 * TILE_BYTES
+        cache.getEvictionCount() == 0
+    }
+
+    def "exceeding the budget evicts the least recently read tiles down to 90% of it"() {
+        given:
+        OffHeapTileCache cache = new OffHeapTileCache(10 * TILE_BYTES, false)
+        (0..<10).each { cache.put(tileIndex(it), tile(noise())) }
+        // reading the older half leaves tiles 5 and 6 as the least recently used
+        (0..<5).each { assert cache.get(tileIndex(it)) != null }
+
+        when:
+        cache.put(tileIndex(10), tile(noise()))
+
+        then:
+        cache.getStoredBytes() == 9 * TILE_BYTES
+        cache.getTileCount() == 9
+        cache.getEvictionCount() == 2
+        !cache.contains(tileIndex(5))
+        !cache.contains(tileIndex(6))
+        (0..<5).every { cache.contains(tileIndex(it)) }
+        (7..10).every { cache.contains(tileIndex(it)) }
+        cache.get(tileIndex(5)) == null
+        cache.getMissCount() == 1
+    }
+
+    def "compressible tiles are stored compressed and read back unchanged"() {
+        given:
+        OffHeapTileCache cache = new OffHeapTileCache(10 * TILE_BYTES, true)
+        byte[] pixels = new byte[TILE_BYTES]
+        for (int i = 0; i < TILE_BYTES; i++) {
+            pixels[i] = (byte) (i / 100)
+        }
+
+        when:
+        cache.put(tileIndex(0), tile(pixels))
+        TextureData2d cached = cache.get(tileIndex(0))
+
+        then:
+        cache.getStoredBytes() < TILE_BYTES * 0.9
+        pixelsOf(cached) == pixels
+        cached.getWidth() == 40
+        cached.getUsedWidth() == 40
+        cached.getHeight() == 25
+        cached.getBitDepth() == 8
+        cached.getChannelCount() == 1
+    }
+
+    def "tiles that compress by less than 10% are stored raw"() {
+        given:
+        OffHeapTileCache cache = new OffHeapTileCache(10 * TILE_BYTES, true)
+        byte[] pixels = noise()
+
+        when:
+        cache.put(tileIndex(0), tile(pixels))
+
+        then:
+        cache.getStoredBytes() == TILE_BYTES
+        pixelsOf(cache.get(tileIndex(0))) == pixels
+    }
+
+    def "tiles are stored raw when compression is turned off"() {
+        given:
+        OffHeapTileCache cache = new OffHeapTileCache(10 * TILE_BYTES, false)
+
+        when:
+        cache.put(tileIndex(0), tile(new byte[TILE_BYTES]))
+
+        then:
+        cache.getStoredBytes() == TILE_BYTES
+        pixelsOf(cache.get(tileIndex(0))) == new byte[TILE_BYTES]
+    }
+
+    def "clearing frees every tile"() {
+        given:
+        OffHeapTileCache cache = new OffHeapTileCache(10 * TILE_BYTES, true)
+        (0..<5).each { cache.put(tileIndex(it), tile(noise())) }
+
+        when:
+        cache.clear()
+
+        then:
+        cache.getTileCount() == 0
+        cache.getStoredBytes() == 0
+        !cache.contains(tileIndex(0))
+    }
+}
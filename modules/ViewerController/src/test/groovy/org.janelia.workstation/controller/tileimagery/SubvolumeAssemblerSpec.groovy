@@ -0,0 +1,80 @@
+package org.janelia.workstation.controller.tileimagery
+
+import java.nio.ByteBuffer
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.janelia.workstation.geom.CoordinateAxis
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+class SubvolumeAssemblerSpec extends Specification {
+
+    SubvolumeAssembler assembler = new SubvolumeAssembler(4)
+    TileIndex tileIndex = new TileIndex(1, 2, 3, 0, 0, TileIndex.IndexStyle.OCTREE, CoordinateAxis.Z)
+
+    AtomicInteger loadCount = new AtomicInteger()
+    CountDownLatch loadStarted = new CountDownLatch(1)
+    CountDownLatch loadReleased = new CountDownLatch(1)
+
+    // loads a small tile, once it is allowed to
+    AbstractTextureLoadAdapter loadAdapter = new AbstractTextureLoadAdapter(new TileFormat()) {
+        @Override
+        TextureData2d loadToRam(TileIndex index) {
+            loadCount.incrementAndGet()
+            loadStarted.countDown()
+            loadReleased.await(5, TimeUnit.SECONDS)
+            TextureData2d tile = new TextureData2d()
+            tile.setBitDepth(8)
+            tile.setChannelCount(1)
+            tile.setWidth(8)
+            tile.setUsedWidth(8)
+            tile.setHeight(8)
+            tile.setPixels(ByteBuffer.allocate(64))
+            return tile
+        }
+    }
+
+    List<TextureData2dGL> received = new CopyOnWriteArrayList<>()
+    SubvolumeAssembler.TileConsumer consumer = { TileIndex index, TextureData2dGL tileData ->
+        received << tileData
+        return true
+    } as SubvolumeAssembler.TileConsumer
+
+    def "concurrent requests for the same tile load it once"() {
+        when:
+        CompletableFuture<Boolean> first = assembler.fetchTiles([tileIndex], null, loadAdapter, consumer)
+        loadStarted.await(5, TimeUnit.SECONDS)
+        CompletableFuture<Boolean> second = assembler.fetchTiles([tileIndex], null, loadAdapter, consumer)
+        // the second request waits for the load of the first
+        new PollingConditions(timeout: 5).eventually {
+            assert assembler.getWaitingRequestCount(tileIndex) == 1
+        }
+        loadReleased.countDown()
+
+        then:
+        first.get(5, TimeUnit.SECONDS)
+        second.get(5, TimeUnit.SECONDS)
+        loadCount.get() == 1
+        received.size() == 2
+        received[0].is(received[1])
+        assembler.getWaitingRequestCount(tileIndex) == 0
+    }
+
+    def "a tile is loaded again once the earlier load is done"() {
+        given:
+        loadReleased.countDown()
+
+        when:
+        assembler.fetchTiles([tileIndex], null, loadAdapter, consumer).get(5, TimeUnit.SECONDS)
+        assembler.fetchTiles([tileIndex], null, loadAdapter, consumer).get(5, TimeUnit.SECONDS)
+
+        then:
+        // without a texture cache there is nothing to reuse
+        loadCount.get() == 2
+        !received[0].is(received[1])
+    }
+}
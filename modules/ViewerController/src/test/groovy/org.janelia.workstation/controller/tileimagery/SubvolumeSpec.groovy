@@ -0,0 +1,116 @@
+package org.janelia.workstation.controller.tileimagery
+
+import java.nio.ByteBuffer
+
+import org.janelia.workstation.controller.tileimagery.raster.VoxelIndex
+import org.janelia.workstation.geom.CoordinateAxis
+import org.janelia.workstation.octree.ZoomLevel
+import org.janelia.workstation.octree.ZoomedVoxelIndex
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class SubvolumeSpec extends Specification {
+
+    static final ZoomLevel ZOOM = new ZoomLevel(0)
+    static final int CHANNELS = 2
+    // tiles are padded to a multiple of 8 pixels beyond their used width
+    static final int TILE_WIDTH = 40
+    static final int TILE_USED_WIDTH = 37
+    static final int TILE_HEIGHT = 25
+
+    Random random = new Random(42)
+
+    TextureData2d tile(int bytesPerIntensity) {
+        byte[] pixels = new byte[TILE_WIDTH * TILE_HEIGHT * CHANNELS * bytesPerIntensity]
+        random.nextBytes(pixels)
+        TextureData2d tile = new TextureData2d()
+        tile.setBitDepth(8 * bytesPerIntensity)
+        tile.setChannelCount(CHANNELS)
+        tile.setWidth(TILE_WIDTH)
+        tile.setUsedWidth(TILE_USED_WIDTH)
+        tile.setHeight(TILE_HEIGHT)
+        tile.setPixels(ByteBuffer.wrap(pixels))
+        return tile
+    }
+
+    static byte[] contents(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.capacity()]
+        ByteBuffer copy = buffer.duplicate()
+        copy.rewind()
+        copy.get(result)
+        return result
+    }
+
+    // the byte at a time copy that Subvolume.copyTile replaced
+    static void copyBytewise(ByteBuffer bytes, ZoomedVoxelIndex origin, VoxelIndex extent, ZoomedVoxelIndex farCorner,
+                             int pixelBytes, TextureData2d tileData, ZoomedVoxelIndex tileOrigin) {
+        int dstZ = tileOrigin.getZ() - origin.getZ()
+        int startY = Math.max(origin.getY(), tileOrigin.getY())
+        int endY = Math.min(farCorner.getY(), tileOrigin.getY() + tileData.getHeight())
+        int startX = Math.max(origin.getX(), tileOrigin.getX())
+        int endX = Math.min(farCorner.getX(), tileOrigin.getX() + tileData.getUsedWidth())
+        int tileLineBytes = pixelBytes * tileData.getWidth()
+        int subvolumeLineBytes = pixelBytes * extent.getX()
+        int dstOffset = dstZ * subvolumeLineBytes * extent.getY() +
+                (startY - origin.getY()) * subvolumeLineBytes +
+                (startX - origin.getX()) * pixelBytes
+        int srcOffset = (startY - tileOrigin.getY()) * tileLineBytes +
+                (startX - tileOrigin.getX()) * pixelBytes
+        for (int y = 0; y < endY - startY; ++y) {
+            for (int x = 0; x < endX - startX; ++x) {
+                for (int b = 0; b < pixelBytes; ++b) {
+                    bytes.put(dstOffset + x * pixelBytes + b, tileData.getPixels().get(srcOffset + x * pixelBytes + b))
+                }
+            }
+            dstOffset += subvolumeLineBytes
+            srcOffset += tileLineBytes
+        }
+    }
+
+    @Unroll
+    def "tiles overlapping the subvolume in part are copied as they were byte by byte, at #bytesPerIntensity bytes per intensity"() {
+        given:
+        // starts inside the first column and row of tiles and ends inside the second
+        ZoomedVoxelIndex origin = new ZoomedVoxelIndex(ZOOM, 20, 10, 5)
+        VoxelIndex extent = new VoxelIndex(41, 31, 2)
+        ZoomedVoxelIndex farCorner = new ZoomedVoxelIndex(ZOOM, 60, 40, 6)
+        Subvolume subvolume = new Subvolume(origin, extent, bytesPerIntensity, CHANNELS)
+        int pixelBytes = bytesPerIntensity * CHANNELS
+        ByteBuffer expected = ByteBuffer.allocate(extent.getX() * extent.getY() * extent.getZ() * pixelBytes)
+        TileIndex tileIndex = new TileIndex(0, 0, 0, 0, 0, TileIndex.IndexStyle.OCTREE, CoordinateAxis.Z)
+        List<Boolean> filled = []
+
+        when:
+        for (int z in 5..6) {
+            for (int tileY in [0, TILE_HEIGHT]) {
+                for (int tileX in [0, TILE_USED_WIDTH]) {
+                    TextureData2d tile = tile(bytesPerIntensity)
+                    ZoomedVoxelIndex tileOrigin = new ZoomedVoxelIndex(ZOOM, tileX, tileY, z)
+                    filled << subvolume.copyTile(tileIndex, tile, tileOrigin, farCorner)
+                    copyBytewise(expected, origin, extent, farCorner, pixelBytes, tile, tileOrigin)
+                }
+            }
+        }
+
+        then:
+        filled.every()
+        // every channel of every voxel
+        contents(subvolume.getByteBuffer()) == contents(expected)
+        // and the copies did write something
+        contents(expected).any { it != 0 }
+
+        where:
+        bytesPerIntensity << [1, 2]
+    }
+
+    def "a tile that does not fit in the subvolume is reported"() {
+        given:
+        ZoomedVoxelIndex origin = new ZoomedVoxelIndex(ZOOM, 20, 10, 5)
+        Subvolume subvolume = new Subvolume(origin, new VoxelIndex(41, 31, 2), 1, CHANNELS)
+        TileIndex tileIndex = new TileIndex(0, 0, 0, 0, 0, TileIndex.IndexStyle.OCTREE, CoordinateAxis.Z)
+
+        expect:
+        // a z plane past the end of the subvolume
+        !subvolume.copyTile(tileIndex, tile(1), new ZoomedVoxelIndex(ZOOM, 0, 0, 7), new ZoomedVoxelIndex(ZOOM, 60, 40, 6))
+    }
+}
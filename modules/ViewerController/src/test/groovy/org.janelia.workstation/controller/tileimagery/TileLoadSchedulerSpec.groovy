@@ -0,0 +1,71 @@
+package org.janelia.workstation.controller.tileimagery
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import org.janelia.workstation.geom.CoordinateAxis
+import spock.lang.Specification
+
+class TileLoadSchedulerSpec extends Specification {
+
+    List<TileIndex> dropped = new CopyOnWriteArrayList<>()
+    TileLoadScheduler scheduler = new TileLoadScheduler("TileLoadSchedulerSpec-%d", 2, 4, { dropped << it })
+
+    TileIndex tileIndex(int x) {
+        return new TileIndex(x, 0, 0, 0, 0, TileIndex.IndexStyle.OCTREE, CoordinateAxis.Z)
+    }
+
+    def cleanup() {
+        scheduler.shutdown()
+    }
+
+    def "shutdown stops the worker threads once their loads are done"() {
+        given:
+        CountDownLatch loadStarted = new CountDownLatch(1)
+        CountDownLatch loadReleased = new CountDownLatch(1)
+        scheduler.submit(tileIndex(0), TileLoadScheduler.Priority.VISIBLE, {
+            loadStarted.countDown()
+            loadReleased.await(5, TimeUnit.SECONDS)
+        })
+        loadStarted.await(5, TimeUnit.SECONDS)
+
+        when:
+        scheduler.shutdown()
+
+        then:
+        // the running load holds up its worker, the idle ones are gone
+        !scheduler.awaitTermination(100, TimeUnit.MILLISECONDS)
+
+        when:
+        loadReleased.countDown()
+
+        then:
+        scheduler.awaitTermination(5, TimeUnit.SECONDS)
+    }
+
+    def "waiting loads are dropped on shutdown and later ones are ignored"() {
+        given:
+        // more loads than workers, so some are still waiting
+        CountDownLatch loadReleased = new CountDownLatch(1)
+        List<TileIndex> loaded = new CopyOnWriteArrayList<>()
+        (0..<8).each { int x ->
+            scheduler.submit(tileIndex(x), TileLoadScheduler.Priority.VISIBLE, {
+                loadReleased.await(5, TimeUnit.SECONDS)
+                loaded << tileIndex(x)
+            })
+        }
+
+        when:
+        scheduler.shutdown()
+        scheduler.submit(tileIndex(8), TileLoadScheduler.Priority.VISIBLE, { loaded << tileIndex(8) })
+        loadReleased.countDown()
+
+        then:
+        scheduler.awaitTermination(5, TimeUnit.SECONDS)
+        scheduler.getPendingCount() == 0
+        loaded.size() + dropped.size() == 8
+        !dropped.isEmpty()
+        !loaded.contains(tileIndex(8))
+    }
+}
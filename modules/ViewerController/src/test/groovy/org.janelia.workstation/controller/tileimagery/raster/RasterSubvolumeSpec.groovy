@@ -0,0 +1,74 @@
+package org.janelia.workstation.controller.tileimagery.raster
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+import spock.lang.Specification
+
+class RasterSubvolumeSpec extends Specification {
+
+    VoxelIndex size = new VoxelIndex(4, 3, 2)
+    VoxelIndex origin = new VoxelIndex(100, 200, 300)
+
+    def "8 bit intensities are read unsigned by voxel offset and channel"() {
+        given:
+        ByteBuffer bytes = ByteBuffer.allocate(24 * 2)
+        for (int i = 0; i < 48; i++) {
+            bytes.put(i, (byte) (i * 11))
+        }
+        RasterSubvolume raster = RasterSubvolume.wrap(bytes, 1, 2, size, origin)
+
+        expect:
+        raster instanceof ByteRasterSubvolume
+        raster.getVoxelCount() == 24
+        raster.getVoxelOffset(1, 2, 1) == 1 + 2 * 4 + 12
+        raster.getIntensity(21, 1) == ((43 * 11) & 0xff)
+        raster.getIntensity(1, 2, 1, 0) == ((42 * 11) & 0xff)
+        raster.getVolumeOriginInVoxels() == origin
+    }
+
+    def "16 bit intensities follow the byte order of the buffer"() {
+        given:
+        ByteBuffer bytes = ByteBuffer.allocate(24 * 2).order(ByteOrder.LITTLE_ENDIAN)
+        for (int i = 0; i < 24; i++) {
+            bytes.putShort(2 * i, (short) (60000 + i))
+        }
+        RasterSubvolume raster = RasterSubvolume.wrap(bytes, 2, 1, size, origin)
+        List<Integer> visited = []
+
+        when:
+        raster.forEachIntensity(0, { int voxel, int intensity -> visited << intensity - voxel } as IntensityConsumer)
+
+        then:
+        raster instanceof ShortRasterSubvolume
+        raster.getIntensity(5, 0) == 60005
+        visited == [60000] * 24
+    }
+
+    def "neighbor offsets step to adjacent voxels and skip those outside the volume"() {
+        given:
+        ByteBuffer bytes = ByteBuffer.allocate(24)
+        RasterSubvolume raster = RasterSubvolume.wrap(bytes, 1, 1, size, origin)
+        VoxelNeighborhood neighborhood = new VoxelNeighborhood(size, connectivity)
+        List<Integer> corner = []
+
+        when:
+        neighborhood.forEachNeighborIntensity(raster, 0, 0, 0, 0,
+                { int voxel, int intensity -> corner << voxel } as IntensityConsumer)
+
+        then:
+        neighborhood.size() == count
+        corner.size() == cornerCount
+        !neighborhood.isInterior(0, 1, 1)
+        (0..<neighborhood.size()).every {
+            neighborhood.getOffset(it) == raster.getVoxelOffset(
+                    neighborhood.getDx(it), neighborhood.getDy(it), neighborhood.getDz(it))
+        }
+
+        where:
+        connectivity                              | count | cornerCount
+        VoxelNeighborhood.Connectivity.SIX        | 6     | 3
+        VoxelNeighborhood.Connectivity.EIGHTEEN   | 18    | 6
+        VoxelNeighborhood.Connectivity.TWENTY_SIX | 26    | 7
+    }
+}
@@ -0,0 +1,100 @@
+package org.janelia.workstation.controller;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times the spatial index of neuron vertices: bulk build, k nearest neighbor queries, box queries
+ * and moves, over points spread along random neurites in a volume the size of a mouse brain, in
+ * micrometers.
+ * <p>
+ * Usage: BucketKdTreeBenchmark [number of points...]; the default runs 1M, 10M and 50M points.
+ * The 50M run needs a heap of about 8 GB.
+ */
+public class BucketKdTreeBenchmark {
+
+    private static final float[] VOLUME_MICRONS = {11000, 8000, 6000};
+    private static final int POINTS_PER_NEURITE = 2000;
+    private static final float STEP_MICRONS = 2f;
+    private static final int NEIGHBORS = 20;
+    private static final int QUERIES = 100000;
+    private static final float BOX_MICRONS = 50f;
+    private static final int MOVES = 100000;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0
+                ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{1000000, 10000000, 50000000};
+        for (int size : sizes) {
+            run(size);
+        }
+    }
+
+    private static void run(int numPoints) {
+        Random random = new Random(42);
+        float[] xyz = new float[3 * numPoints];
+        long[] ids = new long[numPoints];
+        Long[] items = new Long[numPoints];
+        float[] position = new float[3];
+        for (int i = 0; i < numPoints; i++) {
+            if (i % POINTS_PER_NEURITE == 0) {
+                for (int d = 0; d < 3; d++) {
+                    position[d] = random.nextFloat() * VOLUME_MICRONS[d];
+                }
+            }
+            for (int d = 0; d < 3; d++) {
+                position[d] += (random.nextFloat() - 0.5f) * 2 * STEP_MICRONS;
+                xyz[3 * i + d] = position[d];
+            }
+            ids[i] = i + 1;
+            items[i] = ids[i];
+        }
+        // queries are made near indexed points, as when clicking on a neuron
+        float[] queryPoints = Arrays.copyOf(xyz, 3 * QUERIES);
+        for (int i = 0; i < QUERIES; i++) {
+            int p = random.nextInt(numPoints);
+            System.arraycopy(xyz, 3 * p, queryPoints, 3 * i, 3);
+        }
+
+        BucketKdTree<Long> tree = new BucketKdTree<>();
+        long start = System.nanoTime();
+        tree.build(xyz, ids, items);
+        long buildNanos = System.nanoTime() - start;
+
+        long found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            List<Long> nearest = tree.nearest(queryPoints[3 * i], queryPoints[3 * i + 1], queryPoints[3 * i + 2],
+                    NEIGHBORS, null);
+            found += nearest.size();
+        }
+        long nearestNanos = System.nanoTime() - start;
+
+        long inBoxes = 0;
+        double[] lo = new double[3];
+        double[] hi = new double[3];
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            for (int d = 0; d < 3; d++) {
+                lo[d] = queryPoints[3 * i + d] - BOX_MICRONS / 2;
+                hi[d] = queryPoints[3 * i + d] + BOX_MICRONS / 2;
+            }
+            inBoxes += tree.range(lo, hi).size();
+        }
+        long rangeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < MOVES; i++) {
+            long id = 1 + random.nextInt(numPoints);
+            tree.update(id, queryPoints[3 * (i % QUERIES)], queryPoints[3 * (i % QUERIES) + 1],
+                    queryPoints[3 * (i % QUERIES) + 2], id);
+        }
+        long moveNanos = System.nanoTime() - start;
+
+        System.out.printf("%,d points: build %.2f s; %d-NN %.1f us/query (%d found); %.0f um box %.1f us/query "
+                        + "(%.1f points per box); move %.1f us%n",
+                numPoints, buildNanos / 1e9, NEIGHBORS, nearestNanos / 1e3 / QUERIES, found,
+                BOX_MICRONS, rangeNanos / 1e3 / QUERIES, (double) inBoxes / QUERIES, moveNanos / 1e3 / MOVES);
+    }
+}
@@ -0,0 +1,110 @@
+package org.janelia.workstation.controller.access;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
+import org.janelia.workstation.controller.access.NeuronUpdateBatcher.RemoteNeuronUpdate;
+import org.janelia.workstation.controller.scripts.spatialfilter.NeuronMessageConstants.MessageType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NeuronUpdateBatcherTest {
+
+    private static final long WORKSPACE_ID = 7L;
+    private static final long WINDOW_MILLIS = 50;
+
+    private final BlockingQueue<List<RemoteNeuronUpdate>> batches = new LinkedBlockingQueue<>();
+    private final List<String> batchThreads = new ArrayList<>();
+    // batches run on the timer thread, in place of the EDT
+    private final NeuronUpdateBatcher batcher = new NeuronUpdateBatcher(WINDOW_MILLIS, batch -> {
+        batchThreads.add(Thread.currentThread().getName());
+        batches.add(batch);
+    }, Runnable::run);
+
+    private static TmNeuronMetadata neuron(long id) {
+        TmNeuronMetadata neuron = new TmNeuronMetadata();
+        neuron.setId(id);
+        return neuron;
+    }
+
+    private static RemoteNeuronUpdate update(MessageType action, TmNeuronMetadata neuron) {
+        return new RemoteNeuronUpdate(System.currentTimeMillis(), WORKSPACE_ID, action, "user:other", neuron);
+    }
+
+    private List<RemoteNeuronUpdate> nextBatch() throws InterruptedException {
+        List<RemoteNeuronUpdate> batch = batches.poll(5, TimeUnit.SECONDS);
+        assertTrue("no batch was applied", batch != null);
+        return batch;
+    }
+
+    @Test
+    public void keepsOnlyTheLatestSaveOfEachNeuron() throws Exception {
+        TmNeuronMetadata first = neuron(1);
+        TmNeuronMetadata second = neuron(1);
+        TmNeuronMetadata latest = neuron(1);
+        TmNeuronMetadata other = neuron(2);
+        batcher.add(update(MessageType.NEURON_SAVE_NEURONDATA, first));
+        batcher.add(update(MessageType.NEURON_SAVE_NEURONDATA, other));
+        batcher.add(update(MessageType.NEURON_SAVE_NEURONDATA, second));
+        batcher.add(update(MessageType.NEURON_SAVE_NEURONDATA, latest));
+        assertEquals(2, batcher.getPendingCount());
+
+        List<RemoteNeuronUpdate> batch = nextBatch();
+        assertEquals(2, batch.size());
+        assertSame(other, batch.get(0).neuron);
+        assertSame(latest, batch.get(1).neuron);
+        assertEquals(2, batcher.getCoalescedCount());
+        assertEquals(2, batcher.getAppliedCount());
+        assertEquals(0, batcher.getPendingCount());
+    }
+
+    @Test
+    public void createFollowedBySavesStaysACreate() throws Exception {
+        TmNeuronMetadata saved = neuron(3);
+        batcher.add(update(MessageType.NEURON_CREATE, neuron(3)));
+        batcher.add(update(MessageType.NEURON_SAVE_NEURONDATA, saved));
+
+        List<RemoteNeuronUpdate> batch = nextBatch();
+        assertEquals(1, batch.size());
+        assertEquals(MessageType.NEURON_CREATE, batch.get(0).action);
+        assertSame(saved, batch.get(0).neuron);
+    }
+
+    @Test
+    public void createFollowedByDeleteCancelsOut() throws Exception {
+        batcher.add(update(MessageType.NEURON_CREATE, neuron(4)));
+        batcher.add(update(MessageType.NEURON_DELETE, neuron(4)));
+        batcher.add(update(MessageType.NEURON_DELETE, neuron(5)));
+
+        List<RemoteNeuronUpdate> batch = nextBatch();
+        assertEquals(1, batch.size());
+        assertEquals(5L, (long) batch.get(0).neuron.getId());
+        assertEquals(MessageType.NEURON_DELETE, batch.get(0).action);
+    }
+
+    @Test
+    public void flushesAfterTheWindowAndStartsANewBatch() throws Exception {
+        long start = System.currentTimeMillis();
+        batcher.add(update(MessageType.NEURON_SAVE_NEURONDATA, neuron(6)));
+        List<RemoteNeuronUpdate> batch = nextBatch();
+        assertTrue(System.currentTimeMillis() - start >= WINDOW_MILLIS);
+        assertEquals(1, batch.size());
+        assertTrue(batcher.getLastLagMillis() >= WINDOW_MILLIS);
+
+        // an update of the same neuron after the flush is not coalesced with the applied one
+        batcher.add(update(MessageType.NEURON_SAVE_NEURONDATA, neuron(6)));
+        batch = nextBatch();
+        assertEquals(1, batch.size());
+        assertEquals(0, batcher.getCoalescedCount());
+        assertNull(batches.poll(2 * WINDOW_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(batchThreads.get(0).startsWith("NeuronUpdateBatcher-"));
+    }
+}
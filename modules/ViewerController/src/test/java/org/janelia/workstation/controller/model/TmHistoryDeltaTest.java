@@ -0,0 +1,93 @@
+package org.janelia.workstation.controller.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TmHistoryDeltaTest {
+
+    private static final int ANNOTATIONS = 1000;
+
+    static String annotation(long id, double x, double y, double z) {
+        return String.format("{\"id\":%d,\"x\":%.3f,\"y\":%.3f,\"z\":%.3f,\"radius\":1.0}", id, x, y, z);
+    }
+
+    /**
+     * @return a serialized neuron shaped like the JSON of a TmNeuronMetadata
+     */
+    static byte[] neuron(List<String> annotations) {
+        return ("{\"id\":7,\"name\":\"neuron\",\"annotations\":[" + String.join(",", annotations) + "]}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    static List<String> annotations(int count, Random random) {
+        List<String> annotations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            annotations.add(annotation(i, random.nextDouble() * 1e4, random.nextDouble() * 1e4, random.nextDouble() * 1e4));
+        }
+        return annotations;
+    }
+
+    private static void assertRoundTrip(byte[] oldData, byte[] newData) {
+        assertArrayEquals(newData, TmHistoryDelta.decode(oldData, TmHistoryDelta.encode(oldData, newData)));
+    }
+
+    @Test
+    public void roundTripsAnnotationEdits() {
+        Random random = new Random(1);
+        List<String> annotations = annotations(ANNOTATIONS, random);
+        for (int edit = 0; edit < 200; edit++) {
+            byte[] oldData = neuron(annotations);
+            int index = random.nextInt(annotations.size());
+            switch (edit % 3) {
+                case 0:
+                    annotations.set(index, annotation(index, random.nextDouble(), random.nextDouble(), random.nextDouble()));
+                    break;
+                case 1:
+                    annotations.add(index, annotation(ANNOTATIONS + edit, 1, 2, 3));
+                    break;
+                default:
+                    annotations.remove(index);
+                    break;
+            }
+            assertRoundTrip(oldData, neuron(annotations));
+        }
+    }
+
+    @Test
+    public void editOfOneAnnotationStoresAboutOneRecord() {
+        Random random = new Random(2);
+        List<String> annotations = annotations(ANNOTATIONS, random);
+        byte[] oldData = neuron(annotations);
+        annotations.set(ANNOTATIONS / 2, annotation(ANNOTATIONS / 2, 1, 2, 3));
+        annotations.remove(ANNOTATIONS / 4);
+        byte[] newData = neuron(annotations);
+
+        byte[] delta = TmHistoryDelta.encode(oldData, newData);
+        assertArrayEquals(newData, TmHistoryDelta.decode(oldData, delta));
+        assertTrue("delta of " + delta.length + " bytes", delta.length < 200);
+    }
+
+    @Test
+    public void roundTripsUnrelatedAndEmptyData() {
+        Random random = new Random(3);
+        byte[] empty = new byte[0];
+        for (int trial = 0; trial < 100; trial++) {
+            byte[] oldData = new byte[random.nextInt(500)];
+            byte[] newData = new byte[random.nextInt(500)];
+            random.nextBytes(oldData);
+            random.nextBytes(newData);
+            assertRoundTrip(oldData, newData);
+            assertRoundTrip(empty, newData);
+            assertRoundTrip(oldData, empty);
+            assertRoundTrip(oldData, oldData);
+        }
+        assertRoundTrip(empty, empty);
+    }
+}
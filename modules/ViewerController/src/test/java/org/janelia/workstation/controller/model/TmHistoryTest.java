@@ -0,0 +1,159 @@
+package org.janelia.workstation.controller.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TmHistoryTest {
+
+    private static final long NEURON_ID = 7L;
+
+    // the selections live in the application-wide model, which is not needed here
+    private static class TestHistory extends TmHistory {
+        @Override
+        void addCurrentSelectionsToEvent(TmHistoricalEvent event) {
+        }
+    }
+
+    private final TmHistory history = new TestHistory();
+    private final Random random = new Random(42);
+    private final List<String> annotations = TmHistoryDeltaTest.annotations(1000, random);
+
+    private byte[] editNeuron() {
+        int index = random.nextInt(annotations.size());
+        annotations.set(index, TmHistoryDeltaTest.annotation(index, random.nextDouble(), random.nextDouble(), 0));
+        return TmHistoryDeltaTest.neuron(annotations);
+    }
+
+    private static TmHistoricalEvent event(Long neuronId, byte[] neuronData) {
+        TmHistoricalEvent event = new TmHistoricalEvent();
+        Map<Long, byte[]> neurons = new HashMap<>();
+        neurons.put(neuronId, neuronData);
+        event.setNeurons(neurons);
+        event.setTimestamp(new Date());
+        return event;
+    }
+
+    /**
+     * @return serialized versions of the neuron, each added to the history as an event
+     */
+    private List<byte[]> addEdits(int count) {
+        List<byte[]> versions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] neuronData = editNeuron();
+            versions.add(neuronData);
+            history.addHistoricalEvent(event(NEURON_ID, neuronData));
+        }
+        return versions;
+    }
+
+    private TmHistoryRecord record(int step) {
+        return history.getHistoryOperations().get(step).getRecords().get(NEURON_ID);
+    }
+
+    private void assertHistoryHolds(List<byte[]> versions) {
+        List<TmHistoricalEvent> events = history.getHistoryOperations();
+        assertEquals(versions.size(), events.size());
+        for (int i = 0; i < versions.size(); i++) {
+            assertArrayEquals("version " + i, versions.get(i), events.get(i).getNeurons().get(NEURON_ID));
+        }
+    }
+
+    @Test
+    public void storesDeltasBetweenKeyframesAndRebuildsEveryVersion() {
+        history.setMaxOperations(40);
+        List<byte[]> versions = addEdits(40);
+
+        assertHistoryHolds(versions);
+        for (int i = 0; i < versions.size(); i++) {
+            // each keyframe is followed by up to 16 deltas
+            assertEquals("version " + i, i % 17 == 0, record(i).isKeyframe());
+            assertEquals("version " + i, i % 17, record(i).getDepth());
+        }
+    }
+
+    @Test
+    public void undoAndRedoReturnTheStoredVersions() {
+        List<byte[]> versions = addEdits(5);
+
+        assertArrayEquals(versions.get(3), history.undoAction().get(0).getNeurons().get(NEURON_ID));
+        assertArrayEquals(versions.get(2), history.undoAction().get(0).getNeurons().get(NEURON_ID));
+        assertArrayEquals(versions.get(3), history.redoAction().get(0).getNeurons().get(NEURON_ID));
+    }
+
+    @Test
+    public void evictingTheOldestEventRebasesTheNextVersionAsAKeyframe() {
+        history.setMaxOperations(5);
+        List<byte[]> versions = addEdits(8);
+
+        assertHistoryHolds(versions.subList(3, 8));
+        assertTrue(record(0).isKeyframe());
+        for (int i = 1; i < 5; i++) {
+            assertFalse(record(i).isKeyframe());
+        }
+    }
+
+    @Test
+    public void memoryBudgetAlwaysKeepsTheNewestEvent() {
+        List<byte[]> versions = addEdits(5);
+
+        history.setMemoryBudget(1);
+        assertHistoryHolds(versions.subList(4, 5));
+        assertTrue(record(0).isKeyframe());
+
+        byte[] next = editNeuron();
+        history.addHistoricalEvent(event(NEURON_ID, next));
+        assertEquals(1, history.getHistoryOperations().size());
+        assertArrayEquals(next, history.getHistoryOperations().get(0).getNeurons().get(NEURON_ID));
+    }
+
+    @Test
+    public void olderKeyframesAreCompressedInTheBackground() throws Exception {
+        List<byte[]> versions = new ArrayList<>();
+        // each neuron's first version is a keyframe
+        for (long neuronId = 0; neuronId < 5; neuronId++) {
+            byte[] neuronData = editNeuron();
+            versions.add(neuronData);
+            history.addHistoricalEvent(event(neuronId, neuronData));
+        }
+
+        List<TmHistoricalEvent> events = history.getHistoryOperations();
+        long deadline = System.currentTimeMillis() + 5000;
+        for (int i = 0; i < 3; i++) {
+            TmHistoryRecord record = events.get(i).getRecords().get((long) i);
+            while (!record.isCompressed() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue("version " + i + " was not compressed", record.isCompressed());
+        }
+        // the two newest events are the likeliest to be undone
+        assertFalse(events.get(3).getRecords().get(3L).isCompressed());
+        assertFalse(events.get(4).getRecords().get(4L).isCompressed());
+        for (int i = 0; i < versions.size(); i++) {
+            assertArrayEquals("version " + i, versions.get(i), events.get(i).getNeurons().get((long) i));
+        }
+    }
+
+    @Test
+    public void usesFarLessMemoryThanWholeSnapshots() {
+        history.setMaxOperations(20);
+        List<byte[]> versions = addEdits(20);
+
+        long snapshotBytes = 0;
+        for (byte[] version : versions) {
+            snapshotBytes += version.length;
+        }
+        assertTrue(history.getMemoryUsed() + " bytes of " + snapshotBytes, history.getMemoryUsed() < snapshotBytes / 4);
+        assertHistoryHolds(versions);
+    }
+}
@@ -0,0 +1,139 @@
+package org.janelia.workstation.controller.tileimagery;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.janelia.workstation.controller.tileimagery.raster.VoxelIndex;
+import org.janelia.workstation.geom.CoordinateAxis;
+import org.janelia.workstation.octree.ZoomLevel;
+import org.janelia.workstation.octree.ZoomedVoxelIndex;
+
+/**
+ * Times copying tiles into a subvolume, one scan line at a time as Subvolume.copyTile does,
+ * against the byte at a time copy it replaced, for cubic regions of synthetic 1024x1024 8-bit
+ * tiles. The region starts part way into a tile in X and Y, so that the tiles at its edges
+ * overlap it only in part. Tile loading is not included.
+ * <p>
+ * Usage: SubvolumeCopyBenchmark [edge length in voxels...]; the default runs 256 and 1024.
+ * The 1024 run holds two 1 GB regions and needs -XX:MaxDirectMemorySize=3g.
+ */
+public class SubvolumeCopyBenchmark {
+
+    private static final int TILE_SIZE = 1024;
+    private static final int TILE_VARIANTS = 8;
+    private static final int REGION_OFFSET = 300;
+    private static final ZoomLevel ZOOM = new ZoomLevel(0);
+
+    public static void main(String[] args) {
+        int[] edges = args.length > 0
+                ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{256, 1024};
+        TextureData2d[] tiles = new TextureData2d[TILE_VARIANTS];
+        Random random = new Random(42);
+        for (int i = 0; i < TILE_VARIANTS; i++) {
+            byte[] pixels = new byte[TILE_SIZE * TILE_SIZE];
+            random.nextBytes(pixels);
+            tiles[i] = tile(pixels);
+        }
+        for (int edge : edges) {
+            run(edge, tiles);
+        }
+    }
+
+    private static TextureData2d tile(byte[] pixels) {
+        TextureData2d tile = new TextureData2d();
+        tile.setBitDepth(8);
+        tile.setChannelCount(1);
+        tile.setWidth(TILE_SIZE);
+        tile.setUsedWidth(TILE_SIZE);
+        tile.setHeight(TILE_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(pixels.length);
+        buffer.put(pixels);
+        buffer.rewind();
+        tile.setPixels(buffer);
+        return tile;
+    }
+
+    private static void run(int edge, TextureData2d[] tiles) {
+        ZoomedVoxelIndex origin = new ZoomedVoxelIndex(ZOOM, REGION_OFFSET, REGION_OFFSET, 0);
+        VoxelIndex extent = new VoxelIndex(edge, edge, edge);
+        // as Subvolume computes it from the corners of the request
+        ZoomedVoxelIndex farCorner = new ZoomedVoxelIndex(ZOOM,
+                REGION_OFFSET + edge - 1, REGION_OFFSET + edge - 1, edge - 1);
+        int lastTile = (REGION_OFFSET + edge - 1) / TILE_SIZE;
+        TileIndex tileIndex = new TileIndex(0, 0, 0, 0, 0, TileIndex.IndexStyle.OCTREE, CoordinateAxis.Z);
+
+        // one untimed pass of each, to warm up
+        for (int pass = 0; pass < 2; pass++) {
+            Subvolume subvolume = new Subvolume(origin, extent, 1, 1);
+            long start = System.nanoTime();
+            int tileCount = 0;
+            for (int z = 0; z < edge; z++) {
+                for (int ty = 0; ty <= lastTile; ty++) {
+                    for (int tx = 0; tx <= lastTile; tx++) {
+                        ZoomedVoxelIndex tileOrigin = new ZoomedVoxelIndex(ZOOM, tx * TILE_SIZE, ty * TILE_SIZE, z);
+                        subvolume.copyTile(tileIndex, tiles[tileCount++ % TILE_VARIANTS], tileOrigin, farCorner);
+                    }
+                }
+            }
+            long scanLineNanos = System.nanoTime() - start;
+
+            ByteBuffer bytewise = ByteBuffer.allocateDirect(subvolume.getByteBuffer().capacity());
+            start = System.nanoTime();
+            tileCount = 0;
+            for (int z = 0; z < edge; z++) {
+                for (int ty = 0; ty <= lastTile; ty++) {
+                    for (int tx = 0; tx <= lastTile; tx++) {
+                        ZoomedVoxelIndex tileOrigin = new ZoomedVoxelIndex(ZOOM, tx * TILE_SIZE, ty * TILE_SIZE, z);
+                        copyBytewise(bytewise, origin, extent, farCorner, 1, tiles[tileCount++ % TILE_VARIANTS], tileOrigin);
+                    }
+                }
+            }
+            long bytewiseNanos = System.nanoTime() - start;
+
+            ByteBuffer copied = subvolume.getByteBuffer().duplicate();
+            copied.rewind();
+            bytewise.rewind();
+            if (!copied.equals(bytewise)) {
+                throw new IllegalStateException("the copies differ for a region of " + edge + " voxels");
+            }
+            if (pass == 1) {
+                System.out.printf("%d^3 voxels, %d tiles: scan lines %d ms, bytewise %d ms%n",
+                        edge, tileCount, scanLineNanos / 1000000, bytewiseNanos / 1000000);
+            }
+        }
+    }
+
+    /**
+     * The copy that Subvolume used before copying scan lines, without its exception handling.
+     */
+    static void copyBytewise(ByteBuffer bytes, ZoomedVoxelIndex origin, VoxelIndex extent, ZoomedVoxelIndex farCorner,
+                             int pixelBytes, TextureData2d tileData, ZoomedVoxelIndex tileOrigin) {
+        int dstZ = tileOrigin.getZ() - origin.getZ();
+        int startY = Math.max(origin.getY(), tileOrigin.getY());
+        int endY = Math.min(farCorner.getY(), tileOrigin.getY() + tileData.getHeight());
+        int overlapY = endY - startY;
+        int startX = Math.max(origin.getX(), tileOrigin.getX());
+        int endX = Math.min(farCorner.getX(), tileOrigin.getX() + tileData.getUsedWidth());
+        int overlapX = endX - startX;
+        int tileLineBytes = pixelBytes * tileData.getWidth();
+        int subvolumeLineBytes = pixelBytes * extent.getX();
+        int dstOffset = dstZ * subvolumeLineBytes * extent.getY()
+                + (startY - origin.getY()) * subvolumeLineBytes
+                + (startX - origin.getX()) * pixelBytes;
+        int srcOffset = (startY - tileOrigin.getY()) * tileLineBytes
+                + (startX - tileOrigin.getX()) * pixelBytes;
+        for (int y = 0; y < overlapY; ++y) {
+            for (int x = 0; x < overlapX; ++x) {
+                for (int b = 0; b < pixelBytes; ++b) {
+                    int d = dstOffset + x * pixelBytes + b;
+                    int s = srcOffset + x * pixelBytes + b;
+                    bytes.put(d, tileData.getPixels().get(s));
+                }
+            }
+            dstOffset += subvolumeLineBytes;
+            srcOffset += tileLineBytes;
+        }
+    }
+}
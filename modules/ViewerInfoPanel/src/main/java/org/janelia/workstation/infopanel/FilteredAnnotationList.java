@@ -158,8 +158,8 @@ public class FilteredAnnotationList extends JPanel {
         //  set up
         setCurrentFilter(filters.get("default"));
 
-        // listen for outside annotation selection events
-        ViewerEventBus.registerForEvents(this);
+        // listen for outside annotation selection events; only the list needs updating, on the EDT
+        ViewerEventBus.registerForEvents(this, ViewerEventBus.ThreadAffinity.EDT);
     }
 
     @Subscribe
@@ -47,7 +47,8 @@ public class PanelController {
     }
     
     public void registerForEvents() {
-        ViewerEventBus.registerForEvents(this);
+        // the panels only show the model; update them on the EDT, after whoever posted is done
+        ViewerEventBus.registerForEvents(this, ViewerEventBus.ThreadAffinity.EDT);
     }
 
     @Subscribe
@@ -89,6 +90,10 @@ public class PanelController {
 
     @Subscribe
     public void neuronsCreated(NeuronCreateEvent annoEvent) {
+        if (annoEvent instanceof NeuronLoadBatchEvent) {
+            // the neuron list is filled in once, when the workspace has loaded
+            return;
+        }
         Collection<TmNeuronMetadata> neurons = annoEvent.getNeurons();
         for (TmNeuronMetadata neuron : neurons) {
             wsNeuronList.addNeuronToModel(neuron);